@@ -0,0 +1,19 @@
+package com.meppy.expression;
+
+/**
+ * Specifies how a compiled {@link ByteCode} is executed.
+ */
+public enum Backend {
+    /** Indicates that the byte code is executed by the built-in interpreter. */
+    INTERPRETER,
+    /**
+     * Indicates that the byte code is translated to a tree of objects, which evaluate their children directly.
+     * Does not generate classes at runtime.
+     */
+    CLOSURE_TREE,
+    /**
+     * Indicates that the byte code is translated to a JVM class, which is then executed directly.
+     * Requires a Java runtime supporting hidden classes; otherwise the interpreter is used.
+     */
+    JVM_CLASS
+}
\ No newline at end of file
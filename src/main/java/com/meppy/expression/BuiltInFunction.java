@@ -0,0 +1,149 @@
+package com.meppy.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes a function implemented by {@link Functions}. This is the single list of the built-in functions,
+ * used by the evaluation context to check the number of arguments and invoke the functions and by the compiler
+ * to resolve, fold, reuse and specialize calls to these functions.
+ */
+final class BuiltInFunction {
+    private static final Map<String, BuiltInFunction> functions = new HashMap<>();
+
+    static {
+        // Name, required parameters, type of the returned numbers, kinds of the folded parameters, pure, implementation
+        add("now", 0, null, null, false, (f, p) -> f.now());
+        add("e", 0, Double.class, "", true, (f, p) -> f.e());
+        add("pi", 0, Double.class, "", true, (f, p) -> f.pi());
+        add("today", 0, null, null, false, (f, p) -> f.today());
+        add("abs", 1, Double.class, "D", true, (f, p) -> f.abs(f.cdbl(p[0])));
+        add("asc", 1, Integer.class, "S", true, (f, p) -> f.asc(f.cstr(p[0])));
+        add("atn", 1, Double.class, "D", true, (f, p) -> f.atn(f.cdbl(p[0])));
+        add("chr", 1, null, "D", true, (f, p) -> f.chr(f.cint(p[0])));
+        add("cbool", 1, null, null, true, (f, p) -> f.cbool(p[0]));
+        add("cdate", 1, null, null, false, (f, p) -> f.cdate(p[0]));
+        add("cdbl", 1, Double.class, null, true, (f, p) -> f.cdbl(p[0]));
+        add("cint", 1, Integer.class, null, true, (f, p) -> f.cint(p[0]));
+        add("clong", 1, Long.class, null, true, (f, p) -> f.clong(p[0]));
+        add("csng", 1, null, null, true, (f, p) -> f.csng(p[0]));
+        add("cstr", 1, null, null, true, (f, p) -> f.cstr(p[0]));
+        add("cos", 1, Double.class, "D", true, (f, p) -> f.cos(f.cdbl(p[0])));
+        add("acos", 1, Double.class, "D", true, (f, p) -> f.acos(f.cdbl(p[0])));
+        add("exp", 1, Double.class, "D", true, (f, p) -> f.exp(f.cdbl(p[0])));
+        add("int", 1, Integer.class, "D", true, (f, p) -> f.integer(f.cdbl(p[0])));
+        add("isNull", 1, null, "A", true, (f, p) -> f.isNull(p[0]));
+        add("isNumeric", 1, null, null, true, (f, p) -> f.isNumeric(p[0]));
+        add("lcase", 1, null, null, true, (f, p) -> f.lcase(f.cstr(p[0])));
+        add("len", 1, Integer.class, "S", true, (f, p) -> f.len(f.cstr(p[0])));
+        add("log", 1, Double.class, "D", true, (f, p) -> f.log(f.cdbl(p[0])));
+        add("pow", 1, Double.class, "DD", true, (f, p) -> f.pow(f.cdbl(p[0]), p.length > 1 ? f.cdbl(p[1]) : 2));
+        add("rnd", 1, Double.class, null, false, (f, p) -> f.rnd(f.cint(p[0])));
+        add("sgn", 1, Double.class, "D", true, (f, p) -> f.sgn(f.cdbl(p[0])));
+        add("sin", 1, Double.class, "D", true, (f, p) -> f.sin(f.cdbl(p[0])));
+        add("asin", 1, Double.class, "D", true, (f, p) -> f.asin(f.cdbl(p[0])));
+        add("space", 1, null, "D", true, (f, p) -> f.space(f.cint(p[0])));
+        add("sqr", 1, Double.class, "D", true, (f, p) -> f.sqr(f.cdbl(p[0])));
+        add("sqrt", 1, Double.class, "D", true, (f, p) -> f.sqrt(f.cdbl(p[0])));
+        add("str", 1, null, null, true, (f, p) -> f.str(f.cdbl(p[0])));
+        add("strReverse", 1, null, "S", true, (f, p) -> f.strReverse(f.cstr(p[0])));
+        add("tan", 1, Double.class, "D", true, (f, p) -> f.tan(f.cdbl(p[0])));
+        add("trim", 1, null, "S", true, (f, p) -> f.trim(f.cstr(p[0])));
+        add("ucase", 1, null, null, true, (f, p) -> f.ucase(f.cstr(p[0])));
+        add("typeOf", 1, null, null, true, (f, p) -> f.typeOf(p[0]));
+        add("round", 1, Double.class, "D", true, (f, p) -> f.round(f.cdbl(p[0])));
+        add("inStr", 2, Integer.class, "SS", true, (f, p) -> f.inStr(f.cstr(p[0]), f.cstr(p[1])));
+        add("inStrRev", 2, Integer.class, "SS", true, (f, p) -> f.inStrRev(f.cstr(p[0]), f.cstr(p[1])));
+        add("left", 2, null, "SD", true, (f, p) -> f.left(f.cstr(p[0]), f.cint(p[1])));
+        add("right", 2, null, "SD", true, (f, p) -> f.right(f.cstr(p[0]), f.cint(p[1])));
+        add("strComp", 2, Integer.class, "SS", true, (f, p) -> f.strComp(f.cstr(p[0]), f.cstr(p[1])));
+        add("string", 2, null, "DD", true, (f, p) -> f.string(f.cint(p[0]), f.cint(p[1])));
+        add("min", 2, Double.class, "DD", true, (f, p) -> Math.min(f.cdbl(p[0]), f.cdbl(p[1])));
+        add("max", 2, Double.class, "DD", true, (f, p) -> Math.max(f.cdbl(p[0]), f.cdbl(p[1])));
+        add("iif", 3, null, null, true, (f, p) -> f.iif(f.cbool(p[0]), p[1], p[2]));
+        add("mid", 3, null, "SDD", true, (f, p) -> f.mid(f.cstr(p[0]), f.cint(p[1]), f.cint(p[2])));
+        add("replace", 3, null, "SSS", true, (f, p) -> f.replace(f.cstr(p[0]), f.cstr(p[1]), f.cstr(p[2])));
+    }
+
+    private final String name;
+    private final int paramCount;
+    private final Class<?> resultType;
+    private final String foldedParameters;
+    private final boolean pure;
+    private final Implementation implementation;
+
+    private BuiltInFunction(String name, int paramCount, Class<?> resultType, String foldedParameters, boolean pure, Implementation implementation) {
+        this.name = name;
+        this.paramCount = paramCount;
+        this.resultType = resultType;
+        this.foldedParameters = foldedParameters;
+        this.pure = pure;
+        this.implementation = implementation;
+    }
+
+    private static void add(String name, int paramCount, Class<?> resultType, String foldedParameters, boolean pure, Implementation implementation) {
+        functions.put(name, new BuiltInFunction(name, paramCount, resultType, foldedParameters, pure, implementation));
+    }
+
+    /**
+     * Gets the built-in function with the specified name, or null, if there is no such function.
+     */
+    static BuiltInFunction get(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Gets the name of the function.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of the required parameters, excluding the optional ones.
+     */
+    int getParamCount() {
+        return paramCount;
+    }
+
+    /**
+     * Gets the type of the numbers returned by the function, or null, if the function does not return numbers
+     * of a single type.
+     */
+    Class<?> getResultType() {
+        return resultType;
+    }
+
+    /**
+     * Gets the kinds of the parameters of the function, if its calls can be computed during compilation,
+     * or null otherwise: 'D' for numbers, 'S' for strings and 'A' for values of any type. Calls with arguments
+     * of other kinds are converted through the locale of the evaluation context, so they are not folded.
+     */
+    String getFoldedParameters() {
+        return foldedParameters;
+    }
+
+    /**
+     * Gets a value indicating whether the function produces the same result for the same arguments and
+     * returns immutable values, so that its repeated calls can be replaced by the result of the first one.
+     */
+    boolean isPure() {
+        return pure;
+    }
+
+    /**
+     * Invokes the function through the specified implementation of the built-in functions. The number of the
+     * specified arguments must not be less than the number of the required parameters.
+     */
+    Object invoke(Functions functions, Object[] arguments) {
+        return implementation.invoke(functions, arguments);
+    }
+
+    /**
+     * Calls the method of {@link Functions} implementing a built-in function, converting the arguments
+     * to the types of its parameters.
+     */
+    private interface Implementation {
+        Object invoke(Functions f, Object[] p);
+    }
+}
\ No newline at end of file
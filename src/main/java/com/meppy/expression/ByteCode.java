@@ -2,13 +2,14 @@ package com.meppy.expression;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Deque;
-import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.ArrayDeque;
 
@@ -16,24 +17,40 @@ import java.util.ArrayDeque;
  * Encapsulates the compiled result of a parsed tree and performs evaluations against that compiled result in various contexts.
  */
 public final class ByteCode {
+    /**
+     * Specifies the kind of an operand following an operation within the code.
+     */
+    enum Operand {
+        /** Indicates an integer value stored directly in the code. */
+        INT,
+        /** Indicates an index within the pool with floating point literals. */
+        DOUBLE,
+        /** Indicates an index within the pool with object constants. */
+        CONSTANT,
+        /** Indicates an operation within the sequence replaced by a superinstruction. */
+        OP,
+    }
+
     /**
      * Specifies the type of an operation or data.
      */
-    private enum Op {
+    enum Op {
         /** Indicates a text. */
-        TEXT,
+        TEXT(Operand.CONSTANT),
         /** Indicates a floating point number. */
-        FLOAT,
+        FLOAT(Operand.DOUBLE),
         /** Indicates an integer number. */
-        INT,
+        INT(Operand.INT),
         /** Indicates a string literal within an expression. */
-        STRING,
+        STRING(Operand.CONSTANT),
         /** Indicates the 'null' keyword. */
         NULL,
+        /** Indicates a value computed during compilation, which is not a literal. */
+        VALUE(Operand.CONSTANT),
         /** Indicates a color literal. */
-        COLOR,
-        /** Indicates a quantity expression. */
-        QUANTITY,
+        COLOR(Operand.CONSTANT),
+        /** Indicates a quantity expression. The unit is followed by the {@link #INT} or {@link #FLOAT} value. */
+        QUANTITY(Operand.CONSTANT),
         /** Indicates an addition operation. */
         ADD,
         /** Indicates a subtraction operation. */
@@ -72,24 +89,197 @@ public final class ByteCode {
         CONDITIONAL_AND,
         /** Indicates a conditional or operation. */
         CONDITIONAL_OR,
-        /** Indicates a member access operation. */
-        DOT,
+        /** Indicates a member access operation. The operand is the number of elements in the chain. */
+        DOT(Operand.INT),
         /** Indicates a formatting specifier. */
-        FORMAT,
+        FORMAT(Operand.CONSTANT),
         /** Indicates a culture specifier. */
-        CULTURE,
+        CULTURE(Operand.CONSTANT),
         /** Indicates a formatting operation. */
         FORMATTING,
         /** Indicates a discard operation. */
         DISCARD,
-        /** Indicates a function call. */
-        FUNCTION_CALL,
+        /** Indicates a function call. The operands are the number of parameters and the name of the function. */
+        FUNCTION_CALL(Operand.INT, Operand.CONSTANT),
         /** Indicates an identifier. */
-        IDENTIFIER,
+        IDENTIFIER(Operand.CONSTANT),
         /** Indicates an identifier representing an object or a member reference. */
-        OBJECT_OR_MEMBER,
+        OBJECT_OR_MEMBER(Operand.CONSTANT),
+        /** Indicates an identifier declared by the {@link VariableSchema} the code is bound to. */
+        VARIABLE(Operand.CONSTANT),
         /** Indicates expression separator. */
         EXPRESSION_SEPARATOR,
+        /**
+         * Indicates a jump to the position specified by the operand if the value at the top of the stack is false.
+         * The value is kept in the stack as the result of the {@link #CONDITIONAL_AND} operation, which is skipped.
+         */
+        JUMP_IF_FALSE(Operand.INT),
+        /**
+         * Indicates a jump to the position specified by the operand if the value at the top of the stack is true.
+         * The value is kept in the stack as the result of the {@link #CONDITIONAL_OR} operation, which is skipped.
+         */
+        JUMP_IF_TRUE(Operand.INT),
+        /** Indicates an unconditional jump to the position specified by the operand. */
+        JUMP(Operand.INT),
+        /**
+         * Indicates a jump to the position specified by the operand if the value at the top of the stack, converted
+         * to boolean, is false. The value is removed from the stack. Used to select a branch of the iif function.
+         */
+        JUMP_UNLESS(Operand.INT),
+        /**
+         * Indicates a lazily evaluated argument of a function. The code of the argument follows the operation and
+         * ends at the position specified by the operand. A {@link LazyArgument} evaluating that code is pushed instead.
+         */
+        LAZY_ARGUMENT(Operand.INT),
+        /**
+         * Indicates that the value at the top of the stack is kept in the slot specified by the operand,
+         * so that a repeated sub-expression is not evaluated again. The value remains in the stack.
+         */
+        STORE(Operand.INT),
+        /** Indicates the value kept in the slot specified by the operand by a preceding {@link #STORE} operation. */
+        LOAD(Operand.INT),
+
+        // Operations specialized for the types of their operands, inferred during compilation.
+        // The types are verified during evaluation and the generic operation is performed if they do not match.
+        /** Indicates an addition operation on int operands. */
+        ADD_II(ADD, Frame.INT),
+        /** Indicates a subtraction operation on int operands. */
+        SUB_II(SUB, Frame.INT),
+        /** Indicates a multiplication operation on int operands. */
+        MUL_II(MUL, Frame.INT),
+        /** Indicates a division operation on int operands. */
+        DIV_II(DIV, Frame.INT),
+        /** Indicates an integer division operation on int operands. */
+        MOD_II(MOD, Frame.INT),
+        /** Indicates a less than comparison operation on int operands. */
+        LESS_II(LESS, Frame.INT),
+        /** Indicates a greater than comparison operation on int operands. */
+        GREATER_II(GREATER, Frame.INT),
+        /** Indicates an equality comparison operation on int operands. */
+        EQUAL_II(EQUAL, Frame.INT),
+        /** Indicates a not equality comparison operation on int operands. */
+        NOT_EQUAL_II(NOT_EQUAL, Frame.INT),
+        /** Indicates a less than or equal comparison operation on int operands. */
+        LESS_OR_EQUAL_II(LESS_OR_EQUAL, Frame.INT),
+        /** Indicates a greater than or equal comparison operation on int operands. */
+        GREATER_OR_EQUAL_II(GREATER_OR_EQUAL, Frame.INT),
+        /** Indicates an addition operation on long operands. */
+        ADD_LL(ADD, Frame.LONG),
+        /** Indicates a subtraction operation on long operands. */
+        SUB_LL(SUB, Frame.LONG),
+        /** Indicates a multiplication operation on long operands. */
+        MUL_LL(MUL, Frame.LONG),
+        /** Indicates a division operation on long operands. */
+        DIV_LL(DIV, Frame.LONG),
+        /** Indicates an integer division operation on long operands. */
+        MOD_LL(MOD, Frame.LONG),
+        /** Indicates a less than comparison operation on long operands. */
+        LESS_LL(LESS, Frame.LONG),
+        /** Indicates a greater than comparison operation on long operands. */
+        GREATER_LL(GREATER, Frame.LONG),
+        /** Indicates an equality comparison operation on long operands. */
+        EQUAL_LL(EQUAL, Frame.LONG),
+        /** Indicates a not equality comparison operation on long operands. */
+        NOT_EQUAL_LL(NOT_EQUAL, Frame.LONG),
+        /** Indicates a less than or equal comparison operation on long operands. */
+        LESS_OR_EQUAL_LL(LESS_OR_EQUAL, Frame.LONG),
+        /** Indicates a greater than or equal comparison operation on long operands. */
+        GREATER_OR_EQUAL_LL(GREATER_OR_EQUAL, Frame.LONG),
+        /** Indicates an addition operation on double operands. */
+        ADD_DD(ADD, Frame.DOUBLE),
+        /** Indicates a subtraction operation on double operands. */
+        SUB_DD(SUB, Frame.DOUBLE),
+        /** Indicates a multiplication operation on double operands. */
+        MUL_DD(MUL, Frame.DOUBLE),
+        /** Indicates a division operation on double operands. */
+        DIV_DD(DIV, Frame.DOUBLE),
+        /** Indicates an integer division operation on double operands. */
+        MOD_DD(MOD, Frame.DOUBLE),
+        /** Indicates a less than comparison operation on double operands. */
+        LESS_DD(LESS, Frame.DOUBLE),
+        /** Indicates a greater than comparison operation on double operands. */
+        GREATER_DD(GREATER, Frame.DOUBLE),
+        /** Indicates an equality comparison operation on double operands. */
+        EQUAL_DD(EQUAL, Frame.DOUBLE),
+        /** Indicates a not equality comparison operation on double operands. */
+        NOT_EQUAL_DD(NOT_EQUAL, Frame.DOUBLE),
+        /** Indicates a less than or equal comparison operation on double operands. */
+        LESS_OR_EQUAL_DD(LESS_OR_EQUAL, Frame.DOUBLE),
+        /** Indicates a greater than or equal comparison operation on double operands. */
+        GREATER_OR_EQUAL_DD(GREATER_OR_EQUAL, Frame.DOUBLE),
+        /** Indicates the raise to power operation on numeric operands. */
+        POWER_DD(POWER, Frame.DOUBLE),
+
+        // Superinstructions, which replace frequent sequences of operations. They are produced by the
+        // PeepholeOptimizer and keep the operands of the replaced operations at their original positions.
+        /** Indicates an {@link #INT} operation followed by a binary operation. */
+        INT_OPERATION(Operand.INT, Operand.OP),
+        /** Indicates a {@link #FLOAT} operation followed by a binary operation. */
+        FLOAT_OPERATION(Operand.DOUBLE, Operand.OP),
+        /** Indicates an {@link #IDENTIFIER} operation followed by an {@link #INT} and a binary operation. */
+        IDENTIFIER_INT_OPERATION(Operand.CONSTANT, Operand.OP, Operand.INT, Operand.OP),
+        /** Indicates an {@link #IDENTIFIER} operation followed by a {@link #FLOAT} and a binary operation. */
+        IDENTIFIER_FLOAT_OPERATION(Operand.CONSTANT, Operand.OP, Operand.DOUBLE, Operand.OP),
+        /** Indicates two {@link #IDENTIFIER} operations followed by a binary operation. */
+        IDENTIFIER_IDENTIFIER_OPERATION(Operand.CONSTANT, Operand.OP, Operand.CONSTANT, Operand.OP),
+        /** Indicates two {@link #OBJECT_OR_MEMBER} operations followed by a {@link #DOT} operation on them. */
+        MEMBER(Operand.CONSTANT, Operand.OP, Operand.CONSTANT, Operand.OP, Operand.INT);
+
+        /**
+         * The kinds of the operands following the operation within the code.
+         */
+        final Operand[] operands;
+
+        /**
+         * The generic operation, if this operation is specialized for the type of its operands, or null otherwise.
+         */
+        private final Op generic;
+
+        /**
+         * The {@link Frame} tag of the operands of a specialized operation, after promotion.
+         */
+        final byte type;
+
+        Op(Operand... operands) {
+            this.operands = operands;
+            this.generic = null;
+            this.type = Frame.OBJECT;
+        }
+
+        Op(Op generic, byte type) {
+            this.operands = new Operand[0];
+            this.generic = generic;
+            this.type = type;
+        }
+
+        /**
+         * Gets the generic operation, which this operation is specialized from, or the operation itself.
+         */
+        Op getGeneric() {
+            return generic != null ? generic : this;
+        }
+
+        /**
+         * Gets the number of code elements occupied by the operation and its operands.
+         */
+        int getSize() {
+            return 1 + operands.length;
+        }
+    }
+
+    /**
+     * All operations indexed by their ordinal, as stored within the code.
+     */
+    static final Op[] OPS = Op.values();
+
+    /**
+     * Represents an alternative implementation of {@link ByteCode#evaluate}, produced by one of the compilation backends.
+     */
+    interface Evaluator {
+        /**
+         * Evaluates the compiled code in the specified context.
+         */
+        Object evaluate(EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException;
     }
 
     /**
@@ -102,87 +292,120 @@ public final class ByteCode {
         }
 
         /**
-         * Contains the priority of the types. Objects are promoted to types
-         * of higher priority when performing operation on operands of different types.
+         * The types of the operands, which can be promoted to each other, by their identifiers. The identifiers
+         * follow the priority of the types. Objects are promoted to types of higher priority when performing
+         * operation on operands of different types.
+         */
+        private static final Class<?>[] TYPES = {
+            Boolean.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, Date.class, String.class
+        };
+
+        private static final int BOOLEAN = 0;
+        private static final int BYTE = 1;
+        private static final int SHORT = 2;
+        private static final int INTEGER = 3;
+        private static final int LONG = 4;
+        private static final int FLOAT = 5;
+        private static final int DOUBLE = 6;
+        private static final int DATE = 7;
+        private static final int STRING = 8;
+
+        /**
+         * The binary operations by the identifiers of the types of their operands and the operation, as indexed by
+         * {@link #indexOf}, or null for the operations, which cannot be applied to the promoted operands.
          */
-        private static final Dictionary<Class<?>, Integer> typePriority;
+        private static final Operation[] OPERATIONS = new Operation[TYPES.length * TYPES.length * OPS.length];
 
         static {
-            typePriority = new Hashtable<>();
-            typePriority.put(Boolean.class, -1);
-            typePriority.put(Byte.class, 1);
-            typePriority.put(Short.class, 2);
-            typePriority.put(Integer.class, 3);
-            typePriority.put(Long.class, 4);
-            typePriority.put(Float.class, 5);
-            typePriority.put(Double.class, 6);
-            typePriority.put(Date.class, 7);
-            typePriority.put(String.class, 8);
+            for (int x = 0; x < TYPES.length; x++) {
+                for (int y = 0; y < TYPES.length; y++) {
+                    for (Op op : OPS) {
+                        OPERATIONS[indexOf(x, y, op)] = createOperation(x, y, op);
+                    }
+                }
+            }
         }
 
         /**
-         * Promotes the specified value to the specified type.
+         * Performs a binary operation on operands of specific types, which are converted to the promoted type
+         * of the operation without being boxed.
          */
-        private static Object promoteValue(Object value, Class<?> type) {
-            if (type == value.getClass()) {
-                return value;
-            }
+        private interface Operation {
+            Object apply(Object a, Object b);
+        }
 
-            if (value instanceof Boolean) {
-                return promoteBoolean((Boolean)value, type);
-            } else if (value instanceof Number) {
-                return promoteNumber((Number)value, type);
-            } else if (value instanceof Date) {
-                return promoteDate((Date)value, type);
-            }
+        private static int indexOf(int x, int y, Op op) {
+            return (x * TYPES.length + y) * OPS.length + op.ordinal();
+        }
 
-            throw new EvaluationException(String.format("Cannot convert value %1$s to type %2$s.", value, type.getName()));
-        }
-
-        private static Object promoteBoolean(Boolean value, Class<?> type) {
-            int intValue = value ? 1 : 0;
-            if (type == Integer.class) {
-                return intValue;
-            } else if (type == Long.class) {
-                return (long)intValue;
-            } else if (type == Float.class) {
-                return (float)intValue;
-            } else if (type == Double.class) {
-                return (double)intValue;
-            } else if (type == Date.class) {
-                throw new EvaluationException(String.format("Cannot convert boolean value %1$b to type Date.", value));
-            } else if (type == String.class) {
-                return value.toString();
+        /**
+         * Gets the identifier of the specified type, or -1 if the operations cannot be applied to its objects.
+         */
+        private static int getTypeId(Class<?> type) {
+            for (int i = 0; i < TYPES.length; i++) {
+                if (TYPES[i] == type) {
+                    return i;
+                }
             }
 
-            throw new EvaluationException(String.format("Cannot convert boolean value %1$b to type %2$s.", value, type.getName()));
-        }
-
-        private static Object promoteNumber(Number value, Class<?> type) {
-            if (type == Integer.class) {
-                return value.intValue();
-            } else if (type == Long.class) {
-                return value.longValue();
-            } else if (type == Float.class) {
-                return value.floatValue();
-            } else if (type == Double.class) {
-                return value.doubleValue();
-            } else if (type == Date.class) {
-                return new Date(value.longValue());
-            } else if (type == String.class) {
-                return value.toString();
+            return -1;
+        }
+
+        /**
+         * Gets the identifier of the type, which the operands of the specified types are promoted to.
+         */
+        private static int promote(int x, int y) {
+            int type = Math.max(x, y);
+            if (type == BYTE || type == SHORT) {
+                // Automatically promote byte and short to int; Binary operations between bytes and shorts in Java produce ints anyway
+                return INTEGER;
             }
 
-            throw new EvaluationException(String.format("Cannot convert numeric value %1$s to type %2$s.", value, type.getName()));
+            return type;
         }
 
-        private static Object promoteDate(Date value, Class<?> type) {
-            // Date can only be promoted to string
-            if (type == String.class) {
-                return value.toString();
+        private static Operation createOperation(int x, int y, Op op) {
+            switch (promote(x, y)) {
+                case BOOLEAN:
+                    return createBooleanOperation(op);
+                case INTEGER:
+                    return createIntegerOperation(op);
+                case LONG:
+                    return createLongOperation(op);
+                case FLOAT:
+                    return createFloatOperation(op);
+                case DOUBLE:
+                    return createDoubleOperation(op);
+                case DATE:
+                    if (x == BOOLEAN || y == BOOLEAN) {
+                        return (a, b) -> {
+                            throw new EvaluationException(String.format("Cannot convert boolean value %1$b to type Date.", a instanceof Boolean ? a : b));
+                        };
+                    }
+                    return createDateOperation(op);
+                default:
+                    return createStringOperation(op);
             }
+        }
+
+        private static int intValue(Object value) {
+            return value instanceof Boolean ? ((Boolean) value ? 1 : 0) : ((Number) value).intValue();
+        }
+
+        private static long longValue(Object value) {
+            return value instanceof Boolean ? ((Boolean) value ? 1 : 0) : ((Number) value).longValue();
+        }
 
-            throw new EvaluationException(String.format("Cannot convert Date value %1$s to type %2$s.", value, type.getName()));
+        private static float floatValue(Object value) {
+            return value instanceof Boolean ? ((Boolean) value ? 1 : 0) : ((Number) value).floatValue();
+        }
+
+        private static double doubleValue(Object value) {
+            return value instanceof Boolean ? ((Boolean) value ? 1 : 0) : ((Number) value).doubleValue();
+        }
+
+        private static long timeValue(Object value) {
+            return value instanceof Date ? ((Date) value).getTime() : ((Number) value).longValue();
         }
 
         /**
@@ -231,491 +454,1501 @@ public final class ByteCode {
                 }
             }
 
-            Class<?> aClass = a.getClass();
-            Class<?> bClass = b.getClass();
-            Integer aPriority = typePriority.get(aClass);
-            Integer bPriority = typePriority.get(bClass);
-
-            if (aPriority == null || bPriority == null) {
-                throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, aClass.getName(), bClass.getName()));
-            }
-
-            Class<?> greater = aClass;
-            if (bPriority > aPriority) {
-                greater = bClass;
-            }
-
-            int greaterPriority = Math.max(aPriority, bPriority);
-            if (greaterPriority == typePriority.get(Byte.class) || greaterPriority == typePriority.get(Short.class)) {
-                // Automatically promote byte and short to int; Binary operations between bytes and shorts in Java produce ints anyway
-                greater = Integer.class;
+            int x = getTypeId(a.getClass());
+            int y = getTypeId(b.getClass());
+            if (x < 0 || y < 0) {
+                throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
             }
 
-            // Promote both objects to the greater type
-            a = promoteValue(a, greater);
-            b = promoteValue(b, greater);
-
-            if (greater == Boolean.class) {
-                return apply((Boolean) a, (Boolean) b, op);
-            } else if (greater == Integer.class) {
-                return apply((Integer) a, (Integer) b, op);
-            } else if (greater == Long.class) {
-                return apply((Long) a, (Long) b, op);
-            } else if (greater == Float.class) {
-                return apply((Float) a, (Float) b, op);
-            } else if (greater == Double.class) {
-                return apply((Double) a, (Double) b, op);
-            } else if (greater == Date.class) {
-                return apply((Date) a, (Date) b, op);
-            } else if (greater == String.class) {
-                return apply((String) a, (String) b, op);
+            Operation operation = OPERATIONS[indexOf(x, y, op)];
+            if (operation == null) {
+                String type = TYPES[promote(x, y)].getName();
+                throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, type, type));
             }
 
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, aClass.getName(), bClass.getName()));
+            return operation.apply(a, b);
         }
 
-        /**
-         * Performs the specified operation on the specified arguments.
-         */
-        private static Object apply(Boolean a, Boolean b, Op op) {
+        private static Operation createBooleanOperation(Op op) {
             switch (op) {
                 case CONDITIONAL_AND:
-                    return a && b;
+                    return (a, b) -> (Boolean) a && (Boolean) b;
                 case CONDITIONAL_OR:
-                    return a || b;
+                    return (a, b) -> (Boolean) a || (Boolean) b;
                 case LESS:
-                    return a.compareTo(b) < 0;
+                    return (a, b) -> Boolean.compare((Boolean) a, (Boolean) b) < 0;
                 case GREATER:
-                    return a.compareTo(b) > 0;
+                    return (a, b) -> Boolean.compare((Boolean) a, (Boolean) b) > 0;
                 case EQUAL:
-                    return a.compareTo(b) == 0;
+                    return (a, b) -> Boolean.compare((Boolean) a, (Boolean) b) == 0;
                 case NOT_EQUAL:
-                    return a.compareTo(b) != 0;
+                    return (a, b) -> Boolean.compare((Boolean) a, (Boolean) b) != 0;
                 case LESS_OR_EQUAL:
-                    return a.compareTo(b) <= 0;
+                    return (a, b) -> Boolean.compare((Boolean) a, (Boolean) b) <= 0;
                 case GREATER_OR_EQUAL:
-                    return a.compareTo(b) >= 0;
+                    return (a, b) -> Boolean.compare((Boolean) a, (Boolean) b) >= 0;
                 default:
-                    break;
+                    return null;
             }
-
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
         }
 
-        /**
-         * Performs the specified operation on the specified arguments.
-         */
-        private static Object apply(Integer a, Integer b, Op op) {
+        private static Operation createIntegerOperation(Op op) {
             switch (op) {
                 case ADD:
-                    return a + b;
+                    return (a, b) -> intValue(a) + intValue(b);
                 case SUB:
-                    return a - b;
+                    return (a, b) -> intValue(a) - intValue(b);
                 case MUL:
-                    return a * b;
+                    return (a, b) -> intValue(a) * intValue(b);
                 case DIV:
-                    return a / b;
+                    return (a, b) -> intValue(a) / intValue(b);
                 case MOD:
-                    return a % b;
+                    return (a, b) -> intValue(a) % intValue(b);
                 case POWER:
-                    return Math.pow(a, b);
+                    return (a, b) -> Math.pow(intValue(a), intValue(b));
                 case LESS:
-                    return a.compareTo(b) < 0;
+                    return (a, b) -> intValue(a) < intValue(b);
                 case GREATER:
-                    return a.compareTo(b) > 0;
+                    return (a, b) -> intValue(a) > intValue(b);
                 case EQUAL:
-                    return a.compareTo(b) == 0;
+                    return (a, b) -> intValue(a) == intValue(b);
                 case NOT_EQUAL:
-                    return a.compareTo(b) != 0;
+                    return (a, b) -> intValue(a) != intValue(b);
                 case LESS_OR_EQUAL:
-                    return a.compareTo(b) <= 0;
+                    return (a, b) -> intValue(a) <= intValue(b);
                 case GREATER_OR_EQUAL:
-                    return a.compareTo(b) >= 0;
+                    return (a, b) -> intValue(a) >= intValue(b);
                 case AND:
-                    return a & b;
+                    return (a, b) -> intValue(a) & intValue(b);
                 case XOR:
-                    return a ^ b;
+                    return (a, b) -> intValue(a) ^ intValue(b);
                 case OR:
-                    return a | b;
+                    return (a, b) -> intValue(a) | intValue(b);
                 default:
-                    break;
+                    return null;
             }
-
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
         }
 
-        /**
-         * Performs the specified operation on the specified arguments.
-         */
-        private static Object apply(Long a, Long b, Op op) {
+        private static Operation createLongOperation(Op op) {
             switch (op) {
                 case ADD:
-                    return a + b;
+                    return (a, b) -> longValue(a) + longValue(b);
                 case SUB:
-                    return a - b;
+                    return (a, b) -> longValue(a) - longValue(b);
                 case MUL:
-                    return a * b;
+                    return (a, b) -> longValue(a) * longValue(b);
                 case DIV:
-                    return a / b;
+                    return (a, b) -> longValue(a) / longValue(b);
                 case MOD:
-                    return a % b;
+                    return (a, b) -> longValue(a) % longValue(b);
                 case POWER:
-                    return Math.pow(a, b);
+                    return (a, b) -> Math.pow(longValue(a), longValue(b));
                 case LESS:
-                    return a.compareTo(b) < 0;
+                    return (a, b) -> longValue(a) < longValue(b);
                 case GREATER:
-                    return a.compareTo(b) > 0;
+                    return (a, b) -> longValue(a) > longValue(b);
                 case EQUAL:
-                    return a.compareTo(b) == 0;
+                    return (a, b) -> longValue(a) == longValue(b);
                 case NOT_EQUAL:
-                    return a.compareTo(b) != 0;
+                    return (a, b) -> longValue(a) != longValue(b);
                 case LESS_OR_EQUAL:
-                    return a.compareTo(b) <= 0;
+                    return (a, b) -> longValue(a) <= longValue(b);
                 case GREATER_OR_EQUAL:
-                    return a.compareTo(b) >= 0;
+                    return (a, b) -> longValue(a) >= longValue(b);
                 case AND:
-                    return a & b;
+                    return (a, b) -> longValue(a) & longValue(b);
                 case XOR:
-                    return a ^ b;
+                    return (a, b) -> longValue(a) ^ longValue(b);
                 case OR:
-                    return a | b;
+                    return (a, b) -> longValue(a) | longValue(b);
                 default:
-                    break;
+                    return null;
             }
-
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
         }
 
         /**
-         * Performs the specified operation on the specified arguments.
+         * Creates the operations on floats. The floats are compared the same way as by {@link Float#compareTo}.
          */
-        private static Object apply(Float a, Float b, Op op) {
+        private static Operation createFloatOperation(Op op) {
             switch (op) {
                 case ADD:
-                    return a + b;
+                    return (a, b) -> floatValue(a) + floatValue(b);
                 case SUB:
-                    return a - b;
+                    return (a, b) -> floatValue(a) - floatValue(b);
                 case MUL:
-                    return a * b;
+                    return (a, b) -> floatValue(a) * floatValue(b);
                 case DIV:
-                    return a / b;
+                    return (a, b) -> floatValue(a) / floatValue(b);
                 case MOD:
-                    return a % b;
+                    return (a, b) -> floatValue(a) % floatValue(b);
                 case POWER:
-                    return Math.pow(a, b);
+                    return (a, b) -> Math.pow(floatValue(a), floatValue(b));
                 case LESS:
-                    return a.compareTo(b) < 0;
+                    return (a, b) -> Float.compare(floatValue(a), floatValue(b)) < 0;
                 case GREATER:
-                    return a.compareTo(b) > 0;
+                    return (a, b) -> Float.compare(floatValue(a), floatValue(b)) > 0;
                 case EQUAL:
-                    return a.compareTo(b) == 0;
+                    return (a, b) -> Float.compare(floatValue(a), floatValue(b)) == 0;
                 case NOT_EQUAL:
-                    return a.compareTo(b) != 0;
+                    return (a, b) -> Float.compare(floatValue(a), floatValue(b)) != 0;
                 case LESS_OR_EQUAL:
-                    return a.compareTo(b) <= 0;
+                    return (a, b) -> Float.compare(floatValue(a), floatValue(b)) <= 0;
                 case GREATER_OR_EQUAL:
-                    return a.compareTo(b) >= 0;
+                    return (a, b) -> Float.compare(floatValue(a), floatValue(b)) >= 0;
                 default:
-                    break;
+                    return null;
             }
-
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
         }
 
         /**
-         * Performs the specified operation on the specified arguments.
+         * Creates the operations on doubles. The doubles are compared the same way as by {@link Double#compareTo}.
          */
-        private static Object apply(Double a, Double b, Op op) {
+        private static Operation createDoubleOperation(Op op) {
             switch (op) {
                 case ADD:
-                    return a + b;
+                    return (a, b) -> doubleValue(a) + doubleValue(b);
                 case SUB:
-                    return a - b;
+                    return (a, b) -> doubleValue(a) - doubleValue(b);
                 case MUL:
-                    return a * b;
+                    return (a, b) -> doubleValue(a) * doubleValue(b);
                 case DIV:
-                    return a / b;
+                    return (a, b) -> doubleValue(a) / doubleValue(b);
                 case MOD:
-                    return a % b;
+                    return (a, b) -> doubleValue(a) % doubleValue(b);
                 case POWER:
-                    return Math.pow(a, b);
+                    return (a, b) -> Math.pow(doubleValue(a), doubleValue(b));
                 case LESS:
-                    return a.compareTo(b) < 0;
+                    return (a, b) -> Double.compare(doubleValue(a), doubleValue(b)) < 0;
                 case GREATER:
-                    return a.compareTo(b) > 0;
+                    return (a, b) -> Double.compare(doubleValue(a), doubleValue(b)) > 0;
                 case EQUAL:
-                    return a.compareTo(b) == 0;
+                    return (a, b) -> Double.compare(doubleValue(a), doubleValue(b)) == 0;
                 case NOT_EQUAL:
-                    return a.compareTo(b) != 0;
+                    return (a, b) -> Double.compare(doubleValue(a), doubleValue(b)) != 0;
                 case LESS_OR_EQUAL:
-                    return a.compareTo(b) <= 0;
+                    return (a, b) -> Double.compare(doubleValue(a), doubleValue(b)) <= 0;
                 case GREATER_OR_EQUAL:
-                    return a.compareTo(b) >= 0;
+                    return (a, b) -> Double.compare(doubleValue(a), doubleValue(b)) >= 0;
                 default:
-                    break;
+                    return null;
             }
-
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
         }
 
         /**
-         * Performs the specified operation on the specified arguments.
+         * Creates the operations on dates. Numbers are promoted to dates with the same number of milliseconds.
          */
-        private static Object apply(Date a, Date b, Op op) {
+        private static Operation createDateOperation(Op op) {
             switch (op) {
                 case ADD:
-                    return new Date(a.getTime() + b.getTime());
+                    return (a, b) -> new Date(timeValue(a) + timeValue(b));
                 case SUB:
-                    return new Date(a.getTime() - b.getTime());
+                    return (a, b) -> new Date(timeValue(a) - timeValue(b));
                 case LESS:
-                    return a.compareTo(b) < 0;
+                    return (a, b) -> timeValue(a) < timeValue(b);
                 case GREATER:
-                    return a.compareTo(b) > 0;
+                    return (a, b) -> timeValue(a) > timeValue(b);
                 case EQUAL:
-                    return a.compareTo(b) == 0;
+                    return (a, b) -> timeValue(a) == timeValue(b);
                 case NOT_EQUAL:
-                    return a.compareTo(b) != 0;
+                    return (a, b) -> timeValue(a) != timeValue(b);
                 case LESS_OR_EQUAL:
-                    return a.compareTo(b) <= 0;
+                    return (a, b) -> timeValue(a) <= timeValue(b);
                 case GREATER_OR_EQUAL:
-                    return a.compareTo(b) >= 0;
+                    return (a, b) -> timeValue(a) >= timeValue(b);
                 default:
-                    break;
+                    return null;
             }
-
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
         }
 
         /**
-         * Performs the specified operation on the specified arguments.
+         * Creates the operations on strings. Other objects are promoted to strings through {@link Object#toString}.
          */
-        private static Object apply(String a, String b, ByteCode.Op op) {
+        private static Operation createStringOperation(Op op) {
             switch (op) {
                 case ADD:
-                    return a + b;
+                    return (a, b) -> a.toString() + b.toString();
                 case LESS:
-                    return a.compareTo(b) < 0;
+                    return (a, b) -> a.toString().compareTo(b.toString()) < 0;
                 case GREATER:
-                    return a.compareTo(b) > 0;
+                    return (a, b) -> a.toString().compareTo(b.toString()) > 0;
                 case EQUAL:
-                    return a.compareTo(b) == 0;
+                    return (a, b) -> a.toString().compareTo(b.toString()) == 0;
                 case NOT_EQUAL:
-                    return a.compareTo(b) != 0;
+                    return (a, b) -> a.toString().compareTo(b.toString()) != 0;
                 case LESS_OR_EQUAL:
-                    return a.compareTo(b) <= 0;
+                    return (a, b) -> a.toString().compareTo(b.toString()) <= 0;
                 case GREATER_OR_EQUAL:
-                    return a.compareTo(b) >= 0;
+                    return (a, b) -> a.toString().compareTo(b.toString()) >= 0;
                 default:
-                    break;
+                    return null;
             }
-
-            throw new EvaluationException(String.format(EXCEPTION_MESSAGE, op, a.getClass().getName(), b.getClass().getName()));
         }
     }
 
     /**
-     * The "byte" code.
+     * The evaluation stack of the interpreter.
+     * <p>
+     * Integral and floating point values are kept unboxed in separate lanes, next to the lane with objects,
+     * and the tag of each element indicates the lane holding its value. Operations on numbers are performed
+     * directly on the primitive lanes, so that intermediate results are not boxed. Numbers, which are evaluated
+     * from placeholders, also keep their boxed values in the lane with objects, so that they are not boxed again.
      */
-    private final List<Object> code;
+    static final class Frame {
+        /** The value is in the object lane. It might be a placeholder, which is not evaluated yet. */
+        static final byte OBJECT = 0;
+        /** The value is an int in the long lane. */
+        static final byte INT = 1;
+        /** The value is in the long lane. */
+        static final byte LONG = 2;
+        /** The value is in the double lane. */
+        static final byte DOUBLE = 3;
+        /**
+         * The value is a placeholder in the object lane, which is not evaluated yet and is shared with the slot
+         * specified by the long lane. The first occurrence consumed evaluates the value for all of them.
+         */
+        static final byte SHARED = 4;
 
-    /**
-     * A temporary object used during code generation.
-     */
-    private Deque<Token> stack;
+        private byte[] tags;
+        private Object[] objects;
+        private long[] longs;
+        private double[] doubles;
+        private int top;
 
-    /**
-     * Creates and returns an empty byte code. Evaluating empty byte code will produce null as a result.
-     * <p>
-     * Calling this method multiple times will return different instances.
-     * @return An empty instance of the ByteCode class.
-     */
-    public static ByteCode empty() {
-        return new ByteCode(null);
-    }
+        /**
+         * The values of the slots, kept in lanes the same way as the elements of the stack.
+         */
+        private byte[] slotTags;
+        private Object[] slotObjects;
+        private long[] slotLongs;
+        private double[] slotDoubles;
 
-    /**
-     * Initializes a new instance of the ByteCode class from the specified parse tree root.
-     */
-    ByteCode(ParseTreeNode root) {
-        code = new ArrayList<>();
-        stack = new ArrayDeque<>();
+        /**
+         * The arrays receiving the arguments of the calls to built-in functions, by the number of arguments.
+         */
+        private Object[][] arguments = new Object[0][];
 
-        // Build the byte code out of the specified root
-        if (root != null) {
-            buildCode(root);
+        /**
+         * Indicates whether the frame is used by an evaluation in progress.
+         */
+        private boolean busy;
+
+        Frame(int size, int slotCount) {
+            tags = new byte[size];
+            objects = new Object[size];
+            longs = new long[size];
+            doubles = new double[size];
+            allocateSlots(slotCount);
         }
-    }
 
-    /**
-     * Builds a byte code from the subtree defined by the specified tree node.
-     */
-    private void buildCode(ParseTreeNode node) {
-        Token t = node.getToken();
+        private void allocateSlots(int slotCount) {
+            slotTags = new byte[slotCount];
+            slotObjects = new Object[slotCount];
+            slotLongs = new long[slotCount];
+            slotDoubles = new double[slotCount];
+        }
 
-        if (!node.getChildren().isEmpty()) {
-            stack.push(t);
-            node.getChildren().forEach(this::buildCode);
-            stack.pop();
+        /**
+         * Prepares the frame for an evaluation with the specified maximum number of elements and number of slots.
+         */
+        void reset(int size, int slotCount) {
+            if (tags.length < size) {
+                tags = new byte[size];
+                objects = new Object[size];
+                longs = new long[size];
+                doubles = new double[size];
+            }
+            if (slotTags.length < slotCount) {
+                allocateSlots(slotCount);
+            }
+            top = 0;
         }
 
-        switch (t.getType()) {
-            case TEXT:
-                code.add(Op.TEXT);
-                code.add(t.getText());
-                break;
+        /**
+         * Releases the values of an evaluation with the specified maximum number of elements and number of slots,
+         * so that the frame can be reused.
+         */
+        void clear(int size, int slotCount) {
+            Arrays.fill(objects, 0, size, null);
+            Arrays.fill(slotObjects, 0, slotCount, null);
+            top = 0;
+        }
 
-            case FLOAT_NUMBER:
-                code.add(Op.FLOAT);
-                // Always parse in invariant culture because the float regular expression in Lexer is culture-independent
-                code.add(Double.parseDouble(t.getText()));
-                break;
+        int size() {
+            return top;
+        }
 
-            case INT_NUMBER:
-                code.add(Op.INT);
-                // Always parse in invariant culture because the float regular expression in Lexer is culture-independent
-                code.add(Integer.parseInt(t.getText()));
-                break;
+        void push(Object value) {
+            tags[top] = OBJECT;
+            objects[top++] = value;
+        }
 
-            case STRING:
-                code.add(Op.STRING);
-                code.add(t.getText());
-                break;
+        void pushInt(int value) {
+            tags[top] = INT;
+            objects[top] = null;
+            longs[top++] = value;
+        }
 
-            case NULL:
-                code.add(Op.NULL);
-                break;
+        void pushLong(long value) {
+            tags[top] = LONG;
+            objects[top] = null;
+            longs[top++] = value;
+        }
 
-            case COLOR:
-                code.add(Op.COLOR);
-                code.add(parseColor(t.getText()));
-                break;
+        void pushDouble(double value) {
+            tags[top] = DOUBLE;
+            objects[top] = null;
+            doubles[top++] = value;
+        }
 
-            case OP_ADD:
-                code.add(Op.ADD);
-                break;
+        /**
+         * Keeps the element at the top of the stack in the specified slot. If the element is not evaluated yet,
+         * it is shared with the slot, so that it is evaluated once, when it is first consumed.
+         */
+        void store(int slot) {
+            int index = top - 1;
+            if (tags[index] == OBJECT && Shared.isPlaceholder(objects[index])) {
+                tags[index] = SHARED;
+                longs[index] = slot;
+            }
+            slotTags[slot] = tags[index];
+            slotObjects[slot] = objects[index];
+            slotLongs[slot] = longs[index];
+            slotDoubles[slot] = doubles[index];
+        }
 
-            case OP_SUBTRACT:
-                if (node.getChildren().size() > 1) {
-                    code.add(Op.SUB);
-                } else {
-                    code.add(Op.MINUS);
-                }
-                break;
+        /**
+         * Pushes the value kept in the specified slot.
+         */
+        void load(int slot) {
+            tags[top] = slotTags[slot];
+            objects[top] = slotObjects[slot];
+            longs[top] = slotLongs[slot];
+            doubles[top++] = slotDoubles[slot];
+        }
 
-            case OP_MULTIPLY:
-                code.add(Op.MUL);
-                break;
+        /**
+         * Sets the value of the specified slot.
+         */
+        void setSlot(int slot, Object value) {
+            slotTags[slot] = OBJECT;
+            slotObjects[slot] = value;
+        }
 
-            case OP_DIVIDE:
-                code.add(Op.DIV);
-                break;
+        /**
+         * Removes the specified number of elements from the top of the stack and returns an array with their values,
+         * from the bottom to the top. The array is reused by the subsequent calls with the same number of elements.
+         */
+        Object[] popArguments(int count, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            if (arguments.length <= count) {
+                arguments = Arrays.copyOf(arguments, count + 1);
+            }
+            Object[] result = arguments[count];
+            if (result == null) {
+                result = arguments[count] = new Object[count];
+            }
 
-            case OP_MOD:
-                code.add(Op.MOD);
-                break;
+            for (int j = count - 1; j >= 0; j--) {
+                result[j] = popValue(context);
+            }
+            return result;
+        }
 
-            case OP_LESS:
-                code.add(Op.LESS);
-                break;
+        /**
+         * Evaluates the element at the top of the stack, removes it and returns its value.
+         */
+        Object popValue(EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            resolve(top - 1, context);
+            return pop();
+        }
 
-            case OP_GREATER:
-                code.add(Op.GREATER);
-                break;
+        /**
+         * Evaluates the element at the specified index and returns its value.
+         */
+        Object getValue(int index, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            resolve(index, context);
+            return get(index);
+        }
 
-            case OP_EQUAL:
-                code.add(Op.EQUAL);
-                break;
+        /**
+         * Removes the elements above the specified number of elements from the stack. Their values must be already retrieved.
+         */
+        void truncate(int size) {
+            top = size;
+        }
 
-            case OP_NOT_EQUAL:
-                code.add(Op.NOT_EQUAL);
-                break;
+        /**
+         * Removes the element at the top of the stack and returns its value, boxing it if necessary.
+         */
+        Object pop() {
+            return get(--top);
+        }
 
-            case OP_LESS_OR_EQUAL:
-                code.add(Op.LESS_OR_EQUAL);
-                break;
+        /**
+         * Gets a value indicating whether the element at the top of the stack is the specified boolean value.
+         * The element must be resolved.
+         */
+        boolean isTop(boolean value) {
+            return tags[top - 1] == OBJECT && isBoolean(objects[top - 1], value);
+        }
 
-            case OP_GREATER_OR_EQUAL:
-                code.add(Op.GREATER_OR_EQUAL);
-                break;
+        /**
+         * Gets the value of the element at the specified index, boxing it if necessary.
+         */
+        Object get(int index) {
+            Object value = objects[index];
+            objects[index] = null;
+            if (value != null || tags[index] == OBJECT) {
+                return value;
+            }
 
-            case OP_NOT:
-                code.add(Op.NOT);
-                break;
+            switch (tags[index]) {
+                case INT:
+                    return (int) longs[index];
+                case LONG:
+                    return longs[index];
+                default:
+                    return doubles[index];
+            }
+        }
 
-            case OP_AND:
-                code.add(Op.AND);
-                break;
+        /**
+         * Evaluates the element at the specified index and moves numbers to the primitive lanes.
+         * Returns the tag of the element.
+         */
+        byte resolve(int index, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            byte tag = tags[index];
+            if (tag == SHARED) {
+                int slot = (int) longs[index];
+                if (slotTags[slot] == SHARED) {
+                    set(slotTags, slotObjects, slotLongs, slotDoubles, slot, evaluate(objects[index], context));
+                }
+                tags[index] = tag = slotTags[slot];
+                objects[index] = slotObjects[slot];
+                longs[index] = slotLongs[slot];
+                doubles[index] = slotDoubles[slot];
+                return tag;
+            }
+            if (tag != OBJECT) {
+                return tag;
+            }
 
-            case OP_XOR:
-                code.add(Op.XOR);
-                break;
+            return set(tags, objects, longs, doubles, index, evaluate(objects[index], context));
+        }
 
-            case OP_POWER:
-                code.add(Op.POWER);
-                break;
+        /**
+         * Sets the element at the specified index of the specified lanes to the specified value,
+         * copying numbers to the primitive lanes. Returns the tag of the element.
+         */
+        private static byte set(byte[] tags, Object[] objects, long[] longs, double[] doubles, int index, Object value) {
+            objects[index] = value;
+            if (value instanceof Double) {
+                doubles[index] = (Double) value;
+                return tags[index] = DOUBLE;
+            } else if (value instanceof Integer) {
+                longs[index] = (Integer) value;
+                return tags[index] = INT;
+            } else if (value instanceof Long) {
+                longs[index] = (Long) value;
+                return tags[index] = LONG;
+            }
 
-            case OP_OR:
-                code.add(Op.OR);
-                break;
+            return tags[index] = OBJECT;
+        }
+
+        private double doubleValue(int index) {
+            return tags[index] == DOUBLE ? doubles[index] : longs[index];
+        }
+
+        private void setBoolean(int index, boolean value) {
+            tags[index] = OBJECT;
+            objects[index] = value;
+        }
+
+        private void setInt(int index, int value) {
+            tags[index] = INT;
+            objects[index] = null;
+            longs[index] = value;
+        }
+
+        private void setLong(int index, long value) {
+            tags[index] = LONG;
+            objects[index] = null;
+            longs[index] = value;
+        }
+
+        private void setDouble(int index, double value) {
+            tags[index] = DOUBLE;
+            objects[index] = null;
+            doubles[index] = value;
+        }
+
+        /**
+         * Performs the specified binary operation on the two numbers at the top of the stack,
+         * promoting them the same way as {@link Calc#apply(Object, Object, Op)}. Returns false
+         * without changing the stack if the operation is not defined for numbers.
+         */
+        boolean apply(Op op) {
+            // The tags are ordered by the priority of the respective types
+            return apply(op, (byte) Math.max(tags[top - 2], tags[top - 1]));
+        }
+
+        /**
+         * Performs the specified binary operation on the two numbers at the top of the stack,
+         * promoting them to the type with the specified tag, which must be the greater of their tags.
+         */
+        boolean apply(Op op, byte type) {
+            int a = top - 2;
+            int b = top - 1;
+
+            if (type == DOUBLE) {
+                double x = doubleValue(a);
+                double y = doubleValue(b);
+                switch (op) {
+                    case ADD: setDouble(a, x + y); break;
+                    case SUB: setDouble(a, x - y); break;
+                    case MUL: setDouble(a, x * y); break;
+                    case DIV: setDouble(a, x / y); break;
+                    case MOD: setDouble(a, x % y); break;
+                    case POWER: setDouble(a, Math.pow(x, y)); break;
+                    case LESS: setBoolean(a, Double.compare(x, y) < 0); break;
+                    case GREATER: setBoolean(a, Double.compare(x, y) > 0); break;
+                    case EQUAL: setBoolean(a, Double.compare(x, y) == 0); break;
+                    case NOT_EQUAL: setBoolean(a, Double.compare(x, y) != 0); break;
+                    case LESS_OR_EQUAL: setBoolean(a, Double.compare(x, y) <= 0); break;
+                    case GREATER_OR_EQUAL: setBoolean(a, Double.compare(x, y) >= 0); break;
+                    default: return false;
+                }
+            } else if (type == LONG) {
+                long x = longs[a];
+                long y = longs[b];
+                switch (op) {
+                    case ADD: setLong(a, x + y); break;
+                    case SUB: setLong(a, x - y); break;
+                    case MUL: setLong(a, x * y); break;
+                    case DIV: setLong(a, x / y); break;
+                    case MOD: setLong(a, x % y); break;
+                    case POWER: setDouble(a, Math.pow(x, y)); break;
+                    case LESS: setBoolean(a, x < y); break;
+                    case GREATER: setBoolean(a, x > y); break;
+                    case EQUAL: setBoolean(a, x == y); break;
+                    case NOT_EQUAL: setBoolean(a, x != y); break;
+                    case LESS_OR_EQUAL: setBoolean(a, x <= y); break;
+                    case GREATER_OR_EQUAL: setBoolean(a, x >= y); break;
+                    case AND: setLong(a, x & y); break;
+                    case XOR: setLong(a, x ^ y); break;
+                    case OR: setLong(a, x | y); break;
+                    default: return false;
+                }
+            } else {
+                int x = (int) longs[a];
+                int y = (int) longs[b];
+                switch (op) {
+                    case ADD: setInt(a, x + y); break;
+                    case SUB: setInt(a, x - y); break;
+                    case MUL: setInt(a, x * y); break;
+                    case DIV: setInt(a, x / y); break;
+                    case MOD: setInt(a, x % y); break;
+                    case POWER: setDouble(a, Math.pow(x, y)); break;
+                    case LESS: setBoolean(a, x < y); break;
+                    case GREATER: setBoolean(a, x > y); break;
+                    case EQUAL: setBoolean(a, x == y); break;
+                    case NOT_EQUAL: setBoolean(a, x != y); break;
+                    case LESS_OR_EQUAL: setBoolean(a, x <= y); break;
+                    case GREATER_OR_EQUAL: setBoolean(a, x >= y); break;
+                    case AND: setInt(a, x & y); break;
+                    case XOR: setInt(a, x ^ y); break;
+                    case OR: setInt(a, x | y); break;
+                    default: return false;
+                }
+            }
+
+            top--;
+            return true;
+        }
+
+        /**
+         * Removes the element below the top of the stack.
+         */
+        void dropSecond() {
+            int a = top - 2;
+            int b = top - 1;
+            tags[a] = tags[b];
+            objects[a] = objects[b];
+            longs[a] = longs[b];
+            doubles[a] = doubles[b];
+            objects[b] = null;
+            top--;
+        }
+
+        /**
+         * Negates the number at the top of the stack.
+         */
+        void negate() {
+            int a = top - 1;
+            switch (tags[a]) {
+                case INT: setInt(a, -(int) longs[a]); break;
+                case LONG: setLong(a, -longs[a]); break;
+                default: setDouble(a, -doubles[a]); break;
+            }
+        }
+    }
+
+    /**
+     * Accumulates the code and the constant pools while a parse tree or a token stream is being translated.
+     */
+    static final class Emitter {
+        /**
+         * The operations and their operands.
+         */
+        private int[] code = new int[16];
+
+        /**
+         * The number of used elements in {@link #code}.
+         */
+        private int length;
+
+        /**
+         * The object constants and their indices within the pool.
+         */
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+        /**
+         * The floating point literals and their indices within the pool.
+         */
+        private double[] doubles = new double[4];
+        private int doubleCount;
+        private final Map<Double, Integer> doubleIndices = new HashMap<>();
+
+        /**
+         * The types of the values kept in the slots.
+         */
+        private byte[] slotTypes = new byte[0];
+
+        /**
+         * The lengths of the code and of the constant pools at the marked positions, three per mark.
+         */
+        private int[] marks = new int[24];
+        private int markCount;
+
+        private final CompileOptions options;
+
+        Emitter(CompileOptions options) {
+            this.options = options;
+        }
+
+        private void emit(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = value;
+        }
+
+        void emit(Op op) {
+            emit(op.ordinal());
+        }
+
+        void emit(Op op, int operand) {
+            emit(op.ordinal());
+            emit(operand);
+        }
+
+        void emitConstant(Op op, Object value) {
+            emit(op.ordinal());
+            emitConstant(value);
+        }
+
+        void emitConstant(Object value) {
+            Integer index = constantIndices.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndices.put(value, index);
+            }
+            emit(index);
+        }
+
+        /**
+         * Emits the specified jump operation and returns its position, so that the target can be set later by {@link #patchJump}.
+         */
+        int emitJump(Op op) {
+            int position = length;
+            emit(op, -1);
+            return position;
+        }
+
+        /**
+         * Sets the target of the jump operation at the specified position to the current position.
+         */
+        void patchJump(int position) {
+            if (position >= 0) {
+                code[position + 1] = length;
+            }
+        }
+
+        /**
+         * Emits the specified binary operation, specialized for the specified types of its operands, if possible.
+         * Returns the type of the result.
+         */
+        byte emitBinary(Op op, byte a, byte b) {
+            if (a == Frame.OBJECT || b == Frame.OBJECT) {
+                emit(op);
+                return Frame.OBJECT;
+            }
+
+            if (op == Op.POWER) {
+                emit(Op.POWER_DD);
+                return Frame.DOUBLE;
+            }
+
+            byte type = (byte) Math.max(a, b);
+            for (Op specialized : OPS) {
+                if (specialized.generic == op && specialized.type == type) {
+                    emit(specialized);
+                    return op == Op.ADD || op == Op.SUB || op == Op.MUL || op == Op.DIV || op == Op.MOD ? type : Frame.OBJECT;
+                }
+            }
+
+            emit(op);
+            return Frame.OBJECT;
+        }
+
+        /**
+         * Emits the operation pushing the specified value, computed during compilation. Returns the type of the value.
+         */
+        byte emitValue(Object value) {
+            if (value == null) {
+                emit(Op.NULL);
+            } else if (value instanceof Integer) {
+                emit(Op.INT, (Integer) value);
+                return Frame.INT;
+            } else if (value instanceof Double) {
+                emitDouble(Op.FLOAT, (Double) value);
+                return Frame.DOUBLE;
+            } else if (value instanceof String) {
+                emitConstant(Op.STRING, value);
+            } else {
+                emitConstant(Op.VALUE, value);
+                return getType(value.getClass());
+            }
+
+            return Frame.OBJECT;
+        }
+
+        /**
+         * Emits the operation keeping the value of the specified type at the top of the stack in the specified slot.
+         */
+        void emitStore(int slot, byte type) {
+            if (slot >= slotTypes.length) {
+                slotTypes = Arrays.copyOf(slotTypes, slot + 1);
+            }
+            slotTypes[slot] = type;
+            emit(Op.STORE, slot);
+        }
+
+        /**
+         * Emits the operation pushing the value kept in the specified slot. Returns the type of the value.
+         */
+        byte emitLoad(int slot) {
+            emit(Op.LOAD, slot);
+            return slotTypes[slot];
+        }
+
+        /**
+         * Marks the current position, so that the code emitted after it can be removed by {@link #rollback}.
+         * Returns the mark.
+         */
+        int mark() {
+            if (markCount * 3 == marks.length) {
+                marks = Arrays.copyOf(marks, marks.length * 2);
+            }
+            marks[markCount * 3] = length;
+            marks[markCount * 3 + 1] = constants.size();
+            marks[markCount * 3 + 2] = doubleCount;
+            return markCount++;
+        }
+
+        /**
+         * Removes the code emitted after the specified mark, along with the constants first referenced by that code.
+         */
+        void rollback(int mark) {
+            length = marks[mark * 3];
+            for (int c = constants.size() - 1; c >= marks[mark * 3 + 1]; c--) {
+                constantIndices.remove(constants.remove(c));
+            }
+            for (int d = doubleCount - 1; d >= marks[mark * 3 + 2]; d--) {
+                doubleIndices.remove(doubles[d]);
+            }
+            doubleCount = marks[mark * 3 + 2];
+        }
+
+        void emitDouble(Op op, double value) {
+            Integer index = doubleIndices.get(value);
+            if (index == null) {
+                if (doubleCount == doubles.length) {
+                    doubles = Arrays.copyOf(doubles, doubleCount * 2);
+                }
+                index = doubleCount;
+                doubles[doubleCount++] = value;
+                doubleIndices.put(value, index);
+            }
+            emit(op.ordinal());
+            emit(index);
+        }
+    }
+
+    /**
+     * The "byte" code. Each operation is stored as the ordinal of its {@link Op},
+     * followed by its operands as described by {@link Op#operands}.
+     */
+    private final int[] code;
+
+    /**
+     * The code interpreted by {@link #execute}, in which frequent sequences of operations are replaced by
+     * superinstructions. The positions of the operations are the same as in {@link #code}.
+     */
+    private final int[] interpretedCode;
+
+    /**
+     * The pool with object constants referenced by the code.
+     */
+    private final Object[] constants;
+
+    /**
+     * The pool with floating point literals referenced by the code.
+     */
+    private final double[] doubles;
+
+    /**
+     * The maximum number of elements in the evaluation stack of the interpreter.
+     */
+    private final int maxStackDepth;
+
+    /**
+     * The number of slots keeping the values of repeated sub-expressions during an evaluation.
+     */
+    private final int slotCount;
+
+    /**
+     * The identifiers, quantities and locales pushed by the interpreter, the called built-in functions and
+     * the sites of the dot operations, by the positions of the operands of the respective operations.
+     */
+    private final Object[] placeholders;
+
+    /**
+     * The options the code was compiled with.
+     */
+    private final CompileOptions options;
+
+    /**
+     * The schema declaring the variables read from the slots of the evaluation context, or null, if the code is not bound.
+     */
+    private final VariableSchema schema;
+
+    /**
+     * The frame reused by the evaluations on each thread.
+     */
+    private static final ThreadLocal<Frame> FRAME = ThreadLocal.withInitial(() -> new Frame(0, 0));
+
+    /**
+     * The code translated by the selected backend, or null, if the code is interpreted.
+     */
+    private final Evaluator evaluator;
+
+    /**
+     * The backend evaluating the code.
+     */
+    private final Backend backend;
+
+    /**
+     * Creates and returns an empty byte code. Evaluating empty byte code will produce null as a result.
+     * <p>
+     * Calling this method multiple times will return different instances.
+     * @return An empty instance of the ByteCode class.
+     */
+    public static ByteCode empty() {
+        return new ByteCode(null);
+    }
+
+    /**
+     * Initializes a new instance of the ByteCode class from the specified parse tree root.
+     */
+    ByteCode(ParseTreeNode root) {
+        this(root, new CompileOptions());
+    }
+
+    /**
+     * Initializes a new instance of the ByteCode class from the specified parse tree root,
+     * using the backend specified by the compilation options.
+     */
+    ByteCode(ParseTreeNode root, CompileOptions options) {
+        this(emit(root, options), options);
+    }
+
+    /**
+     * Initializes a new instance of the ByteCode class with the code accumulated by the specified emitter,
+     * using the backend specified by the compilation options.
+     */
+    ByteCode(Emitter emitter, CompileOptions options) {
+        this(Arrays.copyOf(emitter.code, emitter.length), emitter.constants.toArray(),
+            Arrays.copyOf(emitter.doubles, emitter.doubleCount), emitter.slotTypes.length, options, options.getVariableSchema());
+    }
+
+    /**
+     * Initializes a new instance of the ByteCode class with the specified code, bound to the specified schema.
+     */
+    private ByteCode(int[] code, Object[] constants, double[] doubles, int slotCount, CompileOptions options, VariableSchema schema) {
+        this.code = code;
+        this.constants = constants;
+        this.doubles = doubles;
+        this.slotCount = slotCount;
+        this.options = options;
+        this.schema = schema;
+        interpretedCode = PeepholeOptimizer.optimize(code);
+        maxStackDepth = getMaxStackDepth(code);
+        placeholders = createPlaceholders(code, constants, doubles, schema);
+
+        switch (options.getBackend()) {
+            case CLOSURE_TREE:
+                evaluator = ClosureTreeBuilder.build(code, constants, doubles, slotCount, schema);
+                break;
+
+            case JVM_CLASS:
+                evaluator = JvmCodeGenerator.generate(this, code, constants, doubles, slotCount, options);
+                break;
+
+            default:
+                evaluator = null;
+                break;
+        }
+
+        // The interpreter is used if the selected backend cannot translate the code
+        backend = evaluator != null ? options.getBackend() : Backend.INTERPRETER;
+    }
+
+    /**
+     * Builds the code out of the specified parse tree root.
+     */
+    private static Emitter emit(ParseTreeNode root, CompileOptions options) {
+        Emitter emitter = new Emitter(options);
+        if (root != null) {
+            buildCode(root, emitter);
+        }
+
+        return emitter;
+    }
+
+    /**
+     * Creates a byte code, which evaluates the identifiers declared by the specified schema by reading the slots
+     * of a {@link VariableContext} with the same schema, rather than looking up their names. The identifiers,
+     * whose slots are not set, and the identifiers, which are not declared by the schema, are still evaluated
+     * through the context. This byte code is not changed and the returned code uses the same backend.
+     * @param schema The schema declaring the variables, or null, to evaluate all identifiers through the context.
+     * @return The bound byte code.
+     */
+    public ByteCode bind(VariableSchema schema) {
+        int[] bound = code.clone();
+        int i = 0;
+        while (i < bound.length) {
+            Op op = OPS[bound[i]];
+            if (op == Op.IDENTIFIER || op == Op.VARIABLE) {
+                boolean declared = schema != null && schema.getSlot((String) constants[bound[i + 1]]) >= 0;
+                bound[i] = (declared ? Op.VARIABLE : Op.IDENTIFIER).ordinal();
+            }
+            i += op.getSize();
+        }
+
+        return new ByteCode(bound, constants, doubles, slotCount, options, schema);
+    }
+
+    /**
+     * Gets the schema the code is bound to, or null, if the code is not bound.
+     */
+    VariableSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Creates the identifiers, quantities and locales pushed by the operations of the specified code, so that they are not
+     * created on each evaluation, resolves the called built-in functions and creates the sites of the dot operations.
+     * They are placed at the positions of the operands of the operations.
+     */
+    private static Object[] createPlaceholders(int[] code, Object[] constants, double[] doubles, VariableSchema schema) {
+        Object[] placeholders = new Object[code.length];
+        int i = 0;
+        while (i < code.length) {
+            Op op = OPS[code[i]];
+            if (op == Op.IDENTIFIER) {
+                placeholders[i + 1] = new Identifier((String) constants[code[i + 1]]);
+            } else if (op == Op.VARIABLE) {
+                placeholders[i + 1] = new Variable((String) constants[code[i + 1]], schema);
+            } else if (op == Op.QUANTITY) {
+                double value = OPS[code[i + 2]] == Op.INT ? code[i + 3] : doubles[code[i + 3]];
+                placeholders[i + 1] = new Quantity(value, (String) constants[code[i + 1]]);
+            } else if (op == Op.CULTURE) {
+                placeholders[i + 1] = new Locale((String) constants[code[i + 1]]);
+            } else if (op == Op.FUNCTION_CALL) {
+                placeholders[i + 2] = BuiltInFunction.get((String) constants[code[i + 2]]);
+            } else if (op == Op.DOT) {
+                placeholders[i + 1] = new MemberSite(getMembers(code, constants, i));
+            }
+            i += op.getSize();
+        }
+
+        return placeholders;
+    }
+
+    /**
+     * Gets the names of the members read by the dot operation at the specified position, which are pushed
+     * by the operations preceding it.
+     */
+    static String[] getMembers(int[] code, Object[] constants, int position) {
+        String[] members = new String[code[position + 1] - 1];
+        int start = position - members.length * Op.OBJECT_OR_MEMBER.getSize();
+        for (int c = 0; c < members.length; c++) {
+            members[c] = (String) constants[code[start + c * Op.OBJECT_OR_MEMBER.getSize() + 1]];
+        }
+
+        return members;
+    }
+
+    /**
+     * Gets the backend evaluating the code, which is the interpreter if the selected backend cannot translate it.
+     */
+    Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Calculates the maximum number of elements in the evaluation stack while the specified code is interpreted.
+     */
+    private static int getMaxStackDepth(int[] code) {
+        int depth = 0;
+        int maxDepth = 0;
+        int i = 0;
+        while (i < code.length) {
+            Op op = OPS[code[i]];
+            switch (op) {
+                case TEXT:
+                case FLOAT:
+                case INT:
+                case STRING:
+                case NULL:
+                case VALUE:
+                case COLOR:
+                case IDENTIFIER:
+                case VARIABLE:
+                case OBJECT_OR_MEMBER:
+                case LOAD:
+                    depth++;
+                    break;
+
+                case FORMAT:
+                case DISCARD:
+                    depth += 2;
+                    break;
+
+                case DOT:
+                    depth -= code[i + 1] - 1;
+                    break;
+
+                case FUNCTION_CALL:
+                    depth -= code[i + 1] - 1;
+                    break;
+
+                case FORMATTING:
+                    // Discarded values are removed as well, but this is not known in advance
+                    depth -= 2;
+                    break;
+
+                case QUANTITY:
+                    // The quantity is pushed by the following operation with its value
+                    break;
+
+                case JUMP:
+                    // The value of the branch, which is skipped, is not in the stack at the target
+                case JUMP_UNLESS:
+                    depth--;
+                    break;
+
+                case MINUS:
+                case NOT:
+                case CULTURE:
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE:
+                case STORE:
+                case LAZY_ARGUMENT:
+                    // The code of a lazy argument pushes the value of the argument
+                    break;
+
+                default:
+                    // Binary operations and expression separators
+                    depth--;
+                    break;
+            }
+
+            maxDepth = Math.max(maxDepth, depth);
+            i += op.getSize();
+        }
+
+        return maxDepth;
+    }
+
+    /**
+     * A node being translated. The children of the node are translated before the node itself.
+     */
+    private static final class Translation {
+        private final ParseTreeNode node;
+
+        /**
+         * The {@link Frame} tags of the values, which the children of the node are expected to produce.
+         */
+        private final byte[] types;
+
+        /**
+         * Indicates whether the node is a call to a lazy function, whose arguments are skipped and evaluated on demand.
+         */
+        private final boolean lazy;
+
+        /**
+         * The index of the child to translate next.
+         */
+        private int index;
+
+        /**
+         * The position of the jump over the operand, the branch or the lazy argument following the child
+         * translated last, or -1.
+         */
+        private int jump = -1;
+
+        /**
+         * The position of the jump over the second branch of the iif function, or -1.
+         */
+        private int end = -1;
+
+        Translation(ParseTreeNode node, boolean lazy) {
+            this.node = node;
+            this.types = new byte[node.getChildren().size()];
+            this.lazy = lazy;
+        }
+    }
+
+    /**
+     * Builds a byte code from the subtree defined by the specified tree node.
+     * Returns the {@link Frame} tag of the value, which the subtree is expected to produce.
+     * <p>
+     * The nodes being translated are kept in an explicit stack, so that deep trees do not overflow the thread stack.
+     */
+    private static byte buildCode(ParseTreeNode root, Emitter emitter) {
+        Deque<Translation> translations = new ArrayDeque<>();
+        translations.push(enter(root, emitter));
+        while (true) {
+            Translation translation = translations.peek();
+            List<ParseTreeNode> children = translation.node.getChildren();
+            if (translation.index < children.size()) {
+                if (translation.lazy) {
+                    translation.jump = emitter.emitJump(Op.LAZY_ARGUMENT);
+                }
+                translations.push(enter(children.get(translation.index), emitter));
+                continue;
+            }
+
+            translations.pop();
+            Translation parent = translations.peek();
+            byte type = translation.node.getToken().getType() == TokenType.FUNCTION_CALL ?
+                buildFunctionCall(translation, emitter) :
+                buildNode(translation, parent != null ? parent.node.getToken() : null, emitter);
+            if (parent == null) {
+                return type;
+            }
+
+            parent.types[parent.index] = type;
+            buildJumps(parent, emitter);
+            parent.index++;
+        }
+    }
+
+    /**
+     * Starts translating the specified node, before its children are translated.
+     */
+    private static Translation enter(ParseTreeNode node, Emitter emitter) {
+        Token t = node.getToken();
+        if (t.getType() != TokenType.FUNCTION_CALL) {
+            return new Translation(node, false);
+        }
+
+        String name = t.getText();
+        int paramCount = node.getChildren().size();
+        checkFunctionCall(name, paramCount, emitter.options);
+        return new Translation(node, !isBranching(name, paramCount) && emitter.options.isLazyFunction(name));
+    }
+
+    /**
+     * Builds the jumps, which follow the child of the specified node translated last.
+     */
+    private static void buildJumps(Translation translation, Emitter emitter) {
+        Token t = translation.node.getToken();
+        int c = translation.index;
+        int count = translation.types.length;
+        switch (t.getType()) {
+            case OP_CONDITIONAL_AND:
+                // Skip the right operand of conditional operations if the left one determines the result
+                if (c == 0 && count == 2) {
+                    translation.jump = emitter.emitJump(Op.JUMP_IF_FALSE);
+                }
+                break;
+
+            case OP_CONDITIONAL_OR:
+                if (c == 0 && count == 2) {
+                    translation.jump = emitter.emitJump(Op.JUMP_IF_TRUE);
+                }
+                break;
+
+            case FUNCTION_CALL:
+                if (translation.lazy) {
+                    emitter.patchJump(translation.jump);
+                } else if (isBranching(t.getText(), count)) {
+                    // Evaluate only the branch selected by the condition
+                    if (c == 0) {
+                        translation.jump = emitter.emitJump(Op.JUMP_UNLESS);
+                    } else if (c == 1) {
+                        translation.end = emitter.emitJump(Op.JUMP);
+                        emitter.patchJump(translation.jump);
+                    } else {
+                        emitter.patchJump(translation.end);
+                    }
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Gets a value indicating whether the call to the function with the specified name and number of arguments
+     * evaluates only the branch selected by its condition.
+     */
+    private static boolean isBranching(String name, int paramCount) {
+        return name.equals("iif") && paramCount == 3;
+    }
+
+    /**
+     * Builds a byte code from the specified node, other than a function call, whose children are already translated.
+     * Returns the {@link Frame} tag of the value, which the node is expected to produce.
+     */
+    private static byte buildNode(Translation translation, Token parent, Emitter emitter) {
+        Token t = translation.node.getToken();
+        List<ParseTreeNode> children = translation.node.getChildren();
+        byte[] types = translation.types;
+        int jump = translation.jump;
+        switch (t.getType()) {
+            case TEXT:
+                emitter.emitConstant(Op.TEXT, t.getText());
+                break;
+
+            case FLOAT_NUMBER:
+                // Always parse in invariant culture because the float regular expression in Lexer is culture-independent
+                emitter.emitDouble(Op.FLOAT, Double.parseDouble(t.getText()));
+                // A number with a unit is a quantity
+                return children.isEmpty() ? Frame.DOUBLE : Frame.OBJECT;
+
+            case INT_NUMBER:
+                // Always parse in invariant culture because the float regular expression in Lexer is culture-independent
+                emitter.emit(Op.INT, Integer.parseInt(t.getText()));
+                return children.isEmpty() ? Frame.INT : Frame.OBJECT;
+
+            case STRING:
+                emitter.emitConstant(Op.STRING, t.getText());
+                break;
+
+            case NULL:
+                emitter.emit(Op.NULL);
+                break;
+
+            case CONSTANT:
+                return emitter.emitValue(((ConstantToken) t).getValue());
+
+            case STORE:
+                emitter.emitStore(Integer.parseInt(t.getText()), types[0]);
+                return types[0];
+
+            case LOAD:
+                return emitter.emitLoad(Integer.parseInt(t.getText()));
+
+            case COLOR:
+                emitter.emitConstant(Op.COLOR, parseColor(t.getText()));
+                break;
+
+            case OP_ADD:
+                return emitter.emitBinary(Op.ADD, types[0], types[1]);
+
+            case OP_SUBTRACT:
+                if (children.size() > 1) {
+                    return emitter.emitBinary(Op.SUB, types[0], types[1]);
+                }
+                emitter.emit(Op.MINUS);
+                return types[0];
+
+            case OP_MULTIPLY:
+                return emitter.emitBinary(Op.MUL, types[0], types[1]);
+
+            case OP_DIVIDE:
+                return emitter.emitBinary(Op.DIV, types[0], types[1]);
+
+            case OP_MOD:
+                return emitter.emitBinary(Op.MOD, types[0], types[1]);
+
+            case OP_LESS:
+                return emitter.emitBinary(Op.LESS, types[0], types[1]);
+
+            case OP_GREATER:
+                return emitter.emitBinary(Op.GREATER, types[0], types[1]);
+
+            case OP_EQUAL:
+                return emitter.emitBinary(Op.EQUAL, types[0], types[1]);
+
+            case OP_NOT_EQUAL:
+                return emitter.emitBinary(Op.NOT_EQUAL, types[0], types[1]);
+
+            case OP_LESS_OR_EQUAL:
+                return emitter.emitBinary(Op.LESS_OR_EQUAL, types[0], types[1]);
+
+            case OP_GREATER_OR_EQUAL:
+                return emitter.emitBinary(Op.GREATER_OR_EQUAL, types[0], types[1]);
+
+            case OP_NOT:
+                emitter.emit(Op.NOT);
+                break;
+
+            case OP_AND:
+                emitter.emit(Op.AND);
+                break;
+
+            case OP_XOR:
+                emitter.emit(Op.XOR);
+                break;
+
+            case OP_POWER:
+                return emitter.emitBinary(Op.POWER, types[0], types[1]);
+
+            case OP_OR:
+                emitter.emit(Op.OR);
+                break;
 
             case OP_CONDITIONAL_AND:
-                code.add(Op.CONDITIONAL_AND);
+                emitter.emit(Op.CONDITIONAL_AND);
+                emitter.patchJump(jump);
                 break;
 
             case OP_CONDITIONAL_OR:
-                code.add(Op.CONDITIONAL_OR);
+                emitter.emit(Op.CONDITIONAL_OR);
+                emitter.patchJump(jump);
                 break;
 
             case OP_DOT:
-                code.add(Op.DOT);
-                code.add(node.getChildren().size()); // Dot count
+                emitter.emit(Op.DOT, children.size()); // Dot count
                 break;
 
             case OP_FORMAT:
-                code.add(Op.FORMATTING);
+                emitter.emit(Op.FORMATTING);
                 break;
 
             case DISCARD:
-                code.add(Op.DISCARD);
+                emitter.emit(Op.DISCARD);
                 break;
 
             case FORMAT:
-                code.add(Op.FORMAT);
-                code.add(t.getText().substring(1, t.getText().length() - 1));
+                emitter.emitConstant(Op.FORMAT, t.getText().substring(1, t.getText().length() - 1));
                 break;
 
             case CULTURE:
-                code.add(Op.CULTURE);
-                code.add(t.getText().substring(1, t.getText().length() - 1));
+                emitter.emitConstant(Op.CULTURE, t.getText().substring(1, t.getText().length() - 1));
                 break;
 
             case IDENTIFIER: {
-                // If the operation at the top of the stack is not dereferencing this is a normal identifier.
+                // If the parent operation is not dereferencing this is a normal identifier.
                 // Otherwise, this is an object or member reference
-                Token parent = stack.peek();
                 if (parent != null && parent.getType() == TokenType.OP_DOT) {
-                    code.add(Op.OBJECT_OR_MEMBER);
+                    emitter.emitConstant(Op.OBJECT_OR_MEMBER, t.getText());
                 } else if (parent != null && (parent.getType() == TokenType.INT_NUMBER || parent.getType() == TokenType.FLOAT_NUMBER)) {
-                    code.add(Op.QUANTITY);
+                    emitter.emitConstant(Op.QUANTITY, t.getText());
                 } else {
-                    code.add(Op.IDENTIFIER);
+                    VariableSchema schema = emitter.options.getVariableSchema();
+                    emitter.emitConstant(schema != null && schema.getSlot(t.getText()) >= 0 ? Op.VARIABLE : Op.IDENTIFIER, t.getText());
+                    return getType(emitter.options.getVariableType(t.getText()));
                 }
-                code.add(t.getText());
                 break;
             }
-            case FUNCTION_CALL:
-                code.add(Op.FUNCTION_CALL);
-                code.add(node.getChildren().size()); // Param count
-                code.add(t.getText());
-                break;
-
             case OP_EXPRESSION_SEPARATOR:
-                code.add(Op.EXPRESSION_SEPARATOR);
+                emitter.emit(Op.EXPRESSION_SEPARATOR);
                 break;
 
             default:
                 break;
         }
+
+        return Frame.OBJECT;
+    }
+
+    /**
+     * Builds a byte code from the specified function call, whose arguments are already translated.
+     * Returns the {@link Frame} tag of the value, which the function is expected to return.
+     */
+    private static byte buildFunctionCall(Translation translation, Emitter emitter) {
+        String name = translation.node.getToken().getText();
+        byte[] types = translation.types;
+        if (isBranching(name, types.length)) {
+            return types[1] == types[2] ? types[1] : Frame.OBJECT;
+        }
+
+        emitter.emit(Op.FUNCTION_CALL, types.length); // Param count
+        emitter.emitConstant(name);
+        return translation.lazy ? Frame.OBJECT : getFunctionType(name);
+    }
+
+    /**
+     * Reports calls to built-in functions with fewer arguments than they require and, unless the specified options
+     * allow them, calls to functions, which are neither built in nor declared.
+     */
+    static void checkFunctionCall(String name, int paramCount, CompileOptions options) {
+        if (options.isFunction(name)) {
+            return;
+        }
+
+        BuiltInFunction function = BuiltInFunction.get(name);
+        if (function != null) {
+            if (paramCount < function.getParamCount()) {
+                throw new ParsingException(String.format("The function '%1$s' expects %2$d number of parameters," +
+                    "but instead received %3$d.", name, function.getParamCount(), paramCount));
+            }
+        } else if (!options.getAllowUndeclaredFunctions()) {
+            throw new ParsingException(String.format("The function '%1$s' is not defined.", name));
+        }
+    }
+
+    /**
+     * Gets the {@link Frame} tag of values of the specified type.
+     */
+    static byte getType(Class<?> type) {
+        if (type == Integer.class || type == int.class) {
+            return Frame.INT;
+        } else if (type == Long.class || type == long.class) {
+            return Frame.LONG;
+        } else if (type == Double.class || type == double.class) {
+            return Frame.DOUBLE;
+        }
+
+        return Frame.OBJECT;
+    }
+
+    /**
+     * Gets the {@link Frame} tag of the values returned by the built-in function with the specified name.
+     * The function might be overridden by the evaluation context, so the type is only a hint.
+     */
+    static byte getFunctionType(String name) {
+        BuiltInFunction function = BuiltInFunction.get(name);
+        return function != null ? getType(function.getResultType()) : Frame.OBJECT;
     }
 
     /**
@@ -724,7 +1957,7 @@ public final class ByteCode {
      * The color object itself is platform-dependent so the parse
      * implementation is delegated to the client during code evaluation.
      */
-    private Object parseColor(String text) {
+    static Object parseColor(String text) {
         return new Color(text);
     }
 
@@ -732,87 +1965,139 @@ public final class ByteCode {
      * Evaluates the byte code in the specified context.
      */
     public Object evaluate(EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        Deque<Object> evalStack = new ArrayDeque<>();
+        if (evaluator != null) {
+            return evaluator.evaluate(context);
+        }
 
-        int i = 0;
-        while (i < code.size()) {
-            Op op = (Op)code.get(i); i++;
+        return execute(context, 0, code.length);
+    }
+
+    /**
+     * Interprets the specified range of the code in the specified context.
+     */
+    private Object execute(EvaluationContext context, int start, int end) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Frame frame = FRAME.get();
+        if (frame.busy) {
+            // A nested evaluation, such as the one of a lazy argument, while the frame of this thread is in use
+            return execute(context, start, end, new Frame(maxStackDepth, slotCount));
+        }
+
+        frame.busy = true;
+        frame.reset(maxStackDepth, slotCount);
+        try {
+            return execute(context, start, end, frame);
+        } finally {
+            frame.clear(maxStackDepth, slotCount);
+            frame.busy = false;
+        }
+    }
+
+    /**
+     * Resumes the interpretation of the code from the specified position with the specified elements of the
+     * evaluation stack, from the bottom to the top, and the specified values of the slots. Used by the code
+     * translated to JVM classes when the types of the operands differ from the types it is translated for.
+     */
+    Object resume(EvaluationContext context, int position, Object[] stack, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Frame frame = new Frame(maxStackDepth, slotCount);
+        for (Object value : stack) {
+            frame.push(value);
+        }
+        if (slots != null) {
+            for (int j = 0; j < slots.length; j++) {
+                frame.setSlot(j, slots[j]);
+            }
+        }
+
+        return execute(context, position, code.length, frame);
+    }
+
+    /**
+     * Interprets the specified range of the code in the specified context, starting with the specified frame.
+     */
+    private Object execute(EvaluationContext context, int start, int end, Frame frame) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        int[] code = interpretedCode;
+        int i = start;
+        while (i < end) {
+            Op op = OPS[code[i]]; i++;
 
             switch (op) {
                 case FLOAT: {
-                    double a = (double)code.get(i); i++;
-                    evalStack.push(a);
+                    double a = doubles[code[i]]; i++;
+                    frame.pushDouble(a);
                     break;
                 }
                 case INT: {
-                    int a = (int)code.get(i); i++;
-                    evalStack.push(a);
+                    int a = code[i]; i++;
+                    frame.pushInt(a);
                     break;
                 }
                 case STRING: {
-                    String a = (String)code.get(i); i++;
-                    evalStack.push(a);
+                    String a = (String)constants[code[i]]; i++;
+                    frame.push(a);
                     break;
                 }
                 case NULL: {
-                    evalStack.push(Null.getInstance());
+                    frame.push(Null.getInstance());
+                    break;
+                }
+                case VALUE: {
+                    Object a = constants[code[i]]; i++;
+                    frame.push(a);
                     break;
                 }
                 case COLOR: {
-                    Color a = (Color)code.get(i); i++;
-                    evalStack.push(a);
+                    Color a = (Color)constants[code[i]]; i++;
+                    frame.push(a);
                     break;
                 }
                 case QUANTITY: {
-                    String unit = (String)code.get(i); i++;
-                    Op valueOp = (Op)code.get(i); i++;
-                    double value;
-                    if (valueOp == Op.INT) {
-                        value = (int) code.get(i);
-                    } else {
-                        value = (double) code.get(i);
-                    }
-                    i++;
-                    evalStack.push(new Quantity(value, unit));
+                    // The unit is followed by the operation pushing the value
+                    frame.push(placeholders[i]); i += 3;
                     break;
                 }
                 case FORMAT: {
-                    String a = (String)code.get(i); i++;
-                    evalStack.push(a);
+                    String a = (String)constants[code[i]]; i++;
+                    frame.push(a);
 
                     // Push invariant culture. If the locale is explicitly specified later, we will pop this one
-                    evalStack.push(Null.getInstance());
+                    frame.push(Null.getInstance());
                     break;
                 }
                 case DISCARD: {
                     // Push an empty formatting string to indicate that we would like to prevent
                     // the formatted expression from appearing in the output
-                    evalStack.push(Null.getInstance());
-                    evalStack.push(Null.getInstance());
+                    frame.push(Null.getInstance());
+                    frame.push(Null.getInstance());
                     break;
                 }
                 case CULTURE: {
                     // Pop the invariant culture and push the specified one
-                    String a = (String)code.get(i); i++;
-                    evalStack.pop();
-                    evalStack.push(a);
+                    frame.pop();
+                    frame.push(placeholders[i]); i++;
                     break;
                 }
                 case TEXT: {
-                    String a = (String)code.get(i); i++;
-                    evalStack.push(a);
+                    String a = (String)constants[code[i]]; i++;
+                    frame.push(a);
                     break;
                 }
                 case IDENTIFIER: {
-                    String a = (String)code.get(i); i++;
-                    evalStack.push(new Identifier(a));
+                    frame.push(placeholders[i]); i++;
+                    break;
+                }
+                case VARIABLE: {
+                    // The value is pushed directly, if the context keeps it in a slot
+                    Variable a = (Variable) placeholders[i]; i++;
+                    if (!a.push(frame, context)) {
+                        frame.push(a);
+                    }
                     break;
                 }
                 case OBJECT_OR_MEMBER: {
                     // Its the name of an object or its property. Push it to the stack for
                     // subsequent processing when the Op.Dot operation is reached
-                    String a = (String)code.get(i); i++;
-                    evalStack.push(a);
+                    String a = (String)constants[code[i]]; i++;
+                    frame.push(a);
                     break;
                 }
                 case ADD:
@@ -836,228 +2121,519 @@ public final class ByteCode {
                 case OR:
                 case XOR: {
                     // Binary operation
-                    Object b = evaluate(evalStack.pop(), context);
-                    Object a = evaluate(evalStack.pop(), context);
-                    Object result = Calc.apply(a, b, op);
-                    if (result == null) {
-                        result = Null.getInstance();
-                    }
-                    evalStack.push(result);
+                    apply(frame, op, context);
                     break;
                 }
                 case MINUS:
                 case NOT: {
                     // Unary operation
-                    Object a = evaluate(evalStack.pop(), context);
+                    if (frame.resolve(frame.size() - 1, context) != Frame.OBJECT && op == Op.MINUS) {
+                        frame.negate();
+                        break;
+                    }
+
+                    Object a = frame.pop();
                     Object result = Calc.apply(a, op);
                     if (result == null) {
                         result = Null.getInstance();
                     }
-                    evalStack.push(result);
+                    frame.push(result);
                     break;
                 }
                 case DOT: {
-                    int count = (int)code.get(i); i++;
-                    List<String> r = new ArrayList<>();
-                    for (int c = 0; c < count - 1; c++) {
-                        r.add(0, (String) evalStack.pop());
-                    }
-                    Object target = evalStack.pop();
-
-                    // Create a MemberInfo and push it in the stack
-                    MemberInfo info = target instanceof String ?
-                        context.createMemberInfo((String) target, r.get(0)) :
-                        new MemberInfo(target, r.get(0), context);
-
-                    for (int c = 1; c < r.size(); c++) {
-                        info = context.createMemberInfo(info, r.get(c));
-                    }
-
-                    evalStack.push(info);
+                    // The target is followed by the names of the members in the stack. It is evaluated if it is the result
+                    // of a function call or an iif function, whose branch might not be evaluated yet. Names of objects are kept
+                    int count = code[i]; i++;
+                    int base = frame.size() - count;
+                    Object target = frame.getValue(base, context);
+
+                    // The names of the members are known to the site, which reads them through its inline caches
+                    MemberSite site = (MemberSite) placeholders[i - 1];
+                    frame.truncate(base);
+                    site.push(target, frame, context);
                     break;
                 }
                 case FORMATTING: {
-                    Object c = evalStack.pop();
-                    Object b = evaluate(evalStack.pop(), context);
-                    Object a = evaluate(evalStack.pop(), context);
+                    Object c = frame.pop();
+                    Object b = frame.popValue(context);
+                    Object a = frame.popValue(context);
 
                     // The formatting string might be null, particularly when discarding is specified.
                     // In this case do not push anything in the stack
                     if (b != null) {
-                        evalStack.push(context.format(a, (String)b, c instanceof Null ? null : new Locale((String)c)));
+                        frame.push(context.format(a, (String)b, c instanceof Null ? null : (Locale)c));
                     }
                     break;
                 }
                 case FUNCTION_CALL: {
-                    int paramCount = (int)code.get(i); i++;
-                    String a = (String)code.get(i); i++;
-                    Object[] parameters = new Object[paramCount];
-                    for (int j = 0; j < paramCount; j++) {
-                        parameters[paramCount - j - 1] = evaluate(evalStack.pop(), context);
+                    int paramCount = code[i]; i++;
+                    String a = (String)constants[code[i]]; i++;
+                    Object result;
+                    if (placeholders[i - 1] != null && !context.overridesFunctions()) {
+                        // The built-in functions do not keep their arguments, so the array is reused.
+                        // Contexts overriding them might keep the arguments, so they receive a new array
+                        Object[] parameters = frame.popArguments(paramCount, context);
+                        try {
+                            result = context.invokeFunction((BuiltInFunction) placeholders[i - 1], parameters);
+                        } finally {
+                            Arrays.fill(parameters, null);
+                        }
+                    } else {
+                        Object[] parameters = new Object[paramCount];
+                        for (int j = 0; j < paramCount; j++) {
+                            parameters[paramCount - j - 1] = frame.popValue(context);
+                        }
+                        result = context.invokeFunction(a, parameters);
                     }
-
-                    Object result = context.invokeFunction(a, parameters);
                     if (result == null) {
                         result = Null.getInstance();
                     }
-                    evalStack.push(result);
+                    frame.push(result);
                     break;
                 }
                 case EXPRESSION_SEPARATOR: {
-                    Object b = evaluate(evalStack.pop(), context);
-                    evaluate(evalStack.pop(), context);
-                    evalStack.push(b);
+                    frame.resolve(frame.size() - 1, context);
+                    frame.resolve(frame.size() - 2, context);
+                    frame.dropSecond();
+                    break;
+                }
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE: {
+                    // The left operand of a conditional operation. If it determines the result,
+                    // keep it in the stack and skip the right operand and the operation
+                    int target = code[i]; i++;
+                    frame.resolve(frame.size() - 1, context);
+                    if (frame.isTop(op == Op.JUMP_IF_TRUE)) {
+                        i = target;
+                    }
+                    break;
+                }
+                case JUMP: {
+                    i = code[i];
+                    break;
+                }
+                case JUMP_UNLESS: {
+                    // The condition of the iif function. Skip the branch, which is not selected
+                    int target = code[i]; i++;
+                    if (!context.getBool(frame.popValue(context))) {
+                        i = target;
+                    }
+                    break;
+                }
+                case LAZY_ARGUMENT: {
+                    // Skip the code of the argument, it is evaluated when the function requests its value
+                    int target = code[i]; i++;
+                    frame.push(createArgument(i, target, context));
+                    i = target;
+                    break;
+                }
+                case STORE: {
+                    // Keep the value of a repeated sub-expression for the other occurrences
+                    int slot = code[i]; i++;
+                    frame.store(slot);
+                    break;
+                }
+                case LOAD: {
+                    int slot = code[i]; i++;
+                    frame.load(slot);
+                    break;
+                }
+                case INT_OPERATION: {
+                    frame.pushInt(code[i]);
+                    apply(frame, OPS[code[i + 1]], context); i += 2;
+                    break;
+                }
+                case FLOAT_OPERATION: {
+                    frame.pushDouble(doubles[code[i]]);
+                    apply(frame, OPS[code[i + 1]], context); i += 2;
+                    break;
+                }
+                case IDENTIFIER_INT_OPERATION: {
+                    frame.push(placeholders[i]);
+                    frame.pushInt(code[i + 2]);
+                    apply(frame, OPS[code[i + 3]], context); i += 4;
+                    break;
+                }
+                case IDENTIFIER_FLOAT_OPERATION: {
+                    frame.push(placeholders[i]);
+                    frame.pushDouble(doubles[code[i + 2]]);
+                    apply(frame, OPS[code[i + 3]], context); i += 4;
+                    break;
+                }
+                case IDENTIFIER_IDENTIFIER_OPERATION: {
+                    frame.push(placeholders[i]);
+                    frame.push(placeholders[i + 2]);
+                    apply(frame, OPS[code[i + 3]], context); i += 4;
+                    break;
+                }
+                case MEMBER: {
+                    // A member of a named object, read through the site of the dot operation
+                    String a = (String)constants[code[i]]; i += 5;
+                    ((MemberSite) placeholders[i - 1]).push(a, frame, context);
+                    break;
+                }
+                default: {
+                    // Binary operation specialized for the types of its operands
+                    apply(frame, op, context);
                     break;
                 }
             }
         }
 
-        if (evalStack.isEmpty()) {
+        if (frame.size() == 0) {
             return null;
         }
 
-        if (evalStack.size() == 1) {
-            return evaluate(evalStack.pop(), context);
-        }
-
-        // Reverse the stack and concatenate the string representation of all elements contained within it
-        Deque<Object> reversed = new ArrayDeque<>();
-        while (!evalStack.isEmpty()) {
-            reversed.push(evalStack.pop());
+        if (frame.size() == 1) {
+            return frame.popValue(context);
         }
 
+        // Concatenate the string representation of all elements in the stack, from the bottom to the top
         StringBuilder result = new StringBuilder();
-        while (!reversed.isEmpty()) {
-            result.append(evaluate(reversed.pop(), context));
+        for (int j = 0; j < frame.size(); j++) {
+            result.append(frame.getValue(j, context));
         }
 
         return result.toString();
     }
 
+    /**
+     * Performs the specified binary operation on the two elements at the top of the stack. Numbers are processed
+     * directly in the primitive lanes. If the operation is specialized for the types of its operands and the actual
+     * types differ from the types inferred during compilation, the generic operation is performed.
+     */
+    private static void apply(Frame frame, Op op, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Op generic = op.getGeneric();
+        byte b = frame.resolve(frame.size() - 1, context);
+        byte a = frame.resolve(frame.size() - 2, context);
+        if (a != Frame.OBJECT && b != Frame.OBJECT &&
+            (Math.max(a, b) == op.type ? frame.apply(generic, op.type) : frame.apply(generic))) {
+            return;
+        }
+
+        Object bValue = frame.pop();
+        Object aValue = frame.pop();
+        Object result = Calc.apply(aValue, bValue, generic);
+        if (result == null) {
+            result = Null.getInstance();
+        }
+        frame.push(result);
+    }
+
+    /**
+     * A lazily evaluated argument of a function, which keeps its value once evaluated.
+     */
+    abstract static class Argument implements LazyArgument {
+        private boolean evaluated;
+        private Object value;
+
+        /**
+         * Evaluates the argument.
+         */
+        abstract Object evaluate() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException;
+
+        @Override
+        public Object getValue() {
+            if (!evaluated) {
+                try {
+                    value = evaluate();
+                } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+                    throw new EvaluationException("Failed to evaluate the argument of the function.", ex);
+                }
+                evaluated = true;
+            }
+
+            return value;
+        }
+    }
+
+    /**
+     * A placeholder shared by the occurrences of a repeated sub-expression, which is evaluated once,
+     * when the value of any of the occurrences is first consumed.
+     */
+    static final class Shared {
+        private final Object placeholder;
+        private boolean evaluated;
+        private Object value;
+
+        Shared(Object placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        /**
+         * Gets a value indicating whether the specified element of the evaluation stack is evaluated when consumed.
+         */
+        static boolean isPlaceholder(Object value) {
+            return value instanceof Color || value instanceof Quantity ||
+                (value instanceof Identifier && !(value instanceof Null));
+        }
+
+        Object getValue(EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            if (!evaluated) {
+                value = ByteCode.evaluate(placeholder, context);
+                evaluated = true;
+            }
+
+            return value;
+        }
+    }
+
+    /**
+     * Shares the specified placeholder by the occurrences of a repeated sub-expression.
+     */
+    static Object share(Object placeholder) {
+        return new Shared(placeholder);
+    }
+
+    /**
+     * Evaluates the specified shared placeholder.
+     */
+    static Object evaluateShared(Object shared, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        return ((Shared) shared).getValue(context);
+    }
+
+    /**
+     * A lazily evaluated argument, whose code is a range of the byte code.
+     */
+    private static final class CodeArgument extends Argument {
+        private final ByteCode code;
+        private final EvaluationContext context;
+        private final int start;
+        private final int end;
+
+        CodeArgument(ByteCode code, EvaluationContext context, int start, int end) {
+            this.code = code;
+            this.context = context;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        Object evaluate() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return code.execute(context, start, end);
+        }
+    }
+
+    /**
+     * Creates a lazily evaluated argument, whose code is the specified range of this byte code.
+     */
+    LazyArgument createArgument(int start, int end, EvaluationContext context) {
+        return new CodeArgument(this, context, start, end);
+    }
+
     /**
      * Evaluates the specified object.
      * <p>
-     * If the object is a {@link MemberInfo}, returns its value.
      * If the object is an {@link Identifier}, returns its value.
      * If the object is a {@link Color}, tries to parse it through the context.
+     * If the object is a {@link Shared} placeholder, returns the value of the underlying placeholder.
      * Otherwise, returns the object itself.
      */
-    private Object evaluate(Object value, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        if (value instanceof MemberInfo) {
-            return ((MemberInfo) value).getValue();
+    private static Object evaluate(Object value, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        if (value instanceof Variable) {
+            return ((Variable) value).getValue(context);
         } else if (value instanceof Identifier) {
             return context.evaluateIdentifier(((Identifier) value).getName());
         } else if (value instanceof Color) {
-            return context.doParseObject(((Color) value).getRepresentation());
+            return resolveColor((Color) value, context);
         } else if (value instanceof Quantity) {
-            Quantity quantity = (Quantity)value;
-            return context.evaluateQuantity(quantity.getValue(), quantity.getUnit());
+            return evaluateQuantity((Quantity) value, context);
+        } else if (value instanceof Shared) {
+            return ((Shared) value).getValue(context);
         }
 
         return value;
     }
 
+    /**
+     * Creates the platform-specific object represented by the specified color through the specified context.
+     */
+    static Object resolveColor(Color color, EvaluationContext context) {
+        return context.doParseObject(color.getRepresentation());
+    }
 
     /**
-     * Gets the number of elements in the code.
+     * Evaluates the specified quantity through the specified context.
      */
-    int getLength() {
-        return code.size();
+    static Object evaluateQuantity(Quantity quantity, EvaluationContext context) {
+        return context.evaluateQuantity(quantity.getValue(), quantity.getUnit());
     }
 
     /**
-     * Gets the element at the specified position within the code.
+     * Reads the chain of members of the specified site, starting from the specified target.
+     * If the target is a string, it is interpreted as the name of an object.
      */
-    Object get(int index) {
-        return code.get(index);
+    static Object evaluateMember(Object target, MemberSite site, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        return site.getValue(target, context);
     }
 
     /**
-     * Gets a set with all identifiers within the code.
+     * Formats the specified value using the specified pattern and locale. If the locale is null, the locale of the context is used.
      */
-    public Set<String> getIdentifiers() {
-        Set<String> identifiers = new HashSet<>();
+    static Object format(Object value, EvaluationContext context, String pattern, Locale locale) {
+        return context.format(value, pattern, locale);
+    }
 
-        int i = 0;
-        while (i < code.size()) {
-            if (code.get(i) instanceof Op && code.get(i) == Op.IDENTIFIER) {
-                i++;
-                identifiers.add((String)code.get(i));
+    /**
+     * Performs the specified binary operation the same way as the interpreter, that is, directly on Integer,
+     * Long and Double operands, and by {@link Calc#apply(Object, Object, Op)} otherwise.
+     */
+    static Object apply(Object a, Object b, Op op) {
+        byte x = a != null ? getType(a.getClass()) : Frame.OBJECT;
+        byte y = b != null ? getType(b.getClass()) : Frame.OBJECT;
+        if (x != Frame.OBJECT && y != Frame.OBJECT) {
+            Object result = apply((Number) a, (Number) b, op, (byte) Math.max(x, y));
+            if (result != null) {
+                return result;
             }
-            i++;
         }
 
-        return identifiers;
+        return Calc.apply(a, b, op);
     }
-}
-
-/**
- * Represents identifiers in the code evaluation stack. The identifier is
- * then either evaluated or assigned depending on where it appears in an expression.
- */
-class Identifier {
-    private final String name;
 
     /**
-     * Initializes a new instance of the {@link Identifier} class.
+     * Performs the specified binary operation on the specified numbers, promoting them to the type with the
+     * specified {@link Frame} tag like {@link Frame#apply(Op, byte)}. Returns null if the operation is not
+     * defined for numbers.
      */
-    Identifier(String name)
-    {
-        this.name = name;
+    private static Object apply(Number a, Number b, Op op, byte type) {
+        if (type == Frame.DOUBLE) {
+            double x = a.doubleValue();
+            double y = b.doubleValue();
+            switch (op) {
+                case ADD: return x + y;
+                case SUB: return x - y;
+                case MUL: return x * y;
+                case DIV: return x / y;
+                case MOD: return x % y;
+                case POWER: return Math.pow(x, y);
+                case LESS: case GREATER: case EQUAL: case NOT_EQUAL: case LESS_OR_EQUAL: case GREATER_OR_EQUAL:
+                    return compare(Double.compare(x, y), op);
+                default: return null;
+            }
+        } else if (type == Frame.LONG) {
+            long x = a.longValue();
+            long y = b.longValue();
+            switch (op) {
+                case ADD: return x + y;
+                case SUB: return x - y;
+                case MUL: return x * y;
+                case DIV: return x / y;
+                case MOD: return x % y;
+                case POWER: return Math.pow(x, y);
+                case LESS: case GREATER: case EQUAL: case NOT_EQUAL: case LESS_OR_EQUAL: case GREATER_OR_EQUAL:
+                    return compare(Long.compare(x, y), op);
+                case AND: return x & y;
+                case XOR: return x ^ y;
+                case OR: return x | y;
+                default: return null;
+            }
+        } else {
+            int x = a.intValue();
+            int y = b.intValue();
+            switch (op) {
+                case ADD: return x + y;
+                case SUB: return x - y;
+                case MUL: return x * y;
+                case DIV: return x / y;
+                case MOD: return x % y;
+                case POWER: return Math.pow(x, y);
+                case LESS: case GREATER: case EQUAL: case NOT_EQUAL: case LESS_OR_EQUAL: case GREATER_OR_EQUAL:
+                    return compare(Integer.compare(x, y), op);
+                case AND: return x & y;
+                case XOR: return x ^ y;
+                case OR: return x | y;
+                default: return null;
+            }
+        }
     }
 
-    String getName() {
-        return name;
+    /**
+     * Gets the result of the specified comparison operation from the result of comparing its operands,
+     * which is negative, zero or positive.
+     */
+    static Boolean compare(int comparison, Op op) {
+        switch (op) {
+            case LESS: return comparison < 0;
+            case GREATER: return comparison > 0;
+            case EQUAL: return comparison == 0;
+            case NOT_EQUAL: return comparison != 0;
+            case LESS_OR_EQUAL: return comparison <= 0;
+            default: return comparison >= 0;
+        }
     }
-}
 
-final class Null extends Identifier {
-    private static final Null instance = new Null();
-
-    private Null() {
-        super("null");
+    /**
+     * Gets a value indicating whether the specified value is the specified boolean value.
+     */
+    static boolean isBoolean(Object value, boolean expected) {
+        return value instanceof Boolean && (Boolean) value == expected;
     }
 
-    public static Null getInstance() {
-        return instance;
+    /**
+     * Concatenates the string representation of the specified values.
+     */
+    static String concatenate(Object[] values) {
+        StringBuilder result = new StringBuilder();
+        for (Object value : values) {
+            result.append(value);
+        }
+
+        return result.toString();
     }
-}
 
-/**
- * Represents a color in the code. The actual platform-specific color object is created during code evaluation.
- */
-final class Color {
-    private final String representation;
 
     /**
-     * Initializes a new instance of the {@link Color} object.
+     * Gets the number of elements in the code.
      */
-    Color(String representation) {
-        this.representation = representation;
+    int getLength() {
+        return code.length;
     }
 
     /**
-     * Gets the string representation of the color.
+     * Gets the element at the specified position within the code. The element is either
+     * an {@link Op} or the value of an operand, resolved through the respective pool.
      */
-    String getRepresentation() {
-        return representation;
-    }
-}
-
-final class Quantity {
-    private final double value;
-    private final String unit;
+    Object get(int index) {
+        if (index < 0 || index >= code.length) {
+            throw new IndexOutOfBoundsException(String.format("Index: %1$d, Length: %2$d", index, code.length));
+        }
 
-    Quantity(double value, String unit) {
-        this.value = value;
-        this.unit = unit;
+        int i = 0;
+        while (true) {
+            Op op = OPS[code[i]];
+            if (index == i) {
+                return op;
+            }
+            if (index < i + op.getSize()) {
+                switch (op.operands[index - i - 1]) {
+                    case DOUBLE:
+                        return doubles[code[index]];
+                    case CONSTANT:
+                        return constants[code[index]];
+                    default:
+                        return code[index];
+                }
+            }
+            i += op.getSize();
+        }
     }
 
-    double getValue() {
-        return value;
-    }
+    /**
+     * Gets a set with all identifiers within the code.
+     */
+    public Set<String> getIdentifiers() {
+        Set<String> identifiers = new HashSet<>();
+
+        int i = 0;
+        while (i < code.length) {
+            Op op = OPS[code[i]];
+            if (op == Op.IDENTIFIER || op == Op.VARIABLE) {
+                identifiers.add((String)constants[code[i + 1]]);
+            }
+            i += op.getSize();
+        }
 
-    String getUnit() {
-        return unit;
+        return identifiers;
     }
 }
\ No newline at end of file
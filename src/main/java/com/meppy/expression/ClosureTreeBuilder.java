@@ -0,0 +1,979 @@
+package com.meppy.expression;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Translates byte code to a tree of pre-linked nodes, which evaluate their children directly.
+ * <p>
+ * Unlike the interpreter, the tree does not need an evaluation stack, dispatching on the operations or
+ * placeholder objects for identifiers. Identifiers, colors and quantities are still evaluated
+ * at the point where the interpreter would evaluate them, so that both produce the same results and errors.
+ * The nodes evaluate their children recursively, so the code of very deep trees is left to the interpreter.
+ */
+final class ClosureTreeBuilder {
+    /**
+     * The maximum depth of the trees, which are evaluated without the risk of overflowing the thread stack.
+     */
+    private static final int MAX_DEPTH = 1000;
+
+    private ClosureTreeBuilder() {
+    }
+
+    /**
+     * Represents a node in the tree, corresponding to a single operation of the byte code.
+     */
+    private abstract static class Node {
+        /**
+         * The number of nodes on the longest path from this node to a leaf, including both.
+         */
+        private final int depth;
+
+        Node() {
+            this.depth = 1;
+        }
+
+        Node(Node... children) {
+            int depth = 0;
+            for (Node child : children) {
+                depth = Math.max(depth, child.depth);
+            }
+            this.depth = depth + 1;
+        }
+
+        /**
+         * Evaluates the node. The slots keep the values of repeated sub-expressions during the evaluation.
+         */
+        abstract Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException;
+
+        /**
+         * Performs the part of the evaluation, which the interpreter performs when it reaches the operation
+         * of this node. The result must be passed to {@link #resolve} to obtain the value of the node.
+         */
+        Object prepare(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return evaluate(context, slots);
+        }
+
+        /**
+         * Completes the evaluation started by {@link #prepare}, the same way the interpreter evaluates
+         * the element it has pushed to the stack when the element is consumed.
+         */
+        Object resolve(Object prepared, EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return prepared;
+        }
+
+        /**
+         * Gets a value indicating whether {@link #resolve} does any evaluation.
+         */
+        boolean isDeferred() {
+            return false;
+        }
+
+        /**
+         * Gets a value indicating whether the node produces a value.
+         */
+        boolean hasValue() {
+            return true;
+        }
+
+        /**
+         * Gets a value indicating whether the node is expected to produce a double, which can be obtained
+         * by {@link #evaluateDouble} without being boxed.
+         */
+        boolean isDouble() {
+            return false;
+        }
+
+        /**
+         * Evaluates the node, which is expected to produce a double. Throws {@link NotDouble} with the value of the node, if it is not a double.
+         */
+        double evaluateDouble(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, NotDouble {
+            Object value = evaluate(context, slots);
+            if (value instanceof Double) {
+                return (Double) value;
+            }
+
+            throw new NotDouble(value);
+        }
+    }
+
+    /**
+     * Thrown when the value of a node, which is expected to produce a double, is of another type.
+     */
+    private static final class NotDouble extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Object value;
+
+        NotDouble(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    private static final class ConstantNode extends Node {
+        private final Object value;
+
+        ConstantNode(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) {
+            return value;
+        }
+    }
+
+    private static final class IdentifierNode extends Node {
+        private final String name;
+
+        IdentifierNode(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return context.evaluateIdentifier(name);
+        }
+
+        @Override
+        Object prepare(EvaluationContext context, Object[] slots) {
+            return null;
+        }
+
+        @Override
+        Object resolve(Object prepared, EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return evaluate(context, slots);
+        }
+
+        @Override
+        boolean isDeferred() {
+            return true;
+        }
+    }
+
+    private static final class VariableNode extends Node {
+        private final Variable variable;
+
+        VariableNode(Variable variable) {
+            this.variable = variable;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return variable.getValue(context);
+        }
+
+        @Override
+        Object prepare(EvaluationContext context, Object[] slots) {
+            return null;
+        }
+
+        @Override
+        Object resolve(Object prepared, EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return evaluate(context, slots);
+        }
+
+        @Override
+        boolean isDeferred() {
+            return true;
+        }
+    }
+
+    private static final class ColorNode extends Node {
+        private final Color color;
+
+        ColorNode(Color color) {
+            this.color = color;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) {
+            return ByteCode.resolveColor(color, context);
+        }
+
+        @Override
+        Object prepare(EvaluationContext context, Object[] slots) {
+            return null;
+        }
+
+        @Override
+        Object resolve(Object prepared, EvaluationContext context, Object[] slots) {
+            return evaluate(context, slots);
+        }
+
+        @Override
+        boolean isDeferred() {
+            return true;
+        }
+    }
+
+    private static final class QuantityNode extends Node {
+        private final Quantity quantity;
+
+        QuantityNode(Quantity quantity) {
+            this.quantity = quantity;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) {
+            return ByteCode.evaluateQuantity(quantity, context);
+        }
+
+        @Override
+        Object prepare(EvaluationContext context, Object[] slots) {
+            return null;
+        }
+
+        @Override
+        Object resolve(Object prepared, EvaluationContext context, Object[] slots) {
+            return evaluate(context, slots);
+        }
+
+        @Override
+        boolean isDeferred() {
+            return true;
+        }
+    }
+
+    private static final class MemberNode extends Node {
+        private final Node target;
+        private final MemberSite site;
+
+        MemberNode(Node target, String[] members) {
+            super(target);
+            this.target = target;
+            this.site = new MemberSite(members);
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return site.getValue(target.evaluate(context, slots), context);
+        }
+    }
+
+    private static final class BinaryNode extends Node {
+        private final ByteCode.Op op;
+        private final Node a;
+        private final Node b;
+
+        BinaryNode(ByteCode.Op op, Node a, Node b) {
+            super(a, b);
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            if (a.isDeferred()) {
+                // The interpreter evaluates the right operand first
+                Object prepared = a.prepare(context, slots);
+                Object b = this.b.evaluate(context, slots);
+                return ByteCode.apply(a.resolve(prepared, context, slots), b, op);
+            }
+
+            return ByteCode.apply(a.evaluate(context, slots), b.evaluate(context, slots), op);
+        }
+    }
+
+    /**
+     * Evaluates a binary operation specialized for double operands. The operands, which are such operations
+     * themselves, pass their results without boxing them. If the operands are not numbers, which are promoted
+     * to doubles, the generic operation is performed.
+     */
+    private static final class DoubleNode extends Node {
+        private final ByteCode.Op op;
+        private final Node a;
+        private final Node b;
+        private final boolean arithmetic;
+
+        DoubleNode(ByteCode.Op op, Node a, Node b) {
+            super(a, b);
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.arithmetic = op == ByteCode.Op.ADD || op == ByteCode.Op.SUB || op == ByteCode.Op.MUL ||
+                op == ByteCode.Op.DIV || op == ByteCode.Op.MOD || op == ByteCode.Op.POWER;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            try {
+                double result = apply(context, slots);
+                return arithmetic ? (Object) result : ByteCode.compare((int) result, op);
+            } catch (NotDouble ex) {
+                return ex.value;
+            }
+        }
+
+        @Override
+        boolean isDouble() {
+            return arithmetic;
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, NotDouble {
+            return arithmetic ? apply(context, slots) : super.evaluateDouble(context, slots);
+        }
+
+        /**
+         * Evaluates the operands, the same way as {@link BinaryNode}, and performs the operation. Returns the result
+         * of an arithmetic operation, or the result of comparing the operands of a comparison operation. Throws
+         * {@link NotDouble} with the result of the generic operation, if it is not a double.
+         */
+        private double apply(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, NotDouble {
+            // The operands are unboxed, unless the respective objects are set
+            double p = 0;
+            double q = 0;
+            Object x = null;
+            Object y = null;
+            boolean unboxedX = false;
+            boolean unboxedY = false;
+            if (a.isDeferred()) {
+                // The interpreter evaluates the right operand first
+                Object prepared = a.prepare(context, slots);
+                if (b.isDouble()) {
+                    try {
+                        q = b.evaluateDouble(context, slots);
+                        unboxedY = true;
+                    } catch (NotDouble ex) {
+                        y = ex.value;
+                    }
+                } else {
+                    y = b.evaluate(context, slots);
+                }
+                x = a.resolve(prepared, context, slots);
+            } else {
+                if (a.isDouble()) {
+                    try {
+                        p = a.evaluateDouble(context, slots);
+                        unboxedX = true;
+                    } catch (NotDouble ex) {
+                        x = ex.value;
+                    }
+                } else {
+                    x = a.evaluate(context, slots);
+                }
+                if (b.isDouble()) {
+                    try {
+                        q = b.evaluateDouble(context, slots);
+                        unboxedY = true;
+                    } catch (NotDouble ex) {
+                        y = ex.value;
+                    }
+                } else {
+                    y = b.evaluate(context, slots);
+                }
+            }
+
+            // The operands are promoted to doubles if both are numbers and one of them is a double
+            unboxedX |= x instanceof Double;
+            unboxedY |= y instanceof Double;
+            if (unboxedX ? unboxedY || isNumber(y) : unboxedY && isNumber(x)) {
+                if (x != null) {
+                    p = ((Number) x).doubleValue();
+                }
+                if (y != null) {
+                    q = ((Number) y).doubleValue();
+                }
+                switch (op) {
+                    case ADD: return p + q;
+                    case SUB: return p - q;
+                    case MUL: return p * q;
+                    case DIV: return p / q;
+                    case MOD: return p % q;
+                    case POWER: return Math.pow(p, q);
+                    default: return Double.compare(p, q);
+                }
+            }
+
+            Object result = ByteCode.apply(x != null || !unboxedX ? x : (Object) p, y != null || !unboxedY ? y : (Object) q, op);
+            if (arithmetic && result instanceof Double) {
+                return (Double) result;
+            }
+
+            throw new NotDouble(result);
+        }
+
+        private static boolean isNumber(Object value) {
+            return value instanceof Double || value instanceof Integer || value instanceof Long;
+        }
+    }
+
+    /**
+     * Evaluates a conditional operation, skipping the right operand if the left one determines the result.
+     */
+    private static final class ConditionalNode extends Node {
+        private final ByteCode.Op op;
+        private final Node a;
+        private final Node b;
+
+        /**
+         * The value of the left operand, which determines the result.
+         */
+        private final boolean decisive;
+
+        ConditionalNode(ByteCode.Op op, Node a, Node b) {
+            super(a, b);
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.decisive = op == ByteCode.Op.CONDITIONAL_OR;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            Object a = this.a.evaluate(context, slots);
+            if (a instanceof Boolean && (Boolean) a == decisive) {
+                return a;
+            }
+
+            return ByteCode.Calc.apply(a, b.evaluate(context, slots), op);
+        }
+    }
+
+    /**
+     * Marks the left operand of a conditional operation, which is followed by a jump.
+     */
+    private static final class Jump {
+        private final Node a;
+
+        Jump(Node a) {
+            this.a = a;
+        }
+    }
+
+    /**
+     * Evaluates one of two branches, depending on the value of a condition.
+     */
+    private static final class IfNode extends Node {
+        private final Node condition;
+        private final Node a;
+        private final Node b;
+
+        IfNode(Node condition, Node a, Node b) {
+            super(condition, a, b);
+            this.condition = condition;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return context.getBool(condition.evaluate(context, slots)) ? a.evaluate(context, slots) : b.evaluate(context, slots);
+        }
+    }
+
+    /**
+     * Marks the condition of an iif function and, once translated, its first branch.
+     */
+    private static final class Branch {
+        private final Node condition;
+        private Node a;
+
+        Branch(Node condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * Produces a lazily evaluated argument of a function.
+     */
+    private static final class LazyArgumentNode extends Node {
+        private final Node a;
+
+        LazyArgumentNode(Node a) {
+            super(a);
+            this.a = a;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) {
+            return new NodeArgument(a, context, slots);
+        }
+    }
+
+    /**
+     * Marks the beginning of a lazily evaluated argument.
+     */
+    private static final class LazyArgumentStart {
+    }
+
+    private static final class NodeArgument extends ByteCode.Argument {
+        private final Node node;
+        private final EvaluationContext context;
+        private final Object[] slots;
+
+        NodeArgument(Node node, EvaluationContext context, Object[] slots) {
+            this.node = node;
+            this.context = context;
+            this.slots = slots;
+        }
+
+        @Override
+        Object evaluate() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return node.evaluate(context, slots);
+        }
+    }
+
+    /**
+     * Evaluates a repeated sub-expression and keeps its value in a slot. If the sub-expression is deferred,
+     * its occurrences share the prepared value, which is resolved once, when any of them is first resolved.
+     */
+    private static final class StoreNode extends Node {
+        private final int slot;
+        private final Node a;
+
+        StoreNode(int slot, Node a) {
+            super(a);
+            this.slot = slot;
+            this.a = a;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return resolve(prepare(context, slots), context, slots);
+        }
+
+        @Override
+        Object prepare(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            Object prepared = a.prepare(context, slots);
+            return slots[slot] = a.isDeferred() ? new Shared(a, prepared) : prepared;
+        }
+
+        @Override
+        Object resolve(Object prepared, EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return Shared.resolve(prepared, context, slots);
+        }
+
+        @Override
+        boolean isDeferred() {
+            return a.isDeferred();
+        }
+    }
+
+    /**
+     * Produces the value of a repeated sub-expression kept in a slot by a {@link StoreNode}.
+     */
+    private static final class LoadNode extends Node {
+        private final int slot;
+
+        LoadNode(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return Shared.resolve(slots[slot], context, slots);
+        }
+
+        @Override
+        Object prepare(EvaluationContext context, Object[] slots) {
+            return slots[slot];
+        }
+
+        @Override
+        Object resolve(Object prepared, EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return Shared.resolve(prepared, context, slots);
+        }
+
+        @Override
+        boolean isDeferred() {
+            return true;
+        }
+    }
+
+    /**
+     * The prepared value of a deferred repeated sub-expression, which is resolved once.
+     */
+    private static final class Shared {
+        private final Node node;
+        private final Object prepared;
+        private boolean resolved;
+        private Object value;
+
+        Shared(Node node, Object prepared) {
+            this.node = node;
+            this.prepared = prepared;
+        }
+
+        /**
+         * Resolves the specified value of a repeated sub-expression, if it is shared.
+         */
+        static Object resolve(Object value, EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            if (!(value instanceof Shared)) {
+                return value;
+            }
+
+            Shared shared = (Shared) value;
+            if (!shared.resolved) {
+                shared.value = shared.node.resolve(shared.prepared, context, slots);
+                shared.resolved = true;
+            }
+
+            return shared.value;
+        }
+    }
+
+    private static final class UnaryNode extends Node {
+        private final ByteCode.Op op;
+        private final Node a;
+
+        UnaryNode(ByteCode.Op op, Node a) {
+            super(a);
+            this.op = op;
+            this.a = a;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return ByteCode.Calc.apply(a.evaluate(context, slots), op);
+        }
+    }
+
+    private static final class FormatNode extends Node {
+        private final Node a;
+        private final String pattern;
+        private final Locale locale;
+
+        FormatNode(Node a, String pattern, Locale locale) {
+            super(a);
+            this.a = a;
+            this.pattern = pattern;
+            this.locale = locale;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            return ByteCode.format(a.evaluate(context, slots), context, pattern, locale);
+        }
+    }
+
+    /**
+     * Evaluates an expression, whose value is discarded.
+     */
+    private static final class DiscardNode extends Node {
+        private final Node a;
+
+        DiscardNode(Node a) {
+            super(a);
+            this.a = a;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            a.evaluate(context, slots);
+            return null;
+        }
+
+        @Override
+        boolean hasValue() {
+            return false;
+        }
+    }
+
+    private static final class FunctionCallNode extends Node {
+        private final String name;
+        private final BuiltInFunction function;
+        private final Node[] parameters;
+
+        FunctionCallNode(String name, Node[] parameters) {
+            super(parameters);
+            this.name = name;
+            this.function = BuiltInFunction.get(name);
+            this.parameters = parameters;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            Node[] parameters = this.parameters;
+            Object[] values = new Object[parameters.length];
+            for (int j = 0; j < parameters.length; j++) {
+                values[j] = parameters[j].prepare(context, slots);
+            }
+            for (int j = parameters.length - 1; j >= 0; j--) {
+                values[j] = parameters[j].resolve(values[j], context, slots);
+            }
+
+            return function != null ? context.invokeFunction(function, values) : context.invokeFunction(name, values);
+        }
+    }
+
+    private static final class SeparatorNode extends Node {
+        private final Node a;
+        private final Node b;
+
+        SeparatorNode(Node a, Node b) {
+            super(a, b);
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context, Object[] slots) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            Object prepared = a.prepare(context, slots);
+            Object b = this.b.evaluate(context, slots);
+            a.resolve(prepared, context, slots);
+            return b;
+        }
+    }
+
+    /**
+     * Evaluates the nodes remaining at the top level of the tree and concatenates their values, if more than one.
+     */
+    private static final class Root implements ByteCode.Evaluator {
+        private final Node[] nodes;
+        private final int valueCount;
+        private final int slotCount;
+
+        Root(Node[] nodes, int slotCount) {
+            this.nodes = nodes;
+            this.slotCount = slotCount;
+
+            int valueCount = 0;
+            for (Node node : nodes) {
+                if (node.hasValue()) {
+                    valueCount++;
+                }
+            }
+            this.valueCount = valueCount;
+        }
+
+        @Override
+        public Object evaluate(EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+            Node[] nodes = this.nodes;
+            Object[] slots = slotCount > 0 ? new Object[slotCount] : null;
+            if (nodes.length == 1) {
+                return nodes[0].hasValue() ? nodes[0].evaluate(context, slots) : null;
+            }
+
+            Object[] prepared = new Object[nodes.length];
+            for (int j = 0; j < nodes.length; j++) {
+                prepared[j] = nodes[j].prepare(context, slots);
+            }
+
+            if (valueCount == 0) {
+                return null;
+            }
+
+            Object[] values = new Object[valueCount];
+            int count = 0;
+            for (int j = 0; j < nodes.length; j++) {
+                if (nodes[j].hasValue()) {
+                    values[count++] = nodes[j].resolve(prepared[j], context, slots);
+                }
+            }
+
+            return count == 1 ? values[0] : ByteCode.concatenate(values);
+        }
+    }
+
+    /**
+     * Completes the iif functions and the lazy arguments, which end at the specified position.
+     */
+    private static void close(Deque<Object> stack, Deque<Integer> ends, int position) {
+        while (!ends.isEmpty() && ends.peek() == position) {
+            ends.pop();
+            Node node = (Node) stack.pop();
+            Object start = stack.pop();
+            stack.push(start instanceof Branch ?
+                new IfNode(((Branch) start).condition, ((Branch) start).a, node) :
+                new LazyArgumentNode(node));
+        }
+    }
+
+    /**
+     * Translates the specified code, bound to the specified schema, to a tree and returns its root,
+     * or null, if the tree is too deep to be evaluated recursively.
+     */
+    static ByteCode.Evaluator build(int[] code, Object[] constants, double[] doubles, int slotCount, VariableSchema schema) {
+        // Nodes and values known at translation time, such as object names and formatting patterns
+        Deque<Object> stack = new ArrayDeque<>();
+
+        // The positions, where the iif functions and the lazy arguments being translated end, the innermost first
+        Deque<Integer> ends = new ArrayDeque<>();
+
+        int i = 0;
+        while (i < code.length) {
+            close(stack, ends, i);
+
+            ByteCode.Op op = ByteCode.OPS[code[i]];
+
+            switch (op.getGeneric()) {
+                case TEXT:
+                case STRING:
+                case VALUE:
+                    stack.push(new ConstantNode(constants[code[i + 1]]));
+                    break;
+
+                case FLOAT:
+                    stack.push(new ConstantNode(doubles[code[i + 1]]));
+                    break;
+
+                case INT:
+                    stack.push(new ConstantNode(code[i + 1]));
+                    break;
+
+                case NULL:
+                    // Evaluated through the context when consumed, like in the interpreter
+                    stack.push(new IdentifierNode(Null.getInstance().getName()));
+                    break;
+
+                case COLOR:
+                    stack.push(new ColorNode((Color) constants[code[i + 1]]));
+                    break;
+
+                case QUANTITY: {
+                    // The unit is followed by the operation pushing the value
+                    String unit = (String) constants[code[i + 1]];
+                    i += op.getSize();
+                    op = ByteCode.OPS[code[i]];
+                    double value = op == ByteCode.Op.INT ? code[i + 1] : doubles[code[i + 1]];
+                    stack.push(new QuantityNode(new Quantity(value, unit)));
+                    break;
+                }
+                case IDENTIFIER:
+                    stack.push(new IdentifierNode((String) constants[code[i + 1]]));
+                    break;
+
+                case VARIABLE:
+                    stack.push(new VariableNode(new Variable((String) constants[code[i + 1]], schema)));
+                    break;
+
+                case OBJECT_OR_MEMBER:
+                    stack.push(constants[code[i + 1]]);
+                    break;
+
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case MOD:
+                case POWER:
+                case LESS:
+                case LESS_OR_EQUAL:
+                case GREATER:
+                case GREATER_OR_EQUAL:
+                case EQUAL:
+                case NOT_EQUAL:
+                case CONDITIONAL_AND:
+                case CONDITIONAL_OR:
+                case AND:
+                case OR:
+                case XOR: {
+                    Node b = (Node) stack.pop();
+                    Object a = stack.pop();
+                    if (a instanceof Jump) {
+                        stack.push(new ConditionalNode(op, ((Jump) a).a, b));
+                    } else if (op.type == ByteCode.Frame.DOUBLE) {
+                        // Operations specialized for other numeric types are performed directly on the numbers by the generic operation
+                        stack.push(new DoubleNode(op.getGeneric(), (Node) a, b));
+                    } else {
+                        stack.push(new BinaryNode(op.getGeneric(), (Node) a, b));
+                    }
+                    break;
+                }
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE:
+                    stack.push(new Jump((Node) stack.pop()));
+                    break;
+
+                case JUMP_UNLESS:
+                    stack.push(new Branch((Node) stack.pop()));
+                    break;
+
+                case JUMP: {
+                    Node a = (Node) stack.pop();
+                    ((Branch) stack.peek()).a = a;
+                    ends.push(code[i + 1]);
+                    break;
+                }
+                case LAZY_ARGUMENT:
+                    stack.push(new LazyArgumentStart());
+                    ends.push(code[i + 1]);
+                    break;
+
+                case STORE:
+                    stack.push(new StoreNode(code[i + 1], (Node) stack.pop()));
+                    break;
+
+                case LOAD:
+                    stack.push(new LoadNode(code[i + 1]));
+                    break;
+
+                case MINUS:
+                case NOT:
+                    stack.push(new UnaryNode(op, (Node) stack.pop()));
+                    break;
+
+                case DOT: {
+                    int count = code[i + 1];
+                    String[] members = new String[count - 1];
+                    for (int c = count - 2; c >= 0; c--) {
+                        members[c] = (String) stack.pop();
+                    }
+
+                    // The target is either the name of an object or the result of a function call
+                    Object target = stack.pop();
+                    stack.push(new MemberNode(target instanceof Node ? (Node) target : new ConstantNode(target), members));
+                    break;
+                }
+                case FORMAT:
+                    stack.push(constants[code[i + 1]]);
+                    // Invariant culture, unless explicitly specified later
+                    stack.push(Null.getInstance());
+                    break;
+
+                case DISCARD:
+                    stack.push(Null.getInstance());
+                    stack.push(Null.getInstance());
+                    break;
+
+                case CULTURE:
+                    stack.pop();
+                    stack.push(new Locale((String) constants[code[i + 1]]));
+                    break;
+
+                case FORMATTING: {
+                    Object locale = stack.pop();
+                    Object pattern = stack.pop();
+                    Node a = (Node) stack.pop();
+                    stack.push(pattern instanceof Null ?
+                        new DiscardNode(a) :
+                        new FormatNode(a, (String) pattern, locale instanceof Null ? null : (Locale) locale));
+                    break;
+                }
+                case FUNCTION_CALL: {
+                    Node[] parameters = new Node[code[i + 1]];
+                    for (int j = parameters.length - 1; j >= 0; j--) {
+                        parameters[j] = (Node) stack.pop();
+                    }
+                    stack.push(new FunctionCallNode((String) constants[code[i + 2]], parameters));
+                    break;
+                }
+                case EXPRESSION_SEPARATOR: {
+                    Node b = (Node) stack.pop();
+                    Node a = (Node) stack.pop();
+                    stack.push(new SeparatorNode(a, b));
+                    break;
+                }
+            }
+
+            i += op.getSize();
+        }
+        close(stack, ends, code.length);
+
+        Node[] nodes = new Node[stack.size()];
+        for (int j = nodes.length - 1; j >= 0; j--) {
+            nodes[j] = (Node) stack.pop();
+            if (nodes[j].depth > MAX_DEPTH) {
+                return null;
+            }
+        }
+
+        return new Root(nodes, slotCount);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.meppy.expression;
+
+/**
+ * Represents a color in the code. The actual platform-specific color object is created during code evaluation.
+ */
+final class Color {
+    private final String representation;
+
+    /**
+     * Initializes a new instance of the {@link Color} object.
+     */
+    Color(String representation) {
+        this.representation = representation;
+    }
+
+    /**
+     * Gets the string representation of the color.
+     */
+    String getRepresentation() {
+        return representation;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,451 @@
+package com.meppy.expression;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a bounded number of expressions compiled through {@link Compiler#compile(String, CompileOptions)},
+ * by their source and options, so that compiling the same expression again returns the same {@link ByteCode}.
+ * <p>
+ * The cache can be used by several threads. If several threads compile the same expression concurrently,
+ * it is compiled by one of them and the others wait for its byte code. Expressions, which fail to compile,
+ * are not kept. The options are copied, so changing them afterwards does not affect the cached expressions.
+ * Options of classes extending {@link CompileOptions} might change the compilation in ways unknown to
+ * the cache, so the expressions compiled with them are not kept.
+ * <p>
+ * Recently compiled expressions are kept in a small window. When the cache is full, the expression leaving
+ * the window replaces the least recently used expression in the rest of the cache, only if it has been compiled
+ * more often recently. Otherwise, it is discarded. The frequencies are estimated by a small sketch, which is
+ * periodically aged, so that a burst of expressions compiled once does not evict the expressions in use.
+ * <p>
+ * Cached expressions are looked up without locking. The uses of the expressions are recorded in a bounded buffer,
+ * which is applied to the window, the rest of the cache and the sketch under a lock, once it is half full or before
+ * an expression is added. If the buffer is full, because many threads use expressions at the same time, further uses
+ * are not recorded until it is applied.
+ */
+public final class CompileCache {
+    /**
+     * The number of uses of expressions kept by the buffer, which is a power of two.
+     */
+    private static final int READ_BUFFER_SIZE = 128;
+
+    private final int capacity;
+    private final int windowCapacity;
+
+    /**
+     * The recently compiled expressions, in the order of their use.
+     */
+    private final LinkedHashMap<Key, ByteCode> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The expressions admitted from the window, in the order of their use.
+     */
+    private final LinkedHashMap<Key, ByteCode> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The expressions in the window and in the rest of the cache, which are looked up without locking.
+     */
+    private final ConcurrentMap<Key, ByteCode> entries = new ConcurrentHashMap<>();
+
+    private final FrequencySketch sketch;
+
+    /**
+     * Guards the window, the rest of the cache, the sketch and the position of the next use to apply.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The recorded uses of expressions, which are not applied yet, in a ring indexed by their sequence numbers.
+     */
+    private final AtomicReferenceArray<Key> reads = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+
+    /**
+     * The sequence number of the next recorded use.
+     */
+    private final AtomicLong readTail = new AtomicLong();
+
+    /**
+     * The sequence number of the next use to apply.
+     */
+    private volatile long readHead;
+
+    /**
+     * The compilations in progress, by the expressions they compile.
+     */
+    private final ConcurrentMap<Key, FutureTask<ByteCode>> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder compilations = new LongAdder();
+
+    /**
+     * Initializes a new instance of the {@link CompileCache} class, which keeps up to the specified number of expressions.
+     */
+    public CompileCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the cache must be positive.");
+        }
+
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Returns a {@link ByteCode} object corresponding to the specified source code, like {@link Compiler#compile(String)}.
+     * The byte code is shared by all callers compiling the same source.
+     * @param source The script to compile.
+     * @return The compiled script.
+     */
+    public ByteCode compile(String source) {
+        return compile(source, new CompileOptions());
+    }
+
+    /**
+     * Returns a {@link ByteCode} object corresponding to the specified source code, like
+     * {@link Compiler#compile(String, CompileOptions)}. The byte code is shared by all callers compiling
+     * the same source with equal options.
+     * @param source The script to compile.
+     * @param options The compilation options.
+     * @return The compiled script.
+     */
+    public ByteCode compile(String source, CompileOptions options) {
+        if (options.getClass() != CompileOptions.class) {
+            misses.increment();
+            compilations.increment();
+            return Compiler.compile(source, options);
+        }
+
+        Key key = new Key(source, options);
+        ByteCode code = get(key);
+        if (code != null) {
+            hits.increment();
+            return code;
+        }
+
+        misses.increment();
+        Key copy = new Key(key.source, new CompileOptions(options), key.hash);
+        FutureTask<ByteCode> task = new FutureTask<>(() -> {
+            // The expression might have been cached, after it was looked up, by another thread
+            ByteCode cached = peek(copy);
+            if (cached != null) {
+                return cached;
+            }
+
+            compilations.increment();
+            return Compiler.compile(copy.source, copy.options);
+        });
+        FutureTask<ByteCode> existing = pending.putIfAbsent(copy, task);
+        if (existing != null) {
+            return await(existing, copy);
+        }
+
+        try {
+            task.run();
+            code = await(task, copy);
+            put(copy, code);
+            return code;
+        } finally {
+            pending.remove(copy, task);
+        }
+    }
+
+    /**
+     * Waits for the specified compilation and returns its byte code, or throws the exception thrown by the compiler.
+     */
+    private static ByteCode await(FutureTask<ByteCode> task, Key key) {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            // The thread should not wait any longer, so it compiles the expression itself
+            Thread.currentThread().interrupt();
+            return Compiler.compile(key.source, key.options);
+        }
+    }
+
+    /**
+     * Gets the maximum number of expressions kept by the cache.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of expressions kept by the cache.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of calls to {@link #compile}, which returned a cached expression.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of calls to {@link #compile}, which did not find the expression in the cache.
+     * This includes the calls waiting for another thread compiling the same expression.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of compiled expressions, which were removed from the cache or not admitted into it,
+     * because the cache was full.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the number of expressions compiled by the cache.
+     */
+    public long getCompileCount() {
+        return compilations.sum();
+    }
+
+    /**
+     * Removes all expressions from the cache. The statistics are not reset.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            drainReads();
+            window.clear();
+            main.clear();
+            entries.clear();
+            sketch.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the cached byte code of the specified expression, or null, if it is not cached, and records its use.
+     */
+    private ByteCode get(Key key) {
+        ByteCode code = entries.get(key);
+        recordRead(key);
+        return code;
+    }
+
+    /**
+     * Gets the cached byte code of the specified expression, or null, if it is not cached.
+     */
+    private ByteCode peek(Key key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Records a use of the specified expression in the buffer, unless the buffer is full, and applies the buffer,
+     * if it is half full and no other thread holds the lock.
+     */
+    private void recordRead(Key key) {
+        long tail = readTail.get();
+        while (tail - readHead < READ_BUFFER_SIZE) {
+            if (readTail.compareAndSet(tail, tail + 1)) {
+                reads.lazySet((int) tail & (READ_BUFFER_SIZE - 1), key);
+                tail++;
+                break;
+            }
+            tail = readTail.get();
+        }
+
+        if (tail - readHead >= READ_BUFFER_SIZE / 2 && lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the recorded uses of expressions to the sketch and to the order of the cached expressions.
+     * Stops at a use, whose expression is not stored yet by the thread recording it. Called under the lock.
+     */
+    private void drainReads() {
+        long head = readHead;
+        long tail = readTail.get();
+        for (; head < tail; head++) {
+            int index = (int) head & (READ_BUFFER_SIZE - 1);
+            Key key = reads.get(index);
+            if (key == null) {
+                break;
+            }
+
+            reads.lazySet(index, null);
+            sketch.increment(key.hash);
+            if (window.get(key) == null) {
+                main.get(key);
+            }
+        }
+
+        readHead = head;
+    }
+
+    /**
+     * Adds the byte code of the specified expression to the window. If the window is full, its least recently used
+     * expression is moved to the rest of the cache, if there is room for it or if it is used more often than
+     * the least recently used expression there.
+     */
+    private void put(Key key, ByteCode code) {
+        lock.lock();
+        try {
+            drainReads();
+            if (entries.putIfAbsent(key, code) != null) {
+                return;
+            }
+
+            window.put(key, code);
+            if (window.size() <= windowCapacity) {
+                return;
+            }
+
+            Iterator<Map.Entry<Key, ByteCode>> candidates = window.entrySet().iterator();
+            Map.Entry<Key, ByteCode> candidate = candidates.next();
+            candidates.remove();
+            if (main.size() < capacity - windowCapacity) {
+                main.put(candidate.getKey(), candidate.getValue());
+                return;
+            }
+
+            evictions.increment();
+            if (main.isEmpty()) {
+                entries.remove(candidate.getKey());
+                return;
+            }
+
+            Iterator<Map.Entry<Key, ByteCode>> victims = main.entrySet().iterator();
+            Map.Entry<Key, ByteCode> victim = victims.next();
+            if (sketch.frequency(candidate.getKey().hash) > sketch.frequency(victim.getKey().hash)) {
+                victims.remove();
+                entries.remove(victim.getKey());
+                main.put(candidate.getKey(), candidate.getValue());
+            } else {
+                entries.remove(candidate.getKey());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Identifies an expression by its source and compilation options.
+     */
+    private static final class Key {
+        final String source;
+        final CompileOptions options;
+        final int hash;
+
+        Key(String source, CompileOptions options) {
+            this(source, options, 31 * (source != null ? source.hashCode() : 0) + options.hashCode());
+        }
+
+        Key(String source, CompileOptions options, int hash) {
+            this.source = source;
+            this.options = options;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) obj;
+            return hash == key.hash && (source != null ? source.equals(key.source) : key.source == null) && options.equals(key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Estimates how often the expressions have been used recently, through a count-min sketch with four rows
+     * of counters up to 15. The counters are halved after a number of uses proportional to the capacity.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x97CB3127, 0xB3B5F3E5, 0xC2B2AE35, 0x9E3779B9 };
+        private static final int MAX_COUNT = 15;
+
+        private final int[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit((int) Math.min(1 << 24, Math.max(64L, 16L * capacity)) - 1) << 1;
+            this.counters = new int[size];
+            this.mask = size - 1;
+            this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(capacity, 16));
+        }
+
+        void increment(int hash) {
+            for (int seed : SEEDS) {
+                int index = index(hash, seed);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                }
+            }
+
+            if (++additions == sampleSize) {
+                for (int c = 0; c < counters.length; c++) {
+                    counters[c] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int seed : SEEDS) {
+                frequency = Math.min(frequency, counters[index(hash, seed)]);
+            }
+
+            return frequency;
+        }
+
+        void clear() {
+            Arrays.fill(counters, 0);
+            additions = 0;
+        }
+
+        private int index(int hash, int seed) {
+            int h = hash * seed;
+            h ^= h >>> 17;
+            h *= 0xED5AD4BB;
+            return (h ^ (h >>> 15)) & mask;
+        }
+    }
+}
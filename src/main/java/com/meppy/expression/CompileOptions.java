@@ -1,10 +1,26 @@
 package com.meppy.expression;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
 /**
  * Contains options for the {@link Compiler#compile} method.
  */
 public class CompileOptions {
     private final boolean interpretCircumflexAsPower;
+    private Backend backend = Backend.INTERPRETER;
+    private boolean optimize = true;
+    private boolean foldFunctions;
+    private boolean eliminateSubexpressions = true;
+    private final Map<String, Class<?>> variableTypes = new HashMap<>();
+    private final Set<String> lazyFunctions = new HashSet<>();
+    private final Set<String> pureFunctions = new HashSet<>();
+    private final Set<String> functions = new HashSet<>();
+    private boolean allowUndeclaredFunctions = true;
+    private VariableSchema variableSchema;
 
     /**
      * Initializes a new instance of the {@link CompileOptions} class.
@@ -20,6 +36,23 @@ public class CompileOptions {
         this.interpretCircumflexAsPower = interpretCircumflexAsPower;
     }
 
+    /**
+     * Initializes a new instance of the {@link CompileOptions} class with the same options as the specified instance.
+     */
+    CompileOptions(CompileOptions options) {
+        this.interpretCircumflexAsPower = options.interpretCircumflexAsPower;
+        this.backend = options.backend;
+        this.optimize = options.optimize;
+        this.foldFunctions = options.foldFunctions;
+        this.eliminateSubexpressions = options.eliminateSubexpressions;
+        this.variableTypes.putAll(options.variableTypes);
+        this.lazyFunctions.addAll(options.lazyFunctions);
+        this.pureFunctions.addAll(options.pureFunctions);
+        this.functions.addAll(options.functions);
+        this.allowUndeclaredFunctions = options.allowUndeclaredFunctions;
+        this.variableSchema = options.variableSchema;
+    }
+
     /**
      * Gets a value indicating whether circumflex symbols (^) are interpreted as raising to power,
      * rather than exclusive-OR. Raising to power also has different priority than XOR.
@@ -27,4 +60,207 @@ public class CompileOptions {
     public boolean getInterpretCircumflexAsPower() {
         return interpretCircumflexAsPower;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the backend used to execute the compiled byte code. The default is {@link Backend#INTERPRETER}.
+     */
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Sets the backend used to execute the compiled byte code.
+     */
+    public void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Gets a value indicating whether constant sub-expressions are computed during compilation. The default is true.
+     */
+    public boolean getOptimize() {
+        return optimize;
+    }
+
+    /**
+     * Sets a value indicating whether constant sub-expressions, such as arithmetic, comparison and logical operations
+     * on literals, are computed during compilation. Calls to built-in functions are computed only if requested
+     * through {@link #setFoldFunctions}.
+     */
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Gets a value indicating whether calls to built-in functions with constant arguments are computed during
+     * compilation. The default is false.
+     */
+    public boolean getFoldFunctions() {
+        return foldFunctions;
+    }
+
+    /**
+     * Sets a value indicating whether calls to built-in functions with constant arguments, such as pi() and
+     * len("abc"), are computed during compilation, when constant sub-expressions are. Calls to built-in functions,
+     * which depend on the locale of the evaluation context or produce different results on each call, such as
+     * now() and rnd(), and calls to functions declared through {@link #addFunction}, {@link #addLazyFunction}
+     * or {@link #addPureFunction} are not computed. Repeated calls to the other built-in functions are evaluated
+     * once, when repeated sub-expressions are. Enable this only if the evaluation context does not override
+     * the built-in functions.
+     */
+    public void setFoldFunctions(boolean foldFunctions) {
+        this.foldFunctions = foldFunctions;
+    }
+
+    /**
+     * Gets a value indicating whether repeated sub-expressions are evaluated once per evaluation.
+     * The default is true.
+     */
+    public boolean getEliminateSubexpressions() {
+        return eliminateSubexpressions;
+    }
+
+    /**
+     * Sets a value indicating whether repeated sub-expressions, such as k * sd in [avg - k * sd] and
+     * [avg + k * sd], are evaluated once and their values are reused within the same evaluation. Sub-expressions
+     * calling custom functions are reused only if the functions are declared through {@link #addPureFunction},
+     * and sub-expressions calling built-in functions only if {@link #setFoldFunctions} is enabled.
+     * The optimization assumes that the values of identifiers and members do not change during an evaluation.
+     */
+    public void setEliminateSubexpressions(boolean eliminateSubexpressions) {
+        this.eliminateSubexpressions = eliminateSubexpressions;
+    }
+
+    /**
+     * Gets the declared type of the variable with the specified name, or null, if the type is not declared.
+     */
+    public Class<?> getVariableType(String name) {
+        return variableTypes.get(name);
+    }
+
+    /**
+     * Declares the type of the values of the variable with the specified name. The compiler uses the declared
+     * types of numeric variables to emit operations specialized for these types. Variables of other types
+     * are still evaluated correctly, but slower.
+     */
+    public void setVariableType(String name, Class<?> type) {
+        variableTypes.put(name, type);
+    }
+
+    /**
+     * Gets the schema declaring the variables read from the slots of the evaluation context, or null, if there is no schema.
+     */
+    public VariableSchema getVariableSchema() {
+        return variableSchema;
+    }
+
+    /**
+     * Sets the schema declaring the variables read from the slots of the evaluation context. The compiled code
+     * reads the values of these variables from the slots of a {@link VariableContext} with the same schema,
+     * rather than looking up their names. The code can also be bound to a schema after it is compiled
+     * through {@link ByteCode#bind}.
+     */
+    public void setVariableSchema(VariableSchema variableSchema) {
+        this.variableSchema = variableSchema;
+    }
+
+    /**
+     * Gets a value indicating whether calls to functions, which are neither built in nor declared, are compiled.
+     * The default is true.
+     */
+    public boolean getAllowUndeclaredFunctions() {
+        return allowUndeclaredFunctions;
+    }
+
+    /**
+     * Sets a value indicating whether calls to functions, which are neither built in nor declared through
+     * {@link #addFunction}, {@link #addLazyFunction} or {@link #addPureFunction}, are compiled. If they are not,
+     * such calls are reported by the compiler, rather than when they are evaluated. Calls to built-in functions
+     * with fewer arguments than they require are always reported by the compiler.
+     */
+    public void setAllowUndeclaredFunctions(boolean allowUndeclaredFunctions) {
+        this.allowUndeclaredFunctions = allowUndeclaredFunctions;
+    }
+
+    /**
+     * Gets a value indicating whether the custom function with the specified name is declared.
+     */
+    public boolean isFunction(String name) {
+        return functions.contains(name) || lazyFunctions.contains(name) || pureFunctions.contains(name);
+    }
+
+    /**
+     * Declares a custom function with the specified name, which is evaluated by the evaluation context.
+     * The compiler does not check the number of the arguments of declared functions, even if they
+     * override built-in functions.
+     */
+    public void addFunction(String name) {
+        functions.add(name);
+    }
+
+    /**
+     * Gets a value indicating whether the arguments of the function with the specified name are evaluated lazily.
+     */
+    public boolean isLazyFunction(String name) {
+        return lazyFunctions.contains(name);
+    }
+
+    /**
+     * Declares that the arguments of the custom function with the specified name are evaluated lazily.
+     * The function receives its arguments as {@link LazyArgument} instances and only the arguments,
+     * whose values are requested, are evaluated. The built-in functions do not accept such arguments.
+     */
+    public void addLazyFunction(String name) {
+        lazyFunctions.add(name);
+    }
+
+    /**
+     * Gets a value indicating whether the custom function with the specified name is declared pure.
+     */
+    public boolean isPureFunction(String name) {
+        return pureFunctions.contains(name);
+    }
+
+    /**
+     * Declares that the custom function with the specified name returns the same result, when called with
+     * the same arguments during an evaluation, and has no side effects, so that its repeated calls can be
+     * replaced by the result of the first one.
+     */
+    public void addPureFunction(String name) {
+        pureFunctions.add(name);
+    }
+
+    /**
+     * Gets a value indicating whether the specified object is an instance of the same class with the same options,
+     * so that compiling an expression with either of them produces the same code. Variable schemas are compared
+     * by reference.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+
+        CompileOptions options = (CompileOptions) obj;
+        return interpretCircumflexAsPower == options.interpretCircumflexAsPower &&
+            backend == options.backend &&
+            optimize == options.optimize &&
+            foldFunctions == options.foldFunctions &&
+            eliminateSubexpressions == options.eliminateSubexpressions &&
+            allowUndeclaredFunctions == options.allowUndeclaredFunctions &&
+            variableSchema == options.variableSchema &&
+            variableTypes.equals(options.variableTypes) &&
+            lazyFunctions.equals(options.lazyFunctions) &&
+            pureFunctions.equals(options.pureFunctions) &&
+            functions.equals(options.functions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(interpretCircumflexAsPower, backend.ordinal(), optimize, foldFunctions, eliminateSubexpressions, allowUndeclaredFunctions,
+            System.identityHashCode(variableSchema), variableTypes, lazyFunctions, pureFunctions, functions);
+    }
+}
@@ -38,10 +38,40 @@ public final class Compiler {
      * @return The compiled script.
      */
     public static ByteCode compile(String source, CompileOptions options) {
-        String expression = normalize(source);
+        TokenBuffer tokens = new Lexer(options).scan(normalize(source));
 
-        Lexer lexer = new Lexer(options);
-        Parser parser = new Parser(lexer.tokenize(expression));
-        return new ByteCode(parser.parse());
+        // A repeated identifier likely starts a repeated sub-expression, which is eliminated through the parse tree
+        if (!options.getEliminateSubexpressions() || !tokens.hasRepeatedIdentifiers()) {
+            ByteCode code = StreamingCompiler.compile(tokens, options);
+            if (code != null) {
+                return code;
+            }
+        }
+
+        return compileTree(tokens, options);
+    }
+
+    /**
+     * Returns a {@link ByteCode} object corresponding to the specified normalized expression, built out of its parse tree.
+     */
+    static ByteCode compileTree(String expression, CompileOptions options) {
+        return compileTree(new Lexer(options).scan(expression), options);
+    }
+
+    /**
+     * Returns a {@link ByteCode} object corresponding to the expression with the specified tokens, built out of its
+     * parse tree.
+     */
+    private static ByteCode compileTree(TokenBuffer tokens, CompileOptions options) {
+        Parser parser = new Parser(tokens);
+        ParseTreeNode root = parser.parse();
+        if (options.getOptimize()) {
+            root = Optimizer.optimize(root, options);
+        }
+        if (root != null && options.getEliminateSubexpressions()) {
+            SubexpressionEliminator.eliminate(root, options);
+        }
+
+        return new ByteCode(root, options);
     }
 }
\ No newline at end of file
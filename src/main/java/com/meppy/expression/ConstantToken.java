@@ -0,0 +1,23 @@
+package com.meppy.expression;
+
+/**
+ * Represents a value computed during compilation, which replaces a constant sub-expression of the parse tree.
+ */
+final class ConstantToken extends Token {
+    private final Object value;
+
+    /**
+     * Initializes a new instance of the {@link ConstantToken} class.
+     */
+    ConstantToken(Object value) {
+        super(String.valueOf(value), TokenType.CONSTANT);
+        this.value = value;
+    }
+
+    /**
+     * Gets the value of the token.
+     */
+    Object getValue() {
+        return value;
+    }
+}
\ No newline at end of file
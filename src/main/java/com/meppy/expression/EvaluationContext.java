@@ -3,7 +3,6 @@ package com.meppy.expression;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.text.DateFormat;
-import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -15,6 +14,8 @@ import java.util.function.Function;
 
 /**
  * Provides a context for evaluating a byte code.
+ * <p>
+ * A context is meant to be used by one thread at a time, unless it is shared through {@link #share}.
  */
 public class EvaluationContext {
     /**
@@ -29,12 +30,17 @@ public class EvaluationContext {
     private final Locale locale;
 
     /**
-     * Implementation of most available functions.
+     * Implementation of most available functions, which is created when a function is first called.
      */
-    private final Functions functions;
+    private Functions functions;
 
     /**
-     * A collection with defined variables and their values.
+     * The implementation of the functions used by each thread, if this context is shared.
+     */
+    private ThreadLocal<Functions> threadFunctions;
+
+    /**
+     * A collection with defined variables and their values, which is created when it is first requested.
      */
     private Dictionary<String, Object> localVars;
 
@@ -49,6 +55,26 @@ public class EvaluationContext {
      */
     private final Function<String, FunctionEvaluationResult> parseObject;
 
+    /**
+     * Indicates whether the class of this context overrides the invocation of the built-in functions.
+     */
+    private final boolean overridesFunctions;
+
+    /**
+     * Indicates whether the context classes override the invocation of the built-in functions, by class.
+     */
+    private static final ClassValue<Boolean> OVERRIDES_FUNCTIONS = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("invokeFunction", String.class, Object[].class).getDeclaringClass() != EvaluationContext.class ||
+                    type.getMethod("getFunctionParamCount", String.class).getDeclaringClass() != EvaluationContext.class;
+            } catch (NoSuchMethodException ex) {
+                return true;
+            }
+        }
+    };
+
     /**
      * Initializes a new instance of the {@link EvaluationContext} class.
      */
@@ -88,8 +114,7 @@ public class EvaluationContext {
         this.locale = locale;
         this.dispatchFunctionCall = dispatchFunctionCall;
         this.parseObject = parseObject;
-        this.functions = new Functions(locale);
-        this.localVars = new Hashtable<>();
+        this.overridesFunctions = OVERRIDES_FUNCTIONS.get(getClass());
     }
 
     /**
@@ -99,66 +124,8 @@ public class EvaluationContext {
      * @return The number of required parameters.
      */
     public int getFunctionParamCount(String name) {
-        switch (name) {
-            case "now":
-            case "e":
-            case "pi":
-            case "today":
-                return 0;
-            case "abs":
-            case "asc":
-            case "atn":
-            case "chr":
-            case "cbool":
-            case "cdate":
-            case "cdbl":
-            case "cint":
-            case "clong":
-            case "csng":
-            case "cstr":
-            case "cos":
-            case "acos":
-            case "exp":
-            case "int":
-            case "isNull":
-            case "isNumeric":
-            case "lcase":
-            case "len":
-            case "log":
-            case "pow":
-            case "rnd":
-            case "sgn":
-            case "sin":
-            case "asin":
-            case "space":
-            case "sqr":
-            case "sqrt":
-            case "str":
-            case "strReverse":
-            case "tan":
-            case "trim":
-            case "ucase":
-            case "typeOf":
-            case "round":
-                return 1;
-            case "inStr":
-            case "inStrRev":
-            case "left":
-            case "right":
-            case "strComp":
-            case "string":
-            case "min":
-            case "max":
-                return 2;
-            case "iif":
-            case "mid":
-            case "replace":
-                return 3;
-            default:
-                break;
-        }
-
-        return 0;
+        BuiltInFunction function = BuiltInFunction.get(name);
+        return function != null ? function.getParamCount() : 0;
     }
 
     /**
@@ -176,115 +143,9 @@ public class EvaluationContext {
                 "but instead received %3$d.", name, requiredParamCount, p.length));
         }
 
-        switch (name) {
-            case "now":
-                return functions.now();
-            case "e":
-                return functions.e();
-            case "pi":
-                return functions.pi();
-            case "today":
-                return functions.today();
-            case "abs":
-                return functions.abs(getDouble(p[0]));
-            case "asc":
-                return functions.asc(getString(p[0]));
-            case "atn":
-                return functions.atn(getDouble(p[0]));
-            case "chr":
-                return functions.chr(getInt(p[0]));
-            case "cbool":
-                return functions.cbool(p[0]);
-            case "cdate":
-                return functions.cdate(p[0]);
-            case "cdbl":
-                return functions.cdbl(p[0]);
-            case "cint":
-                return functions.cint(p[0]);
-            case "clong":
-                return functions.clong(p[0]);
-            case "csng":
-                return functions.csng(p[0]);
-            case "cstr":
-                return functions.cstr(p[0]);
-            case "cos":
-                return functions.cos(getDouble(p[0]));
-            case "acos":
-                return functions.acos(getDouble(p[0]));
-            case "exp":
-                return functions.exp(getDouble(p[0]));
-            case "int":
-                return functions.integer(getDouble(p[0]));
-            case "isNull":
-                return functions.isNull(p[0]);
-            case "isNumeric":
-                return functions.isNumeric(p[0]);
-            case "lcase":
-                return functions.lcase(getString(p[0]));
-            case "len":
-                return functions.len(getString(p[0]));
-            case "log":
-                return functions.log(getDouble(p[0]));
-            case "pow": {
-                double a = getDouble(p[0]);
-                double b = 2;
-                if (p.length > 1) {
-                    b = getDouble(p[1]);
-                }
-                return functions.pow(a, b);
-            }
-            case "rnd":
-                return functions.rnd(getInt(p[0]));
-            case "sgn":
-                return functions.sgn(getDouble(p[0]));
-            case "sin":
-                return functions.sin(getDouble(p[0]));
-            case "asin":
-                return functions.asin(getDouble(p[0]));
-            case "space":
-                return functions.space(getInt(p[0]));
-            case "sqr":
-                return functions.sqr(getDouble(p[0]));
-            case "sqrt":
-                return functions.sqrt(getDouble(p[0]));
-            case "str":
-                return functions.str(getDouble(p[0]));
-            case "strReverse":
-                return functions.strReverse(getString(p[0]));
-            case "tan":
-                return functions.tan(getDouble(p[0]));
-            case "trim":
-                return functions.trim(getString(p[0]));
-            case "ucase":
-                return functions.ucase(getString(p[0]));
-            case "inStr":
-                return functions.inStr(getString(p[0]), getString(p[1]));
-            case "inStrRev":
-                return functions.inStrRev(getString(p[0]), getString(p[1]));
-            case "left":
-                return functions.left(getString(p[0]), getInt(p[1]));
-            case "right":
-                return functions.right(getString(p[0]), getInt(p[1]));
-            case "round":
-                return functions.round(getDouble(p[0]));
-            case "strComp":
-                return functions.strComp(getString(p[0]), getString(p[1]));
-            case "string":
-                return functions.string(getInt(p[0]), getInt(p[1]));
-            case "iif":
-                return functions.iif(getBool(p[0]), p[1], p[2]);
-            case "mid":
-                return functions.mid(getString(p[0]), getInt(p[1]), getInt(p[2]));
-            case "replace":
-                return functions.replace(getString(p[0]), getString(p[1]), getString(p[2]));
-            case "typeOf":
-                return functions.typeOf(p[0]);
-            case "min":
-                return Math.min(getDouble(p[0]), getDouble(p[1]));
-            case "max":
-                return Math.max(getDouble(p[0]), getDouble(p[1]));
-            default:
-                break;
+        BuiltInFunction function = BuiltInFunction.get(name);
+        if (function != null) {
+            return function.invoke(getFunctions(), p);
         }
 
         if (dispatchFunctionCall != null) {
@@ -297,32 +158,53 @@ public class EvaluationContext {
         throw new EvaluationException(String.format("The function '%1$s' is not defined.", name));
     }
 
+    /**
+     * Invokes the specified built-in function, which is resolved when the code is compiled. The number of the
+     * arguments is checked during the compilation, so the function is called directly, unless this context
+     * overrides {@link #invokeFunction(String, Object...)} or {@link #getFunctionParamCount}.
+     */
+    final Object invokeFunction(BuiltInFunction function, Object[] p) {
+        if (overridesFunctions) {
+            return invokeFunction(function.getName(), p);
+        }
+
+        return function.invoke(getFunctions(), p);
+    }
+
+    /**
+     * Gets a value indicating whether the class of this context overrides {@link #invokeFunction(String, Object...)}
+     * or {@link #getFunctionParamCount}, so that the arguments of the built-in functions are passed to its code.
+     */
+    final boolean overridesFunctions() {
+        return overridesFunctions;
+    }
+
     /**
      * Returns the specified value as a boolean.
      */
     protected final boolean getBool(Object value) {
-        return functions.cbool(value);
+        return getFunctions().cbool(value);
     }
 
     /**
      * Returns the specified value as an integer.
      */
     protected final int getInt(Object value) {
-        return functions.cint(value);
+        return getFunctions().cint(value);
     }
 
     /**
      * Returns the specified value as a double.
      */
     protected final double getDouble(Object value) {
-        return functions.cdbl(value);
+        return getFunctions().cdbl(value);
     }
 
     /**
      * Returns the specified value as a string.
      */
     protected final String getString(Object value) {
-        return functions.cstr(value);
+        return getFunctions().cstr(value);
     }
 
     /**
@@ -351,11 +233,11 @@ public class EvaluationContext {
 
         // Attempt to resolve the specified identifier as a property on the underlying object
         if (target != null) {
-            Method propertyGetter = target.getClass().getMethod(StringUtils.getPropertyName(name));
-            if (!propertyGetter.isAccessible()) {
-                propertyGetter.setAccessible(true);
+            PropertyGetter propertyGetter = PropertyGetters.getPublic(target.getClass(), name);
+            if (propertyGetter == null) {
+                throw PropertyGetters.noSuchGetter(target.getClass(), name);
             }
-            return propertyGetter.invoke(target);
+            return propertyGetter.get(target);
         }
 
         throw new EvaluationException(String.format("Identifier '%1$s' could not be found.", name));
@@ -416,10 +298,9 @@ public class EvaluationContext {
 
         if (value instanceof Number) {
             Number number = (Number)value;
-            NumberFormat numberFormat = NumberFormat.getInstance(locale);
-            if (numberFormat instanceof DecimalFormat && !StringUtils.isNullOrEmpty(pattern)) {
-                ((DecimalFormat) numberFormat).applyPattern(pattern);
-            }
+            NumberFormat numberFormat = StringUtils.isNullOrEmpty(pattern) ?
+                Formats.get(locale).getNumberFormat() :
+                Formats.get(locale).createNumberFormat(pattern);
             if (number instanceof Float || number instanceof Double) {
                 return numberFormat.format(number.doubleValue());
             } else {
@@ -428,7 +309,7 @@ public class EvaluationContext {
         } else if (value instanceof Date) {
             Date date = (Date)value;
             DateFormat dateFormat = StringUtils.isNullOrEmpty(pattern) ?
-                DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, locale) :
+                Formats.get(locale).getDateFormat() :
                 new SimpleDateFormat(pattern, locale);
             return dateFormat.format(date);
         } else {
@@ -450,20 +331,23 @@ public class EvaluationContext {
             return value;
         }
 
-        return localVars.get(objectName);
+        return localVars != null ? localVars.get(objectName) : null;
     }
 
     /**
-     * Creates a {@link MemberInfo} object representing a property with the specified name on the specified object.
+     * Finds the object with the specified name, which is the target of a member reference.
      */
-    MemberInfo createMemberInfo(String objectName, String propertyName) {
+    Object findTarget(String objectName) {
         Object targetObject = findObject(objectName);
 
         if (targetObject == null && target != null) {
             // Attempt to resolve the specified identifier as a property on the underlying object
             try {
-                Method propertyGetter = target.getClass().getMethod(StringUtils.getPropertyName(objectName));
-                targetObject = propertyGetter.invoke(target);
+                PropertyGetter propertyGetter = PropertyGetters.getPublic(target.getClass(), objectName);
+                if (propertyGetter == null) {
+                    throw PropertyGetters.noSuchGetter(target.getClass(), objectName);
+                }
+                targetObject = propertyGetter.get(target);
             } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
                 throw new EvaluationException(String.format("Could not resolve '%1$s'.", objectName), e);
             }
@@ -473,15 +357,7 @@ public class EvaluationContext {
             throw new EvaluationException(String.format("Could not resolve '%1$s'.", objectName));
         }
 
-        return new MemberInfo(targetObject, propertyName, this);
-    }
-
-    /**
-     * Creates a {@link MemberInfo} object representing a property with the specified name
-     * on the object represented by the specified {@link MemberInfo}.
-     */
-    MemberInfo createMemberInfo(MemberInfo info, String propertyName) {
-        return new MemberInfo(info, propertyName, this);
+        return targetObject;
     }
 
     /**
@@ -514,6 +390,50 @@ public class EvaluationContext {
      * Gets a collection with defined variables and their values.
      */
     public Dictionary<String, Object> getLocalVars() {
+        if (localVars == null) {
+            localVars = new Hashtable<>();
+        }
+
         return localVars;
     }
+
+    /**
+     * Makes this context safe for evaluating expressions by several threads concurrently, so that a single
+     * configured context can be shared by all of them.
+     * <p>
+     * The built-in state of a shared context is either immutable or kept per thread. Each thread uses its own
+     * formatters and random number generator, so that, for example, rnd(0) returns the last random number
+     * generated by the same thread. The variables defined through {@link #getLocalVars} are visible to all threads
+     * and should not be changed once the context is shared. This method should be called before the context
+     * is passed to the other threads. The classes extending this context are responsible for the thread safety
+     * of their own state.
+     */
+    public void share() {
+        if (threadFunctions == null) {
+            getLocalVars();
+            threadFunctions = ThreadLocal.withInitial(() -> new Functions(locale));
+        }
+    }
+
+    /**
+     * Gets a value indicating whether this context is shared by several threads.
+     */
+    public final boolean isShared() {
+        return threadFunctions != null;
+    }
+
+    /**
+     * Gets the implementation of the functions, which is created when a function is first called.
+     */
+    private Functions getFunctions() {
+        if (threadFunctions != null) {
+            return threadFunctions.get();
+        }
+
+        if (functions == null) {
+            functions = new Functions(locale);
+        }
+
+        return functions;
+    }
 }
\ No newline at end of file
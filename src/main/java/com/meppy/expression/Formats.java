@@ -0,0 +1,59 @@
+package com.meppy.expression;
+
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provides the formatters of a locale, which are shared by all evaluation contexts associated with the locale.
+ * <p>
+ * The formatters are not thread-safe, so each thread uses its own instances, which are created once per locale.
+ * The shared formatters must not be modified.
+ */
+final class Formats {
+    private static final ConcurrentMap<Locale, Formats> FORMATS = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<NumberFormat> numberFormat;
+    private final ThreadLocal<DateFormat> dateFormat;
+
+    private Formats(Locale locale) {
+        this.numberFormat = ThreadLocal.withInitial(() -> NumberFormat.getInstance(locale));
+        this.dateFormat = ThreadLocal.withInitial(() -> DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, locale));
+    }
+
+    /**
+     * Gets the formatters of the specified locale.
+     */
+    static Formats get(Locale locale) {
+        return FORMATS.computeIfAbsent(locale, Formats::new);
+    }
+
+    /**
+     * Gets the number format of the locale.
+     */
+    NumberFormat getNumberFormat() {
+        return numberFormat.get();
+    }
+
+    /**
+     * Gets the date and time format of the locale.
+     */
+    DateFormat getDateFormat() {
+        return dateFormat.get();
+    }
+
+    /**
+     * Creates a number format of the locale with the specified pattern, which can be modified by the caller.
+     */
+    NumberFormat createNumberFormat(String pattern) {
+        NumberFormat format = (NumberFormat) numberFormat.get().clone();
+        if (format instanceof DecimalFormat && !StringUtils.isNullOrEmpty(pattern)) {
+            ((DecimalFormat) format).applyPattern(pattern);
+        }
+
+        return format;
+    }
+}
\ No newline at end of file
@@ -1,7 +1,5 @@
 package com.meppy.expression;
 
-import java.text.DateFormat;
-import java.text.NumberFormat;
 import java.text.ParseException;
 import java.time.Duration;
 import java.util.Date;
@@ -18,8 +16,11 @@ final class Functions {
      * The locale associated with this object.
      */
     private final Locale locale;
-    private final NumberFormat numberFormat;
-    private final DateFormat dateFormat;
+
+    /**
+     * The formatters of the locale, which are shared with the functions of other contexts.
+     */
+    private final Formats formats;
 
     /**
      * The most recent random number generated by the rnd function.
@@ -27,19 +28,16 @@ final class Functions {
     private double lastRandomNumber;
 
     /**
-     * A random number generator.
+     * A random number generator, which is created when the rnd function is first called.
      */
-    private final Random random;
+    private Random random;
 
     /**
      * Initializes a new instance of the {@link Functions} class.
      */
     Functions(Locale locale) {
         this.locale = locale;
-        numberFormat = NumberFormat.getInstance(locale);
-        dateFormat = DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, locale);
-        this.random = new Random(System.currentTimeMillis());
-        this.lastRandomNumber = random.nextDouble();
+        this.formats = Formats.get(locale);
     }
 
     /**
@@ -260,6 +258,11 @@ final class Functions {
             return new Random(type).nextDouble();
         }
 
+        if (random == null) {
+            random = new Random(System.currentTimeMillis());
+            lastRandomNumber = random.nextDouble();
+        }
+
         if (type == 0) {
             return lastRandomNumber;
         }
@@ -315,7 +318,7 @@ final class Functions {
      * Returns a string representation of the specified number.
      */
     String str(double value) {
-        return numberFormat.format(value);
+        return formats.getNumberFormat().format(value);
     }
 
     /**
@@ -479,7 +482,7 @@ final class Functions {
 
         String stringValue = getString(value);
         try {
-            return dateFormat.parse(stringValue);
+            return formats.getDateFormat().parse(stringValue);
         } catch (ParseException ex) {
             // Ignore exception
         }
@@ -522,7 +525,7 @@ final class Functions {
         if (value instanceof Number) {
             return ((Number) value).intValue();
         } else if (value instanceof String) {
-            return numberFormat.parse((String) value).intValue();
+            return formats.getNumberFormat().parse((String) value).intValue();
         }
 
         throw new IllegalArgumentException(ARGUMENT_IS_NOT_A_NUMBER);
@@ -535,7 +538,7 @@ final class Functions {
         if (value instanceof Number) {
             return ((Number) value).longValue();
         } else if (value instanceof String) {
-            return numberFormat.parse((String) value).longValue();
+            return formats.getNumberFormat().parse((String) value).longValue();
         }
 
         throw new IllegalArgumentException(ARGUMENT_IS_NOT_A_NUMBER);
@@ -548,7 +551,7 @@ final class Functions {
         if (value instanceof Number) {
             return ((Number) value).doubleValue();
         } else if (value instanceof String) {
-            return numberFormat.parse((String) value).doubleValue();
+            return formats.getNumberFormat().parse((String) value).doubleValue();
         }
 
         throw new IllegalArgumentException(ARGUMENT_IS_NOT_A_NUMBER);
@@ -563,13 +566,13 @@ final class Functions {
         }
 
         if (value instanceof Double) {
-            return numberFormat.format(((Double)value).doubleValue());
+            return formats.getNumberFormat().format(((Double)value).doubleValue());
         } else if (value instanceof Float) {
-            return numberFormat.format(((Float)value).doubleValue());
+            return formats.getNumberFormat().format(((Float)value).doubleValue());
         } else if (value instanceof Number) {
-            return numberFormat.format(((Number)value).longValue());
+            return formats.getNumberFormat().format(((Number)value).longValue());
         } else if (value instanceof Date) {
-            return dateFormat.format((Date)value);
+            return formats.getDateFormat().format((Date)value);
         }
 
         return value.toString();
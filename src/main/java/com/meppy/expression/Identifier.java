@@ -0,0 +1,21 @@
+package com.meppy.expression;
+
+/**
+ * Represents identifiers in the code evaluation stack. The identifier is
+ * then either evaluated or assigned depending on where it appears in an expression.
+ */
+class Identifier {
+    private final String name;
+
+    /**
+     * Initializes a new instance of the {@link Identifier} class.
+     */
+    Identifier(String name)
+    {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+}
\ No newline at end of file
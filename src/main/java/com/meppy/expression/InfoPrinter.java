@@ -15,7 +15,7 @@ public final class InfoPrinter {
 
     public static void printParseTree(PrintStream printStream, String expression, CompileOptions options) {
         Lexer lexer = new Lexer(options);
-        Parser parser = new Parser(lexer.tokenize(Compiler.normalize(expression)));
+        Parser parser = new Parser(lexer.scan(Compiler.normalize(expression)));
         ParseTreeNode node = parser.parse();
         node.accept(new ParseTreeVisitor() {
             private static final int INDENT = 4;
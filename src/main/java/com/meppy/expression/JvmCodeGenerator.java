@@ -0,0 +1,1308 @@
+package com.meppy.expression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates byte code to JVM classes implementing {@link ByteCode.Evaluator}.
+ * <p>
+ * Each operation is translated to a direct call to the same helpers used by the interpreter, so that the JIT
+ * compiler can inline them. Operations on numbers are translated to primitive instructions, if the types of the
+ * operands are known, like the types of literals, or declared during compilation. Values of declared types are
+ * verified during evaluation and, if they differ, the interpreter resumes the evaluation from that operation.
+ * Each translated byte code is defined as a separate hidden class, which is unloaded once the instance referenced
+ * by the respective {@link ByteCode} becomes unreachable.
+ */
+final class JvmCodeGenerator {
+    private static final String CLASS_NAME = "com/meppy/expression/ByteCode$Compiled";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String CONTEXT = "com/meppy/expression/EvaluationContext";
+    private static final String BYTE_CODE = "com/meppy/expression/ByteCode";
+    private static final String CALC = "com/meppy/expression/ByteCode$Calc";
+    private static final String OP = "com/meppy/expression/ByteCode$Op";
+    private static final String EVALUATOR = "com/meppy/expression/ByteCode$Evaluator";
+    private static final String MEMBER_SITE = "com/meppy/expression/MemberSite";
+    private static final String POOL_FIELD = "k";
+    private static final String POOL_DESCRIPTOR = "[Ljava/lang/Object;";
+
+    /**
+     * The maximum length of the code of a JVM method.
+     */
+    private static final int MAX_METHOD_LENGTH = 65535;
+
+    /**
+     * The maximum number of local variables of a JVM method.
+     */
+    private static final int MAX_LOCALS = 65535;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int LCONST_0 = 0x09;
+    private static final int DCONST_0 = 0x0e;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int AALOAD = 0x32;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int DUP2 = 0x5c;
+    private static final int SWAP = 0x5f;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int IREM = 0x70;
+    private static final int INEG = 0x74;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int I2L = 0x85;
+    private static final int I2D = 0x87;
+    private static final int L2D = 0x8a;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int CHECKCAST = 0xc0;
+    private static final int INSTANCEOF = 0xc1;
+    private static final int WIDE = 0xc4;
+
+    /**
+     * The first local variable available for the values of repeated sub-expressions. Slot 0 holds 'this' and slot 1 holds the context.
+     * The temporary values follow them.
+     */
+    private static final int FIRST_SLOT = 2;
+
+    /**
+     * The Lookup.defineHiddenClass method and an empty array of class options, or null, if hidden classes are not supported.
+     */
+    private static final Method DEFINE_HIDDEN_CLASS;
+    private static final Object NO_CLASS_OPTIONS;
+
+    static {
+        Method method = null;
+        Object options = null;
+        try {
+            Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(optionClass, 0);
+            method = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+        } catch (ClassNotFoundException | NoSuchMethodException ex) {
+            // Hidden classes are not supported by this runtime
+        }
+
+        DEFINE_HIDDEN_CLASS = method;
+        NO_CLASS_OPTIONS = options;
+    }
+
+    /**
+     * Describes an element of the evaluation stack at translation time.
+     */
+    private static final class Entry {
+        /**
+         * An evaluated value, which is pushed to the JVM stack.
+         */
+        static final Entry VALUE = new Entry(Kind.VALUE, null);
+
+        /**
+         * Primitive numbers pushed to the JVM stack, indexed by their {@link ByteCode.Frame} tags.
+         */
+        private static final Entry[] NUMBERS = {
+            null,
+            new Entry(Kind.NUMBER, null, ByteCode.Frame.INT),
+            new Entry(Kind.NUMBER, null, ByteCode.Frame.LONG),
+            new Entry(Kind.NUMBER, null, ByteCode.Frame.DOUBLE),
+        };
+
+        private final Kind kind;
+        private final Object value;
+
+        /**
+         * The {@link ByteCode.Frame} tag of a number, or of the value, which an entry of another kind is expected
+         * to have, according to the types declared during compilation.
+         */
+        private final byte type;
+
+        Entry(Kind kind, Object value) {
+            this(kind, value, ByteCode.Frame.OBJECT);
+        }
+
+        Entry(Kind kind, Object value, byte type) {
+            this.kind = kind;
+            this.value = value;
+            this.type = type;
+        }
+
+        /**
+         * Gets a primitive number of the type with the specified tag, which is pushed to the JVM stack.
+         */
+        static Entry number(byte type) {
+            return NUMBERS[type];
+        }
+
+        boolean isPushed() {
+            return kind == Kind.VALUE || kind == Kind.SHARED || (kind == Kind.NUMBER && value == null);
+        }
+
+        /**
+         * Gets a value indicating whether the entry is a number known at translation time, which is not pushed to the JVM stack.
+         */
+        boolean isLiteral() {
+            return kind == Kind.NUMBER && value != null;
+        }
+    }
+
+    private enum Kind {
+        VALUE,
+        /**
+         * A placeholder shared by the occurrences of a repeated sub-expression, which is pushed to the JVM stack
+         * and evaluated once, when any of the occurrences is first consumed.
+         */
+        SHARED,
+        /**
+         * A primitive number, which is pushed to the JVM stack, or a literal, whose value is known at translation time
+         * and which is pushed when consumed.
+         */
+        NUMBER,
+        /**
+         * An identifier, color or quantity, which is not pushed to the JVM stack and is evaluated when consumed,
+         * the same way the interpreter evaluates it.
+         */
+        DEFERRED,
+        /**
+         * A value known at translation time, such as the name of an object or a formatting pattern, which is not
+         * pushed to the JVM stack.
+         */
+        CONSTANT
+    }
+
+    private final ByteCode owner;
+    private final int[] code;
+    private final Object[] constants;
+    private final double[] doubles;
+    private final CompileOptions options;
+
+    /**
+     * The first local variable available for temporary values.
+     */
+    private final int firstTemp;
+
+    /**
+     * The entries kept in the local variables by the {@link ByteCode.Op#STORE} operations.
+     */
+    private final Entry[] slots;
+
+    /**
+     * Indicates which of the local variables of the slots are assigned at the current position within the method.
+     */
+    private final boolean[] stored;
+
+    /**
+     * The constant pool of the generated class.
+     */
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final Map<String, Integer> constantPoolIndices = new HashMap<>();
+    private int constantPoolCount = 1;
+
+    /**
+     * The objects passed to the generated class and their indices.
+     */
+    private final List<Object> pool = new ArrayList<>();
+    private final Map<Object, Integer> poolIndices = new HashMap<>();
+
+    /**
+     * The code of the method being generated.
+     */
+    private MethodCode method;
+    private int stackDepth;
+    private int maxStack;
+    private int maxLocals;
+
+    /**
+     * Indicates whether the method being generated exceeds a limit of the class file format, other than its length,
+     * such as the number of local variables or the offset of a branch instruction.
+     */
+    private boolean exceeded;
+
+    /**
+     * The positions of the JVM branch instructions within the method, by the positions of their targets within the byte code.
+     */
+    private final Map<Integer, List<Integer>> jumps = new HashMap<>();
+
+    /**
+     * The positions within the byte code, where the branches of iif functions merge.
+     */
+    private final Set<Integer> merges = new HashSet<>();
+
+    /**
+     * The code of a JVM method, which allows the offsets of branch instructions to be set after the instructions are written.
+     */
+    private static final class MethodCode extends ByteArrayOutputStream {
+        void setShort(int position, int value) {
+            buf[position] = (byte) (value >> 8);
+            buf[position + 1] = (byte) value;
+        }
+    }
+
+    private JvmCodeGenerator(ByteCode owner, int[] code, Object[] constants, double[] doubles, int slotCount, CompileOptions options) {
+        this.owner = owner;
+        this.code = code;
+        this.constants = constants;
+        this.doubles = doubles;
+        this.options = options;
+        this.firstTemp = FIRST_SLOT + slotCount;
+        this.slots = new Entry[slotCount];
+        this.stored = new boolean[slotCount];
+    }
+
+    /**
+     * Translates the specified code to a JVM class and returns an instance of that class,
+     * or null, if the runtime does not support hidden classes or the code does not fit in a single method.
+     */
+    static ByteCode.Evaluator generate(ByteCode owner, int[] code, Object[] constants, double[] doubles, int slotCount, CompileOptions options) {
+        if (!isSupported()) {
+            return null;
+        }
+
+        JvmCodeGenerator generator = new JvmCodeGenerator(owner, code, constants, doubles, slotCount, options);
+        byte[] bytes = generator.generateClass();
+        if (bytes == null) {
+            return null;
+        }
+
+        try {
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(
+                MethodHandles.lookup(), bytes, true, NO_CLASS_OPTIONS);
+            return (ByteCode.Evaluator) lookup.lookupClass()
+                .getConstructor(Object[].class)
+                .newInstance((Object) generator.pool.toArray());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to define the class of the compiled code.", ex);
+        }
+    }
+
+    /**
+     * Gets a value indicating whether the runtime supports hidden classes, which are required to translate code.
+     */
+    static boolean isSupported() {
+        return DEFINE_HIDDEN_CLASS != null;
+    }
+
+    /**
+     * Generates the class file, or returns null, if the evaluation method exceeds the limits of the class file format.
+     */
+    private byte[] generateClass() {
+        byte[] evaluateCode = generateEvaluate();
+        if (evaluateCode.length > MAX_METHOD_LENGTH || exceeded) {
+            return null;
+        }
+        int evaluateMaxStack = maxStack;
+        int evaluateMaxLocals = maxLocals;
+
+        byte[] constructorCode = generateConstructor();
+        int constructorMaxStack = maxStack;
+        int constructorMaxLocals = maxLocals;
+
+        int thisClass = classRef(CLASS_NAME);
+        int superClass = classRef(OBJECT);
+        int evaluatorInterface = classRef(EVALUATOR);
+        int poolName = utf8(POOL_FIELD);
+        int poolDescriptor = utf8(POOL_DESCRIPTOR);
+        int constructorName = utf8("<init>");
+        int constructorDescriptor = utf8("(" + POOL_DESCRIPTOR + ")V");
+        int evaluateName = utf8("evaluate");
+        int evaluateDescriptor = utf8("(L" + CONTEXT + ";)Ljava/lang/Object;");
+        int codeAttribute = utf8("Code");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            // Version 49 does not require stack map frames
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(constantPoolCount);
+            constantPool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(evaluatorInterface);
+
+            out.writeShort(1);
+            out.writeShort(ACC_PRIVATE | ACC_FINAL);
+            out.writeShort(poolName);
+            out.writeShort(poolDescriptor);
+            out.writeShort(0);
+
+            out.writeShort(2);
+            writeMethod(out, constructorName, constructorDescriptor, codeAttribute, constructorCode, constructorMaxStack, constructorMaxLocals);
+            writeMethod(out, evaluateName, evaluateDescriptor, codeAttribute, evaluateCode, evaluateMaxStack, evaluateMaxLocals);
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute,
+                                    byte[] code, int maxStack, int maxLocals) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /**
+     * Generates a constructor, which stores the pool with objects in a field.
+     */
+    private byte[] generateConstructor() {
+        beginMethod(2);
+        emit(ALOAD_0, 1);
+        emitMember(INVOKESPECIAL, methodRef(OBJECT, "<init>", "()V"), -1);
+        emit(ALOAD_0, 1);
+        emit(ALOAD_1, 1);
+        emitMember(PUTFIELD, fieldRef(CLASS_NAME, POOL_FIELD, POOL_DESCRIPTOR), -2);
+        emit(RETURN, 0);
+        return method.toByteArray();
+    }
+
+    /**
+     * Generates the evaluation method by translating each operation of the code.
+     */
+    private byte[] generateEvaluate() {
+        beginMethod(firstTemp);
+        Deque<Entry> stack = new ArrayDeque<>();
+
+        int i = 0;
+        while (i < code.length) {
+            mergeBranches(stack, i);
+            bindJumps(i);
+
+            ByteCode.Op op = ByteCode.OPS[code[i]];
+
+            switch (op.getGeneric()) {
+                case VALUE: {
+                    Object value = constants[code[i + 1]];
+                    if (value instanceof Integer || value instanceof Long || value instanceof Double) {
+                        stack.push(new Entry(Kind.NUMBER, value, ByteCode.getType(value.getClass())));
+                        break;
+                    }
+                    emitPoolLoad(value, null);
+                    stack.push(Entry.VALUE);
+                    break;
+                }
+                case TEXT:
+                case STRING:
+                    emitPoolLoad(constants[code[i + 1]], null);
+                    stack.push(Entry.VALUE);
+                    break;
+
+                case FLOAT:
+                    stack.push(new Entry(Kind.NUMBER, doubles[code[i + 1]], ByteCode.Frame.DOUBLE));
+                    break;
+
+                case INT:
+                    stack.push(new Entry(Kind.NUMBER, code[i + 1], ByteCode.Frame.INT));
+                    break;
+
+                case NULL:
+                    // Evaluated through the context when consumed, like in the interpreter
+                    stack.push(new Entry(Kind.DEFERRED, Null.getInstance()));
+                    break;
+
+                case COLOR:
+                    stack.push(new Entry(Kind.DEFERRED, constants[code[i + 1]]));
+                    break;
+
+                case QUANTITY: {
+                    // The unit is followed by the operation pushing the value
+                    String unit = (String) constants[code[i + 1]];
+                    i += op.getSize();
+                    op = ByteCode.OPS[code[i]];
+                    double value = op == ByteCode.Op.INT ? code[i + 1] : doubles[code[i + 1]];
+                    stack.push(new Entry(Kind.DEFERRED, new Quantity(value, unit)));
+                    break;
+                }
+                case IDENTIFIER: {
+                    String name = (String) constants[code[i + 1]];
+                    stack.push(new Entry(Kind.DEFERRED, new Identifier(name), ByteCode.getType(options.getVariableType(name))));
+                    break;
+                }
+                case VARIABLE: {
+                    String name = (String) constants[code[i + 1]];
+                    stack.push(new Entry(Kind.DEFERRED, new Variable(name, owner.getSchema()), ByteCode.getType(options.getVariableType(name))));
+                    break;
+                }
+
+                case OBJECT_OR_MEMBER:
+                    stack.push(new Entry(Kind.CONSTANT, constants[code[i + 1]]));
+                    break;
+
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case MOD:
+                case POWER:
+                case LESS:
+                case LESS_OR_EQUAL:
+                case GREATER:
+                case GREATER_OR_EQUAL:
+                case EQUAL:
+                case NOT_EQUAL:
+                case CONDITIONAL_AND:
+                case CONDITIONAL_OR:
+                case AND:
+                case OR:
+                case XOR:
+                    if (!emitNumbers(stack, op, i)) {
+                        emitOperands(stack, 2, true, true);
+                        emitMember(GETSTATIC, fieldRef(OP, op.getGeneric().name(), "L" + OP + ";"), 1);
+                        emitInvokeStatic(BYTE_CODE, "apply", "(Ljava/lang/Object;Ljava/lang/Object;L" + OP + ";)Ljava/lang/Object;", 3);
+                        stack.push(Entry.VALUE);
+                    }
+                    break;
+
+                case MINUS:
+                    if (stack.peek().kind == Kind.NUMBER) {
+                        Entry a = stack.pop();
+                        if (a.isLiteral()) {
+                            emitLiteral(a.value, a.type);
+                        }
+                        emit(INEG + getLane(a.type), 0);
+                        stack.push(Entry.number(a.type));
+                        break;
+                    }
+                    emitOperands(stack, 1, true, true);
+                    emitMember(GETSTATIC, fieldRef(OP, op.name(), "L" + OP + ";"), 1);
+                    emitInvokeStatic(CALC, "apply", "(Ljava/lang/Object;L" + OP + ";)Ljava/lang/Object;", 2);
+                    stack.push(Entry.VALUE);
+                    break;
+
+                case NOT:
+                    emitOperands(stack, 1, true, true);
+                    emitMember(GETSTATIC, fieldRef(OP, op.name(), "L" + OP + ";"), 1);
+                    emitInvokeStatic(CALC, "apply", "(Ljava/lang/Object;L" + OP + ";)Ljava/lang/Object;", 2);
+                    stack.push(Entry.VALUE);
+                    break;
+
+                case DOT: {
+                    int count = code[i + 1];
+                    String[] members = new String[count - 1];
+                    for (int c = count - 2; c >= 0; c--) {
+                        members[c] = (String) stack.pop().value;
+                    }
+
+                    // The target is passed as is, without being evaluated
+                    Entry target = stack.pop();
+                    if (!target.isPushed()) {
+                        emitPoolLoad(target.value, null);
+                    } else if (target.kind == Kind.SHARED || target.kind == Kind.NUMBER) {
+                        emitEvaluation(target);
+                    }
+                    emitPoolLoad(new MemberSite(members), MEMBER_SITE);
+                    emit(ALOAD_1, 1);
+                    emitInvokeStatic(BYTE_CODE, "evaluateMember", "(Ljava/lang/Object;L" + MEMBER_SITE + ";L" + CONTEXT + ";)Ljava/lang/Object;", 3);
+                    stack.push(Entry.VALUE);
+                    break;
+                }
+                case FORMAT:
+                    stack.push(new Entry(Kind.CONSTANT, constants[code[i + 1]]));
+                    // Invariant culture, unless explicitly specified later
+                    stack.push(new Entry(Kind.CONSTANT, null));
+                    break;
+
+                case DISCARD:
+                    stack.push(new Entry(Kind.CONSTANT, null));
+                    stack.push(new Entry(Kind.CONSTANT, null));
+                    break;
+
+                case CULTURE:
+                    stack.pop();
+                    stack.push(new Entry(Kind.CONSTANT, new Locale((String) constants[code[i + 1]])));
+                    break;
+
+                case FORMATTING: {
+                    Locale culture = (Locale) stack.pop().value;
+                    String pattern = (String) stack.pop().value;
+                    emitOperands(stack, 1, true, true);
+                    if (pattern == null) {
+                        // The value is discarded
+                        emit(POP, -1);
+                        break;
+                    }
+
+                    emit(ALOAD_1, 1);
+                    emitPoolLoad(pattern, "java/lang/String");
+                    if (culture == null) {
+                        emit(ACONST_NULL, 1);
+                    } else {
+                        emitPoolLoad(culture, "java/util/Locale");
+                    }
+                    emitInvokeStatic(BYTE_CODE, "format", "(Ljava/lang/Object;L" + CONTEXT + ";Ljava/lang/String;Ljava/util/Locale;)Ljava/lang/Object;", 4);
+                    stack.push(Entry.VALUE);
+                    break;
+                }
+                case FUNCTION_CALL: {
+                    int paramCount = code[i + 1];
+                    emitOperands(stack, paramCount, true, false);
+                    String name = (String) constants[code[i + 2]];
+                    BuiltInFunction function = BuiltInFunction.get(name);
+                    emit(ALOAD_1, 1);
+                    if (function != null) {
+                        emitPoolLoad(function, "com/meppy/expression/BuiltInFunction");
+                        emitArray(paramCount);
+                        emitMember(INVOKEVIRTUAL, methodRef(CONTEXT, "invokeFunction", "(Lcom/meppy/expression/BuiltInFunction;[Ljava/lang/Object;)Ljava/lang/Object;"), -2);
+                    } else {
+                        emitPoolLoad(name, "java/lang/String");
+                        emitArray(paramCount);
+                        emitMember(INVOKEVIRTUAL, methodRef(CONTEXT, "invokeFunction", "(Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/Object;"), -2);
+                    }
+
+                    // The function might be overridden by the context, so its result type is only expected
+                    byte type = options.isLazyFunction(name) ? ByteCode.Frame.OBJECT : ByteCode.getFunctionType(name);
+                    stack.push(type == ByteCode.Frame.OBJECT ? Entry.VALUE : new Entry(Kind.VALUE, null, type));
+                    break;
+                }
+                case EXPRESSION_SEPARATOR:
+                    emitOperands(stack, 2, true, true);
+                    emit(SWAP, 0);
+                    emit(POP, -1);
+                    stack.push(Entry.VALUE);
+                    break;
+
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE: {
+                    // Keep the left operand of the conditional operation as its result, if it determines the result
+                    emitOperands(stack, 1, true, true);
+                    stack.push(Entry.VALUE);
+                    emit(DUP, 1);
+                    emitInt(op == ByteCode.Op.JUMP_IF_TRUE ? 1 : 0);
+                    emitInvokeStatic(BYTE_CODE, "isBoolean", "(Ljava/lang/Object;Z)Z", 2);
+                    emitJump(IFNE, -1, code[i + 1]);
+                    break;
+                }
+                case JUMP_UNLESS:
+                    // Skip the first branch of the iif function if the condition is false
+                    emitOperands(stack, 1, true, true);
+                    emit(ALOAD_1, 1);
+                    emit(SWAP, 0);
+                    emitMember(INVOKEVIRTUAL, methodRef(CONTEXT, "getBool", "(Ljava/lang/Object;)Z"), -1);
+                    emitJump(IFEQ, -1, code[i + 1]);
+                    break;
+
+                case JUMP:
+                    // The value of the first branch is not in the stack of the second one
+                    emitOperands(stack, 1, true, true);
+                    emitJump(GOTO, -1, code[i + 1]);
+                    merges.add(code[i + 1]);
+                    break;
+
+                case STORE: {
+                    // Keep the value of a repeated sub-expression in a local variable. If the value is not evaluated yet,
+                    // share it with the other occurrences, so that it is evaluated once, when it is first consumed
+                    // Numbers are kept boxed and unboxed by each occurrence
+                    int slot = code[i + 1];
+                    Entry a = stack.pop();
+                    if (a.isLiteral()) {
+                        emitPoolLoad(a.value, null);
+                    } else if (a.kind == Kind.NUMBER) {
+                        emit(a.type == ByteCode.Frame.INT ? DUP : DUP2, getSize(a.type));
+                        emitBox(a.type);
+                    } else {
+                        if (a.kind == Kind.DEFERRED) {
+                            emitPoolLoad(a.value, null);
+                        }
+                        if (a.kind != Kind.VALUE) {
+                            emitInvokeStatic(BYTE_CODE, "share", "(Ljava/lang/Object;)Ljava/lang/Object;", 1);
+                            a = new Entry(Kind.SHARED, null, a.type);
+                        }
+                        emit(DUP, 1);
+                    }
+                    emitLocal(ASTORE, FIRST_SLOT + slot);
+                    slots[slot] = a;
+                    stored[slot] = true;
+                    stack.push(a);
+                    break;
+                }
+                case LOAD: {
+                    Entry a = slots[code[i + 1]];
+                    if (!a.isLiteral()) {
+                        emitLocal(ALOAD, FIRST_SLOT + code[i + 1]);
+                        if (a.kind == Kind.NUMBER) {
+                            emitUnbox(a.type);
+                        }
+                    }
+                    stack.push(a);
+                    break;
+                }
+
+                case LAZY_ARGUMENT:
+                    // The code of the argument is interpreted when the function requests its value
+                    emitPoolLoad(owner, BYTE_CODE);
+                    emitInt(i + op.getSize());
+                    emitInt(code[i + 1]);
+                    emit(ALOAD_1, 1);
+                    emitMember(INVOKEVIRTUAL, methodRef(BYTE_CODE, "createArgument",
+                        "(IIL" + CONTEXT + ";)Lcom/meppy/expression/LazyArgument;"), -3);
+                    stack.push(Entry.VALUE);
+                    i = code[i + 1];
+                    continue;
+            }
+
+            i += op.getSize();
+        }
+        mergeBranches(stack, code.length);
+        bindJumps(code.length);
+
+        if (stack.isEmpty()) {
+            emit(ACONST_NULL, 1);
+        } else if (stack.size() == 1) {
+            emitOperands(stack, 1, true, true);
+        } else {
+            // Concatenate the string representation of all values, evaluating them in order
+            int count = stack.size();
+            emitOperands(stack, count, false, false);
+            emitArray(count);
+            emitInvokeStatic(BYTE_CODE, "concatenate", "([Ljava/lang/Object;)Ljava/lang/String;", 1);
+        }
+        emit(ARETURN, -1);
+
+        return method.toByteArray();
+    }
+
+    /**
+     * Pops the specified number of entries from the stack and evaluates them in the same order as the interpreter,
+     * that is, from the top of the stack, unless otherwise specified.
+     * If push is true, the values are pushed to the JVM stack, otherwise they are stored in the temporary
+     * local variables, from where they can be collected by {@link #emitArray}.
+     */
+    private void emitOperands(Deque<Entry> stack, int count, boolean topDown, boolean push) {
+        Entry[] entries = new Entry[count];
+        for (int j = count - 1; j >= 0; j--) {
+            entries[j] = stack.pop();
+        }
+
+        if (push && count > 0) {
+            boolean evaluated = true;
+            for (int j = 0; j < count - 1; j++) {
+                evaluated &= entries[j].kind == Kind.VALUE;
+            }
+
+            // Evaluate the last entry in place if all other entries are already evaluated
+            if (evaluated) {
+                emitEvaluation(entries[count - 1]);
+                return;
+            }
+        }
+
+        for (int j = count - 1; j >= 0; j--) {
+            if (entries[j].isPushed()) {
+                if (entries[j].kind == Kind.NUMBER) {
+                    emitBox(entries[j].type);
+                }
+                emitLocal(ASTORE, firstTemp + j);
+            }
+        }
+
+        for (int n = 0; n < count; n++) {
+            int j = topDown ? count - 1 - n : n;
+            if (entries[j].kind != Kind.VALUE && (entries[j].kind != Kind.NUMBER || entries[j].isLiteral())) {
+                if (entries[j].isPushed()) {
+                    emitLocal(ALOAD, firstTemp + j);
+                }
+                emitEvaluation(entries[j]);
+                emitLocal(ASTORE, firstTemp + j);
+            }
+        }
+
+        if (push) {
+            for (int j = 0; j < count; j++) {
+                emitLocal(ALOAD, firstTemp + j);
+            }
+        }
+    }
+
+    /**
+     * Emits the evaluation of the specified entry. Shared placeholders and numbers, other than literals,
+     * are expected at the top of the JVM stack. Numbers are boxed.
+     */
+    private void emitEvaluation(Entry entry) {
+        switch (entry.kind) {
+            case NUMBER:
+                if (entry.isLiteral()) {
+                    emitPoolLoad(entry.value, null);
+                } else {
+                    emitBox(entry.type);
+                }
+                break;
+
+            case SHARED:
+                emit(ALOAD_1, 1);
+                emitInvokeStatic(BYTE_CODE, "evaluateShared", "(Ljava/lang/Object;L" + CONTEXT + ";)Ljava/lang/Object;", 2);
+                break;
+
+            case DEFERRED:
+                if (entry.value instanceof Variable) {
+                    emitPoolLoad(entry.value, "com/meppy/expression/Variable");
+                    emit(ALOAD_1, 1);
+                    emitMember(INVOKEVIRTUAL, methodRef("com/meppy/expression/Variable", "getValue", "(L" + CONTEXT + ";)Ljava/lang/Object;"), -1);
+                } else if (entry.value instanceof Identifier) {
+                    emit(ALOAD_1, 1);
+                    emitPoolLoad(((Identifier) entry.value).getName(), "java/lang/String");
+                    emitMember(INVOKEVIRTUAL, methodRef(CONTEXT, "evaluateIdentifier", "(Ljava/lang/String;)Ljava/lang/Object;"), -1);
+                } else if (entry.value instanceof Color) {
+                    emitPoolLoad(entry.value, "com/meppy/expression/Color");
+                    emit(ALOAD_1, 1);
+                    emitInvokeStatic(BYTE_CODE, "resolveColor", "(Lcom/meppy/expression/Color;L" + CONTEXT + ";)Ljava/lang/Object;", 2);
+                } else {
+                    emitPoolLoad(entry.value, "com/meppy/expression/Quantity");
+                    emit(ALOAD_1, 1);
+                    emitInvokeStatic(BYTE_CODE, "evaluateQuantity", "(Lcom/meppy/expression/Quantity;L" + CONTEXT + ";)Ljava/lang/Object;", 2);
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Translates the binary operation at the specified position to primitive instructions, if both operands are
+     * numbers, or are expected to be numbers of the types declared during compilation. Returns false, leaving
+     * the stack unchanged, if the operation must be performed on objects.
+     * <p>
+     * Expected operands are evaluated and their types are verified. If they differ, the evaluation is resumed
+     * by the interpreter from this operation, so that the result is the same as if the code were interpreted.
+     */
+    private boolean emitNumbers(Deque<Entry> stack, ByteCode.Op op, int position) {
+        ByteCode.Op generic = op.getGeneric();
+        Entry b = stack.pop();
+        Entry a = stack.peek();
+        stack.push(b);
+
+        byte aType = getExpectedType(a, op);
+        byte bType = getExpectedType(b, op);
+        if (aType == ByteCode.Frame.OBJECT || bType == ByteCode.Frame.OBJECT) {
+            return false;
+        }
+
+        byte type = generic == ByteCode.Op.POWER ? ByteCode.Frame.DOUBLE : (byte) Math.max(aType, bType);
+        if (type == ByteCode.Frame.DOUBLE && (generic == ByteCode.Op.AND || generic == ByteCode.Op.OR || generic == ByteCode.Op.XOR)) {
+            return false;
+        }
+
+        if (b.isLiteral()) {
+            stack.pop();
+            emitNumber(stack, aType, type, position, b);
+            emitLiteral(b.value, type);
+        } else {
+            // The right operand is evaluated first, like in the interpreter, and kept aside while the left one is prepared.
+            // It is converted afterwards, so that the interpreter receives the same value if it resumes the evaluation
+            emitNumber(stack, bType, bType, position, null);
+            stack.pop();
+            if (a.isPushed() && a.kind == Kind.NUMBER && a.type == type) {
+                emitConvert(bType, type);
+            } else {
+                emitLocal(getStore(bType), firstTemp);
+                emitNumber(stack, aType, type, position, Entry.number(bType));
+                emitLocal(getLoad(bType), firstTemp);
+                emitConvert(bType, type);
+            }
+        }
+        stack.pop();
+
+        int lane = getLane(type);
+        int delta = -getSize(type);
+        switch (generic) {
+            case ADD: emit(IADD + lane, delta); break;
+            case SUB: emit(ISUB + lane, delta); break;
+            case MUL: emit(IMUL + lane, delta); break;
+            case DIV: emit(IDIV + lane, delta); break;
+            case MOD: emit(IREM + lane, delta); break;
+            case AND: emit(IAND + lane, delta); break;
+            case OR: emit(IOR + lane, delta); break;
+            case XOR: emit(IXOR + lane, delta); break;
+            case POWER: emitMember(INVOKESTATIC, methodRef("java/lang/Math", "pow", "(DD)D"), -2); break;
+
+            default: {
+                String owner = getBoxClass(type);
+                String descriptor = type == ByteCode.Frame.INT ? "(II)I" : type == ByteCode.Frame.LONG ? "(JJ)I" : "(DD)I";
+                emitMember(INVOKESTATIC, methodRef(owner, "compare", descriptor), 1 + 2 * delta);
+                emitMember(GETSTATIC, fieldRef(OP, generic.name(), "L" + OP + ";"), 1);
+                emitInvokeStatic(BYTE_CODE, "compare", "(IL" + OP + ";)Ljava/lang/Boolean;", 2);
+                stack.push(Entry.VALUE);
+                return true;
+            }
+        }
+
+        stack.push(Entry.number(type));
+        return true;
+    }
+
+    /**
+     * Gets the {@link ByteCode.Frame} tag of the number, which the specified entry is as an operand of the specified
+     * operation, or {@link ByteCode.Frame#OBJECT}, if the entry is not expected to be a number.
+     */
+    private static byte getExpectedType(Entry entry, ByteCode.Op op) {
+        if (entry.kind == Kind.NUMBER) {
+            return entry.type;
+        }
+        if (op.type == ByteCode.Frame.OBJECT || entry.kind == Kind.CONSTANT) {
+            return ByteCode.Frame.OBJECT;
+        }
+
+        return entry.type != ByteCode.Frame.OBJECT ? entry.type : op.type;
+    }
+
+    /**
+     * Pushes the entry at the top of the stack to the JVM stack as a primitive number of the specified type,
+     * replacing it by a number entry. If the entry is not a number, it is evaluated and verified to be a number
+     * of the expected type. The specified entry, if any, is above the entry in the stack of the interpreter.
+     * It is either a literal or a number kept in the first temporary local variable.
+     */
+    private void emitNumber(Deque<Entry> stack, byte expected, byte type, int position, Entry above) {
+        Entry entry = stack.pop();
+        if (entry.isLiteral()) {
+            emitLiteral(entry.value, type);
+        } else if (entry.kind == Kind.NUMBER) {
+            emitConvert(entry.type, type);
+        } else {
+            if (entry.kind != Kind.VALUE) {
+                emitEvaluation(entry);
+            }
+            stack.push(Entry.VALUE);
+
+            emit(DUP, 1);
+            emitMember(INSTANCEOF, classRef(getBoxClass(expected)), 0);
+            int branch = method.size();
+            emit(IFNE, -1);
+            emitShort(0);
+
+            int depth = stackDepth;
+            emitResume(stack, position, above);
+            stackDepth = depth;
+            setOffset(branch, method.size() - branch);
+
+            stack.pop();
+            emitUnbox(expected);
+            emitConvert(expected, type);
+        }
+        stack.push(Entry.number(type));
+    }
+
+    /**
+     * Emits the instructions passing the values in the JVM stack, described by the specified stack, and the values
+     * of the slots to the interpreter, which resumes the evaluation from the specified position within the byte code.
+     * The specified entry, if any, is passed as the top of the stack. It is either a literal or a number kept in
+     * the first temporary local variable.
+     */
+    private void emitResume(Deque<Entry> stack, int position, Entry above) {
+        List<Entry> entries = new ArrayList<>(stack);
+        Collections.reverse(entries);
+        int count = entries.size();
+
+        // The local variables following the first temporary one, which might be occupied by the spilled value, keep the values
+        int first = firstTemp + 2;
+        for (int j = count - 1; j >= 0; j--) {
+            Entry entry = entries.get(j);
+            if (entry.isPushed()) {
+                if (entry.kind == Kind.NUMBER) {
+                    emitBox(entry.type);
+                }
+                emitLocal(ASTORE, first + j);
+            }
+        }
+        if (above != null) {
+            if (above.isPushed()) {
+                emitLocal(getLoad(above.type), firstTemp);
+                emitBox(above.type);
+                emitLocal(ASTORE, first + count);
+            }
+            entries.add(above);
+        }
+
+        emitPoolLoad(owner, BYTE_CODE);
+        emit(ALOAD_1, 1);
+        emitInt(position);
+        emitInt(entries.size());
+        emitMember(ANEWARRAY, classRef(OBJECT), 0);
+        for (int j = 0; j < entries.size(); j++) {
+            Entry entry = entries.get(j);
+            emit(DUP, 1);
+            emitInt(j);
+            if (entry.isPushed()) {
+                emitLocal(ALOAD, first + j);
+            } else {
+                // The interpreter keeps the same placeholders and pushes null instead of the missing formatting pattern or culture
+                emitPoolLoad(entry.value != null ? entry.value : Null.getInstance(), null);
+            }
+            emit(AASTORE, -3);
+        }
+
+        if (slots.length == 0) {
+            emit(ACONST_NULL, 1);
+        } else {
+            emitInt(slots.length);
+            emitMember(ANEWARRAY, classRef(OBJECT), 0);
+            for (int slot = 0; slot < slots.length; slot++) {
+                if (stored[slot]) {
+                    emit(DUP, 1);
+                    emitInt(slot);
+                    emitLocal(ALOAD, FIRST_SLOT + slot);
+                    emit(AASTORE, -3);
+                }
+            }
+        }
+
+        emitMember(INVOKEVIRTUAL, methodRef(BYTE_CODE, "resume",
+            "(L" + CONTEXT + ";I[Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;"), -4);
+        emit(ARETURN, -1);
+    }
+
+    /**
+     * Pushes the specified number known at translation time as a primitive number of the specified type.
+     */
+    private void emitLiteral(Object value, byte type) {
+        Number number = (Number) value;
+        if (type == ByteCode.Frame.INT) {
+            emitInt(number.intValue());
+        } else if (type == ByteCode.Frame.LONG) {
+            long l = number.longValue();
+            if (l == 0 || l == 1) {
+                emit(LCONST_0 + (int) l, 2);
+            } else {
+                emitMember(LDC2_W, longConstant(l), 2);
+            }
+        } else {
+            double d = number.doubleValue();
+            if (Double.doubleToRawLongBits(d) == 0 || d == 1) {
+                emit(DCONST_0 + (int) d, 2);
+            } else {
+                emitMember(LDC2_W, doubleConstant(d), 2);
+            }
+        }
+    }
+
+    /**
+     * Converts the primitive number at the top of the JVM stack between the types with the specified tags.
+     */
+    private void emitConvert(byte from, byte to) {
+        if (from == ByteCode.Frame.INT && to == ByteCode.Frame.LONG) {
+            emit(I2L, 1);
+        } else if (from == ByteCode.Frame.INT && to == ByteCode.Frame.DOUBLE) {
+            emit(I2D, 1);
+        } else if (from == ByteCode.Frame.LONG && to == ByteCode.Frame.DOUBLE) {
+            emit(L2D, 0);
+        }
+    }
+
+    private void emitBox(byte type) {
+        String owner = getBoxClass(type);
+        String descriptor = "(" + getDescriptor(type) + ")L" + owner + ";";
+        emitMember(INVOKESTATIC, methodRef(owner, "valueOf", descriptor), 1 - getSize(type));
+    }
+
+    /**
+     * Converts the object at the top of the JVM stack, which must be a number of the specified type, to a primitive number.
+     */
+    private void emitUnbox(byte type) {
+        String owner = getBoxClass(type);
+        String name = type == ByteCode.Frame.INT ? "intValue" : type == ByteCode.Frame.LONG ? "longValue" : "doubleValue";
+        emitMember(CHECKCAST, classRef(owner), 0);
+        emitMember(INVOKEVIRTUAL, methodRef(owner, name, "()" + getDescriptor(type)), getSize(type) - 1);
+    }
+
+    private static String getBoxClass(byte type) {
+        return type == ByteCode.Frame.INT ? "java/lang/Integer" : type == ByteCode.Frame.LONG ? "java/lang/Long" : "java/lang/Double";
+    }
+
+    private static String getDescriptor(byte type) {
+        return type == ByteCode.Frame.INT ? "I" : type == ByteCode.Frame.LONG ? "J" : "D";
+    }
+
+    /**
+     * Gets the number of JVM stack elements occupied by a primitive number of the specified type.
+     */
+    private static int getSize(byte type) {
+        return type == ByteCode.Frame.INT ? 1 : 2;
+    }
+
+    /**
+     * Gets the offset of the instructions for the specified type from the respective int instructions.
+     */
+    private static int getLane(byte type) {
+        return type == ByteCode.Frame.INT ? 0 : type == ByteCode.Frame.LONG ? 1 : 3;
+    }
+
+    private static int getLoad(byte type) {
+        return type == ByteCode.Frame.INT ? ILOAD : type == ByteCode.Frame.LONG ? LLOAD : DLOAD;
+    }
+
+    private static int getStore(byte type) {
+        return type == ByteCode.Frame.INT ? ISTORE : type == ByteCode.Frame.LONG ? LSTORE : DSTORE;
+    }
+
+    /**
+     * Emits the specified branch instruction, whose target is the specified position within the byte code.
+     */
+    private void emitJump(int opcode, int stackDelta, int target) {
+        emit(opcode, stackDelta);
+        jumps.computeIfAbsent(target, position -> new ArrayList<>()).add(method.size() - 1);
+        emitShort(0);
+    }
+
+    /**
+     * Evaluates the value of the second branch of the iif functions, which end at the specified position,
+     * so that it is in the JVM stack like the value of the first branch.
+     */
+    private void mergeBranches(Deque<Entry> stack, int position) {
+        if (merges.remove(position)) {
+            emitOperands(stack, 1, true, true);
+            stack.push(Entry.VALUE);
+        }
+    }
+
+    /**
+     * Sets the offsets of the branch instructions jumping to the specified position within the byte code
+     * to the current position within the method.
+     */
+    private void bindJumps(int target) {
+        List<Integer> positions = jumps.remove(target);
+        if (positions != null) {
+            for (int position : positions) {
+                setOffset(position, method.size() - position);
+            }
+        }
+    }
+
+    /**
+     * Sets the offset of the branch instruction at the specified position within the method. Offsets, which do not fit
+     * in the instruction, make the method exceed the limits of the class file format.
+     */
+    private void setOffset(int position, int offset) {
+        method.setShort(position + 1, offset);
+        exceeded |= offset > Short.MAX_VALUE;
+    }
+
+    private void beginMethod(int locals) {
+        method = new MethodCode();
+        stackDepth = 0;
+        maxStack = 0;
+        maxLocals = locals;
+    }
+
+    /**
+     * Emits an instruction with the specified effect on the depth of the JVM stack.
+     */
+    private void emit(int opcode, int stackDelta) {
+        method.write(opcode);
+        stackDepth += stackDelta;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private void emitShort(int value) {
+        method.write(value >> 8);
+        method.write(value);
+    }
+
+    /**
+     * Emits an instruction referencing the specified constant pool entry.
+     */
+    private void emitMember(int opcode, int index, int stackDelta) {
+        emit(opcode, stackDelta);
+        emitShort(index);
+    }
+
+    private void emitInvokeStatic(String owner, String name, String descriptor, int argumentCount) {
+        emitMember(INVOKESTATIC, methodRef(owner, name, descriptor), 1 - argumentCount);
+    }
+
+    private void emitInt(int value) {
+        if (value >= 0 && value <= 5) {
+            emit(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH, 1);
+            method.write(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH, 1);
+            emitShort(value);
+        } else {
+            emitMember(LDC_W, integer(value), 1);
+        }
+    }
+
+    private void emitLocal(int opcode, int index) {
+        int size = opcode == LLOAD || opcode == DLOAD || opcode == LSTORE || opcode == DSTORE ? 2 : 1;
+        int stackDelta = opcode == ILOAD || opcode == LLOAD || opcode == DLOAD || opcode == ALOAD ? size : -size;
+        if (index > 255) {
+            // The index of the local variable does not fit in a byte
+            emit(WIDE, 0);
+            emit(opcode, stackDelta);
+            emitShort(index);
+        } else {
+            emit(opcode, stackDelta);
+            method.write(index);
+        }
+        maxLocals = Math.max(maxLocals, index + size);
+        exceeded |= maxLocals > MAX_LOCALS;
+    }
+
+    /**
+     * Emits instructions loading the specified object from the pool passed to the generated class.
+     */
+    private void emitPoolLoad(Object value, String type) {
+        Integer index = poolIndices.get(value);
+        if (index == null) {
+            index = pool.size();
+            pool.add(value);
+            poolIndices.put(value, index);
+        }
+
+        emit(ALOAD_0, 1);
+        emitMember(GETFIELD, fieldRef(CLASS_NAME, POOL_FIELD, POOL_DESCRIPTOR), 0);
+        emitInt(index);
+        emit(AALOAD, -1);
+        if (type != null) {
+            emitMember(CHECKCAST, classRef(type), 0);
+        }
+    }
+
+    /**
+     * Pushes an array with the specified number of values previously stored by {@link #emitOperands}.
+     */
+    private void emitArray(int count) {
+        emitInt(count);
+        emitMember(ANEWARRAY, classRef(OBJECT), 0);
+        for (int j = 0; j < count; j++) {
+            emit(DUP, 1);
+            emitInt(j);
+            emitLocal(ALOAD, firstTemp + j);
+            emit(AASTORE, -3);
+        }
+    }
+
+    private int constant(String key, byte[] entry, int slots) {
+        Integer index = constantPoolIndices.get(key);
+        if (index == null) {
+            index = constantPoolCount;
+            constantPool.write(entry, 0, entry.length);
+            constantPoolIndices.put(key, index);
+            constantPoolCount += slots;
+        }
+
+        return index;
+    }
+
+    private static byte[] entry(int tag, int... values) {
+        byte[] bytes = new byte[1 + values.length * 2];
+        bytes[0] = (byte) tag;
+        for (int i = 0; i < values.length; i++) {
+            bytes[1 + i * 2] = (byte) (values[i] >> 8);
+            bytes[2 + i * 2] = (byte) values[i];
+        }
+
+        return bytes;
+    }
+
+    private int utf8(String value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(1);
+            out.writeUTF(value);
+            return constant("U" + value, bytes.toByteArray(), 1);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int integer(int value) {
+        return constant("I" + value, new byte[] { 3, (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value }, 1);
+    }
+
+    private int longConstant(long value) {
+        byte[] entry = new byte[9];
+        entry[0] = 5;
+        for (int i = 0; i < 8; i++) {
+            entry[1 + i] = (byte) (value >> (56 - i * 8));
+        }
+
+        return constant("J" + value, entry, 2);
+    }
+
+    private int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        byte[] entry = new byte[9];
+        entry[0] = 6;
+        for (int i = 0; i < 8; i++) {
+            entry[1 + i] = (byte) (bits >> (56 - i * 8));
+        }
+
+        return constant("D" + bits, entry, 2);
+    }
+
+    private int classRef(String name) {
+        return constant("C" + name, entry(7, utf8(name)), 1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return constant("N" + name + ":" + descriptor, entry(12, utf8(name), utf8(descriptor)), 1);
+    }
+
+    private int fieldRef(String owner, String name, String descriptor) {
+        return constant("F" + owner + "." + name + ":" + descriptor, entry(9, classRef(owner), nameAndType(name, descriptor)), 1);
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        return constant("M" + owner + "." + name + ":" + descriptor, entry(10, classRef(owner), nameAndType(name, descriptor)), 1);
+    }
+}
\ No newline at end of file
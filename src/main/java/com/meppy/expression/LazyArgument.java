@@ -0,0 +1,17 @@
+package com.meppy.expression;
+
+/**
+ * Represents an argument of a function, which is evaluated only when its value is requested.
+ * <p>
+ * The arguments of the functions declared through {@link CompileOptions#addLazyFunction} are passed
+ * to {@link EvaluationContext#invokeFunction} as instances of this interface.
+ */
+public interface LazyArgument {
+    /**
+     * Evaluates the argument and returns its value. The argument is evaluated at most once,
+     * subsequent calls return the same value.
+     *
+     * @throws EvaluationException if the argument cannot be evaluated.
+     */
+    Object getValue();
+}
\ No newline at end of file
@@ -2,63 +2,46 @@ package com.meppy.expression;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Provides capabilities for recognizing character sequences of the grammar.
+ * <p>
+ * The input is scanned once. The token at the current position is recognized by its first character and
+ * its text is extracted only when it is requested, so that the time of the analysis is linear in the length
+ * of the input. The tokens can be collected by {@link #scan} or {@link #tokenize}, or requested one at a time
+ * by {@link #next}.
  */
 final class Lexer {
     /**
-     * Identifier regular expression.
-     */
-    private static final Pattern IDENTIFIER_REGEX = Pattern.compile("[a-zA-Z_][a-z_A-Z0-9]*");
-
-    /**
-     * Free text regular expression.
-     */
-    private static final Pattern TEXT_REGEX = Pattern.compile("[^\\[]*");
-
-    /**
-     * Integer number regular expression.
-     */
-    private static final Pattern INT_NUMBER_REGEX = Pattern.compile("[0-9]+");
-
-    /**
-     * Float number regular expression.
-     */
-    private static final Pattern FLOAT_NUMBER_REGEX = Pattern.compile("[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?");
-
-    /**
-     * Color regular expression.
+     * The options used to customize the lexical analysis.
      */
-    private static final Pattern COLOR_REGEX = Pattern.compile("#[a-zA-Z0-9]*");
+    private final CompileOptions options;
 
     /**
-     * Whitespace regular expression.
+     * The current processing position.
      */
-    private static final Pattern WS_REGEX = Pattern.compile("[\\s]*");
-
+    private int current;
 
     /**
-     * The options used to customize the lexical analysis.
+     * The input string.
      */
-    private CompileOptions options;
+    private String input;
 
     /**
-     * The sequence of recognized tokens.
+     * The length of the input string.
      */
-    private List<Token> tokens;
+    private int length;
 
     /**
-     * The current processing position.
+     * The type of the last recognized token, or null, if no token is recognized yet.
      */
-    private int current;
+    private TokenType last;
 
     /**
-     * The input string.
+     * The positions of the first character and after the last character of the text of the last recognized token.
      */
-    private String input;
+    private int start;
+    private int end;
 
     /**
      * A flag indicating whether currently in an expression.
@@ -88,443 +71,318 @@ final class Lexer {
      * @return A list of {@link Token} objects.
      */
     List<Token> tokenize(String input) {
-        this.input = input;
-        this.current = 0;
-        this.inExp = false;
-        this.inFormat = false;
-        this.inLocale = false;
-
-        tokens = new ArrayList<>();
-
-        while (current < input.length()) {
-            tokenizeNext();
+        TokenBuffer buffer = scan(input);
+        List<Token> tokens = new ArrayList<>(buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            tokens.add(buffer.getToken(i));
         }
 
         return tokens;
     }
 
-    private void tokenizeNext() {
-        if (text()) {
-            return;
-        }
-        if (ws()) {
-            return;
-        }
-        if (osb()) {
-            return;
-        }
-        if (csb()) {
-            return;
-        }
-        if (ob()) {
-            return;
-        }
-        if (cb()) {
-            return;
-        }
-        if (nul()) {
-            return;
-        }
-        if (identifier()) {
-            return;
-        }
-        if (number()) {
-            return;
-        }
-        if (color()) {
-            return;
-        }
-        if (string()) {
-            return;
-        }
-        if (opAdd()) {
-            return;
-        }
-        if (opSubtract()) {
-            return;
-        }
-        if (opMultiply()) {
-            return;
-        }
-        if (opDivide()) {
-            return;
-        }
-        if (opMod()) {
-            return;
-        }
-        if (opLessOrEqual()) {
-            return;
-        }
-        if (opGreaterOrEqual()) {
-            return;
-        }
-        if (opNotEqual()) {
-            return;
-        }
-        if (opLess()) {
-            return;
-        }
-        if (opGreater()) {
-            return;
-        }
-        if (opEqual()) {
-            return;
-        }
-        if (opNot()) {
-            return;
-        }
-        if (opConditionalAnd()) {
-            return;
-        }
-        if (opAnd()) {
-            return;
-        }
-        if (opConditionalOr()) {
-            return;
-        }
-        if (opOr()) {
-            return;
-        }
-        if (opPowerOrXor()) {
-            return;
-        }
-        if (opDot()) {
-            return;
-        }
-        if (comma()) {
-            return;
-        }
-        if (opFormat()) {
-            return;
-        }
-        if (discard()) {
-            return;
-        }
-        if (format()) {
-            return;
-        }
-        if (opCulture()) {
-            return;
-        }
-        if (culture()) {
-            return;
-        }
-        if (opExpressionSeparator()) {
-            return;
-        }
-
-        throw new IllegalArgumentException(String.format("Failed to recognize character '%1$s' at position %2$d within the input string '%3$s'.",
-            input.charAt(current), current, input));
-    }
-
     /**
-     * Matches the specified string against the substring at the current position within the underlying string.
+     * Performs a lexical analysis of the specified string and returns a buffer with the types and the positions
+     * of the tokens, whose texts are not extracted yet.
      */
-    private boolean match(String s) {
-        return input.startsWith(s, current);
-    }
-
-    /**
-     * Matches the specified regex against the string starting from the current position within the underlying string.
-     */
-    private int match(Pattern pattern) {
-        Matcher m = pattern.matcher(input);
-        if (!m.find(current)) {
-            return 0;
-        }
-        if (m.start() == m.end()) {
-            return 0;
-        }
-        if (m.start() != current) {
-            return 0;
-        }
-
-        return m.end() - m.start();
-    }
-
-    private boolean matchToken(String text, TokenType tokenType) {
-        if (match(text)) {
-            tokens.add(new Token(input.substring(current, current + text.length()), tokenType));
-            current += text.length();
-            return true;
-        }
-
-        return false;
-    }
+    TokenBuffer scan(String input) {
+        reset(input);
 
-    /**
-     * Recognizes a whitespace token.
-     */
-    private boolean ws() {
-        int length = match(WS_REGEX);
-        if (length > 0) {
-            // Note: We are ignoring whitespaces
-            current += length;
-            return true;
+        TokenBuffer tokens = new TokenBuffer(input);
+        while (next()) {
+            tokens.add(last, start, end);
         }
 
-        return false;
-    }
-
-    /**
-     * Recognizes an opening bracket.
-     */
-    private boolean ob() {
-        return matchToken("(", TokenType.OB);
-    }
-
-    /**
-     * Recognizes a closing bracket.
-     */
-    private boolean cb() {
-        return matchToken(")", TokenType.CB);
+        return tokens;
     }
 
     /**
-     * Recognizes an opening square bracket.
+     * Starts a lexical analysis of the specified string. The tokens are recognized by subsequent calls to {@link #next}.
      */
-    private boolean osb() {
-        if (!inExp && matchToken("[", TokenType.OSB)) {
-            inExp = true;
-            return true;
-        }
-
-        return false;
+    void reset(String input) {
+        this.input = input;
+        this.length = input.length();
+        this.current = 0;
+        this.last = null;
+        this.inExp = false;
+        this.inFormat = false;
+        this.inLocale = false;
     }
 
     /**
-     * Recognizes a closing square bracket.
+     * Recognizes the next token. Returns false, if the end of the input is reached.
      */
-    private boolean csb() {
-        if (inExp && matchToken("]", TokenType.CSB)) {
-            inExp = false;
-            inFormat = false;
-            inLocale = false;
-            return true;
+    boolean next() {
+        while (current < length) {
+            if (tokenizeNext()) {
+                return true;
+            }
         }
 
+        last = null;
         return false;
     }
 
     /**
-     * Recognizes an addition operator '+'.
-     */
-    private boolean opAdd() {
-        return matchToken("+", TokenType.OP_ADD);
-    }
-
-    /**
-     * Recognizes a subtraction operator '-'.
-     */
-    private boolean opSubtract() {
-        return matchToken("-", TokenType.OP_SUBTRACT);
-    }
-
-    /**
-     * Recognizes a multiplication operator '*'.
-     */
-    private boolean opMultiply() {
-        return matchToken("*", TokenType.OP_MULTIPLY);
-    }
-
-    /**
-     * Recognizes a division operator '/'.
-     */
-    private boolean opDivide() {
-        return matchToken("/", TokenType.OP_DIVIDE);
-    }
-
-    /**
-     * Recognizes a modulo operator '%'.
-     */
-    private boolean opMod() {
-        return matchToken("%", TokenType.OP_MOD);
-    }
-
-    /**
-     * Recognizes a less than comparison operator '&lt;'.
-     */
-    private boolean opLess() {
-        return matchToken("<", TokenType.OP_LESS);
-    }
-
-    /**
-     * Recognizes a greater than comparison operator '&gt;'.
+     * Gets the type of the last recognized token, or null, if the end of the input is reached.
      */
-    private boolean opGreater() {
-        return matchToken(">", TokenType.OP_GREATER);
+    TokenType getType() {
+        return last;
     }
 
     /**
-     * Recognizes an equal comparison operator '=='.
+     * Gets the text of the last recognized token.
      */
-    private boolean opEqual() {
-        return matchToken("==", TokenType.OP_EQUAL);
+    String getText() {
+        return input.substring(start, end);
     }
 
     /**
-     * Recognizes a not equal comparison operator '!='.
+     * Gets the position of the first character of the text of the last recognized token within the input.
      */
-    private boolean opNotEqual() {
-        return matchToken("!=", TokenType.OP_NOT_EQUAL);
+    int getStart() {
+        return start;
     }
 
     /**
-     * Recognizes a less than or equal comparison operator '&lt;='.
+     * Gets the position after the last character of the text of the last recognized token within the input.
      */
-    private boolean opLessOrEqual() {
-        return matchToken("<=", TokenType.OP_LESS_OR_EQUAL);
+    int getEnd() {
+        return end;
     }
 
     /**
-     * Recognizes a greater than or equal comparison operator '&gt;='.
+     * Recognizes the token at the current position or skips whitespaces. Returns false, if no token is recognized.
      */
-    private boolean opGreaterOrEqual() {
-        return matchToken(">=", TokenType.OP_GREATER_OR_EQUAL);
-    }
+    private boolean tokenizeNext() {
+        if (!inExp) {
+            text();
+            return true;
+        }
 
-    /**
-     * Recognizes a boolean negation operator '!'.
-     */
-    private boolean opNot() {
-        if (inFormat) {
-            return false;
+        char c = input.charAt(current);
+        switch (c) {
+            case ']':
+                add(TokenType.CSB, 1);
+                inExp = false;
+                inFormat = false;
+                inLocale = false;
+                return true;
+            case '(':
+                add(TokenType.OB, 1);
+                return true;
+            case ')':
+                add(TokenType.CB, 1);
+                return true;
+            case '+':
+                add(TokenType.OP_ADD, 1);
+                return true;
+            case '-':
+                add(TokenType.OP_SUBTRACT, 1);
+                return true;
+            case '*':
+                add(TokenType.OP_MULTIPLY, 1);
+                return true;
+            case '/':
+                add(TokenType.OP_DIVIDE, 1);
+                return true;
+            case '%':
+                add(TokenType.OP_MOD, 1);
+                return true;
+            case ',':
+                add(TokenType.COMMA, 1);
+                return true;
+            case ';':
+                add(TokenType.OP_EXPRESSION_SEPARATOR, 1);
+                return true;
+            case '<':
+                if (next('=')) {
+                    add(TokenType.OP_LESS_OR_EQUAL, 2);
+                } else {
+                    add(TokenType.OP_LESS, 1);
+                }
+                return true;
+            case '>':
+                if (next('=')) {
+                    add(TokenType.OP_GREATER_OR_EQUAL, 2);
+                } else {
+                    add(TokenType.OP_GREATER, 1);
+                }
+                return true;
+            case '=':
+                if (next('=')) {
+                    add(TokenType.OP_EQUAL, 2);
+                    return true;
+                }
+                break;
+            case '!':
+                // Within a format, the symbol discards the value, unless it is followed by '='
+                if (next('=')) {
+                    add(TokenType.OP_NOT_EQUAL, 2);
+                    return true;
+                }
+                if (!inFormat) {
+                    add(TokenType.OP_NOT, 1);
+                    return true;
+                }
+                if (!inLocale) {
+                    add(TokenType.DISCARD, 1);
+                    return true;
+                }
+                break;
+            case '&':
+                if (next('&')) {
+                    add(TokenType.OP_CONDITIONAL_AND, 2);
+                } else {
+                    add(TokenType.OP_AND, 1);
+                }
+                return true;
+            case '|':
+                if (next('|')) {
+                    add(TokenType.OP_CONDITIONAL_OR, 2);
+                } else {
+                    add(TokenType.OP_OR, 1);
+                }
+                return true;
+            case '^':
+                add(options.getInterpretCircumflexAsPower() ? TokenType.OP_POWER : TokenType.OP_XOR, 1);
+                return true;
+            case '.':
+                if (!number()) {
+                    add(TokenType.OP_DOT, 1);
+                }
+                return true;
+            case '@':
+                add(TokenType.OP_FORMAT, 1);
+                inFormat = true;
+                return true;
+            case ':':
+                if (inFormat) {
+                    add(TokenType.OP_CULTURE, 1);
+                    inLocale = true;
+                    return true;
+                }
+                break;
+            case '"':
+                if (quoted()) {
+                    return true;
+                }
+                break;
+            case '#':
+                color();
+                return true;
+            default:
+                if (isWhitespace(c)) {
+                    ws();
+                    return false;
+                }
+                if (isIdentifierStart(c)) {
+                    if (!nul()) {
+                        identifier();
+                    }
+                    return true;
+                }
+                if (isDigit(c) && number()) {
+                    return true;
+                }
+                break;
         }
 
-        return matchToken("!", TokenType.OP_NOT);
+        throw new IllegalArgumentException(String.format("Failed to recognize character '%1$s' at position %2$d within the input string '%3$s'.",
+            c, current, input));
     }
 
     /**
-     * Recognizes a bitwise and operator '&amp;'.
+     * Recognizes a token of the specified type with the specified length, starting from the current position, and moves past it.
      */
-    private boolean opAnd() {
-        return matchToken("&", TokenType.OP_AND);
+    private void add(TokenType type, int tokenLength) {
+        add(type, current, current + tokenLength);
+        current += tokenLength;
     }
 
     /**
-     * Recognizes a bitwise or operator '|'.
+     * Recognizes a token of the specified type with the text between the specified positions.
      */
-    private boolean opOr() {
-        return matchToken("|", TokenType.OP_OR);
+    private void add(TokenType type, int start, int end) {
+        this.start = start;
+        this.end = end;
+        last = type;
     }
 
     /**
-     * Recognizes the '^' symbol as either raising to power or xor, depending on the current settings.
+     * Gets a value indicating whether the character after the current position is the specified one.
      */
-    private boolean opPowerOrXor() {
-        if (options.getInterpretCircumflexAsPower()) {
-            return opPower();
-        } else {
-            return opXor();
-        }
+    private boolean next(char c) {
+        return current + 1 < length && input.charAt(current + 1) == c;
     }
 
-    /**
-     * Recognizes a bitwise or operator '^'.
-     */
-    private boolean opXor() {
-        return matchToken("^", TokenType.OP_XOR);
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
-    /**
-     * Recognizes the raise to power operator '^'.
-     */
-    private boolean opPower() {
-        return matchToken("^", TokenType.OP_POWER);
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
-    /**
-     * Recognizes a conditional and operator '&amp;&amp;'.
-     */
-    private boolean opConditionalAnd() {
-        return matchToken("&&", TokenType.OP_CONDITIONAL_AND);
+    private static boolean isLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
     }
 
-    /**
-     * Recognizes a conditional or operator '||'.
-     */
-    private boolean opConditionalOr() {
-        return matchToken("||", TokenType.OP_CONDITIONAL_OR);
+    private static boolean isIdentifierStart(char c) {
+        return isLetter(c) || c == '_';
     }
 
-    /**
-     * Recognizes a member access operator '.'.
-     */
-    private boolean opDot() {
-        return matchToken(".", TokenType.OP_DOT);
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
     }
 
     /**
-     * Recognizes the formatting operator '@'.
+     * Gets the position of the first character, which is not a digit, starting from the specified position.
      */
-    private boolean opFormat() {
-        if (matchToken("@", TokenType.OP_FORMAT)) {
-            inFormat = true;
-            return true;
+    private int skipDigits(int position) {
+        while (position < length && isDigit(input.charAt(position))) {
+            position++;
         }
 
-        return false;
+        return position;
     }
 
     /**
-     * Recognizes the culture specifier ':' within a format.
+     * Recognizes free text, which extends up to the next opening square bracket, or the opening square bracket itself.
      */
-    private boolean opCulture() {
-        if (inFormat && matchToken(":", TokenType.OP_CULTURE)) {
-            inLocale = true;
-            return true;
+    private void text() {
+        int end = input.indexOf('[', current);
+        if (end == -1) {
+            end = length;
         }
 
-        return false;
-    }
-
-    private boolean opExpressionSeparator() {
-        if (match(";")) {
-            tokens.add(new Token(input.substring(current, current + 1), TokenType.OP_EXPRESSION_SEPARATOR));
-            current++;
-            return true;
+        if (end > current) {
+            add(TokenType.TEXT, current, end);
+            current = end;
+        } else {
+            add(TokenType.OSB, 1);
+            inExp = true;
         }
-
-        return false;
-    }
-
-    /**
-     * Recognizes comma.
-     */
-    private boolean comma() {
-        return matchToken(",", TokenType.COMMA);
     }
 
     /**
-     * Recognizes free text.
+     * Skips whitespaces.
      */
-    private boolean text() {
-        if (inExp) {
-            return false;
-        }
-
-        int length = match(TEXT_REGEX);
-        if (length > 0) {
-            tokens.add(new Token(input.substring(current, current + length), TokenType.TEXT));
-            current += length;
-            return true;
-        }
-
-        return false;
+    private void ws() {
+        do {
+            current++;
+        } while (current < length && isWhitespace(input.charAt(current)));
     }
 
     /**
      * Recognizes an identifier.
      */
-    private boolean identifier() {
-        int length = match(IDENTIFIER_REGEX);
-        if (length > 0) {
-            tokens.add(new Token(input.substring(current, current + length), TokenType.IDENTIFIER));
-            current += length;
-            return true;
+    private void identifier() {
+        int position = current + 1;
+        while (position < length && isIdentifierPart(input.charAt(position))) {
+            position++;
         }
 
-        return false;
+        add(TokenType.IDENTIFIER, position - current);
     }
 
     /**
@@ -532,11 +390,10 @@ final class Lexer {
      */
     private boolean nul() {
         // Attempt to recognize 'null' followed by a non-letter
-        int length = 4;
+        int tokenLength = 4;
         if (input.startsWith("null", current) &&
-            (input.length() == current + length || !Character.isLetter(input.charAt(current + length)))) {
-            tokens.add(new Token(input.substring(current, current + length), TokenType.NULL));
-            current += length;
+            (length == current + tokenLength || !Character.isLetter(input.charAt(current + tokenLength)))) {
+            add(TokenType.NULL, tokenLength);
             return true;
         }
 
@@ -544,156 +401,68 @@ final class Lexer {
     }
 
     /**
-     * Recognizes a string literal.
+     * Recognizes a number, which consists of digits, optionally followed by a dot and at least one digit and
+     * by an exponent. A number starting with a dot is recognized only if the dot is followed by a digit.
      */
-    private boolean string() {
-        if (!inExp || inFormat || inLocale) {
+    private boolean number() {
+        // Note: Do not match numbers after identifiers and dots.
+        if (last == TokenType.IDENTIFIER || last == TokenType.OP_DOT) {
             return false;
         }
 
-        // Should begin with '"'
-        if (current == input.length() - 1) {
-            return false;
-        }
-        if (input.charAt(current) != '"') {
+        int position = skipDigits(current);
+        boolean integer = true;
+        if (position + 1 < length && input.charAt(position) == '.' && isDigit(input.charAt(position + 1))) {
+            position = skipDigits(position + 1);
+            integer = false;
+        } else if (position == current) {
             return false;
         }
 
-        int position = current + 1;
-
-        // Search for closing '"'
-        while (true) {
-            if (position == input.length()) {
-                return false;
+        if (position < length && (input.charAt(position) == 'e' || input.charAt(position) == 'E')) {
+            int exponent = position + 1;
+            if (exponent < length && (input.charAt(exponent) == '-' || input.charAt(exponent) == '+')) {
+                exponent++;
             }
-
-            if (input.charAt(position) == '"') {
-                tokens.add(new Token(input.substring(current + 1, position), TokenType.STRING));
-                current = position + 1;
-                return true;
-            }
-
-            position++;
-        }
-    }
-
-    /**
-     * Recognizes a number.
-     */
-    private boolean number() {
-        // Note: Do not match numbers after identifiers and dots.
-        Token last = tokens.isEmpty() ? null : tokens.get(tokens.size() - 1);
-        if (last != null && (last.getType() == TokenType.IDENTIFIER || last.getType() == TokenType.OP_DOT)) {
-            return false;
-        }
-
-        int length = match(FLOAT_NUMBER_REGEX);
-        if (length > 0) {
-            // Check if its an integer number
-            int length2 = match(INT_NUMBER_REGEX);
-            if (length2 == length) {
-                tokens.add(new Token(input.substring(current, current + length), TokenType.INT_NUMBER));
-                current += length;
-            } else {
-                tokens.add(new Token(input.substring(current, current + length), TokenType.FLOAT_NUMBER));
-                current += length;
+            if (exponent < length && isDigit(input.charAt(exponent))) {
+                position = skipDigits(exponent);
+                integer = false;
             }
-            return true;
         }
 
-        return false;
+        add(integer ? TokenType.INT_NUMBER : TokenType.FLOAT_NUMBER, position - current);
+        return true;
     }
 
     /**
      * Recognizes a color.
      */
-    private boolean color() {
-        int length = match(COLOR_REGEX);
-        if (length > 0) {
-            tokens.add(new Token(input.substring(current, current + length), TokenType.COLOR));
-            current += length;
-            return true;
-        }
-
-        return false;
-    }
-
-    /**
-     * Recognizes a formatting specifier.
-     */
-    private boolean format() {
-        if (!inFormat || inLocale) {
-            return false;
-        }
-
-        // Should begin with '"'
-        if (current == input.length() - 1) {
-            return false;
-        }
-        if (input.charAt(current) != '"') {
-            return false;
-        }
-
+    private void color() {
         int position = current + 1;
-
-        // Search for closing '"'
-        while (true) {
-            if (position == input.length()) {
-                return false;
-            }
-
-            if (input.charAt(position) == '"') {
-                tokens.add(new Token(input.substring(current, position + 1), TokenType.FORMAT));
-                current = position + 1;
-                return true;
-            }
-
+        while (position < length && (isLetter(input.charAt(position)) || isDigit(input.charAt(position)))) {
             position++;
         }
-    }
-
-    /**
-     * Recognizes a discard symbol.
-     */
-    private boolean discard() {
-        if (!inFormat || inLocale) {
-            return false;
-        }
 
-        return matchToken("!", TokenType.DISCARD);
+        add(TokenType.COLOR, position - current);
     }
 
     /**
-     * Recognizes a culture name.
+     * Recognizes a string literal, a formatting specifier or a culture name, depending on the current settings.
+     * The text of a string literal does not include the quotes.
      */
-    private boolean culture() {
-        if (!inLocale) {
-            return false;
-        }
-
-        // Should begin with '"'
-        if (current == input.length() - 1) {
-            return false;
-        }
-        if (input.charAt(current) != '"') {
+    private boolean quoted() {
+        // Search for closing '"'
+        int position = input.indexOf('"', current + 1);
+        if (position == -1) {
             return false;
         }
 
-        int position = current + 1;
-
-        // Search for closing '"'
-        while (true) {
-            if (position == input.length()) {
-                return false;
-            }
-
-            if (input.charAt(position) == '"') {
-                tokens.add(new Token(input.substring(current, position + 1), TokenType.CULTURE));
-                current = position + 1;
-                return true;
-            }
-
-            position++;
+        if (!inFormat) {
+            add(TokenType.STRING, current + 1, position);
+        } else {
+            add(inLocale ? TokenType.CULTURE : TokenType.FORMAT, current, position + 1);
         }
+        current = position + 1;
+        return true;
     }
-}
\ No newline at end of file
+}
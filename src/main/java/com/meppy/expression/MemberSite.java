@@ -0,0 +1,162 @@
+package com.meppy.expression;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+/**
+ * Represents a dot operation within the code, which reads a chain of members starting from its target.
+ * <p>
+ * Each member of the chain keeps an inline cache with the getters found for the classes of the objects
+ * it has been read from. The classes are compared by identity, so that reading a member of an object
+ * of a cached class costs a guarded call of its getter. If the member is read from more than
+ * {@link #MAX_CLASSES} classes, its cache is no longer extended and the getters of other classes are
+ * obtained from {@link PropertyGetters}. The caches are immutable and replaced as a whole, so that
+ * the code can be evaluated by several threads.
+ */
+final class MemberSite {
+    /**
+     * The maximum number of classes cached for each member.
+     */
+    static final int MAX_CLASSES = 4;
+
+    private static final InlineCache EMPTY = new InlineCache(new Class<?>[0], new PropertyGetter[0]);
+
+    private final String[] members;
+    private final InlineCache[] caches;
+
+    /**
+     * Initializes a new instance of the {@link MemberSite} class, which reads the members with the specified names.
+     */
+    MemberSite(String[] members) {
+        this.members = members;
+        this.caches = new InlineCache[members.length];
+        for (int c = 0; c < members.length; c++) {
+            caches[c] = EMPTY;
+        }
+    }
+
+    /**
+     * Gets the names of the members read by the site.
+     */
+    String[] getMembers() {
+        return members;
+    }
+
+    /**
+     * Reads the chain of members starting from the specified target, which is either an object or,
+     * if it is a string, the name of an object resolved through the specified context.
+     */
+    Object getValue(Object target, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object value = target instanceof String ? context.findTarget((String) target) : target;
+        for (int c = 0; c < members.length; c++) {
+            value = getValue(c, value, context);
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads the chain of members starting from the specified target, like {@link #getValue(Object, EvaluationContext)},
+     * and pushes the value to the specified frame. The values of the last member, whose getter returns int, long or
+     * double, are pushed unboxed.
+     */
+    void push(Object target, ByteCode.Frame frame, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object value = target instanceof String ? context.findTarget((String) target) : target;
+        int last = members.length - 1;
+        for (int c = 0; c < last; c++) {
+            value = getValue(c, value, context);
+        }
+
+        PropertyGetter getter = value != null ? getGetter(last, value.getClass()) : null;
+        if (getter == null) {
+            frame.push(context.evaluateMember(value, members[last], true));
+            return;
+        }
+
+        switch (getter.getType()) {
+            case ByteCode.Frame.INT:
+                frame.pushInt(getter.getInt(value));
+                break;
+            case ByteCode.Frame.LONG:
+                frame.pushLong(getter.getLong(value));
+                break;
+            case ByteCode.Frame.DOUBLE:
+                frame.pushDouble(getter.getDouble(value));
+                break;
+            default:
+                frame.push(getter.get(value));
+                break;
+        }
+    }
+
+    private Object getValue(int c, Object target, EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        PropertyGetter getter = target != null ? getGetter(c, target.getClass()) : null;
+        if (getter != null) {
+            return getter.get(target);
+        }
+
+        // The property was not found on the target object, or the target is null. This is a valid use case,
+        // which the context reports, unless it evaluates the member itself
+        return context.evaluateMember(target, members[c], c == members.length - 1);
+    }
+
+    /**
+     * Gets the getter of the member with the specified index of the specified class, through the inline cache
+     * of the member, or null, if the class does not have the property.
+     */
+    private PropertyGetter getGetter(int c, Class<?> type) {
+        InlineCache cache = caches[c];
+        int index = cache.indexOf(type);
+        if (index >= 0) {
+            return cache.getters[index];
+        }
+
+        PropertyGetter getter = PropertyGetters.get(type, members[c]);
+        if (cache.classes.length < MAX_CLASSES) {
+            caches[c] = cache.add(type, getter);
+        }
+
+        return getter;
+    }
+
+    /**
+     * Gets a value indicating whether the member with the specified index is read through its inline cache,
+     * rather than by looking up the getters of the classes.
+     */
+    boolean isCached(int c, Class<?> type) {
+        return caches[c].indexOf(type) >= 0;
+    }
+
+    /**
+     * The classes of the objects a member has been read from and the respective getters,
+     * which are null for the classes without the property.
+     */
+    private static final class InlineCache {
+        private final Class<?>[] classes;
+        private final PropertyGetter[] getters;
+
+        InlineCache(Class<?>[] classes, PropertyGetter[] getters) {
+            this.classes = classes;
+            this.getters = getters;
+        }
+
+        int indexOf(Class<?> type) {
+            Class<?>[] classes = this.classes;
+            for (int j = 0; j < classes.length; j++) {
+                if (classes[j] == type) {
+                    return j;
+                }
+            }
+
+            return -1;
+        }
+
+        InlineCache add(Class<?> type, PropertyGetter getter) {
+            Class<?>[] classes = Arrays.copyOf(this.classes, this.classes.length + 1);
+            PropertyGetter[] getters = Arrays.copyOf(this.getters, this.getters.length + 1);
+            classes[classes.length - 1] = type;
+            getters[getters.length - 1] = getter;
+            return new InlineCache(classes, getters);
+        }
+    }
+}
\ No newline at end of file
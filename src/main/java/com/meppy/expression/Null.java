@@ -0,0 +1,16 @@
+package com.meppy.expression;
+
+/**
+ * Represents the null literal in the code evaluation stack. It is evaluated as the identifier with the same name.
+ */
+final class Null extends Identifier {
+    private static final Null instance = new Null();
+
+    private Null() {
+        super("null");
+    }
+
+    public static Null getInstance() {
+        return instance;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,481 @@
+package com.meppy.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Simplifies parse trees before they are compiled to byte code.
+ * <p>
+ * Sub-expressions, whose operands are constants, are replaced by their values, computed the same way as during
+ * evaluation. If requested through {@link CompileOptions#setFoldFunctions}, calls to built-in functions, which always
+ * return the same result for the same arguments regardless of the locale, are folded as well, since the evaluation
+ * context is then assumed not to override them. Sub-expressions, which fail during folding, are kept, so that they
+ * fail during evaluation instead.
+ */
+final class Optimizer {
+    /**
+     * Indicates that a node is not a constant.
+     */
+    static final Object NOT_CONSTANT = new Object();
+
+    private final CompileOptions options;
+
+    /**
+     * The context used to evaluate built-in functions, created when needed.
+     */
+    private EvaluationContext context;
+
+    /**
+     * The types of the numbers produced by the simplified nodes, whose parents are not simplified yet,
+     * in the order of the nodes. A type is null, if it is not known.
+     */
+    private final List<Class<?>> types = new ArrayList<>();
+
+    Optimizer(CompileOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Simplifies the tree with the specified root in place and returns the root.
+     */
+    static ParseTreeNode optimize(ParseTreeNode root, CompileOptions options) {
+        if (root != null) {
+            Optimizer optimizer = new Optimizer(options);
+            root.accept(new ParseTreeVisitor() {
+                @Override
+                public void enterVisit(ParseTreeNode node) {
+                }
+
+                @Override
+                public void leaveVisit(ParseTreeNode node) {
+                    optimizer.simplify(node);
+                }
+            });
+        }
+
+        return root;
+    }
+
+    /**
+     * Simplifies the specified node, whose children are already simplified, and records the type of its numbers
+     * in place of the types of its children.
+     */
+    private void simplify(ParseTreeNode node) {
+        List<ParseTreeNode> children = node.getChildren();
+        int first = types.size() - children.size();
+
+        // The index of the child, which replaces the node, if any
+        int replacement = -1;
+        switch (node.getToken().getType()) {
+            case OP_ADD:
+            case OP_MULTIPLY:
+            case OP_DIVIDE:
+            case OP_MOD:
+            case OP_POWER:
+            case OP_LESS:
+            case OP_GREATER:
+            case OP_EQUAL:
+            case OP_NOT_EQUAL:
+            case OP_LESS_OR_EQUAL:
+            case OP_GREATER_OR_EQUAL:
+            case OP_AND:
+            case OP_XOR:
+            case OP_OR:
+                replacement = simplifyBinary(node, first);
+                break;
+
+            case OP_SUBTRACT:
+                if (children.size() == 1) {
+                    simplifyUnary(node, ByteCode.Op.MINUS);
+                } else {
+                    replacement = simplifyBinary(node, first);
+                }
+                break;
+
+            case OP_NOT:
+                simplifyUnary(node, ByteCode.Op.NOT);
+                break;
+
+            case OP_CONDITIONAL_AND:
+            case OP_CONDITIONAL_OR:
+                simplifyConditional(node);
+                break;
+
+            case FUNCTION_CALL:
+                simplifyFunctionCall(node);
+                break;
+
+            default:
+                break;
+        }
+
+        Class<?> type = replacement != -1 ? types.get(first + replacement) : getNumericType(node, first);
+        types.subList(first, types.size()).clear();
+        types.add(type);
+    }
+
+    /**
+     * Simplifies the specified binary operation, whose operands have the numeric types recorded at the specified index.
+     * Returns the index of the operand, which replaces the operation, or -1, if the operation is not replaced.
+     */
+    private int simplifyBinary(ParseTreeNode node, int first) {
+        List<ParseTreeNode> children = node.getChildren();
+        if (children.size() != 2) {
+            return -1;
+        }
+
+        ByteCode.Op op = getOperation(node.getToken().getType());
+        Object a = getConstant(children.get(0));
+        Object b = getConstant(children.get(1));
+        if (a != NOT_CONSTANT && b != NOT_CONSTANT) {
+            fold(node, foldBinary(op, a, b));
+        } else if (a != NOT_CONSTANT && isIdentity(op, a, types.get(first + 1), false)) {
+            replace(node, children.get(1));
+            return 1;
+        } else if (b != NOT_CONSTANT && isIdentity(op, b, types.get(first), true)) {
+            replace(node, children.get(0));
+            return 0;
+        }
+
+        return -1;
+    }
+
+    private void simplifyUnary(ParseTreeNode node, ByteCode.Op op) {
+        Object a = getConstant(node.getChildren().get(0));
+        if (a != NOT_CONSTANT) {
+            fold(node, foldUnary(op, a));
+        }
+    }
+
+    private void simplifyConditional(ParseTreeNode node) {
+        List<ParseTreeNode> children = node.getChildren();
+        if (children.size() != 2) {
+            return;
+        }
+
+        ByteCode.Op op = node.getToken().getType() == TokenType.OP_CONDITIONAL_AND ?
+            ByteCode.Op.CONDITIONAL_AND : ByteCode.Op.CONDITIONAL_OR;
+        Object a = getConstant(children.get(0));
+        if (a == NOT_CONSTANT) {
+            return;
+        }
+
+        // The right operand is not needed if the left one determines the result
+        Object b = ByteCode.isBoolean(a, op == ByteCode.Op.CONDITIONAL_OR) ? NOT_CONSTANT : getConstant(children.get(1));
+        fold(node, foldConditional(op, a, b));
+    }
+
+    private void simplifyFunctionCall(ParseTreeNode node) {
+        List<ParseTreeNode> children = node.getChildren();
+        Object[] arguments = new Object[children.size()];
+        for (int j = 0; j < arguments.length; j++) {
+            arguments[j] = getConstant(children.get(j));
+        }
+
+        fold(node, foldFunctionCall(node.getToken().getText(), arguments));
+    }
+
+    /**
+     * Gets the value of the specified binary operation with the specified constant operands,
+     * or {@link #NOT_CONSTANT}, if the operation fails.
+     */
+    static Object foldBinary(ByteCode.Op op, Object a, Object b) {
+        return compute(() -> ByteCode.Calc.apply(a, b, op));
+    }
+
+    /**
+     * Gets the value of the specified unary operation with the specified constant operand,
+     * or {@link #NOT_CONSTANT}, if the operation fails.
+     */
+    static Object foldUnary(ByteCode.Op op, Object a) {
+        return compute(() -> ByteCode.Calc.apply(a, op));
+    }
+
+    /**
+     * Gets the value of the specified conditional operation with the specified operands, which might not be constants,
+     * or {@link #NOT_CONSTANT}, if the value is not known during compilation.
+     */
+    static Object foldConditional(ByteCode.Op op, Object a, Object b) {
+        if (a == NOT_CONSTANT) {
+            return NOT_CONSTANT;
+        }
+
+        // The right operand is not evaluated if the left one determines the result
+        if (ByteCode.isBoolean(a, op == ByteCode.Op.CONDITIONAL_OR)) {
+            return a;
+        }
+
+        return b != NOT_CONSTANT ? foldBinary(op, a, b) : NOT_CONSTANT;
+    }
+
+    /**
+     * Gets the value of the call to the function with the specified name with the specified arguments, which might
+     * not be constants, or {@link #NOT_CONSTANT}, if the value is not known during compilation.
+     */
+    Object foldFunctionCall(String name, Object[] arguments) {
+        if (name.equals("iif") && arguments.length == 3) {
+            // Only the selected branch is evaluated, so the other one does not need to be constant
+            Object condition = arguments[0];
+            if (condition instanceof Boolean || condition instanceof Number) {
+                return getContext().getBool(condition) ? arguments[1] : arguments[2];
+            }
+            return NOT_CONSTANT;
+        }
+
+        BuiltInFunction function = getBuiltInFunction(name);
+        String parameters = function != null ? function.getFoldedParameters() : null;
+        if (parameters == null || arguments.length > parameters.length()) {
+            return NOT_CONSTANT;
+        }
+
+        for (int j = 0; j < arguments.length; j++) {
+            if (!isOfKind(arguments[j], parameters.charAt(j))) {
+                return NOT_CONSTANT;
+            }
+        }
+
+        return compute(() -> getContext().invokeFunction(name, arguments));
+    }
+
+    /**
+     * Replaces the specified node with the specified value, unless it is {@link #NOT_CONSTANT}.
+     */
+    private static void fold(ParseTreeNode node, Object value) {
+        if (value == NOT_CONSTANT) {
+            return;
+        }
+
+        node.setToken(new ConstantToken(value));
+        node.getChildren().clear();
+    }
+
+    /**
+     * Gets the value computed by the specified function, or {@link #NOT_CONSTANT}, if the function fails.
+     */
+    private static Object compute(Fold fold) {
+        try {
+            return fold.compute();
+        } catch (RuntimeException ex) {
+            // Keep the sub-expression, so that it fails during evaluation
+            return NOT_CONSTANT;
+        }
+    }
+
+    /**
+     * Computes the value of a constant sub-expression.
+     */
+    private interface Fold {
+        Object compute();
+    }
+
+    /**
+     * Replaces the specified node with the specified child node.
+     */
+    private static void replace(ParseTreeNode node, ParseTreeNode child) {
+        node.setToken(child.getToken());
+        List<ParseTreeNode> children = node.getChildren();
+        List<ParseTreeNode> grandChildren = child.getChildren();
+        children.clear();
+        children.addAll(grandChildren);
+    }
+
+    /**
+     * Gets a value indicating whether the specified binary operation with the specified constant operand
+     * produces the value of its other operand, whose numbers are of the specified type, with the same type. Only numbers of known types can be safely
+     * simplified, because the operations promote and convert other values.
+     */
+    static boolean isIdentity(ByteCode.Op op, Object constant, Class<?> operandType, boolean constantIsRight) {
+        int rank = getRank(constant);
+        int operandRank = getRank(operandType);
+        if (rank == 0 || operandRank == 0 || rank > operandRank) {
+            // The operation would promote the value of the operand
+            return false;
+        }
+
+        double value = ((Number) constant).doubleValue();
+        switch (op) {
+            case MUL:
+                return value == 1;
+            case DIV:
+                return constantIsRight && value == 1;
+            case SUB:
+                return constantIsRight && value == 0;
+            case ADD:
+                // Adding zero turns negative zero into positive zero
+                return value == 0 && operandRank < getRank(Double.class);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the type of the numbers produced by the specified simplified node, whose children produce numbers of
+     * the types recorded at the specified index, or null, if the type is not known. The types of variables are not
+     * known, because they are only declared as hints.
+     */
+    private Class<?> getNumericType(ParseTreeNode node, int first) {
+        Token t = node.getToken();
+        List<ParseTreeNode> children = node.getChildren();
+        switch (t.getType()) {
+            case CONSTANT:
+                return getNumericType(((ConstantToken) t).getValue());
+
+            case INT_NUMBER:
+                return children.isEmpty() ? Integer.class : null;
+
+            case FLOAT_NUMBER:
+                return children.isEmpty() ? Double.class : null;
+
+            case FUNCTION_CALL:
+                return getFunctionNumericType(t.getText());
+
+            case OP_SUBTRACT:
+                // The unary minus keeps the type of its operand
+                return children.size() == 1 ? types.get(first) : getBinaryNumericType(node, first);
+
+            case OP_ADD:
+            case OP_MULTIPLY:
+            case OP_DIVIDE:
+            case OP_MOD:
+                return getBinaryNumericType(node, first);
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the type of the specified constant, if it is a number of a known type, or null otherwise.
+     */
+    static Class<?> getNumericType(Object value) {
+        return getRank(value) != 0 ? value.getClass() : null;
+    }
+
+    /**
+     * Gets the type of the numbers returned by the function with the specified name, or null, if the type is not known.
+     */
+    Class<?> getFunctionNumericType(String name) {
+        BuiltInFunction function = getBuiltInFunction(name);
+        return function != null ? function.getResultType() : null;
+    }
+
+    /**
+     * Gets the built-in function with the specified name, if calls to it can be folded, or null otherwise.
+     * The evaluation context might override built-in functions, unless they are requested to be folded,
+     * and it evaluates the declared functions.
+     */
+    private BuiltInFunction getBuiltInFunction(String name) {
+        return options.getFoldFunctions() && !options.isFunction(name) ? BuiltInFunction.get(name) : null;
+    }
+
+    /**
+     * Gets the type of the numbers produced by the specified binary arithmetic operation, or null, if the type is not known.
+     */
+    private Class<?> getBinaryNumericType(ParseTreeNode node, int first) {
+        if (node.getChildren().size() != 2) {
+            return null;
+        }
+        return getBinaryNumericType(types.get(first), types.get(first + 1));
+    }
+
+    /**
+     * Gets the type of the numbers produced by a binary arithmetic operation with operands of the specified types,
+     * or null, if the type is not known.
+     */
+    static Class<?> getBinaryNumericType(Class<?> a, Class<?> b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        return getRank(a) >= getRank(b) ? a : b;
+    }
+
+    /**
+     * Gets the priority of the specified numeric value or type during promotion, or 0, if it is not an int, long or double.
+     */
+    private static int getRank(Object value) {
+        Class<?> type = value instanceof Class<?> ? (Class<?>) value : value != null ? value.getClass() : null;
+        if (type == Integer.class) {
+            return 1;
+        } else if (type == Long.class) {
+            return 2;
+        } else if (type == Double.class) {
+            return 3;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the value of the specified node, if it is a constant, or {@link #NOT_CONSTANT} otherwise.
+     */
+    private static Object getConstant(ParseTreeNode node) {
+        Token t = node.getToken();
+        switch (t.getType()) {
+            case CONSTANT:
+                return ((ConstantToken) t).getValue();
+
+            case INT_NUMBER:
+                // A number with a unit is a quantity, which is evaluated by the context
+                return node.getChildren().isEmpty() ? (Object) Integer.parseInt(t.getText()) : NOT_CONSTANT;
+
+            case FLOAT_NUMBER:
+                return node.getChildren().isEmpty() ? (Object) Double.parseDouble(t.getText()) : NOT_CONSTANT;
+
+            case STRING:
+                return t.getText();
+
+            case NULL:
+                return null;
+
+            default:
+                return NOT_CONSTANT;
+        }
+    }
+
+    /**
+     * Gets a value indicating whether the specified constant can be passed as a parameter of the specified kind
+     * without being converted through the locale of the evaluation context.
+     */
+    private static boolean isOfKind(Object value, char kind) {
+        switch (kind) {
+            case 'D':
+                return value instanceof Number;
+            case 'S':
+                return value == null || value instanceof String;
+            default:
+                return value != NOT_CONSTANT;
+        }
+    }
+
+    /**
+     * Gets the binary operation corresponding to the specified type of token.
+     */
+    static ByteCode.Op getOperation(TokenType type) {
+        switch (type) {
+            case OP_ADD: return ByteCode.Op.ADD;
+            case OP_SUBTRACT: return ByteCode.Op.SUB;
+            case OP_MULTIPLY: return ByteCode.Op.MUL;
+            case OP_DIVIDE: return ByteCode.Op.DIV;
+            case OP_MOD: return ByteCode.Op.MOD;
+            case OP_POWER: return ByteCode.Op.POWER;
+            case OP_LESS: return ByteCode.Op.LESS;
+            case OP_GREATER: return ByteCode.Op.GREATER;
+            case OP_EQUAL: return ByteCode.Op.EQUAL;
+            case OP_NOT_EQUAL: return ByteCode.Op.NOT_EQUAL;
+            case OP_LESS_OR_EQUAL: return ByteCode.Op.LESS_OR_EQUAL;
+            case OP_GREATER_OR_EQUAL: return ByteCode.Op.GREATER_OR_EQUAL;
+            case OP_AND: return ByteCode.Op.AND;
+            case OP_XOR: return ByteCode.Op.XOR;
+            default: return ByteCode.Op.OR;
+        }
+    }
+
+    private EvaluationContext getContext() {
+        if (context == null) {
+            context = new EvaluationContext(null, Locale.ROOT);
+        }
+
+        return context;
+    }
+}
\ No newline at end of file
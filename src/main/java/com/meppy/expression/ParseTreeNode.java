@@ -1,6 +1,9 @@
 package com.meppy.expression;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -32,10 +35,29 @@ final class ParseTreeNode {
         this.children = new ArrayList<>();
     }
 
+    /**
+     * Visits this node and its descendants in depth-first order. The nodes being visited are kept in explicit stacks,
+     * so that deep trees do not overflow the thread stack.
+     */
     void accept(ParseTreeVisitor visitor) {
+        Deque<ParseTreeNode> nodes = new ArrayDeque<>();
+        Deque<Iterator<ParseTreeNode>> iterators = new ArrayDeque<>();
         visitor.enterVisit(this);
-        children.forEach(child -> child.accept(visitor));
-        visitor.leaveVisit(this);
+        nodes.push(this);
+        iterators.push(children.iterator());
+
+        while (!nodes.isEmpty()) {
+            Iterator<ParseTreeNode> iterator = iterators.peek();
+            if (iterator.hasNext()) {
+                ParseTreeNode child = iterator.next();
+                visitor.enterVisit(child);
+                nodes.push(child);
+                iterators.push(child.children.iterator());
+            } else {
+                iterators.pop();
+                visitor.leaveVisit(nodes.pop());
+            }
+        }
     }
 
     /**
@@ -58,9 +80,4 @@ final class ParseTreeNode {
     void setToken(Token value) {
         token = value;
     }
-}
-
-interface ParseTreeVisitor {
-    void enterVisit(ParseTreeNode node);
-    void leaveVisit(ParseTreeNode node);
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package com.meppy.expression;
+
+/**
+ * Receives the nodes of a parse tree visited by {@link ParseTreeNode#accept}.
+ */
+interface ParseTreeVisitor {
+    /**
+     * Called before the children of the specified node are visited.
+     */
+    void enterVisit(ParseTreeNode node);
+
+    /**
+     * Called after the children of the specified node are visited.
+     */
+    void leaveVisit(ParseTreeNode node);
+}
\ No newline at end of file
@@ -1,27 +1,70 @@
 package com.meppy.expression;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * Provides parsing capabilities for token lists previously generated
- * by processing character sequences through a {@link Lexer}.
+ * Provides parsing capabilities for token buffers previously generated
+ * by processing character sequences through a {@link Lexer}. Tokens are created only for the nodes of the tree.
+ * <p>
+ * Binary operations are parsed by precedence climbing, driven by the {@link #PRECEDENCES} table, and all other
+ * constructs are recognized by their first token, so that the parser never backtracks. If a construct cannot
+ * be parsed, the whole document cannot be parsed, so the parsing stops at the first error. The parser does not
+ * recurse, so the depth of the expressions is limited only by the available memory.
  */
 final class Parser {
     /**
-     * The list of tokens to parse.
+     * The precedence of the binary operators by the ordinals of their token types. Tokens, which are not binary
+     * operators, have the precedence 0. All binary operators are left-associative.
+     * <p>
+     * The circumflex is recognized as {@link TokenType#OP_POWER}, if {@link CompileOptions#getInterpretCircumflexAsPower}
+     * is set, and has the precedence of multiplication. Otherwise, it is recognized as {@link TokenType#OP_XOR} and
+     * has a precedence between the bitwise 'or' and 'and'.
      */
-    private final List<Token> tokens;
+    static final int[] PRECEDENCES = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCES[TokenType.OP_CONDITIONAL_OR.ordinal()] = 1;
+        PRECEDENCES[TokenType.OP_CONDITIONAL_AND.ordinal()] = 2;
+        PRECEDENCES[TokenType.OP_OR.ordinal()] = 3;
+        PRECEDENCES[TokenType.OP_XOR.ordinal()] = 4;
+        PRECEDENCES[TokenType.OP_AND.ordinal()] = 5;
+        PRECEDENCES[TokenType.OP_EQUAL.ordinal()] = 6;
+        PRECEDENCES[TokenType.OP_NOT_EQUAL.ordinal()] = 6;
+        PRECEDENCES[TokenType.OP_LESS.ordinal()] = 7;
+        PRECEDENCES[TokenType.OP_LESS_OR_EQUAL.ordinal()] = 7;
+        PRECEDENCES[TokenType.OP_GREATER.ordinal()] = 7;
+        PRECEDENCES[TokenType.OP_GREATER_OR_EQUAL.ordinal()] = 7;
+        PRECEDENCES[TokenType.OP_ADD.ordinal()] = 8;
+        PRECEDENCES[TokenType.OP_SUBTRACT.ordinal()] = 8;
+        PRECEDENCES[TokenType.OP_MULTIPLY.ordinal()] = 9;
+        PRECEDENCES[TokenType.OP_DIVIDE.ordinal()] = 9;
+        PRECEDENCES[TokenType.OP_MOD.ordinal()] = 9;
+        PRECEDENCES[TokenType.OP_POWER.ordinal()] = 9;
+    }
+
+    /**
+     * The tokens to parse.
+     */
+    private final TokenBuffer tokens;
 
     /**
      * The current parsing position.
      */
     private int current;
 
+    /**
+     * The constructs, whose operands are being parsed, the innermost last. The frames above the top of the stack
+     * are kept, so that they are reused.
+     */
+    private Frame[] frames = new Frame[16];
+    private int depth;
+
     /**
      * Initializes a new instance of the {@link Parser} class.
      */
-    public Parser(List<Token> tokens) {
+    public Parser(TokenBuffer tokens) {
         this.tokens = tokens;
     }
 
@@ -38,44 +81,40 @@ final class Parser {
      * Parses a 'document' non-terminal.
      */
     private ParseTreeNode nDocument() {
-        int saved = current;
-
         ParseTreeNode root = new ParseTreeNode();
 
-        ParseTreeNode node;
         while (current < tokens.size()) {
-            if ((node = nExpression()) != null) {
-                root.getChildren().add(node);
-            } else if ((node = tText()) != null) {
-                root.getChildren().add(node);
-            } else {
-                current = saved;
+            ParseTreeNode node;
+            switch (getCurrentType()) {
+                case OSB:
+                    node = nExpression();
+                    break;
+                case TEXT:
+                    node = tCurrent();
+                    break;
+                default:
+                    node = null;
+                    break;
+            }
+
+            if (node == null) {
                 return null;
             }
+
+            root.getChildren().add(node);
         }
 
         return root;
     }
 
     /**
-     * Parses an 'expression' non-terminal.
+     * Parses an 'expression' non-terminal, starting from its opening square bracket.
      */
     private ParseTreeNode nExpression() {
-        int saved = current;
-
-        if (tOsb() == null) {
-            current = saved;
-            return null;
-        }
+        current++;
 
         ParseTreeNode node = nStatementListExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        if (tCsb() == null) {
-            current = saved;
+        if (node == null || !skip(TokenType.CSB)) {
             return null;
         }
 
@@ -83,748 +122,331 @@ final class Parser {
     }
 
     /**
-     * Parses an 'statementListExpression' non-terminal.
+     * Parses an 'statementListExpression' non-terminal. The statements are grouped from right to left,
+     * e.g. [a; b; c] is parsed as [a; (b; c)].
      */
     private ParseTreeNode nStatementListExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nFormatExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        if (getCurrentToken().getType() == TokenType.OP_EXPRESSION_SEPARATOR) {
-            ParseTreeNode node2 = tCurrent();
-            ParseTreeNode node3 = nStatementListExpression();
-
-            // node3 may be null when the separator is used at the end of an expression, e.g. [expression;]
-            if (node3 != null) {
-                node2.getChildren().add(node);
-                node2.getChildren().add(node3);
-
-                node = node2;
-            }
-        }
-
-        return node;
-    }
-
-    /**
-     * Parses a 'formatExpression' non-terminal.
-     */
-    private ParseTreeNode nFormatExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nAssignmentExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        // Look forward
-        if (getCurrentToken().getType() == TokenType.OP_FORMAT) {
-            ParseTreeNode node2 = tCurrent();
-
-            boolean discard = false;
-            ParseTreeNode node3;
-            if ((node3 = tFormat()) == null) {
-                discard = true;
-                if ((node3 = tDiscard()) == null) {
-                    current = saved;
-                    return null;
-                }
-            }
-
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            if (!discard && tOpCulture() != null) {
-                // Do not attempt to parse culture if discard is specified instead of format
-                ParseTreeNode node4 = tCulture();
-                if (node4 == null) {
-                    current = saved;
-                    return null;
-                }
-
-                node2.getChildren().add(node4);
-            }
-
-            node = node2;
-        }
-
-        return node;
-    }
-
-    /**
-     * Parses an 'assignmentListExpression' non-terminal.
-     */
-    private List<ParseTreeNode> nAssignmentListExpression() {
-        int saved = current;
-
-        List<ParseTreeNode> expressions = new ArrayList<>();
-
-        ParseTreeNode node = nAssignmentExpression();
-        if (node == null) {
-            return expressions;
-        }
-
-        expressions.add(node);
-
-        while (getCurrentToken().getType() == TokenType.COMMA) {
-            tCurrent();
-
-            node = nAssignmentExpression();
+        // The separators following the statements parsed so far, whose right operands are not parsed yet
+        List<ParseTreeNode> separators = null;
+        while (true) {
+            ParseTreeNode node = nFormatExpression();
             if (node == null) {
-                current = saved;
                 return null;
             }
 
-            expressions.add(node);
-        }
-
-        return expressions;
-    }
-
-    /**
-     * Parses an 'assignmentExpression' non-terminal.
-     */
-    private ParseTreeNode nAssignmentExpression() {
-        // We've disabled assignments
-        return nConditionalOrExpression();
-    }
-
-    /**
-     * Parses a 'conditionalOrExpression' non-terminal.
-     */
-    private ParseTreeNode nConditionalOrExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nConditionalAndExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        while (getCurrentToken().getType() == TokenType.OP_CONDITIONAL_OR) {
-            ParseTreeNode node2 = tCurrent();
-
-            ParseTreeNode node3 = nConditionalAndExpression();
-            if (node3 == null) {
-                current = saved;
-                return null;
+            if (getCurrentType() == TokenType.OP_EXPRESSION_SEPARATOR) {
+                ParseTreeNode separator = tCurrent();
+
+                // The separator may be used at the end of an expression, e.g. [expression;]
+                if (getCurrentType() != TokenType.CSB) {
+                    separator.getChildren().add(node);
+                    if (separators == null) {
+                        separators = new ArrayList<>();
+                    }
+                    separators.add(separator);
+                    continue;
+                }
             }
 
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
-        }
-
-        return node;
-    }
-
-    /**
-     * Parses a 'conditionalAndExpression' non-terminal.
-     */
-    private ParseTreeNode nConditionalAndExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nOrExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        while (getCurrentToken().getType() == TokenType.OP_CONDITIONAL_AND) {
-            ParseTreeNode node2 = tCurrent();
-
-            ParseTreeNode node3 = nOrExpression();
-            if (node3 == null) {
-                current = saved;
-                return null;
+            for (int j = separators != null ? separators.size() - 1 : -1; j >= 0; j--) {
+                ParseTreeNode separator = separators.get(j);
+                separator.getChildren().add(node);
+                node = separator;
             }
 
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
+            return node;
         }
-
-        return node;
     }
 
     /**
-     * Parses an 'orExpression' non-terminal.
+     * Parses a 'formatExpression' non-terminal.
      */
-    private ParseTreeNode nOrExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nXorExpression();
+    private ParseTreeNode nFormatExpression() {
+        ParseTreeNode node = nBinaryExpression();
         if (node == null) {
-            current = saved;
             return null;
         }
 
-        while (getCurrentToken().getType() == TokenType.OP_OR) {
-            ParseTreeNode node2 = tCurrent();
-
-            ParseTreeNode node3 = nXorExpression();
-            if (node3 == null) {
-                current = saved;
-                return null;
-            }
-
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
-        }
-
-        return node;
-    }
-
-    /**
-     * Parses a 'xorExpression' non-terminal.
-     */
-    private ParseTreeNode nXorExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nAndExpression();
-        if (node == null) {
-            current = saved;
-            return null;
+        if (getCurrentType() != TokenType.OP_FORMAT) {
+            return node;
         }
 
-        while (getCurrentToken().getType() == TokenType.OP_XOR) {
-            ParseTreeNode node2 = tCurrent();
+        ParseTreeNode node2 = tCurrent();
+        node2.getChildren().add(node);
 
-            ParseTreeNode node3 = nAndExpression();
-            if (node3 == null) {
-                current = saved;
+        switch (getCurrentType()) {
+            case FORMAT:
+                node2.getChildren().add(tCurrent());
+                break;
+            case DISCARD:
+                // Do not attempt to parse culture if discard is specified instead of format
+                node2.getChildren().add(tCurrent());
+                return node2;
+            default:
                 return null;
-            }
-
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
         }
 
-        return node;
-    }
-
-    /**
-     * Parses a 'andExpression' non-terminal.
-     */
-    private ParseTreeNode nAndExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nEqualityExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        while (getCurrentToken().getType() == TokenType.OP_AND) {
-            ParseTreeNode node2 = tCurrent();
-
-            ParseTreeNode node3 = nEqualityExpression();
-            if (node3 == null) {
-                current = saved;
+        if (skip(TokenType.OP_CULTURE)) {
+            if (getCurrentType() != TokenType.CULTURE) {
                 return null;
             }
 
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
+            node2.getChildren().add(tCurrent());
         }
 
-        return node;
+        return node2;
     }
 
     /**
-     * Parses a 'equalityExpression' non-terminal.
+     * Parses a sequence of binary operations with operands, which are 'unaryExpression' non-terminals.
+     * The operations with the same precedence are grouped from left to right.
+     * <p>
+     * The constructs, whose operands are being parsed, are kept in an explicit stack rather than in the thread stack,
+     * so that long sequences of operations and deeply nested expressions can be parsed. The operand parsed last is
+     * passed to the construct at the top of the stack, which either completes and passes itself to the construct
+     * below it, or requests another operand.
      */
-    private ParseTreeNode nEqualityExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nRelationalExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        while (getCurrentToken().getType() == TokenType.OP_EQUAL ||
-            getCurrentToken().getType() == TokenType.OP_NOT_EQUAL) {
-            ParseTreeNode node2 = tCurrent();
+    private ParseTreeNode nBinaryExpression() {
+        depth = 0;
+        push(Kind.BINARY, 1, null);
 
-            ParseTreeNode node3 = nRelationalExpression();
-            if (node3 == null) {
-                current = saved;
-                return null;
+        // The operand parsed last, or null, if an operand is expected
+        ParseTreeNode node = null;
+        while (true) {
+            if (node == null) {
+                switch (getCurrentType()) {
+                    case FLOAT_NUMBER:
+                    case INT_NUMBER:
+                        // Number, followed by identifier is a quantity expression, e.g. 5mm or 1kg
+                        node = tCurrent();
+                        if (getCurrentType() == TokenType.IDENTIFIER) {
+                            node.getChildren().add(tCurrent());
+                        }
+                        break;
+                    case NULL:
+                    case STRING:
+                    case COLOR:
+                        node = tCurrent();
+                        break;
+                    case IDENTIFIER: {
+                        int identifier = current++;
+                        if (!skip(TokenType.OB)) {
+                            node = nDotExpression(new ParseTreeNode(tokens.getToken(identifier)));
+                            if (node == null) {
+                                return null;
+                            }
+                            break;
+                        }
+
+                        node = new ParseTreeNode(tokens.getToken(identifier, TokenType.FUNCTION_CALL));
+                        if (skip(TokenType.CB)) {
+                            node = nDotExpression(node);
+                            if (node == null) {
+                                return null;
+                            }
+                            break;
+                        }
+
+                        push(Kind.FUNCTION_CALL, 0, node);
+                        push(Kind.BINARY, 1, null);
+                        node = null;
+                        continue;
+                    }
+                    case OP_NOT:
+                    case OP_SUBTRACT:
+                        push(Kind.UNARY, 0, tCurrent());
+                        continue;
+                    case OB:
+                        current++;
+                        push(Kind.PARENTHESES, 0, null);
+                        push(Kind.BINARY, 1, null);
+                        continue;
+                    default:
+                        return null;
+                }
             }
 
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
-        }
-
-        return node;
-    }
-
-    /**
-     * Parses a 'relationalExpression' non-terminal.
-     */
-    private ParseTreeNode nRelationalExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nAdditiveExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        while (getCurrentToken().getType() == TokenType.OP_LESS ||
-            getCurrentToken().getType() == TokenType.OP_LESS_OR_EQUAL ||
-            getCurrentToken().getType() == TokenType.OP_GREATER ||
-            getCurrentToken().getType() == TokenType.OP_GREATER_OR_EQUAL) {
-            ParseTreeNode node2 = tCurrent();
-
-            ParseTreeNode node3 = nAdditiveExpression();
-            if (node3 == null) {
-                current = saved;
-                return null;
+            Frame frame = frames[depth - 1];
+            switch (frame.kind) {
+                case UNARY:
+                    depth--;
+                    frame.node.getChildren().add(node);
+                    node = frame.node;
+                    break;
+
+                case PARENTHESES:
+                    depth--;
+                    if (!skip(TokenType.CB)) {
+                        return null;
+                    }
+                    break;
+
+                case FUNCTION_CALL:
+                    frame.node.getChildren().add(node);
+                    if (skip(TokenType.COMMA)) {
+                        push(Kind.BINARY, 1, null);
+                        node = null;
+                        break;
+                    }
+                    if (!skip(TokenType.CB)) {
+                        return null;
+                    }
+
+                    depth--;
+                    node = nDotExpression(frame.node);
+                    if (node == null) {
+                        return null;
+                    }
+                    break;
+
+                default: {
+                    if (frame.operator != null) {
+                        ParseTreeNode operation = new ParseTreeNode(frame.operator);
+                        operation.getChildren().add(frame.node);
+                        operation.getChildren().add(node);
+                        node = operation;
+                    }
+
+                    int operatorPrecedence = PRECEDENCES[getCurrentType().ordinal()];
+                    if (operatorPrecedence < frame.precedence || operatorPrecedence == 0) {
+                        depth--;
+                        if (depth == 0) {
+                            return node;
+                        }
+                        break;
+                    }
+
+                    // Parse the right operand, which consists of the operations with higher precedence
+                    frame.node = node;
+                    frame.operator = tokens.getToken(current++);
+                    push(Kind.BINARY, operatorPrecedence + 1, null);
+                    node = null;
+                    break;
+                }
             }
-
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
         }
-
-        return node;
     }
 
     /**
-     * Parses an 'additiveExpression' non-terminal.
+     * Pushes a construct, whose operand is parsed next, to the stack of frames.
      */
-    private ParseTreeNode nAdditiveExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nMultiplicativeExpression();
-        if (node == null) {
-            current = saved;
-            return null;
+    private void push(Kind kind, int precedence, ParseTreeNode node) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
         }
 
-        while (getCurrentToken().getType() == TokenType.OP_ADD ||
-            getCurrentToken().getType() == TokenType.OP_SUBTRACT) {
-            ParseTreeNode node2 = tCurrent();
-
-            ParseTreeNode node3 = nMultiplicativeExpression();
-            if (node3 == null) {
-                current = saved;
-                return null;
-            }
-
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
+        Frame frame = frames[depth];
+        if (frame == null) {
+            frame = new Frame();
+            frames[depth] = frame;
         }
 
-        return node;
+        frame.kind = kind;
+        frame.precedence = precedence;
+        frame.node = node;
+        frame.operator = null;
+        depth++;
     }
 
     /**
-     * Parses a 'multiplicativeExpression' non-terminal.
+     * Parses the rest of a 'dotExpression' non-terminal, starting from the specified identifier or function call,
+     * or returns the identifier or function call, if it is not followed by a dot.
      */
-    private ParseTreeNode nMultiplicativeExpression() {
-        int saved = current;
-
-        ParseTreeNode node = nUnaryExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        while (getCurrentToken().getType() == TokenType.OP_MULTIPLY ||
-            getCurrentToken().getType() == TokenType.OP_DIVIDE ||
-            getCurrentToken().getType() == TokenType.OP_MOD ||
-            getCurrentToken().getType() == TokenType.OP_POWER) {
-            ParseTreeNode node2 = tCurrent();
-
-            ParseTreeNode node3 = nUnaryExpression();
-            if (node3 == null) {
-                current = saved;
-                return null;
-            }
-
-            node2.getChildren().add(node);
-            node2.getChildren().add(node3);
-
-            node = node2;
-        }
-
-        return node;
-    }
-
-    /**
-     * Parses a 'dotExpression' non-terminal.
-     */
-    private ParseTreeNode nDotExpression() {
-        int saved = current;
-
-        ParseTreeNode node;
-        if ((node = nFunctionCall()) == null &&
-            (node = tIdentifier()) == null) {
-            current = saved;
-            return null;
-        }
-
-        // Single identifier cannot pass as dereferencing
-        if (getCurrentToken().getType() != TokenType.OP_DOT) {
-            current = saved;
-            return null;
+    private ParseTreeNode nDotExpression(ParseTreeNode node) {
+        if (getCurrentType() != TokenType.OP_DOT) {
+            return node;
         }
 
         // Use the first dot token as a parent of the entire sequence.
         // Dot operations are no longer nested
-        ParseTreeNode node2 = new ParseTreeNode(getCurrentToken());
+        ParseTreeNode node2 = new ParseTreeNode(tokens.getToken(current));
         node2.getChildren().add(node);
 
-        while (getCurrentToken().getType() == TokenType.OP_DOT) {
-            tCurrent();
-
-            ParseTreeNode node3 = tIdentifier();
-            if (node3 == null) {
-                current = saved;
+        while (skip(TokenType.OP_DOT)) {
+            if (getCurrentType() != TokenType.IDENTIFIER) {
                 return null;
             }
 
-            node2.getChildren().add(node3);
+            node2.getChildren().add(tCurrent());
         }
 
         return node2;
     }
 
     /**
-     * Parses an 'unaryExpression' non-terminal.
-     */
-    private ParseTreeNode nUnaryExpression() {
-        int saved = current;
-
-        // Number, followed by identifier is a quantity expression, e.g. 5mm or 1kg
-        ParseTreeNode node;
-        if ((node = tFloatNumber()) != null) {
-            if (getCurrentToken().getType() == TokenType.IDENTIFIER) {
-                node.getChildren().add(tIdentifier());
-            }
-
-            return node;
-        }
-
-        if ((node = tIntNumber()) != null) {
-            if (getCurrentToken().getType() == TokenType.IDENTIFIER) {
-                node.getChildren().add(tIdentifier());
-            }
-
-            return node;
-        }
-
-        if ((node = tNull()) != null) {
-            return node;
-        }
-
-        if ((node = tString()) != null) {
-            return node;
-        }
-
-        if ((node = tColor()) != null) {
-            return node;
-        }
-
-        if ((node = nDotExpression()) != null) {
-            return node;
-        }
-
-        if ((node = nFunctionCall()) != null) {
-            return node;
-        }
-
-        if ((node = nNotExpression()) != null) {
-            return node;
-        }
-
-        if ((node = nUnaryMinusExpression()) != null) {
-            return node;
-        }
-
-        if ((node = nParenthesizedExpression()) != null) {
-            return node;
-        }
-
-        current = saved;
-
-        return null;
-    }
-
-    private ParseTreeNode nNotExpression() {
-        int saved = current;
-
-        if (getCurrentToken().getType() == TokenType.OP_NOT) {
-            ParseTreeNode node = tCurrent();
-
-            ParseTreeNode node2 = nUnaryExpression();
-            if (node2 == null) {
-                current = saved;
-                return null;
-            }
-
-            node.getChildren().add(node2);
-
-            return node;
-        }
-
-        current = saved;
-
-        return null;
-    }
-
-    private ParseTreeNode nUnaryMinusExpression() {
-        int saved = current;
-
-        if (getCurrentToken().getType() == TokenType.OP_SUBTRACT) {
-            ParseTreeNode node = tCurrent();
-
-            ParseTreeNode node2 = nUnaryExpression();
-            if (node2 == null) {
-                current = saved;
-                return null;
-            }
-
-            node.getChildren().add(node2);
-
-            return node;
-        }
-
-        current = saved;
-
-        return null;
-    }
-
-    private ParseTreeNode nParenthesizedExpression() {
-        int saved = current;
-
-        if (tOb() == null) {
-            return null;
-        }
-
-        ParseTreeNode node = nConditionalOrExpression();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        if (tCb() == null) {
-            current = saved;
-            return null;
-        }
-
-        return node;
-    }
-
-    private ParseTreeNode nFunctionCall() {
-        int saved = current;
-
-        ParseTreeNode node = tIdentifier();
-        if (node == null) {
-            current = saved;
-            return null;
-        }
-
-        if (getCurrentToken().getType() != TokenType.OB) {
-            return node;
-        }
-
-        tOb();
-
-        List<ParseTreeNode> parameters;
-        if ((parameters = nParamList()) == null) {
-            current = saved;
-            return null;
-        }
-
-        node.getChildren().addAll(parameters);
-
-        if (tCb() == null) {
-            current = saved;
-            return null;
-        }
-
-        node.setToken(node.getToken().withType(TokenType.FUNCTION_CALL));
-
-        return node;
-    }
-
-    /**
-     * Parses a 'paramList' non-terminal.
-     */
-    private List<ParseTreeNode> nParamList() {
-        int saved = current;
-
-        if (getCurrentToken().getType() == TokenType.CB) {
-            return new ArrayList<>();
-        }
-
-        List<ParseTreeNode> nodes;
-        if ((nodes = nAssignmentListExpression()) == null) {
-            current = saved;
-            return null;
-        }
-
-        return nodes;
-    }
-
-
-    /**
-     * Parses a terminal at the current parsing position within the token list.
+     * Parses a terminal at the current parsing position within the token buffer, whose type is already checked.
      */
     private ParseTreeNode tCurrent() {
-        ParseTreeNode node = new ParseTreeNode(getCurrentToken());
-        current++;
-        return node;
+        return new ParseTreeNode(tokens.getToken(current++));
     }
 
     /**
-     * Parses a terminal of the specified type at the current parsing position within the token list.
+     * Skips the token at the current parsing position, if it is of the specified type.
      */
-    private ParseTreeNode tParseCurrent(TokenType type) {
-        if (getCurrentToken().getType() == type) {
-            ParseTreeNode node = new ParseTreeNode(getCurrentToken());
+    private boolean skip(TokenType type) {
+        if (getCurrentType() == type) {
             current++;
-            return node;
+            return true;
         }
 
-        return null;
+        return false;
     }
 
     /**
-     * Parses a 'Text' terminal.
+     * Gets the type of the current token.
      */
-    private ParseTreeNode tText() {
-        return tParseCurrent(TokenType.TEXT);
-    }
-
-    /**
-     * Parses an 'Osb' terminal.
-     */
-    private ParseTreeNode tOsb() {
-        return tParseCurrent(TokenType.OSB);
-    }
-
-    /**
-     * Parses a 'Csb' terminal.
-     */
-    private ParseTreeNode tCsb() {
-        return tParseCurrent(TokenType.CSB);
-    }
-
-    /**
-     * Parses an 'Ob' terminal.
-     */
-    private ParseTreeNode tOb() {
-        return tParseCurrent(TokenType.OB);
-    }
-
-    /**
-     * Parses a 'Cb' terminal.
-     */
-    private ParseTreeNode tCb() {
-        return tParseCurrent(TokenType.CB);
-    }
-
-    /**
-     * Parses an 'OpCulture' terminal.
-     */
-    private ParseTreeNode tOpCulture() {
-        return tParseCurrent(TokenType.OP_CULTURE);
-    }
-
-    /**
-     * Parses a 'Format' terminal.
-     */
-    private ParseTreeNode tFormat() {
-        return tParseCurrent(TokenType.FORMAT);
-    }
-
-    /**
-     * Parses a 'Discard' terminal.
-     */
-    private ParseTreeNode tDiscard() {
-        return tParseCurrent(TokenType.DISCARD);
-    }
+    private TokenType getCurrentType() {
+        if (current >= tokens.size()) {
+            throw new ParsingException("Unexpected end of the token stream. The expression is most likely incomplete.");
+        }
 
-    /**
-     * Parses a 'Culture' terminal.
-     */
-    private ParseTreeNode tCulture() {
-        return tParseCurrent(TokenType.CULTURE);
+        return tokens.getType(current);
     }
 
     /**
-     * Parses an 'Identifier' terminal.
+     * The kinds of the constructs, whose operands are being parsed.
      */
-    private ParseTreeNode tIdentifier() {
-        return tParseCurrent(TokenType.IDENTIFIER);
-    }
+    private enum Kind {
+        /**
+         * A sequence of binary operations with operators of a minimum precedence.
+         */
+        BINARY,
 
-    /**
-     * Parses an 'IntNumber' terminal.
-     */
-    private ParseTreeNode tIntNumber() {
-        return tParseCurrent(TokenType.INT_NUMBER);
-    }
+        /**
+         * A unary operation, whose operand is a 'unaryExpression' non-terminal.
+         */
+        UNARY,
 
-    /**
-     * Parses a 'String' terminal.
-     */
-    private ParseTreeNode tString() {
-        return tParseCurrent(TokenType.STRING);
-    }
+        /**
+         * An expression enclosed in brackets.
+         */
+        PARENTHESES,
 
-    /**
-     * Parses a 'null' keyword.
-     */
-    private ParseTreeNode tNull() {
-        return tParseCurrent(TokenType.NULL);
+        /**
+         * A function call, whose arguments are being parsed.
+         */
+        FUNCTION_CALL
     }
 
     /**
-     * Parses a 'FloatNumber' terminal.
+     * A construct, whose operand is being parsed.
      */
-    private ParseTreeNode tFloatNumber() {
-        return tParseCurrent(TokenType.FLOAT_NUMBER);
-    }
+    private static final class Frame {
+        private Kind kind;
 
-    /**
-     * Parses a 'Color' terminal.
-     */
-    private ParseTreeNode tColor() {
-        return tParseCurrent(TokenType.COLOR);
-    }
+        /**
+         * The minimum precedence of the operators of a sequence of binary operations.
+         */
+        private int precedence;
 
-    /**
-     * Gets the current token.
-     */
-    private Token getCurrentToken() {
-        if (current >= tokens.size()) {
-            throw new ParsingException("Unexpected end of the token stream. The expression is most likely incomplete.");
-        }
+        /**
+         * The unary operation, the function call or the left operand of the binary operation being parsed.
+         */
+        private ParseTreeNode node;
 
-        return tokens.get(current);
+        /**
+         * The operator of the binary operation being parsed, or null, if its left operand is being parsed.
+         */
+        private Token operator;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package com.meppy.expression;
+
+import java.util.BitSet;
+
+/**
+ * Replaces frequent sequences of operations within byte code by superinstructions, which the interpreter performs
+ * with a single dispatch.
+ * <p>
+ * The sequences are the ones, which occur most often in the expressions of the test corpus: binary operations
+ * with a literal right operand, such as x &gt; 0.5 or (a + b) * 2, binary operations on two identifiers,
+ * such as a * b, and members of named objects, such as p.x. A superinstruction replaces the first operation
+ * of its sequence and reads the operands of all operations at their original positions, so that the positions
+ * do not change. The other operations of the sequence are kept, so that the interpretation can still start
+ * at any of them, for example, when it is resumed by the code translated to a JVM class.
+ */
+final class PeepholeOptimizer {
+    private PeepholeOptimizer() {
+    }
+
+    /**
+     * Returns a copy of the specified code, in which the frequent sequences of operations are replaced by superinstructions.
+     */
+    static int[] optimize(int[] code) {
+        int[] result = code.clone();
+        BitSet targets = getJumpTargets(code);
+
+        int i = 0;
+        while (i < code.length) {
+            ByteCode.Op op = ByteCode.OPS[code[i]];
+            ByteCode.Op fused = match(code, i);
+            if (fused != null) {
+                // A sequence is not fused if a jump leads into it
+                int target = targets.nextSetBit(i + 1);
+                if (target < 0 || target >= i + fused.getSize()) {
+                    result[i] = fused.ordinal();
+                    i += fused.getSize();
+                    continue;
+                }
+            }
+
+            i += op.getSize();
+            if (op == ByteCode.Op.QUANTITY) {
+                // The value of the quantity is pushed by the quantity operation itself
+                i += ByteCode.OPS[code[i]].getSize();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the superinstruction, which replaces the sequence of operations starting at the specified position,
+     * or null, if the sequence is not replaced.
+     */
+    private static ByteCode.Op match(int[] code, int i) {
+        ByteCode.Op op = ByteCode.OPS[code[i]];
+        switch (op) {
+            case INT:
+                return isBinary(code, i + 2) ? ByteCode.Op.INT_OPERATION : null;
+
+            case FLOAT:
+                return isBinary(code, i + 2) ? ByteCode.Op.FLOAT_OPERATION : null;
+
+            case IDENTIFIER: {
+                ByteCode.Op next = i + 2 < code.length ? ByteCode.OPS[code[i + 2]] : null;
+                if (next == ByteCode.Op.INT && isBinary(code, i + 4)) {
+                    return ByteCode.Op.IDENTIFIER_INT_OPERATION;
+                } else if (next == ByteCode.Op.FLOAT && isBinary(code, i + 4)) {
+                    return ByteCode.Op.IDENTIFIER_FLOAT_OPERATION;
+                } else if (next == ByteCode.Op.IDENTIFIER && isBinary(code, i + 4)) {
+                    return ByteCode.Op.IDENTIFIER_IDENTIFIER_OPERATION;
+                }
+                return null;
+            }
+            case OBJECT_OR_MEMBER:
+                return i + 5 < code.length && ByteCode.OPS[code[i + 2]] == ByteCode.Op.OBJECT_OR_MEMBER &&
+                    ByteCode.OPS[code[i + 4]] == ByteCode.Op.DOT && code[i + 5] == 2 ? ByteCode.Op.MEMBER : null;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets a value indicating whether the operation at the specified position is a binary arithmetic,
+     * comparison or bitwise operation, which might be specialized for the types of its operands.
+     */
+    private static boolean isBinary(int[] code, int i) {
+        if (i >= code.length) {
+            return false;
+        }
+
+        switch (ByteCode.OPS[code[i]].getGeneric()) {
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case MOD:
+            case POWER:
+            case LESS:
+            case GREATER:
+            case EQUAL:
+            case NOT_EQUAL:
+            case LESS_OR_EQUAL:
+            case GREATER_OR_EQUAL:
+            case AND:
+            case XOR:
+            case OR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the positions, at which jumps and the code of lazy arguments end.
+     */
+    private static BitSet getJumpTargets(int[] code) {
+        BitSet targets = new BitSet(code.length);
+        int i = 0;
+        while (i < code.length) {
+            ByteCode.Op op = ByteCode.OPS[code[i]];
+            switch (op) {
+                case JUMP_IF_FALSE:
+                case JUMP_IF_TRUE:
+                case JUMP:
+                case JUMP_UNLESS:
+                case LAZY_ARGUMENT:
+                    targets.set(code[i + 1]);
+                    break;
+                default:
+                    break;
+            }
+            i += op.getSize();
+        }
+
+        return targets;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,280 @@
+package com.meppy.expression;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads a property of objects through its getter.
+ * <p>
+ * Public getters of public classes, which are visible to this library, are called through functions generated
+ * by the {@link LambdaMetafactory}, so that a property read costs a virtual call once the code is compiled by
+ * the JVM. The values of getters returning int, long and double are also available unboxed. Other getters are
+ * called through reflection. In both cases, the exceptions thrown by the getters are wrapped in
+ * {@link InvocationTargetException}.
+ */
+abstract class PropertyGetter {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Method method;
+
+    private PropertyGetter(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Creates a getter calling the specified method.
+     */
+    static PropertyGetter create(Method method) {
+        if (isLinkable(method)) {
+            try {
+                return generate(method);
+            } catch (Throwable ex) {
+                // The method is called through reflection
+            }
+        }
+
+        return new ReflectiveGetter(method);
+    }
+
+    /**
+     * Creates a getter calling the specified method through reflection.
+     */
+    static PropertyGetter createReflective(Method method) {
+        return new ReflectiveGetter(method);
+    }
+
+    /**
+     * Gets a value indicating whether a function calling the specified method can be linked by this library.
+     */
+    private static boolean isLinkable(Method method) {
+        Class<?> type = method.getDeclaringClass();
+        if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(type.getModifiers())) {
+            return false;
+        }
+
+        // The generated function resolves the class through the class loader of this library
+        try {
+            return Class.forName(type.getName(), false, PropertyGetter.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    private static PropertyGetter generate(Method method) throws Throwable {
+        MethodHandle handle = LOOKUP.unreflect(method);
+        Class<?> type = method.getDeclaringClass();
+        Class<?> returnType = method.getReturnType();
+        if (returnType == int.class) {
+            return new IntGetter(method, (ToInt) spin(handle, ToInt.class, int.class, type));
+        } else if (returnType == long.class) {
+            return new LongGetter(method, (ToLong) spin(handle, ToLong.class, long.class, type));
+        } else if (returnType == double.class) {
+            return new DoubleGetter(method, (ToDouble) spin(handle, ToDouble.class, double.class, type));
+        }
+
+        // Other primitive values are boxed by the function
+        Class<?> boxedType = MethodType.methodType(returnType).wrap().returnType();
+        return new ObjectGetter(method, (ToObject) spin(handle, ToObject.class, boxedType, type));
+    }
+
+    /**
+     * Generates an instance of the specified functional interface, whose apply method calls the specified getter.
+     */
+    private static Object spin(MethodHandle handle, Class<?> functionType, Class<?> returnType, Class<?> targetType) throws Throwable {
+        Class<?> erasedReturnType = returnType.isPrimitive() ? returnType : Object.class;
+        CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(functionType),
+            MethodType.methodType(erasedReturnType, Object.class), handle, MethodType.methodType(returnType, targetType));
+        return site.getTarget().invoke();
+    }
+
+    private interface ToObject {
+        Object apply(Object target);
+    }
+
+    private interface ToInt {
+        int apply(Object target);
+    }
+
+    private interface ToLong {
+        long apply(Object target);
+    }
+
+    private interface ToDouble {
+        double apply(Object target);
+    }
+
+    /**
+     * Gets the method called by the getter.
+     */
+    final Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Gets the {@link ByteCode.Frame} tag of the values returned by the getter, which can be obtained unboxed
+     * through {@link #getInt}, {@link #getLong} or {@link #getDouble}, or {@link ByteCode.Frame#OBJECT}.
+     */
+    byte getType() {
+        return ByteCode.Frame.OBJECT;
+    }
+
+    /**
+     * Gets the value of the property of the specified object.
+     */
+    abstract Object get(Object target) throws IllegalAccessException, InvocationTargetException;
+
+    /**
+     * Gets the value of the property of the specified object, if the getter returns int.
+     */
+    int getInt(Object target) throws IllegalAccessException, InvocationTargetException {
+        return (Integer) get(target);
+    }
+
+    /**
+     * Gets the value of the property of the specified object, if the getter returns long.
+     */
+    long getLong(Object target) throws IllegalAccessException, InvocationTargetException {
+        return (Long) get(target);
+    }
+
+    /**
+     * Gets the value of the property of the specified object, if the getter returns double.
+     */
+    double getDouble(Object target) throws IllegalAccessException, InvocationTargetException {
+        return (Double) get(target);
+    }
+
+    private static final class ReflectiveGetter extends PropertyGetter {
+        ReflectiveGetter(Method method) {
+            super(method);
+        }
+
+        @Override
+        Object get(Object target) throws IllegalAccessException, InvocationTargetException {
+            return getMethod().invoke(target);
+        }
+    }
+
+    private static final class ObjectGetter extends PropertyGetter {
+        private final ToObject function;
+
+        ObjectGetter(Method method, ToObject function) {
+            super(method);
+            this.function = function;
+        }
+
+        @Override
+        Object get(Object target) throws InvocationTargetException {
+            try {
+                return function.apply(target);
+            } catch (Throwable ex) {
+                throw wrap(ex, target, getMethod());
+            }
+        }
+    }
+
+    private static final class IntGetter extends PropertyGetter {
+        private final ToInt function;
+
+        IntGetter(Method method, ToInt function) {
+            super(method);
+            this.function = function;
+        }
+
+        @Override
+        byte getType() {
+            return ByteCode.Frame.INT;
+        }
+
+        @Override
+        Object get(Object target) throws InvocationTargetException {
+            return getInt(target);
+        }
+
+        @Override
+        int getInt(Object target) throws InvocationTargetException {
+            try {
+                return function.apply(target);
+            } catch (Throwable ex) {
+                throw wrap(ex, target, getMethod());
+            }
+        }
+    }
+
+    private static final class LongGetter extends PropertyGetter {
+        private final ToLong function;
+
+        LongGetter(Method method, ToLong function) {
+            super(method);
+            this.function = function;
+        }
+
+        @Override
+        byte getType() {
+            return ByteCode.Frame.LONG;
+        }
+
+        @Override
+        Object get(Object target) throws InvocationTargetException {
+            return getLong(target);
+        }
+
+        @Override
+        long getLong(Object target) throws InvocationTargetException {
+            try {
+                return function.apply(target);
+            } catch (Throwable ex) {
+                throw wrap(ex, target, getMethod());
+            }
+        }
+    }
+
+    private static final class DoubleGetter extends PropertyGetter {
+        private final ToDouble function;
+
+        DoubleGetter(Method method, ToDouble function) {
+            super(method);
+            this.function = function;
+        }
+
+        @Override
+        byte getType() {
+            return ByteCode.Frame.DOUBLE;
+        }
+
+        @Override
+        Object get(Object target) throws InvocationTargetException {
+            return getDouble(target);
+        }
+
+        @Override
+        double getDouble(Object target) throws InvocationTargetException {
+            try {
+                return function.apply(target);
+            } catch (Throwable ex) {
+                throw wrap(ex, target, getMethod());
+            }
+        }
+    }
+
+    /**
+     * Wraps the specified exception thrown by a getter the same way as {@link Method#invoke}. The exception
+     * thrown by the generated function, if the target is not an instance of the class declaring the getter,
+     * is replaced by the {@link IllegalArgumentException} thrown by {@link Method#invoke} in this case.
+     */
+    private static InvocationTargetException wrap(Throwable ex, Object target, Method method) {
+        if (ex instanceof ClassCastException && !method.getDeclaringClass().isInstance(target)) {
+            throw new IllegalArgumentException("object is not an instance of declaring class", ex);
+        } else if (ex instanceof NullPointerException && target == null) {
+            throw (NullPointerException) ex;
+        }
+
+        return new InvocationTargetException(ex);
+    }
+}
\ No newline at end of file
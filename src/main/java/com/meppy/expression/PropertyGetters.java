@@ -0,0 +1,99 @@
+package com.meppy.expression;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the getters of the properties read by the evaluated expressions, by class and property name.
+ * The properties, which do not exist, are cached as well, so that each class is searched for each property once.
+ * <p>
+ * The getters of a class are kept through a {@link ClassValue}, which is referenced by the class itself,
+ * so that the cache does not prevent the class and its class loader from being unloaded. The getters are
+ * called through {@link PropertyGetter} instances, which are created once for each method.
+ */
+final class PropertyGetters {
+    private static final ClassValue<PropertyGetters> GETTERS = new ClassValue<PropertyGetters>() {
+        @Override
+        protected PropertyGetters computeValue(Class<?> type) {
+            return new PropertyGetters(type);
+        }
+    };
+
+    private final Class<?> type;
+
+    /**
+     * The public getters, by the names of the properties.
+     */
+    private final ConcurrentMap<String, Optional<PropertyGetter>> publicGetters = new ConcurrentHashMap<>();
+
+    /**
+     * The public getters and the getters declared by the class itself, by the names of the properties.
+     */
+    private final ConcurrentMap<String, Optional<PropertyGetter>> getters = new ConcurrentHashMap<>();
+
+    private PropertyGetters(Class<?> type) {
+        this.type = type;
+    }
+
+    /**
+     * Gets the public getter of the property with the specified name of the specified class,
+     * or null, if there is no such getter.
+     */
+    static PropertyGetter getPublic(Class<?> type, String name) {
+        PropertyGetters getters = GETTERS.get(type);
+        return getters.publicGetters.computeIfAbsent(name, getters::findPublic).orElse(null);
+    }
+
+    /**
+     * Gets the public getter of the property with the specified name of the specified class or, if there is
+     * no such getter, the getter declared by the class itself, or null, if there is no such getter.
+     */
+    static PropertyGetter get(Class<?> type, String name) {
+        PropertyGetters getters = GETTERS.get(type);
+        return getters.getters.computeIfAbsent(name, getters::find).orElse(null);
+    }
+
+    /**
+     * Creates the exception reporting that the specified class has no getter of the property with the specified name.
+     */
+    static NoSuchMethodException noSuchGetter(Class<?> type, String name) {
+        return new NoSuchMethodException(type.getName() + "." + StringUtils.getPropertyName(name) + "()");
+    }
+
+    private Optional<PropertyGetter> findPublic(String name) {
+        try {
+            return Optional.of(create(type.getMethod(StringUtils.getPropertyName(name))));
+        } catch (NoSuchMethodException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private Optional<PropertyGetter> find(String name) {
+        PropertyGetter getter = getPublic(type, name);
+        if (getter != null) {
+            return Optional.of(getter);
+        }
+
+        try {
+            return Optional.of(create(type.getDeclaredMethod(StringUtils.getPropertyName(name))));
+        } catch (NoSuchMethodException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Creates the getter calling the specified method, which is made accessible, so that public getters
+     * of non-public classes and getters declared by the classes themselves can be invoked.
+     */
+    private static PropertyGetter create(Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (RuntimeException ex) {
+            // The getter is invoked with the access checks, which might still succeed
+        }
+
+        return PropertyGetter.create(method);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.meppy.expression;
+
+/**
+ * Represents a number with a unit in the code. The actual value is created during code evaluation.
+ */
+final class Quantity {
+    private final double value;
+    private final String unit;
+
+    Quantity(double value, String unit) {
+        this.value = value;
+        this.unit = unit;
+    }
+
+    double getValue() {
+        return value;
+    }
+
+    String getUnit() {
+        return unit;
+    }
+}
\ No newline at end of file
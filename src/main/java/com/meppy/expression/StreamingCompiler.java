@@ -0,0 +1,674 @@
+package com.meppy.expression;
+
+import java.util.Arrays;
+
+/**
+ * Compiles expressions to byte code in a single pass over their tokens, without a parse tree. The tokens are read from
+ * the {@link TokenBuffer} filled by the {@link Lexer} and the code of each construct is emitted as soon as the construct
+ * is parsed.
+ * <p>
+ * The grammar is recognized like by the {@link Parser} and the code is the same as the code built out of the parse
+ * tree. Constant sub-expressions are folded like by the {@link Optimizer}: the code of an operation is emitted and
+ * replaced by the value of the operation, if its operands turn out to be constants. Some expressions cannot be compiled
+ * in a single pass, so they are compiled through the parse tree instead. These are the expressions, which fail to
+ * compile, the expressions with repeated sub-expressions, which are eliminated by the {@link SubexpressionEliminator},
+ * the expressions with operations simplified to their right operand, such as <code>1 * x</code>, and the deeply
+ * nested expressions, which the parser handles without using the thread stack.
+ */
+final class StreamingCompiler {
+    /**
+     * The hash of the sub-expressions, which are not pure.
+     */
+    private static final long IMPURE = 0;
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    /**
+     * The maximum number of nested brackets, unary operations and function calls compiled in a single pass.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    private final TokenBuffer tokens;
+    private final CompileOptions options;
+    private final ByteCode.Emitter emitter;
+
+    /**
+     * Folds the constant sub-expressions, or null, if the code is not optimized.
+     */
+    private final Optimizer optimizer;
+
+    /**
+     * The hashes of the pure sub-expressions worth reusing, or null, if repeated sub-expressions are not eliminated.
+     */
+    private final Hashes subexpressions;
+
+    /**
+     * The {@link ByteCode.Frame} tag of the value of the last compiled sub-expression.
+     */
+    private byte type;
+
+    /**
+     * The value of the last compiled sub-expression, if it is a constant, or {@link Optimizer#NOT_CONSTANT} otherwise.
+     */
+    private Object constant;
+
+    /**
+     * The type of the numbers produced by the last compiled sub-expression, or null, if the type is not known.
+     */
+    private Class<?> numericType;
+
+    /**
+     * The hash of the structure of the last compiled sub-expression, or {@link #IMPURE}, if it is not pure.
+     */
+    private long hash;
+
+    /**
+     * The number of brackets, unary operations and function calls enclosing the current position.
+     */
+    private int depth;
+
+    /**
+     * The index of the current token.
+     */
+    private int position;
+
+    private StreamingCompiler(TokenBuffer tokens, CompileOptions options) {
+        this.tokens = tokens;
+        this.options = options;
+        this.emitter = new ByteCode.Emitter(options);
+        this.optimizer = options.getOptimize() ? new Optimizer(options) : null;
+        this.subexpressions = options.getEliminateSubexpressions() ? new Hashes() : null;
+    }
+
+    /**
+     * Compiles the specified normalized expression. Returns null, if the expression must be compiled through its parse tree.
+     */
+    static ByteCode compile(String expression, CompileOptions options) {
+        return compile(new Lexer(options).scan(expression), options);
+    }
+
+    /**
+     * Compiles the expression with the specified tokens. Returns null, if the expression must be compiled through its
+     * parse tree.
+     */
+    static ByteCode compile(TokenBuffer tokens, CompileOptions options) {
+        StreamingCompiler compiler = new StreamingCompiler(tokens, options);
+        try {
+            if (!compiler.document()) {
+                return null;
+            }
+        } catch (ParsingException | IllegalArgumentException ex) {
+            // The error is reported by the compilation through the parse tree, which might find another error first
+            return null;
+        }
+
+        return new ByteCode(compiler.emitter, options);
+    }
+
+    /**
+     * Compiles a 'document' non-terminal.
+     */
+    private boolean document() {
+        while (position < tokens.size()) {
+            switch (tokens.getType(position)) {
+                case OSB:
+                    position++;
+                    if (!statementListExpression() || !skip(TokenType.CSB)) {
+                        return false;
+                    }
+                    break;
+                case TEXT:
+                    emitter.emitConstant(ByteCode.Op.TEXT, tokens.getText(position));
+                    position++;
+                    break;
+                default:
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compiles a 'statementListExpression' non-terminal. The statements are grouped from right to left,
+     * so the separators follow the code of the last statement.
+     */
+    private boolean statementListExpression() {
+        int separators = 0;
+        while (true) {
+            if (!formatExpression()) {
+                return false;
+            }
+
+            if (current() != TokenType.OP_EXPRESSION_SEPARATOR) {
+                break;
+            }
+
+            position++;
+
+            // The separator may be used at the end of an expression, e.g. [expression;]
+            if (current() == TokenType.CSB) {
+                break;
+            }
+
+            separators++;
+        }
+
+        for (int j = 0; j < separators; j++) {
+            emitter.emit(ByteCode.Op.EXPRESSION_SEPARATOR);
+        }
+
+        return true;
+    }
+
+    /**
+     * Compiles a 'formatExpression' non-terminal.
+     */
+    private boolean formatExpression() {
+        if (!binaryExpression(1)) {
+            return false;
+        }
+
+        if (current() != TokenType.OP_FORMAT) {
+            return true;
+        }
+
+        position++;
+        switch (current()) {
+            case FORMAT:
+                emitter.emitConstant(ByteCode.Op.FORMAT, unquote());
+                position++;
+                break;
+            case DISCARD:
+                // Do not attempt to parse culture if discard is specified instead of format
+                emitter.emit(ByteCode.Op.DISCARD);
+                emitter.emit(ByteCode.Op.FORMATTING);
+                position++;
+                return true;
+            default:
+                return false;
+        }
+
+        if (skip(TokenType.OP_CULTURE)) {
+            if (current() != TokenType.CULTURE) {
+                return false;
+            }
+
+            emitter.emitConstant(ByteCode.Op.CULTURE, unquote());
+            position++;
+        }
+
+        emitter.emit(ByteCode.Op.FORMATTING);
+        return true;
+    }
+
+    /**
+     * Compiles a sequence of binary operations, whose operators have the specified or a higher precedence.
+     * The operations with the same precedence are grouped from left to right.
+     */
+    private boolean binaryExpression(int precedence) {
+        int start = emitter.mark();
+        if (!unaryExpression()) {
+            return false;
+        }
+
+        while (true) {
+            TokenType operator = current();
+            int operatorPrecedence = Parser.PRECEDENCES[operator.ordinal()];
+            if (operatorPrecedence < precedence || operatorPrecedence == 0) {
+                return true;
+            }
+
+            position++;
+            byte leftType = type;
+            Object left = constant;
+            Class<?> leftNumericType = numericType;
+            long leftHash = hash;
+
+            // Skip the right operand of conditional operations if the left one determines the result
+            int jump = -1;
+            if (operator == TokenType.OP_CONDITIONAL_AND) {
+                jump = emitter.emitJump(ByteCode.Op.JUMP_IF_FALSE);
+            } else if (operator == TokenType.OP_CONDITIONAL_OR) {
+                jump = emitter.emitJump(ByteCode.Op.JUMP_IF_TRUE);
+            }
+
+            int right = emitter.mark();
+            if (!binaryExpression(operatorPrecedence + 1)) {
+                return false;
+            }
+
+            long operationHash = combine(combine(hash(operator, null), leftHash), hash);
+            if (jump != -1) {
+                ByteCode.Op op = operator == TokenType.OP_CONDITIONAL_AND ? ByteCode.Op.CONDITIONAL_AND : ByteCode.Op.CONDITIONAL_OR;
+                emitter.emit(op);
+                emitter.patchJump(jump);
+                if (!fold(start, optimizer != null ? Optimizer.foldConditional(op, left, constant) : Optimizer.NOT_CONSTANT) &&
+                    !result(ByteCode.Frame.OBJECT, null, operationHash)) {
+                    return false;
+                }
+                continue;
+            }
+
+            ByteCode.Op op = Optimizer.getOperation(operator);
+            Object b = constant;
+            if (optimizer != null) {
+                if (left != Optimizer.NOT_CONSTANT && b != Optimizer.NOT_CONSTANT) {
+                    if (fold(start, Optimizer.foldBinary(op, left, b))) {
+                        continue;
+                    }
+                } else if (left != Optimizer.NOT_CONSTANT && Optimizer.isIdentity(op, left, numericType, false)) {
+                    // The code of the left operand cannot be removed from before the code of the right one
+                    return false;
+                } else if (b != Optimizer.NOT_CONSTANT && Optimizer.isIdentity(op, b, leftNumericType, true)) {
+                    // The operation produces its left operand
+                    emitter.rollback(right);
+                    type = leftType;
+                    constant = left;
+                    numericType = leftNumericType;
+                    hash = leftHash;
+                    continue;
+                }
+            }
+
+            byte operationType;
+            Class<?> operationNumericType = null;
+            switch (operator) {
+                case OP_AND:
+                case OP_XOR:
+                case OP_OR:
+                    emitter.emit(op);
+                    operationType = ByteCode.Frame.OBJECT;
+                    break;
+                case OP_ADD:
+                case OP_SUBTRACT:
+                case OP_MULTIPLY:
+                case OP_DIVIDE:
+                case OP_MOD:
+                    operationNumericType = Optimizer.getBinaryNumericType(leftNumericType, numericType);
+                    operationType = emitter.emitBinary(op, leftType, type);
+                    break;
+                default:
+                    operationType = emitter.emitBinary(op, leftType, type);
+                    break;
+            }
+
+            if (!result(operationType, operationNumericType, operationHash)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Compiles an 'unaryExpression' non-terminal.
+     */
+    private boolean unaryExpression() {
+        TokenType t = current();
+        switch (t) {
+            case FLOAT_NUMBER:
+            case INT_NUMBER:
+                return number();
+            case NULL:
+                emitter.emit(ByteCode.Op.NULL);
+                position++;
+                return literal(ByteCode.Frame.OBJECT, null, hash(t, null));
+            case STRING: {
+                String text = tokens.getText(position);
+                emitter.emitConstant(ByteCode.Op.STRING, text);
+                position++;
+                return literal(ByteCode.Frame.OBJECT, text, hash(t, text));
+            }
+            case COLOR: {
+                String text = tokens.getText(position);
+                emitter.emitConstant(ByteCode.Op.COLOR, ByteCode.parseColor(text));
+                position++;
+                return literal(ByteCode.Frame.OBJECT, Optimizer.NOT_CONSTANT, hash(t, text));
+            }
+            case IDENTIFIER:
+                return dotExpression();
+            case OP_NOT:
+            case OP_SUBTRACT: {
+                if (depth == MAX_DEPTH) {
+                    return false;
+                }
+
+                position++;
+                int start = emitter.mark();
+                depth++;
+                if (!unaryExpression()) {
+                    return false;
+                }
+                depth--;
+
+                ByteCode.Op op = t == TokenType.OP_NOT ? ByteCode.Op.NOT : ByteCode.Op.MINUS;
+                emitter.emit(op);
+                if (optimizer != null && constant != Optimizer.NOT_CONSTANT && fold(start, Optimizer.foldUnary(op, constant))) {
+                    return true;
+                }
+
+                // The unary minus keeps the type of its operand
+                return t == TokenType.OP_NOT ?
+                    result(ByteCode.Frame.OBJECT, null, combine(hash(t, null), hash)) :
+                    result(type, numericType, combine(hash(t, null), hash));
+            }
+            case OB:
+                if (depth == MAX_DEPTH) {
+                    return false;
+                }
+
+                position++;
+                depth++;
+                if (!binaryExpression(1)) {
+                    return false;
+                }
+                depth--;
+                return skip(TokenType.CB);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Compiles a number, optionally followed by a unit.
+     */
+    private boolean number() {
+        TokenType t = current();
+        String text = tokens.getText(position);
+        position++;
+
+        // Number, followed by identifier is a quantity expression, e.g. 5mm or 1kg
+        String unit = null;
+        if (current() == TokenType.IDENTIFIER) {
+            unit = tokens.getText(position);
+            emitter.emitConstant(ByteCode.Op.QUANTITY, unit);
+            position++;
+        }
+
+        // Always parse in invariant culture because the float regular expression in Lexer is culture-independent
+        Object value;
+        if (t == TokenType.FLOAT_NUMBER) {
+            double number = Double.parseDouble(text);
+            emitter.emitDouble(ByteCode.Op.FLOAT, number);
+            value = number;
+        } else {
+            int number = Integer.parseInt(text);
+            emitter.emit(ByteCode.Op.INT, number);
+            value = number;
+        }
+
+        if (unit != null) {
+            return literal(ByteCode.Frame.OBJECT, Optimizer.NOT_CONSTANT, combine(hash(t, text), hash(TokenType.IDENTIFIER, unit)));
+        }
+
+        return literal(t == TokenType.FLOAT_NUMBER ? ByteCode.Frame.DOUBLE : ByteCode.Frame.INT, value, hash(t, text));
+    }
+
+    /**
+     * Compiles a 'dotExpression' non-terminal, or the identifier or function call starting it,
+     * if it is not followed by a dot.
+     */
+    private boolean dotExpression() {
+        String name = tokens.getText(position);
+        position++;
+
+        boolean call = current() == TokenType.OB;
+        if (call && !functionCall(name)) {
+            return false;
+        }
+
+        if (current() != TokenType.OP_DOT) {
+            if (call) {
+                return true;
+            }
+
+            VariableSchema schema = options.getVariableSchema();
+            emitter.emitConstant(schema != null && schema.getSlot(name) >= 0 ? ByteCode.Op.VARIABLE : ByteCode.Op.IDENTIFIER, name);
+            return result(ByteCode.getType(options.getVariableType(name)), null, hash(TokenType.IDENTIFIER, name));
+        }
+
+        // The identifier starting the sequence is an object reference
+        long dotHash = hash(TokenType.OP_DOT, null);
+        if (call) {
+            dotHash = combine(dotHash, hash);
+        } else {
+            emitter.emitConstant(ByteCode.Op.OBJECT_OR_MEMBER, name);
+            dotHash = combine(dotHash, hash(TokenType.IDENTIFIER, name));
+        }
+
+        int count = 1;
+        while (skip(TokenType.OP_DOT)) {
+            if (current() != TokenType.IDENTIFIER) {
+                return false;
+            }
+
+            String member = tokens.getText(position);
+            emitter.emitConstant(ByteCode.Op.OBJECT_OR_MEMBER, member);
+            dotHash = combine(dotHash, hash(TokenType.IDENTIFIER, member));
+            position++;
+            count++;
+        }
+
+        emitter.emit(ByteCode.Op.DOT, count); // Dot count
+        return result(ByteCode.Frame.OBJECT, null, dotHash);
+    }
+
+    /**
+     * Compiles a call to the function with the specified name, starting from its opening bracket.
+     */
+    private boolean functionCall(String name) {
+        if (depth == MAX_DEPTH) {
+            return false;
+        }
+
+        position++;
+        depth++;
+
+        boolean iif = name.equals("iif");
+        boolean lazy = options.isLazyFunction(name);
+        if (iif && lazy) {
+            // The code depends on the number of arguments, which is not known yet
+            return false;
+        }
+
+        int start = emitter.mark();
+        long callHash = SubexpressionEliminator.isPureFunction(name, options) && !lazy ? hash(TokenType.FUNCTION_CALL, name) : IMPURE;
+        Object[] arguments = NO_ARGUMENTS;
+        int count = 0;
+        byte a = ByteCode.Frame.OBJECT;
+        byte b = ByteCode.Frame.OBJECT;
+        int otherwise = -1;
+        int end = -1;
+        if (!skip(TokenType.CB)) {
+            do {
+                if (iif) {
+                    // Evaluate only the branch selected by the condition
+                    if (count == 1) {
+                        otherwise = emitter.emitJump(ByteCode.Op.JUMP_UNLESS);
+                    } else if (count == 2) {
+                        end = emitter.emitJump(ByteCode.Op.JUMP);
+                        emitter.patchJump(otherwise);
+                    } else if (count == 3) {
+                        return false;
+                    }
+                }
+
+                int argument = lazy ? emitter.emitJump(ByteCode.Op.LAZY_ARGUMENT) : -1;
+                if (!binaryExpression(1)) {
+                    return false;
+                }
+                emitter.patchJump(argument);
+
+                if (count == arguments.length) {
+                    arguments = Arrays.copyOf(arguments, Math.max(4, count * 2));
+                }
+                arguments[count++] = constant;
+                callHash = combine(callHash, hash);
+                if (count == 2) {
+                    a = type;
+                } else if (count == 3) {
+                    b = type;
+                }
+            } while (skip(TokenType.COMMA));
+
+            if (!skip(TokenType.CB)) {
+                return false;
+            }
+        }
+        depth--;
+
+        if (iif && count == 2) {
+            return false;
+        }
+
+        if (optimizer != null && fold(start, optimizer.foldFunctionCall(name,
+            count == arguments.length ? arguments : Arrays.copyOf(arguments, count)))) {
+            return true;
+        }
+
+        ByteCode.checkFunctionCall(name, count, options);
+        Class<?> resultType = optimizer != null ? optimizer.getFunctionNumericType(name) : null;
+        if (iif && count == 3) {
+            emitter.patchJump(end);
+            return result(a == b ? a : ByteCode.Frame.OBJECT, resultType, callHash);
+        }
+
+        emitter.emit(ByteCode.Op.FUNCTION_CALL, count); // Param count
+        emitter.emitConstant(name);
+        return result(lazy ? ByteCode.Frame.OBJECT : ByteCode.getFunctionType(name), resultType, callHash);
+    }
+
+    /**
+     * Replaces the code emitted after the specified mark with the specified value, unless it is {@link Optimizer#NOT_CONSTANT}.
+     * Returns a value indicating whether the code is replaced.
+     */
+    private boolean fold(int mark, Object value) {
+        if (value == Optimizer.NOT_CONSTANT) {
+            return false;
+        }
+
+        emitter.rollback(mark);
+        type = emitter.emitValue(value);
+        constant = value;
+        numericType = Optimizer.getNumericType(value);
+        hash = combine(hash(TokenType.CONSTANT, String.valueOf(value)),
+            value != null ? hash(TokenType.CONSTANT, value.getClass().getName()) : 1);
+        return true;
+    }
+
+    /**
+     * Describes the last compiled sub-expression as a literal.
+     */
+    private boolean literal(byte type, Object constant, long hash) {
+        this.type = type;
+        this.constant = constant;
+        this.numericType = Optimizer.getNumericType(constant);
+        this.hash = hash;
+        return true;
+    }
+
+    /**
+     * Describes the last compiled sub-expression as a value, which is not known during compilation.
+     * Returns false, if the sub-expression is repeated and should be eliminated.
+     */
+    private boolean result(byte type, Class<?> numericType, long hash) {
+        this.type = type;
+        this.constant = Optimizer.NOT_CONSTANT;
+        this.numericType = numericType;
+        this.hash = hash;
+        return subexpressions == null || hash == IMPURE || subexpressions.add(hash);
+    }
+
+    /**
+     * Gets the text of the current token without its enclosing quotes.
+     */
+    private String unquote() {
+        String text = tokens.getText(position);
+        return text.substring(1, text.length() - 1);
+    }
+
+    /**
+     * Skips the current token, if it is of the specified type.
+     */
+    private boolean skip(TokenType type) {
+        if (current() == type) {
+            position++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the type of the current token.
+     */
+    private TokenType current() {
+        if (position == tokens.size()) {
+            throw new ParsingException("Unexpected end of the token stream. The expression is most likely incomplete.");
+        }
+
+        return tokens.getType(position);
+    }
+
+    /**
+     * Gets the hash of a leaf with the specified token type and text. Sub-expressions with the same structure have the same
+     * hash, while different sub-expressions might have the same hash too. Such sub-expressions are considered repeated,
+     * so they are compiled through the parse tree.
+     */
+    private static long hash(TokenType type, String text) {
+        return mix(type.ordinal() * 0x9E3779B97F4A7C15L + (text != null ? text.hashCode() : 0));
+    }
+
+    /**
+     * Gets the hash of a sub-expression with the specified hash, extended by the specified child.
+     */
+    private static long combine(long hash, long child) {
+        if (hash == IMPURE || child == IMPURE) {
+            return IMPURE;
+        }
+
+        return mix(hash * 31 + child);
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return h != IMPURE ? h : 1;
+    }
+
+    /**
+     * A set of hashes other than {@link #IMPURE}, kept in an open-addressing table.
+     */
+    private static final class Hashes {
+        private long[] table = new long[16];
+        private int size;
+
+        /**
+         * Adds the specified hash. Returns false, if the set already contains it.
+         */
+        boolean add(long hash) {
+            int mask = table.length - 1;
+            int index = (int) hash & mask;
+            while (table[index] != IMPURE) {
+                if (table[index] == hash) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+
+            table[index] = hash;
+            if (++size * 2 > table.length) {
+                long[] old = table;
+                table = new long[old.length * 2];
+                size = 0;
+                for (long h : old) {
+                    if (h != IMPURE) {
+                        add(h);
+                    }
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.meppy.expression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds repeated sub-expressions within a parse tree, so that each of them is evaluated once per evaluation.
+ * <p>
+ * The first occurrence of a repeated sub-expression, which is evaluated unconditionally, is wrapped in a
+ * {@link TokenType#STORE} node, which keeps its value in a slot, and the occurrences following it are replaced
+ * by {@link TokenType#LOAD} nodes, which reuse that value. Only pure sub-expressions are eliminated, that is,
+ * sub-expressions consisting of literals, identifiers, members, operations and calls to functions, which produce
+ * the same result for the same arguments. This assumes that identifiers and members have the same values
+ * during a single evaluation.
+ */
+final class SubexpressionEliminator {
+    /**
+     * An occurrence of a sub-expression, which can be eliminated.
+     */
+    private static final class Occurrence {
+        private final ParseTreeNode node;
+
+        /**
+         * The index of the first and the last node of the sub-expression in the order of evaluation.
+         */
+        private final int start;
+        private final int end;
+
+        /**
+         * Indicates whether the sub-expression might not be evaluated, because it is a branch or an operand,
+         * which is skipped depending on a condition.
+         */
+        private final boolean conditional;
+
+        /**
+         * Indicates whether the occurrence is within another occurrence, which is replaced.
+         */
+        private boolean removed;
+
+        Occurrence(ParseTreeNode node, int start, int end, boolean conditional) {
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.conditional = conditional;
+        }
+    }
+
+    /**
+     * A node, whose children are being visited.
+     */
+    private static final class Frame {
+        private final ParseTreeNode node;
+
+        /**
+         * The token of the parent node, or null, if the node is the root.
+         */
+        private final Token parent;
+
+        private final boolean conditional;
+
+        /**
+         * The index of the first node of the sub-expression in the order of evaluation.
+         */
+        private final int start;
+
+        /**
+         * Indicates whether the node is a call to a lazy function, whose arguments are not visited.
+         */
+        private final boolean lazy;
+
+        /**
+         * Indicates whether the node and its children visited so far are pure.
+         */
+        private boolean pure;
+
+        /**
+         * The structure of the sub-expression, which consists of the token of the node and the identifiers
+         * of its children visited so far.
+         */
+        private final StringBuilder key;
+
+        /**
+         * The index of the child to visit next.
+         */
+        private int index;
+
+        Frame(ParseTreeNode node, Token parent, boolean conditional, int start, boolean lazy, boolean pure, StringBuilder key) {
+            this.node = node;
+            this.parent = parent;
+            this.conditional = conditional;
+            this.start = start;
+            this.lazy = lazy;
+            this.pure = pure;
+            this.key = key;
+        }
+    }
+
+    private final CompileOptions options;
+
+    /**
+     * The identifiers of the distinct sub-expressions by their structure.
+     */
+    private final Map<String, Integer> identifiers = new HashMap<>();
+
+    /**
+     * The occurrences of the sub-expressions, which can be eliminated, by the identifiers of the sub-expressions.
+     */
+    private final Map<Integer, List<Occurrence>> occurrences = new HashMap<>();
+
+    /**
+     * All occurrences in the order of evaluation.
+     */
+    private final List<Occurrence> order = new ArrayList<>();
+
+    /**
+     * The number of nodes visited so far, in the order of evaluation.
+     */
+    private int count;
+
+    private SubexpressionEliminator(CompileOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Eliminates the repeated sub-expressions in the tree with the specified root.
+     */
+    static void eliminate(ParseTreeNode root, CompileOptions options) {
+        new SubexpressionEliminator(options).eliminate(root);
+    }
+
+    private void eliminate(ParseTreeNode root) {
+        visit(root);
+
+        // Eliminate larger sub-expressions first, so that the sub-expressions within their replaced occurrences are not counted
+        List<List<Occurrence>> candidates = new ArrayList<>();
+        for (List<Occurrence> list : occurrences.values()) {
+            if (list.size() > 1) {
+                candidates.add(list);
+            }
+        }
+        candidates.sort((a, b) -> Integer.compare(b.get(0).end - b.get(0).start, a.get(0).end - a.get(0).start));
+
+        List<Occurrence> stores = new ArrayList<>();
+        List<List<Occurrence>> loads = new ArrayList<>();
+        for (List<Occurrence> list : candidates) {
+            Occurrence store = null;
+            List<Occurrence> uses = new ArrayList<>();
+            for (Occurrence occurrence : list) {
+                if (occurrence.removed) {
+                    continue;
+                }
+                if (store != null) {
+                    uses.add(occurrence);
+                } else if (!occurrence.conditional) {
+                    store = occurrence;
+                }
+            }
+
+            if (!uses.isEmpty()) {
+                stores.add(store);
+                loads.add(uses);
+                for (Occurrence use : uses) {
+                    remove(use);
+                }
+            }
+        }
+
+        for (int slot = 0; slot < stores.size(); slot++) {
+            ParseTreeNode node = stores.get(slot).node;
+            ParseTreeNode value = new ParseTreeNode(node.getToken());
+            value.getChildren().addAll(node.getChildren());
+            node.setToken(new Token(String.valueOf(slot), TokenType.STORE));
+            node.getChildren().clear();
+            node.getChildren().add(value);
+
+            for (Occurrence use : loads.get(slot)) {
+                use.node.setToken(new Token(String.valueOf(slot), TokenType.LOAD));
+                use.node.getChildren().clear();
+            }
+        }
+    }
+
+    /**
+     * Marks the occurrences within the specified occurrence as removed.
+     */
+    private void remove(Occurrence occurrence) {
+        int index = Collections.binarySearch(order, occurrence, (a, b) -> Integer.compare(a.end, b.end));
+        for (int j = index - 1; j >= 0 && order.get(j).end >= occurrence.start; j--) {
+            order.get(j).removed = true;
+        }
+    }
+
+    /**
+     * Visits the tree with the specified root in the order of evaluation and records its pure sub-expressions.
+     * The nodes being visited are kept in an explicit stack, so that deep trees do not overflow the thread stack.
+     */
+    private void visit(ParseTreeNode root) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(enter(root, null, false));
+        while (true) {
+            Frame frame = frames.peek();
+            List<ParseTreeNode> children = frame.node.getChildren();
+
+            // Lazy arguments are evaluated separately and might not be evaluated at all
+            if (!frame.lazy && frame.index < children.size()) {
+                Token t = frame.node.getToken();
+                boolean conditional = frame.conditional || isConditional(t, children.size(), frame.index);
+                frames.push(enter(children.get(frame.index), t, conditional));
+                continue;
+            }
+
+            frames.pop();
+            int identifier = leave(frame);
+            if (frames.isEmpty()) {
+                return;
+            }
+
+            Frame parent = frames.peek();
+            parent.pure &= identifier >= 0;
+            parent.key.append(' ').append(identifier);
+            parent.index++;
+        }
+    }
+
+    /**
+     * Starts visiting the specified node, before its children are visited.
+     */
+    private Frame enter(ParseTreeNode node, Token parent, boolean conditional) {
+        Token t = node.getToken();
+        boolean lazy = t.getType() == TokenType.FUNCTION_CALL && options.isLazyFunction(t.getText());
+        boolean pure = isPure(t) && !lazy;
+        StringBuilder key = new StringBuilder();
+        key.append(t.getType()).append(' ').append(t.getText());
+        if (t instanceof ConstantToken && ((ConstantToken) t).getValue() != null) {
+            key.append(' ').append(((ConstantToken) t).getValue().getClass().getName());
+        }
+
+        return new Frame(node, parent, conditional, count, lazy, pure, key);
+    }
+
+    /**
+     * Finishes visiting the node of the specified frame, after its children are visited, and records it,
+     * if it is a pure sub-expression. Returns the identifier of the sub-expression, or -1, if it is not pure.
+     */
+    private int leave(Frame frame) {
+        count++;
+        if (!frame.pure) {
+            return -1;
+        }
+
+        String key = frame.key.toString();
+        Integer identifier = identifiers.get(key);
+        if (identifier == null) {
+            identifier = identifiers.size();
+            identifiers.put(key, identifier);
+        }
+
+        if (isWorthReusing(frame.node.getToken(), frame.parent)) {
+            Occurrence occurrence = new Occurrence(frame.node, frame.start, count - 1, frame.conditional);
+            occurrences.computeIfAbsent(identifier, i -> new ArrayList<>()).add(occurrence);
+            order.add(occurrence);
+        }
+
+        return identifier;
+    }
+
+    /**
+     * Gets a value indicating whether the node with the specified token produces the same value on each evaluation,
+     * provided that its children do.
+     */
+    private boolean isPure(Token t) {
+        switch (t.getType()) {
+            case INT_NUMBER:
+            case FLOAT_NUMBER:
+            case STRING:
+            case NULL:
+            case COLOR:
+            case CONSTANT:
+            case IDENTIFIER:
+            case OP_ADD:
+            case OP_SUBTRACT:
+            case OP_MULTIPLY:
+            case OP_DIVIDE:
+            case OP_MOD:
+            case OP_POWER:
+            case OP_LESS:
+            case OP_GREATER:
+            case OP_EQUAL:
+            case OP_NOT_EQUAL:
+            case OP_LESS_OR_EQUAL:
+            case OP_GREATER_OR_EQUAL:
+            case OP_NOT:
+            case OP_AND:
+            case OP_XOR:
+            case OP_OR:
+            case OP_CONDITIONAL_AND:
+            case OP_CONDITIONAL_OR:
+            case OP_DOT:
+                return true;
+
+            case FUNCTION_CALL:
+                return isPureFunction(t.getText(), options);
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets a value indicating whether the function with the specified name returns the same result for the same arguments.
+     * The built-in functions might be overridden by the evaluation context, so they are considered pure only if their
+     * calls are computed during compilation too, and unless they are declared through the options.
+     */
+    static boolean isPureFunction(String name, CompileOptions options) {
+        if (options.isPureFunction(name)) {
+            return true;
+        }
+
+        BuiltInFunction function = options.getFoldFunctions() && !options.isFunction(name) ? BuiltInFunction.get(name) : null;
+        return function != null && function.isPure();
+    }
+
+    /**
+     * Gets a value indicating whether the child with the specified index of the node with the specified token
+     * is evaluated depending on a condition.
+     */
+    private static boolean isConditional(Token t, int childCount, int index) {
+        switch (t.getType()) {
+            case OP_CONDITIONAL_AND:
+            case OP_CONDITIONAL_OR:
+                return index == 1;
+
+            case FUNCTION_CALL:
+                return t.getText().equals("iif") && childCount == 3 && index > 0;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets a value indicating whether the value of the pure node with the specified token is worth keeping
+     * in a slot, rather than evaluating it again.
+     */
+    private static boolean isWorthReusing(Token t, Token parent) {
+        switch (t.getType()) {
+            case INT_NUMBER:
+            case FLOAT_NUMBER:
+            case STRING:
+            case NULL:
+            case COLOR:
+            case CONSTANT:
+                return false;
+
+            case IDENTIFIER:
+                // Object names, member names and units are not values
+                return parent == null || (parent.getType() != TokenType.OP_DOT &&
+                    parent.getType() != TokenType.INT_NUMBER && parent.getType() != TokenType.FLOAT_NUMBER);
+
+            default:
+                return true;
+        }
+    }
+}
\ No newline at end of file
@@ -4,6 +4,8 @@ package com.meppy.expression;
  * Represents a recognized token from a sequence of characters, which conforms to the grammar.
  */
 class Token {
+    private static final Token EMPTY = new Token();
+
     /**
      * The text of the token.
      */
@@ -30,11 +32,7 @@ class Token {
     /**
      * Gets an empty token instance.
      */
-    static Token empty() { return new Token(); }
-
-    Token withType(TokenType newType) {
-        return new Token(text, newType);
-    }
+    static Token empty() { return EMPTY; }
 
     @Override
     public String toString() {
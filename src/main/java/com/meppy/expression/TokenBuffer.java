@@ -0,0 +1,233 @@
+package com.meppy.expression;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the tokens recognized by a {@link Lexer} in parallel arrays of their types and of the positions of their
+ * texts within the input, rather than in separate objects.
+ * <p>
+ * The text of a token is extracted from the input only when a {@link Token} is requested for it. The tokens, whose
+ * text is determined by their type, such as operators and brackets, are shared, and the texts of identifiers are
+ * interned, so that an identifier occurring repeatedly in the input is kept once.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    /**
+     * The shared tokens by the ordinals of their types, or null for the types, whose text varies.
+     */
+    private static final Token[] SHARED = new Token[TYPES.length];
+
+    static {
+        share(TokenType.NULL, "null");
+        share(TokenType.OSB, "[");
+        share(TokenType.CSB, "]");
+        share(TokenType.OB, "(");
+        share(TokenType.CB, ")");
+        share(TokenType.OP_ADD, "+");
+        share(TokenType.OP_SUBTRACT, "-");
+        share(TokenType.OP_MULTIPLY, "*");
+        share(TokenType.OP_DIVIDE, "/");
+        share(TokenType.OP_MOD, "%");
+        share(TokenType.OP_LESS, "<");
+        share(TokenType.OP_GREATER, ">");
+        share(TokenType.OP_EQUAL, "==");
+        share(TokenType.OP_NOT_EQUAL, "!=");
+        share(TokenType.OP_LESS_OR_EQUAL, "<=");
+        share(TokenType.OP_GREATER_OR_EQUAL, ">=");
+        share(TokenType.OP_NOT, "!");
+        share(TokenType.OP_AND, "&");
+        share(TokenType.OP_XOR, "^");
+        share(TokenType.OP_POWER, "^");
+        share(TokenType.OP_OR, "|");
+        share(TokenType.OP_CONDITIONAL_AND, "&&");
+        share(TokenType.OP_CONDITIONAL_OR, "||");
+        share(TokenType.OP_DOT, ".");
+        share(TokenType.COMMA, ",");
+        share(TokenType.OP_FORMAT, "@");
+        share(TokenType.DISCARD, "!");
+        share(TokenType.OP_CULTURE, ":");
+        share(TokenType.OP_EXPRESSION_SEPARATOR, ";");
+    }
+
+    /**
+     * The analyzed string.
+     */
+    private final String input;
+
+    /**
+     * The ordinals of the types of the tokens.
+     */
+    private int[] types = new int[16];
+
+    /**
+     * The positions of the first character and after the last character of the texts of the tokens within the input.
+     */
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+
+    private int size;
+
+    /**
+     * The distinct texts of the identifiers, placed by their hash codes.
+     */
+    private String[] identifiers = new String[16];
+    private int identifierCount;
+
+    /**
+     * Initializes a new instance of the {@link TokenBuffer} class with no tokens of the specified input string.
+     */
+    TokenBuffer(String input) {
+        this.input = input;
+    }
+
+    private static void share(TokenType type, String text) {
+        SHARED[type.ordinal()] = new Token(text, type);
+    }
+
+    /**
+     * Adds a token of the specified type with the text between the specified positions within the input.
+     */
+    void add(TokenType type, int start, int end) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+
+        types[size] = type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Gets the number of tokens.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the type of the token with the specified index.
+     */
+    TokenType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    /**
+     * Gets the position of the first character of the text of the token with the specified index within the input.
+     */
+    int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Gets the position after the last character of the text of the token with the specified index within the input.
+     */
+    int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Gets the text of the token with the specified index.
+     */
+    String getText(int index) {
+        Token shared = SHARED[types[index]];
+        if (shared != null) {
+            return shared.getText();
+        }
+
+        return types[index] == TokenType.IDENTIFIER.ordinal() ?
+            intern(starts[index], ends[index]) :
+            input.substring(starts[index], ends[index]);
+    }
+
+    /**
+     * Gets the token with the specified index.
+     */
+    Token getToken(int index) {
+        Token shared = SHARED[types[index]];
+        return shared != null ? shared : new Token(getText(index), getType(index));
+    }
+
+    /**
+     * Gets a token of the specified type with the text of the token with the specified index, e.g. a function call
+     * named by an identifier.
+     */
+    Token getToken(int index, TokenType type) {
+        return new Token(getText(index), type);
+    }
+
+    /**
+     * Gets a value indicating whether an identifier occurs more than once in the input. The texts of the identifiers
+     * are interned, so the method is called before any text is requested.
+     */
+    boolean hasRepeatedIdentifiers() {
+        int identifier = TokenType.IDENTIFIER.ordinal();
+        for (int i = 0; i < size; i++) {
+            if (types[i] == identifier) {
+                int count = identifierCount;
+                intern(starts[i], ends[i]);
+                if (identifierCount == count) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the text between the specified positions within the input, which is the same instance for equal texts.
+     */
+    private String intern(int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + input.charAt(i);
+        }
+
+        int mask = identifiers.length - 1;
+        for (int j = spread(hash) & mask; ; j = (j + 1) & mask) {
+            String identifier = identifiers[j];
+            if (identifier == null) {
+                identifier = input.substring(start, end);
+                identifiers[j] = identifier;
+                if (++identifierCount * 2 > identifiers.length) {
+                    grow();
+                }
+                return identifier;
+            }
+
+            if (identifier.length() == length && input.regionMatches(start, identifier, 0, length)) {
+                return identifier;
+            }
+        }
+    }
+
+    /**
+     * Doubles the capacity of the identifier table.
+     */
+    private void grow() {
+        String[] old = identifiers;
+        identifiers = new String[old.length * 2];
+        int mask = identifiers.length - 1;
+        for (String identifier : old) {
+            if (identifier != null) {
+                int j = spread(identifier.hashCode()) & mask;
+                while (identifiers[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                identifiers[j] = identifier;
+            }
+        }
+    }
+
+    /**
+     * Spreads the higher bits of the specified hash code to the lower ones, which select the place in the table.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -81,5 +81,11 @@ enum TokenType {
     /** Indicates a culture name. */
     CULTURE,
     /** Indicates a separator between expressions. */
-    OP_EXPRESSION_SEPARATOR
+    OP_EXPRESSION_SEPARATOR,
+    /** Indicates a value computed during compilation, which replaces a constant sub-expression. */
+    CONSTANT,
+    /** Indicates the first evaluation of a repeated sub-expression, whose value is kept in the slot specified by the text. */
+    STORE,
+    /** Indicates a repeated sub-expression, whose value is kept in the slot specified by the text. */
+    LOAD
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.meppy.expression;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Represents an identifier declared by a {@link VariableSchema} in the code evaluation stack.
+ * Its value is read from the slot of a {@link VariableContext} with the same schema, if the slot is set.
+ * Otherwise, it is evaluated through the context like any other identifier.
+ */
+final class Variable extends Identifier {
+    private final VariableSchema schema;
+    private final int slot;
+
+    /**
+     * Initializes a new instance of the {@link Variable} class for the specified variable of the specified schema.
+     */
+    Variable(String name, VariableSchema schema) {
+        super(name);
+        this.schema = schema;
+        this.slot = schema.getSlot(name);
+    }
+
+    /**
+     * Pushes the value of the variable to the specified frame, if the specified context keeps the value
+     * in a slot. Returns false, if the value has to be evaluated through the context.
+     */
+    boolean push(ByteCode.Frame frame, EvaluationContext context) {
+        return context instanceof VariableContext && ((VariableContext) context).push(schema, slot, frame);
+    }
+
+    /**
+     * Evaluates the variable in the specified context.
+     */
+    Object getValue(EvaluationContext context) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        if (context instanceof VariableContext) {
+            VariableContext variables = (VariableContext) context;
+            if (variables.getSchema() == schema && variables.isSet(slot)) {
+                return variables.get(slot);
+            }
+        }
+
+        return context.evaluateIdentifier(getName());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,209 @@
+package com.meppy.expression;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Provides a context for evaluating a byte code, which keeps the values of the variables declared
+ * by a {@link VariableSchema} in slots.
+ * <p>
+ * Byte code compiled with or bound to the same schema reads the values of these variables directly from the slots,
+ * without looking up their names, and numbers set through the primitive setters are not boxed by the interpreter.
+ * Other byte code reads them through {@link #evaluateIdentifier}. Variables, whose slots are not set, and other
+ * identifiers are evaluated like in the {@link EvaluationContext}. A context can be reused by setting new values
+ * to the slots before each evaluation. Once the context is shared through {@link #share}, its slots cannot be changed.
+ */
+public class VariableContext extends EvaluationContext {
+    /**
+     * Indicates that the slot is not set.
+     */
+    private static final byte UNSET = -1;
+
+    private final VariableSchema schema;
+
+    /**
+     * The values of the slots, kept in lanes the same way as in the frame of the interpreter.
+     */
+    private final byte[] tags;
+    private final Object[] objects;
+    private final long[] longs;
+    private final double[] doubles;
+
+    /**
+     * Initializes a new instance of the {@link VariableContext} class for the specified schema.
+     */
+    public VariableContext(VariableSchema schema) {
+        this(schema, null, Locale.ROOT);
+    }
+
+    /**
+     * Initializes a new instance of the {@link VariableContext} class for the specified schema and object.
+     */
+    public VariableContext(VariableSchema schema, Object target) {
+        this(schema, target, Locale.ROOT);
+    }
+
+    /**
+     * Initializes a new instance of the {@link VariableContext} class for the specified schema, object and locale.
+     */
+    public VariableContext(VariableSchema schema, Object target, Locale locale) {
+        super(target, locale);
+        this.schema = schema;
+        tags = new byte[schema.size()];
+        objects = new Object[schema.size()];
+        longs = new long[schema.size()];
+        doubles = new double[schema.size()];
+        Arrays.fill(tags, UNSET);
+    }
+
+    /**
+     * Gets the schema declaring the variables kept by this context.
+     */
+    public VariableSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Sets the value of the variable in the specified slot to the specified integer.
+     */
+    public void set(int slot, int value) {
+        checkNotShared();
+        tags[slot] = ByteCode.Frame.INT;
+        objects[slot] = null;
+        longs[slot] = value;
+    }
+
+    /**
+     * Sets the value of the variable in the specified slot to the specified long integer.
+     */
+    public void set(int slot, long value) {
+        checkNotShared();
+        tags[slot] = ByteCode.Frame.LONG;
+        objects[slot] = null;
+        longs[slot] = value;
+    }
+
+    /**
+     * Sets the value of the variable in the specified slot to the specified floating point number.
+     */
+    public void set(int slot, double value) {
+        checkNotShared();
+        tags[slot] = ByteCode.Frame.DOUBLE;
+        objects[slot] = null;
+        doubles[slot] = value;
+    }
+
+    /**
+     * Sets the value of the variable in the specified slot to the specified object, which might be null.
+     */
+    public void set(int slot, Object value) {
+        checkNotShared();
+        tags[slot] = ByteCode.Frame.OBJECT;
+        objects[slot] = value;
+    }
+
+    /**
+     * Sets the value of the variable with the specified name, which must be declared by the schema.
+     */
+    public void set(String name, Object value) {
+        int slot = schema.getSlot(name);
+        if (slot < 0) {
+            throw new EvaluationException(String.format("The variable '%1$s' is not declared.", name));
+        }
+        set(slot, value);
+    }
+
+    /**
+     * Gets a value indicating whether the variable in the specified slot is set.
+     */
+    public boolean isSet(int slot) {
+        return tags[slot] != UNSET;
+    }
+
+    /**
+     * Gets the value of the variable in the specified slot, or null, if the slot is not set.
+     */
+    public Object get(int slot) {
+        switch (tags[slot]) {
+            case ByteCode.Frame.INT:
+                return (int) longs[slot];
+            case ByteCode.Frame.LONG:
+                return longs[slot];
+            case ByteCode.Frame.DOUBLE:
+                return doubles[slot];
+            default:
+                return objects[slot];
+        }
+    }
+
+    /**
+     * Unsets the variable in the specified slot, so that it is evaluated like other identifiers.
+     */
+    public void clear(int slot) {
+        checkNotShared();
+        tags[slot] = UNSET;
+        objects[slot] = null;
+    }
+
+    /**
+     * Unsets all variables.
+     */
+    public void clear() {
+        checkNotShared();
+        Arrays.fill(tags, UNSET);
+        Arrays.fill(objects, null);
+    }
+
+    /**
+     * Throws an exception, if the context is shared, since the values of its slots are read by several threads.
+     */
+    private void checkNotShared() {
+        if (isShared()) {
+            throw new IllegalStateException("The variables of a shared context cannot be changed.");
+        }
+    }
+
+    /**
+     * Pushes the value of the variable in the specified slot of the specified schema to the specified frame.
+     * Returns false, if the context does not keep the value, because the schema is different or the slot is not set.
+     */
+    boolean push(VariableSchema schema, int slot, ByteCode.Frame frame) {
+        if (schema != this.schema) {
+            return false;
+        }
+
+        switch (tags[slot]) {
+            case UNSET:
+                return false;
+            case ByteCode.Frame.INT:
+                frame.pushInt((int) longs[slot]);
+                return true;
+            case ByteCode.Frame.LONG:
+                frame.pushLong(longs[slot]);
+                return true;
+            case ByteCode.Frame.DOUBLE:
+                frame.pushDouble(doubles[slot]);
+                return true;
+            default:
+                frame.push(objects[slot]);
+                return true;
+        }
+    }
+
+    /**
+     * Evaluates the identifier with the specified name. The value of a variable declared by the schema
+     * is read from its slot, if the slot is set.
+     * @param name The identifier to evaluate.
+     * @return The result of the evaluation.
+     */
+    @Override
+    protected Object evaluateIdentifier(String name) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        int slot = name != null ? schema.getSlot(name) : -1;
+        if (slot >= 0 && isSet(slot)) {
+            return get(slot);
+        }
+
+        return super.evaluateIdentifier(name);
+    }
+}
\ No newline at end of file
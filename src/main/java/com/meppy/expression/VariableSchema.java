@@ -0,0 +1,53 @@
+package com.meppy.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Declares a fixed set of variables and assigns each of them a slot, which is its index in the schema.
+ * <p>
+ * Byte code compiled with or bound to a schema evaluates the identifiers declared by the schema by reading
+ * the slots of a {@link VariableContext} with the same schema, rather than looking up their names.
+ */
+public final class VariableSchema {
+    private final String[] names;
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * Initializes a new instance of the {@link VariableSchema} class with the specified variables.
+     * The slot of each variable is its index in the specified array.
+     */
+    public VariableSchema(String... names) {
+        this.names = names.clone();
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.names[i] == null || this.names[i].isEmpty()) {
+                throw new IllegalArgumentException("The name of a variable cannot be empty.");
+            }
+            if (slots.put(this.names[i], i) != null) {
+                throw new IllegalArgumentException(String.format("The variable '%1$s' is declared more than once.", this.names[i]));
+            }
+        }
+    }
+
+    /**
+     * Gets the slot of the variable with the specified name, or -1, if the variable is not declared.
+     */
+    public int getSlot(String name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Gets the name of the variable in the specified slot.
+     */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Gets the number of the declared variables.
+     */
+    public int size() {
+        return names.length;
+    }
+}
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.meppy.expression.test;
 
+import com.meppy.expression.Backend;
 import com.meppy.expression.ByteCode;
 import com.meppy.expression.CompileOptions;
 import com.meppy.expression.Compiler;
@@ -14,7 +15,7 @@ import java.util.Locale;
 public final class Test {
     public static void main(String[] args) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
 
-        ByteCode cc = Compiler.compile("The distance between points [a] and [b] is [Sqrt(Pow(a.X - b.X) + Pow(a.Y - b.Y))].");
+        ByteCode cc = Compiler.compile("The distance between points [a] and [b] is [sqrt(pow(a.x - b.x, 2) + pow(a.y - b.y, 2))].");
         EvaluationContext ec = new EvaluationContext(null);
         ec.getLocalVars().put("a", new Point(5, 10));
         ec.getLocalVars().put("b", new Point(11, 8));
@@ -37,6 +38,12 @@ public final class Test {
             });
 
         ByteCode predicate = Compiler.compile("y > oaAvg + k * oaSd || y < oaAvg - k * oaSd", new CompileOptions());
+        CompileOptions closureTreeOptions = new CompileOptions();
+        closureTreeOptions.setBackend(Backend.CLOSURE_TREE);
+        ByteCode closureTreePredicate = Compiler.compile("y > oaAvg + k * oaSd || y < oaAvg - k * oaSd", closureTreeOptions);
+        CompileOptions jvmClassOptions = new CompileOptions();
+        jvmClassOptions.setBackend(Backend.JVM_CLASS);
+        ByteCode jvmClassPredicate = Compiler.compile("y > oaAvg + k * oaSd || y < oaAvg - k * oaSd", jvmClassOptions);
         ByteCode code_2 = Compiler.compile("Order volume [y] is outside limits ([oaAvg - k * oaSd], [oaAvg + k * oaSd]).", new CompileOptions(false));
 
 //        execute(code0, context, "Performing 1 million calculations [concatenation, custom functions, property lookup, formatting] took %1$.2f seconds.");
@@ -53,6 +60,19 @@ public final class Test {
         context.getLocalVars().put("k", 0.7);
         context.getLocalVars().put("y", 7.8);
         execute(predicate, context, "Performing 1 million calculations [DBM rule expression] took %1$.2f seconds.");
+        execute(closureTreePredicate, context, "Performing 1 million calculations [DBM rule expression, closure tree backend] took %1$.2f seconds.");
+        execute(jvmClassPredicate, context, "Performing 1 million calculations [DBM rule expression, JVM class backend] took %1$.2f seconds.");
+
+        // Twice as long expressions take about twice as long to compile
+        for (int n = 50_000; n <= 200_000; n *= 2) {
+            compile(sum(n), String.format("Compiling a sum of %1$d identifiers took %%1$.2f seconds.", n));
+        }
+
+        StringBuilder template = new StringBuilder();
+        while (template.length() < 1024 * 1024) {
+            template.append("Total [12 + 3.5 * (4 - 5) @ \"0.00\"]; ");
+        }
+        compile(template.toString(), "Compiling a template of 1 MB took %1$.2f seconds.");
 
         context.getLocalVars().put("y", 7.8);
         if ((Boolean)predicate.evaluate(context)) {
@@ -64,6 +84,22 @@ public final class Test {
         }
     }
 
+    private static void compile(String source, String message) {
+        long time = System.currentTimeMillis();
+        Compiler.compile(source);
+        double elapsed = (System.currentTimeMillis() - time) / 1000.0;
+        System.out.println(String.format(message, elapsed));
+    }
+
+    private static String sum(int count) {
+        StringBuilder source = new StringBuilder("[x0");
+        for (int i = 1; i < count; i++) {
+            source.append(" + x").append(i);
+        }
+
+        return source.append("]").toString();
+    }
+
     private static void execute(ByteCode code, EvaluationContext context, String message) throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         long time = System.currentTimeMillis();
         for (int i = 0; i < 1_000_000; i++) {
@@ -0,0 +1,502 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public final class BackendUnitTest {
+    private static EvaluationContext evaluationContext;
+    private static CompileOptions interpreterOptions;
+    private static CompileOptions closureTreeOptions;
+    private static CompileOptions jvmClassOptions;
+
+    @BeforeClass
+    public static void setUp() {
+        evaluationContext = new EvaluationContext(new Point(5, 10), Locale.ROOT);
+        evaluationContext.getLocalVars().put("y", 12.5);
+        evaluationContext.getLocalVars().put("oaAvg", 10.0);
+        evaluationContext.getLocalVars().put("oaSd", 0.5);
+        evaluationContext.getLocalVars().put("k", 3);
+        evaluationContext.getLocalVars().put("value", 4);
+        evaluationContext.getLocalVars().put("p", new Point(3, 4));
+        evaluationContext.getLocalVars().put("big", 3000000000L);
+        evaluationContext.getLocalVars().put("nan", Double.NaN);
+        evaluationContext.getLocalVars().put("single", 1.5f);
+        // The optimized code produced by default is compared to the unoptimized interpreted code
+        interpreterOptions = new CompileOptions();
+        interpreterOptions.setOptimize(false);
+        closureTreeOptions = new CompileOptions();
+        closureTreeOptions.setBackend(Backend.CLOSURE_TREE);
+        jvmClassOptions = new CompileOptions();
+        jvmClassOptions.setBackend(Backend.JVM_CLASS);
+    }
+
+    @Test
+    public void testClosureTreeExpressions() throws IllegalAccessException {
+        assertSameResults(closureTreeOptions);
+    }
+
+    @Test
+    public void testClosureTreeOperations() {
+        assertSameOperationResults(closureTreeOptions);
+    }
+
+    @Test
+    public void testJvmClassExpressions() throws IllegalAccessException {
+        assertSameResults(jvmClassOptions);
+    }
+
+    @Test
+    public void testJvmClassOperations() {
+        assertSameOperationResults(jvmClassOptions);
+    }
+
+    @Test
+    public void testOptimizedExpressions() throws IllegalAccessException {
+        assertSameResults(new CompileOptions());
+    }
+
+    @Test
+    public void testOptimizedOperations() {
+        assertSameOperationResults(new CompileOptions());
+
+        CompileOptions options = new CompileOptions();
+        options.setFoldFunctions(true);
+        assertSameOperationResults(options);
+    }
+
+    @Test
+    public void testDeclaredVariableTypes() {
+        // Declared types, which do not match the actual ones, must not affect the results
+        CompileOptions options = new CompileOptions();
+        options.setVariableType("y", int.class);
+        options.setVariableType("value", double.class);
+        options.setVariableType("big", Integer.class);
+        options.setVariableType("k", int.class);
+        options.setVariableType("oaAvg", double.class);
+        options.setVariableType("single", long.class);
+        options.setVariableType("p", double.class);
+        assertSameOperationResults(options);
+    }
+
+    @Test
+    public void testClosureTreeDeclaredVariableTypes() {
+        assertSameDeclaredTypeResults(Backend.CLOSURE_TREE);
+    }
+
+    @Test
+    public void testJvmClassDeclaredVariableTypes() {
+        assertSameDeclaredTypeResults(Backend.JVM_CLASS);
+    }
+
+    @Test
+    public void testJvmClassEvaluatedRepeatedly() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        ByteCode code = Compiler.compile("[value * 2]", jvmClassOptions);
+        for (int i = 0; i < 10; i++) {
+            evaluationContext.getLocalVars().put("i", i);
+            Assert.assertEquals(8, code.evaluate(evaluationContext));
+        }
+    }
+
+    @Test
+    public void testJvmClassManyTemporaries() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Values kept in local variables beyond the 255th one are addressed through the wide instruction
+        StringBuilder template = new StringBuilder();
+        StringBuilder call = new StringBuilder("[max(value");
+        for (int i = 0; i < 300; i++) {
+            template.append("[value]");
+            call.append(", ").append(i);
+        }
+        call.append(")]");
+
+        for (String source : new String[] { template.toString(), call.toString() }) {
+            ByteCode code = Compiler.compile(source, jvmClassOptions);
+            Assert.assertEquals(JvmCodeGenerator.isSupported() ? Backend.JVM_CLASS : Backend.INTERPRETER, code.getBackend());
+            assertSameResult(source, jvmClassOptions);
+        }
+    }
+
+    @Test
+    public void testJvmClassFallback() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Code, which does not fit in a single JVM method, is interpreted
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            source.append("[value * ").append(i).append(']');
+        }
+
+        ByteCode code = Compiler.compile(source.toString(), jvmClassOptions);
+        Assert.assertEquals(Backend.INTERPRETER, code.getBackend());
+        Assert.assertEquals(Compiler.compile(source.toString(), interpreterOptions).evaluate(evaluationContext), code.evaluate(evaluationContext));
+    }
+
+    @Test
+    public void testJvmClassLongBranches() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Code, whose conditional operands or iif branches are longer than the offsets of the JVM branch instructions allow, is interpreted
+        CompileOptions options = new CompileOptions();
+        options.setBackend(Backend.JVM_CLASS);
+        options.setOptimize(false);
+        options.setEliminateSubexpressions(false);
+        StringBuilder sum = new StringBuilder("value");
+        for (int i = 1; i < 2000; i++) {
+            sum.append(" + value");
+        }
+
+        ByteCode code = Compiler.compile("[value > 0 && (" + sum + ") > 0]", options);
+        Assert.assertEquals(Backend.INTERPRETER, code.getBackend());
+        Assert.assertEquals(true, code.evaluate(evaluationContext));
+
+        code = Compiler.compile("[iif(value > 0, " + sum + ", 0)]", options);
+        Assert.assertEquals(Backend.INTERPRETER, code.getBackend());
+        Assert.assertEquals(8000, code.evaluate(evaluationContext));
+
+        code = Compiler.compile("[iif(value < 0, 0, " + sum + ")]", options);
+        Assert.assertEquals(Backend.INTERPRETER, code.getBackend());
+        Assert.assertEquals(8000, code.evaluate(evaluationContext));
+    }
+
+    @Test
+    public void testJvmClassWithoutHiddenClasses() {
+        // Runtimes without hidden classes interpret the code, other runtimes translate it
+        ByteCode code = Compiler.compile("[value * 2]", jvmClassOptions);
+        Assert.assertEquals(JvmCodeGenerator.isSupported() ? Backend.JVM_CLASS : Backend.INTERPRETER, code.getBackend());
+        Assert.assertEquals(Backend.CLOSURE_TREE, Compiler.compile("[value * 2]", closureTreeOptions).getBackend());
+        Assert.assertEquals(Backend.INTERPRETER, Compiler.compile("[value * 2]", interpreterOptions).getBackend());
+    }
+
+    @Test
+    public void testFunctionOverrides() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Built-in functions overridden by the context and custom functions are still called by name
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT,
+            (name, params) -> name.equals("twice") ? new FunctionEvaluationResult((Integer) params[0] * 2) : FunctionEvaluationResult.notEvaluated()) {
+            @Override
+            public Object invokeFunction(String name, Object... p) {
+                return name.equals("abs") ? -1 : super.invokeFunction(name, p);
+            }
+        };
+        EvaluationContext defaultContext = new EvaluationContext(null, Locale.ROOT,
+            (name, params) -> name.equals("twice") ? new FunctionEvaluationResult((Integer) params[0] * 2) : FunctionEvaluationResult.notEvaluated());
+
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            options.setOptimize(false);
+            ByteCode code = Compiler.compile("[abs(-3)] [twice(4)] [len(\"abc\")]", options);
+            Assert.assertEquals(backend.toString(), "-1 8 3", code.evaluate(context));
+            Assert.assertEquals(backend.toString(), "3.0 8 3", code.evaluate(defaultContext));
+        }
+    }
+
+    @Test
+    public void testNullMemberTargets() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // The members of a null function result or of a null member are evaluated by the context, which reports them
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT,
+            (name, params) -> name.equals("g") ? new FunctionEvaluationResult(null) : FunctionEvaluationResult.notEvaluated());
+        context.getLocalVars().put("order", new MemberSiteUnitTest.Order(null));
+
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            for (String source : new String[] { "[g().X]", "[g().X.Y]", "[order.customer.tier]", "[order.customer.tier + 1]" }) {
+                try {
+                    Compiler.compile(source, options).evaluate(context);
+                    Assert.fail(backend + " " + source);
+                } catch (EvaluationException e) {
+                    // Expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLazyFunction() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT,
+            (name, params) -> {
+                if (name.equals("coalesce")) {
+                    Object value = ((LazyArgument) params[0]).getValue();
+                    return new FunctionEvaluationResult(value != null ? value : ((LazyArgument) params[1]).getValue());
+                }
+
+                return FunctionEvaluationResult.notEvaluated();
+            });
+        context.getLocalVars().put("value", 4);
+
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            options.addLazyFunction("coalesce");
+            Assert.assertEquals(backend.toString(), 11, Compiler.compile("[coalesce(null, value * 2) + coalesce(3, undefined())]", options).evaluate(context));
+            Assert.assertEquals(backend.toString(), 6, Compiler.compile("[coalesce(coalesce(null, null), iif(value > 3, 6, undefined()))]", options).evaluate(context));
+        }
+    }
+
+    @Test
+    public void testCommonSubexpressions() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Each identifier is evaluated once per evaluation, regardless of the backend
+        Map<String, Integer> counts = new HashMap<>();
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            protected Object evaluateIdentifier(String name) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+                counts.merge(name, 1, Integer::sum);
+                return super.evaluateIdentifier(name);
+            }
+        };
+        context.getLocalVars().put("y", 12.5);
+        context.getLocalVars().put("oaAvg", 10.0);
+        context.getLocalVars().put("oaSd", 0.5);
+        context.getLocalVars().put("k", 3);
+
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            ByteCode code = Compiler.compile("Order volume [y] is outside limits ([oaAvg - k * oaSd], [oaAvg + k * oaSd]) [y > oaAvg + k * oaSd]", options);
+            counts.clear();
+            Assert.assertEquals(backend.toString(), "Order volume 12.5 is outside limits (8.5, 11.5) true", code.evaluate(context));
+            Assert.assertEquals(backend.toString(), Arrays.asList(1, 1, 1, 1), new ArrayList<>(counts.values()));
+        }
+    }
+
+    @Test
+    public void testCommonSubexpressionsOption() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Repeated sub-expressions are reused independently of constant folding and only when enabled
+        Map<String, Integer> counts = new HashMap<>();
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            protected Object evaluateIdentifier(String name) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+                counts.merge(name, 1, Integer::sum);
+                return super.evaluateIdentifier(name);
+            }
+        };
+        context.getLocalVars().put("x", 4);
+
+        CompileOptions options = new CompileOptions();
+        options.setOptimize(false);
+        Assert.assertEquals(40.0, Compiler.compile("[x * x + x * x + abs(x) + abs(x)]", options).evaluate(context));
+        Assert.assertEquals(Integer.valueOf(1), counts.get("x"));
+
+        counts.clear();
+        options.setOptimize(true);
+        options.setEliminateSubexpressions(false);
+        Assert.assertEquals(44.0, Compiler.compile("[x * x + x * x + abs(x) + abs(x) + (2 * 2)]", options).evaluate(context));
+        Assert.assertEquals(Integer.valueOf(6), counts.get("x"));
+    }
+
+    @Test
+    public void testInterpreterAllocations() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Once the frame of the thread is created, simple expressions are interpreted without allocating objects
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+
+        String[] sources = {
+            "[y > oaAvg + k * oaSd || y < oaAvg - k * oaSd]",
+            "[value * 2 + 1 > k && !(y <= oaAvg)]",
+            "[iif(value > 3, len(\"test\"), 0) + int(y) == 16]",
+        };
+        for (String source : sources) {
+            ByteCode code = Compiler.compile(source);
+            code.evaluate(evaluationContext);
+
+            int count = 10000;
+            long before = allocations.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < count; i++) {
+                code.evaluate(evaluationContext);
+            }
+            Assert.assertEquals(source, 0, (allocations.getThreadAllocatedBytes(thread) - before) / count);
+        }
+    }
+
+    @Test
+    public void testKeptFunctionArguments() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Contexts overriding the built-in functions receive arguments, which they can keep after the call
+        List<Object[]> calls = new ArrayList<>();
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            public Object invokeFunction(String name, Object... p) {
+                calls.add(p);
+                return super.invokeFunction(name, p);
+            }
+        };
+
+        ByteCode code = Compiler.compile("[abs(-2) + abs(-3)]");
+        Assert.assertEquals(5.0, code.evaluate(context));
+        Assert.assertEquals(5.0, code.evaluate(context));
+        Assert.assertEquals(4, calls.size());
+        Assert.assertArrayEquals(new Object[] { -2 }, calls.get(0));
+        Assert.assertArrayEquals(new Object[] { -3 }, calls.get(1));
+        Assert.assertNotSame(calls.get(0), calls.get(2));
+    }
+
+    @Test
+    public void testNestedEvaluation() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Evaluations started while another one is in progress on the same thread do not share its stack
+        ByteCode inner = Compiler.compile("[value * 2 + (value - 1) * 3]", interpreterOptions);
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            protected Object evaluateIdentifier(String name) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+                return name.equals("inner") ? inner.evaluate(this) : super.evaluateIdentifier(name);
+            }
+        };
+        context.getLocalVars().put("value", 4);
+
+        ByteCode outer = Compiler.compile("Value [value + 1] and [value * (inner - value) + inner]", interpreterOptions);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("Value 5 and 69", outer.evaluate(context));
+        }
+    }
+
+    @Test
+    public void testNullLiteral() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // The null literal is evaluated through the context, regardless of the backend
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            protected Object evaluateIdentifier(String name) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+                return name.equals("null") ? "none" : super.evaluateIdentifier(name);
+            }
+        };
+
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            options.setOptimize(false);
+            Assert.assertEquals(backend.toString(), "none", Compiler.compile("[null]", options).evaluate(context));
+            Assert.assertEquals(backend.toString(), "Value none", Compiler.compile("Value [null]", options).evaluate(context));
+            Assert.assertEquals(backend.toString(), 4, Compiler.compile("[len(null)]", options).evaluate(context));
+        }
+    }
+
+    /**
+     * Asserts that the operations specialized for the declared types of the variables produce the same results with the specified
+     * backend as when interpreted, regardless of whether the actual types match the declared ones.
+     */
+    private static void assertSameDeclaredTypeResults(Backend backend) {
+        CompileOptions options = new CompileOptions();
+        options.setBackend(backend);
+        options.setVariableType("y", double.class);
+        options.setVariableType("oaAvg", double.class);
+        options.setVariableType("oaSd", double.class);
+        options.setVariableType("k", int.class);
+        options.setVariableType("value", int.class);
+        options.setVariableType("big", long.class);
+        options.setVariableType("nan", double.class);
+        assertSameOperationResults(options);
+
+        options.setVariableType("y", int.class);
+        options.setVariableType("value", double.class);
+        options.setVariableType("big", Integer.class);
+        options.setVariableType("single", long.class);
+        options.setVariableType("p", double.class);
+        options.setVariableType("undefined", double.class);
+        assertSameOperationResults(options);
+        assertSameResult("[y * 2 + undefined + k]", options);
+        assertSameResult("[p.x * y + (k + y) + (k + y) * value]", options);
+        assertSameResult("[value * oaSd / big - (value + 0.5) * (p.x + 0.5) ^ 2]", options);
+        Assert.assertEquals(backend != Backend.JVM_CLASS || JvmCodeGenerator.isSupported() ? backend : Backend.INTERPRETER,
+            Compiler.compile("[y > oaAvg + k * oaSd]", options).getBackend());
+    }
+
+    /**
+     * Asserts that all expressions in {@link Expressions} produce the same results with the specified options as when interpreted.
+     */
+    private static void assertSameResults(CompileOptions options) throws IllegalAccessException {
+        for (Field field : Expressions.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                assertSameResult((String) field.get(null), options);
+            }
+        }
+    }
+
+    private static void assertSameOperationResults(CompileOptions options) {
+        assertSameResult("[y > oaAvg + k * oaSd || y < oaAvg - k * oaSd]", options);
+        assertSameResult("[p.x * p.y - x / 2 ; -value ^ 2]", options);
+        assertSameResult("Point [p.x], [p.y] at [value / 3 @ \"#.00\" : \"bg_BG\"][value @ !] of [null]", options);
+        assertSameResult("[iif(value > 3, \"yes\", \"no\") + str(1.5) + len(\"test\")]", options);
+        assertSameResult("[!(value == 4) ^ true | false & true]", options);
+        assertSameResult("[undefined + 1]", options);
+        assertSameResult("[undefined + pow(1)]", options);
+        assertSameResult("[1 / 0]", options);
+        assertSameResult("[2147483647 + value * 2 - 7 % 3 + (5 & 3 | 8 ^ 2)]", options);
+        assertSameResult("[big * k - value / 3 + big % 7 + (big & 255)]", options);
+        assertSameResult("[big > value]", options);
+        assertSameResult("[big / 0]", options);
+        assertSameResult("[value ^ 3 + big ^ 2 + -value + -big + -y + value / 2.0 + 7 % 2.5]", options);
+        assertSameResult("[nan == nan]", options);
+        assertSameResult("[nan > 1]", options);
+        assertSameResult("[-0.0 < 0.0]", options);
+        assertSameResult("[1.0 / 0]", options);
+        assertSameResult("[single * 2 + value]", options);
+        assertSameResult("[-single]", options);
+        assertSameResult("[(value > 3) + 1]", options);
+        assertSameResult("[\"a\" + value + y]", options);
+        assertSameResult("[value == 4.0]", options);
+        assertSameResult("[value != 4]", options);
+        assertSameResult("[y <= 12.5]", options);
+        assertSameResult("[value & 2.0]", options);
+        assertSameResult("[value > 3 && p.x == 3 || undefined()]", options);
+        assertSameResult("Text [value < 3 && p.x] and [y > 1 || q] [value && true]", options);
+        assertSameResult("[iif(value < 3 && undefined() || y > 1, p.x, 0)]", options);
+        assertSameResult("[iif(value > 3, p.x, undefined) + iif(value, 1, 2) + iif(null, 1, 2.5)]", options);
+        assertSameResult("[iif(value < 3, 1, iif(y > 1, p, 0)).x]", options);
+        assertSameResult("Text [iif(value > 3, value, y) * 2] and [iif(value > 3, 1, 0) @ \"#.0\"]", options);
+        assertSameResult("[(1 + 10) / 3 + pi() * 2 + len(\"abc\") + sqrt(4) - -2 ^ 3 + (7 & 3) + 2147483647 + 1]", options);
+        assertSameResult("[\"prefix\" + \"suffix\" + 1.5 + (1 < 2) + null + str(1.5) + left(\"abc\", 2) + isNull(null)]", options);
+        assertSameResult("[sqrt(value) * 1 / 1 - 0 + len(\"a\") * 1.0 + (0 + len(\"ab\")) + round(y) + 0 + -0.0 + 0]", options);
+        assertSameResult("[iif(1 > 2, undefined(), 2.5) + iif(0, 1, p.x) + iif(1, 3, 4)]", options);
+        assertSameResult("[false && undefined() || 1 < 2 && !(2 > 3) || undefined()]", options);
+        assertSameResult("[null && 1 < 2]", options);
+        assertSameResult("[1 / 0 + value]", options);
+        assertSameResult("[min(3, 2, 1) + pow(2) + mid(\"abcdef\", 1, 2) + abs(\"2\")]", options);
+        assertSameResult("[pow(1, 2, 3)]", options);
+        assertSameResult("[-(1 + 1) * value + -0.0 * 1 + e()]", options);
+        assertSameResult("Order volume [y] is outside limits ([oaAvg - k * oaSd], [oaAvg + k * oaSd])", options);
+        assertSameResult("[p.x * p.x + p.y / p.x ; p.x @ \"#.0\"] [p.x + p.y]", options);
+        assertSameResult("[undefined + undefined * p.x]", options);
+        assertSameResult("[p.z + undefined * p.z]", options);
+        assertSameResult("[iif(value > 3, p.x, 0) + p.x + iif(p.x > 1, p.x, p.y) * p.y]", options);
+        assertSameResult("[value > 3 && y > 1 || value > 3 && undefined]", options);
+        assertSameResult("[sqrt(value) + sqrt(value) * len(\"a\" + value) - len(\"a\" + value)]", options);
+        assertSameResult("[iif(value > 3, p, null).x + iif(value > 3, p, null).y]", options);
+        assertSameResult("[-value + -value + !(value > 3) + !(value > 3) + 2 px * value + 2 px * value]", options);
+    }
+
+    /**
+     * Asserts that the specified expression produces the same result, or throws the same exception,
+     * when compiled with the specified options as when it is interpreted.
+     */
+    private static void assertSameResult(String source, CompileOptions options) {
+        Object expected = evaluate(source, interpreterOptions);
+        Object actual = evaluate(source, options);
+
+        if (source.contains("now(") || source.contains("today(") || source.contains("rnd(")) {
+            // These functions produce different results in each evaluation
+            Assert.assertEquals(source, expected.getClass(), actual.getClass());
+        } else if (expected instanceof Double && Double.isNaN((Double) expected)) {
+            Assert.assertTrue(source, actual instanceof Double && Double.isNaN((Double) actual));
+        } else {
+            Assert.assertEquals(source, expected, actual);
+        }
+    }
+
+    private static Object evaluate(String source, CompileOptions options) {
+        try {
+            return Compiler.compile(source, options).evaluate(evaluationContext);
+        } catch (Exception ex) {
+            // Compare exceptions by their type
+            return ex.getClass();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+public final class CalcUnitTest {
+    @Test
+    public void testPromotion() {
+        Assert.assertEquals(5.5, ByteCode.Calc.apply(3, 2.5, ByteCode.Op.ADD));
+        Assert.assertEquals(0.5, ByteCode.Calc.apply(3.0, 2.5, ByteCode.Op.SUB));
+        Assert.assertEquals(true, ByteCode.Calc.apply(2.5, 3, ByteCode.Op.LESS));
+        Assert.assertEquals(5, ByteCode.Calc.apply((byte) 3, (short) 2, ByteCode.Op.ADD));
+        Assert.assertEquals(4, ByteCode.Calc.apply(true, 3, ByteCode.Op.ADD));
+        Assert.assertEquals(3L, ByteCode.Calc.apply(false, 3L, ByteCode.Op.OR));
+        Assert.assertEquals(4.5f, ByteCode.Calc.apply(2L, 2.5f, ByteCode.Op.ADD));
+        Assert.assertEquals(8.0, ByteCode.Calc.apply(2, 3, ByteCode.Op.POWER));
+        Assert.assertEquals(new Date(1500), ByteCode.Calc.apply(new Date(1000), 500, ByteCode.Op.ADD));
+        Assert.assertEquals("1.5ab", ByteCode.Calc.apply(1.5, "ab", ByteCode.Op.ADD));
+        Assert.assertEquals(true, ByteCode.Calc.apply(true, false, ByteCode.Op.CONDITIONAL_OR));
+
+        // The operands are compared the same way as by their compareTo methods
+        Assert.assertEquals(true, ByteCode.Calc.apply(-0.0, 0, ByteCode.Op.LESS));
+        Assert.assertEquals(true, ByteCode.Calc.apply(Double.NaN, Double.NaN, ByteCode.Op.EQUAL));
+        Assert.assertEquals(true, ByteCode.Calc.apply(-0.0f, 0.0f, ByteCode.Op.NOT_EQUAL));
+    }
+
+    @Test
+    public void testInvalidOperations() {
+        assertEvaluationException("The operator MUL cannot be applied to operands of type 'java.lang.String' and 'java.lang.String'.", 2, "a", ByteCode.Op.MUL);
+        assertEvaluationException("The operator AND cannot be applied to operands of type 'java.lang.Double' and 'java.lang.Double'.", 2, 1.5, ByteCode.Op.AND);
+        assertEvaluationException("The operator ADD cannot be applied to operands of type 'java.lang.Integer' and 'java.lang.Character'.", 2, 'c', ByteCode.Op.ADD);
+        assertEvaluationException("Cannot convert boolean value true to type Date.", new Date(), true, ByteCode.Op.LESS);
+
+        try {
+            ByteCode.Calc.apply(1, 0, ByteCode.Op.DIV);
+            Assert.fail();
+        } catch (ArithmeticException ex) {
+            // Integer division by zero
+        }
+    }
+
+    private static void assertEvaluationException(String message, Object a, Object b, ByteCode.Op op) {
+        try {
+            ByteCode.Calc.apply(a, b, op);
+            Assert.fail();
+        } catch (EvaluationException ex) {
+            Assert.assertEquals(message, ex.getMessage());
+        }
+    }
+}
\ No newline at end of file
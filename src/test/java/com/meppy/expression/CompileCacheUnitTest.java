@@ -0,0 +1,186 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public final class CompileCacheUnitTest {
+    @Test
+    public void testHits() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        CompileCache cache = new CompileCache(10);
+        ByteCode code = cache.compile("[1 + x]");
+        Assert.assertSame(code, cache.compile("[1 + x]"));
+        Assert.assertSame(code, cache.compile("[1 + x]", new CompileOptions()));
+        Assert.assertEquals(2L, cache.getHitCount());
+        Assert.assertEquals(1L, cache.getMissCount());
+        Assert.assertEquals(1L, cache.getCompileCount());
+        Assert.assertEquals(1, cache.size());
+
+        EvaluationContext context = new EvaluationContext(null);
+        context.getLocalVars().put("x", 2);
+        Assert.assertEquals(3, code.evaluate(context));
+    }
+
+    @Test
+    public void testOptions() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        // Expressions compiled with different options are kept separately
+        CompileCache cache = new CompileCache(10);
+        CompileOptions options = new CompileOptions(true);
+        ByteCode power = cache.compile("[2 ^ 3]", options);
+        ByteCode xor = cache.compile("[2 ^ 3]");
+        Assert.assertNotSame(power, xor);
+        Assert.assertEquals(8.0, power.evaluate(new EvaluationContext(null)));
+        Assert.assertEquals(1, xor.evaluate(new EvaluationContext(null)));
+
+        // Changing the options after compiling does not affect the cached expression
+        options.setBackend(Backend.CLOSURE_TREE);
+        Assert.assertNotSame(power, cache.compile("[2 ^ 3]", options));
+        Assert.assertSame(power, cache.compile("[2 ^ 3]", new CompileOptions(true)));
+        Assert.assertEquals(3L, cache.getCompileCount());
+
+        // The expressions compiled with options of other classes are not kept
+        CompileOptions custom = new CompileOptions() {
+        };
+        Assert.assertNotSame(cache.compile("[2 ^ 3]", custom), cache.compile("[2 ^ 3]", custom));
+        Assert.assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testErrors() {
+        // Expressions, which fail to compile, are compiled again on each call
+        CompileCache cache = new CompileCache(10);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.compile("[$]");
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        Assert.assertEquals(2L, cache.getCompileCount());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() {
+        // Expressions compiled once do not evict the expressions compiled repeatedly
+        CompileCache cache = new CompileCache(100);
+        List<ByteCode> frequent = new ArrayList<>();
+        for (int c = 0; c < 16; c++) {
+            for (int i = 0; i < 50; i++) {
+                ByteCode code = cache.compile("[x + " + i + "]");
+                if (c == 0) {
+                    frequent.add(code);
+                }
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.compile("[y + " + i + "]");
+            Assert.assertTrue(cache.size() <= cache.getCapacity());
+        }
+
+        Assert.assertEquals(100, cache.size());
+        Assert.assertEquals(950L, cache.getEvictionCount());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertSame(frequent.get(i), cache.compile("[x + " + i + "]"));
+        }
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+
+        // A cache with a single entry keeps the last expression
+        cache = new CompileCache(1);
+        cache.compile("[1]");
+        ByteCode code = cache.compile("[2]");
+        Assert.assertSame(code, cache.compile("[2]"));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testConcurrentCompilation() throws Exception {
+        // Threads compiling the same expression at the same time wait for a single compilation
+        int threads = 8;
+        StringBuilder source = new StringBuilder("[0");
+        for (int i = 1; i < 500; i++) {
+            source.append(" + x * ").append(i);
+        }
+        source.append("]");
+
+        CompileCache cache = new CompileCache(10);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ByteCode>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    barrier.await();
+                    return cache.compile(source.toString());
+                }));
+            }
+
+            ByteCode code = results.get(0).get(60, TimeUnit.SECONDS);
+            for (Future<ByteCode> result : results) {
+                Assert.assertSame(code, result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1L, cache.getCompileCount());
+        Assert.assertEquals(threads, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void testConcurrentHits() throws Exception {
+        // Cached expressions are looked up by many threads at once, while their uses are applied to the cache in batches
+        int threads = 8;
+        CompileCache cache = new CompileCache(100);
+        List<ByteCode> codes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            codes.add(cache.compile("[x + " + i + "]"));
+        }
+
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    barrier.await();
+                    boolean same = true;
+                    for (int i = 0; i < 10000; i++) {
+                        same &= codes.get(i % 50) == cache.compile("[x + " + (i % 50) + "]");
+                    }
+                    return same;
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(threads * 10000L, cache.getHitCount());
+        Assert.assertEquals(50L, cache.getCompileCount());
+        Assert.assertEquals(50, cache.size());
+
+        // The expressions used often are still kept in favor of the expressions compiled once
+        for (int i = 0; i < 100; i++) {
+            cache.compile("[y + " + i + "]");
+        }
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertSame(codes.get(i), cache.compile("[x + " + i + "]"));
+        }
+    }
+}
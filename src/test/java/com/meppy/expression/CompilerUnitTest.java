@@ -1,20 +1,34 @@
 package com.meppy.expression;
 
 import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
 
 public final class CompilerUnitTest {
+    private static CompileOptions unoptimizedOptions;
+    private static CompileOptions foldingOptions;
+
+    @BeforeClass
+    public static void setUp() {
+        unoptimizedOptions = new CompileOptions();
+        unoptimizedOptions.setOptimize(false);
+        unoptimizedOptions.setEliminateSubexpressions(false);
+        foldingOptions = new CompileOptions();
+        foldingOptions.setFoldFunctions(true);
+    }
+
     @Test
     public void testNormalizedExpression() {
-        ByteCode code = Compiler.compile(Expressions.NORMALIZED);
+        ByteCode code = Compiler.compile(Expressions.NORMALIZED, unoptimizedOptions);
         Assert.assertEquals(5, code.getLength());
     }
 
     @Test
     public void testNotNormalizedExpression() {
-        ByteCode code = Compiler.compile(Expressions.NOT_NORMALIZED);
+        ByteCode code = Compiler.compile(Expressions.NOT_NORMALIZED, unoptimizedOptions);
         Assert.assertEquals(5, code.getLength());
     }
 
@@ -32,7 +46,7 @@ public final class CompilerUnitTest {
 
     @Test
     public void testByteCode() {
-        ByteCode code = Compiler.compile(Expressions.NORMALIZED);
+        ByteCode code = Compiler.compile(Expressions.NORMALIZED, unoptimizedOptions);
         Assert.assertEquals(5, code.getLength());
         Assert.assertEquals(1, code.get(1));
         Assert.assertEquals(2, code.get(3));
@@ -50,4 +64,308 @@ public final class CompilerUnitTest {
         Assert.assertEquals(1, code.getIdentifiers().size());
         Assert.assertTrue(code.getIdentifiers().contains("simple"));
     }
+
+    @Test
+    public void testSpecializedOperations() {
+        CompileOptions options = new CompileOptions();
+        options.setOptimize(false);
+        options.setVariableType("x", double.class);
+        ByteCode code = Compiler.compile("[1 + 2.5 < x]", options);
+        Assert.assertEquals(ByteCode.Op.ADD_DD, code.get(4));
+        Assert.assertEquals(ByteCode.Op.LESS_DD, code.get(7));
+
+        code = Compiler.compile("[1 + 2 * y]", options);
+        Assert.assertEquals(ByteCode.Op.MUL, code.get(6));
+        Assert.assertEquals(ByteCode.Op.ADD, code.get(7));
+    }
+
+    @Test
+    public void testIifBranches() {
+        ByteCode code = Compiler.compile("[iif(x, 1, 2)]");
+        Assert.assertEquals(ByteCode.Op.JUMP_UNLESS, code.get(2));
+        Assert.assertEquals(ByteCode.Op.JUMP, code.get(6));
+        Assert.assertEquals(10, code.get(7));
+        Assert.assertEquals(ByteCode.Op.INT, code.get(8));
+        Assert.assertEquals(10, code.getLength());
+    }
+
+    @Test
+    public void testConstantFolding() {
+        ByteCode code = Compiler.compile(Expressions.NORMALIZED);
+        Assert.assertEquals(2, code.getLength());
+        Assert.assertEquals(3, code.get(1));
+
+        code = Compiler.compile("[(1 + 10) / 3 + len(\"abc\")]", foldingOptions);
+        Assert.assertEquals(ByteCode.Op.INT, code.get(0));
+        Assert.assertEquals(6, code.get(1));
+        Assert.assertEquals(2, code.getLength());
+
+        code = Compiler.compile("[\"prefix\" + \"suffix\" + (1 < 2)]");
+        Assert.assertEquals(ByteCode.Op.STRING, code.get(0));
+        Assert.assertEquals("prefixsuffixtrue", code.get(1));
+
+        code = Compiler.compile("[pi() * 2 > 6 && 2 > 1]", foldingOptions);
+        Assert.assertEquals(ByteCode.Op.VALUE, code.get(0));
+        Assert.assertEquals(true, code.get(1));
+
+        code = Compiler.compile("[iif(1 > 2, x, 2.5)]");
+        Assert.assertEquals(ByteCode.Op.FLOAT, code.get(0));
+        Assert.assertEquals(2.5, code.get(1));
+    }
+
+    @Test
+    public void testConstantFoldingExclusions() {
+        // Non-deterministic and locale-dependent functions, operations, which fail, and identifiers, including true and false, are not folded
+        Assert.assertEquals(ByteCode.Op.FUNCTION_CALL, Compiler.compile("[now()]", foldingOptions).get(0));
+        Assert.assertEquals(ByteCode.Op.FUNCTION_CALL, Compiler.compile("[rnd(1)]", foldingOptions).get(2));
+        Assert.assertEquals(ByteCode.Op.FUNCTION_CALL, Compiler.compile("[str(1.5)]", foldingOptions).get(2));
+        Assert.assertEquals(ByteCode.Op.FUNCTION_CALL, Compiler.compile("[sqrt(\"4\")]", foldingOptions).get(2));
+        Assert.assertEquals(5, Compiler.compile("[1 / 0]").getLength());
+        Assert.assertEquals(5, Compiler.compile("[x * 1]").getLength());
+        Assert.assertEquals(7, Compiler.compile("[true && false]").getLength());
+    }
+
+    @Test
+    public void testOverriddenFunctions() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        // Built-in functions are folded only on request and declared functions are never folded, since the context might override them
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            public Object invokeFunction(String name, Object... p) {
+                return name.equals("len") ? 42 : super.invokeFunction(name, p);
+            }
+        };
+        Assert.assertEquals(42, Compiler.compile("[len(\"abc\")]").evaluate(context));
+        Assert.assertEquals(ByteCode.Op.FUNCTION_CALL, Compiler.compile("[len(\"abc\") * 1]").get(2));
+
+        CompileOptions options = new CompileOptions();
+        options.setFoldFunctions(true);
+        options.addFunction("len");
+        Assert.assertEquals(42, Compiler.compile("[len(\"abc\")]", options).evaluate(context));
+        Assert.assertEquals(3, Compiler.compile("[len(\"abc\")]", foldingOptions).evaluate(context));
+
+        // Repeated calls to built-in functions are not reused either, unless they are folded
+        int[] calls = new int[1];
+        EvaluationContext counter = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            public Object invokeFunction(String name, Object... p) {
+                return name.equals("len") ? ++calls[0] : super.invokeFunction(name, p);
+            }
+        };
+        for (Backend backend : Backend.values()) {
+            CompileOptions backendOptions = new CompileOptions();
+            backendOptions.setBackend(backend);
+            calls[0] = 0;
+            Assert.assertEquals(backend.toString(), "1 2", Compiler.compile("[len(\"a\")] [len(\"a\")]", backendOptions).evaluate(counter));
+            Assert.assertEquals(backend.toString(), 2, count(Compiler.compile("[len(x) + len(x)]", backendOptions), ByteCode.Op.FUNCTION_CALL));
+        }
+        Assert.assertEquals(1, count(Compiler.compile("[len(x) + len(x)]", foldingOptions), ByteCode.Op.FUNCTION_CALL));
+    }
+
+    @Test
+    public void testAlgebraicIdentities() {
+        // Only numbers of known types are simplified
+        ByteCode code = Compiler.compile("[sqrt(x) * 1 / 1.0 - 0]", foldingOptions);
+        Assert.assertEquals(ByteCode.Op.FUNCTION_CALL, code.get(2));
+        Assert.assertEquals(5, code.getLength());
+
+        code = Compiler.compile("[0 + len(x) * 1]", foldingOptions);
+        Assert.assertEquals(ByteCode.Op.FUNCTION_CALL, code.get(2));
+        Assert.assertEquals(5, code.getLength());
+
+        // Adding zero to a double or multiplying an int by a double changes the value or its type
+        Assert.assertEquals(8, Compiler.compile("[sqrt(x) + 0]", foldingOptions).getLength());
+        Assert.assertEquals(8, Compiler.compile("[len(x) * 1.0]", foldingOptions).getLength());
+    }
+
+    @Test
+    public void testCommonSubexpressions() {
+        // Repeated sub-expressions are evaluated once, also across the expressions of a template
+        ByteCode code = Compiler.compile("Limits ([oaAvg - k * oaSd], [oaAvg + k * oaSd])");
+        Assert.assertEquals(2, count(code, ByteCode.Op.STORE));
+        Assert.assertEquals(2, count(code, ByteCode.Op.LOAD));
+        Assert.assertEquals(3, count(code, ByteCode.Op.IDENTIFIER));
+
+        code = Compiler.compile("[p.x * p.x + p.y]");
+        Assert.assertEquals(1, count(code, ByteCode.Op.STORE));
+        Assert.assertEquals(2, count(code, ByteCode.Op.DOT));
+
+        // Occurrences evaluated after an unconditional one reuse its value
+        code = Compiler.compile("[p.x + iif(value > 3, p.x, 0) + (value > 3 || p.x)]");
+        Assert.assertEquals(2, count(code, ByteCode.Op.STORE));
+        Assert.assertEquals(3, count(code, ByteCode.Op.LOAD));
+
+        Assert.assertEquals(0, count(Compiler.compile("[p.x * p.x]", unoptimizedOptions), ByteCode.Op.STORE));
+    }
+
+    @Test
+    public void testCommonSubexpressionExclusions() {
+        // Non-deterministic and custom functions, conditionally evaluated occurrences and lazy arguments are not reused
+        Assert.assertEquals(0, count(Compiler.compile("[rnd(1) + rnd(1) + now() + now()]"), ByteCode.Op.STORE));
+        Assert.assertEquals(2, count(Compiler.compile("[f(x) + f(x)]"), ByteCode.Op.FUNCTION_CALL));
+        Assert.assertEquals(0, count(Compiler.compile("[iif(value > 3, p.x, 0) + p.x]"), ByteCode.Op.STORE));
+        Assert.assertEquals(0, count(Compiler.compile("[value > 3 && p.x || p.x > 1 && p.x]"), ByteCode.Op.STORE));
+
+        CompileOptions options = new CompileOptions();
+        options.addLazyFunction("coalesce");
+        Assert.assertEquals(0, count(Compiler.compile("[coalesce(p.x, 1) + p.x + coalesce(p.x, 2)]", options), ByteCode.Op.STORE));
+
+        options.addPureFunction("f");
+        Assert.assertEquals(1, count(Compiler.compile("[f(x) + f(x)]", options), ByteCode.Op.FUNCTION_CALL));
+    }
+
+    @Test
+    public void testFunctionChecks() {
+        assertParsingException("[1 + abs()]", unoptimizedOptions);
+        assertParsingException("[iif(true, 1)]", unoptimizedOptions);
+        Compiler.compile("[undefined(1)]", unoptimizedOptions);
+
+        // Undeclared functions are reported only when requested
+        CompileOptions options = new CompileOptions();
+        options.setAllowUndeclaredFunctions(false);
+        assertParsingException("[undefined(1)]", options);
+        options.addFunction("undefined");
+        options.addLazyFunction("coalesce");
+        options.addPureFunction("f");
+        Compiler.compile("[undefined(1) + coalesce(f(), 1) + pow(2)]", options);
+
+        // Declared functions might override the built-in ones with different parameters
+        options.addFunction("abs");
+        Compiler.compile("[abs()]", options);
+    }
+
+    @Test
+    public void testStreamingCompilation() {
+        // The expressions compiled in a single pass have the same code as the expressions compiled through the parse tree
+        String[] sources = {
+            Expressions.FORMATTING_CULTURE, Expressions.SEPARATOR, Expressions.DOT, Expressions.STRING_E,
+            "Total: [amount > 1000 && country == \"DE\" || iif(score > 3, len(name), 0) + 2.5 * rate] units",
+            "[-5 + len(\"ab\") * x - 2kg @ !]", "[false && x || iif(1 > 2, y, 3) + abs(-2)]", "[f(x).y.z; x * 1; 1 * len(x)]",
+        };
+        for (String source : sources) {
+            for (CompileOptions options : new CompileOptions[] { new CompileOptions(), foldingOptions, unoptimizedOptions }) {
+                ByteCode code = Compiler.compile(source, options);
+                ByteCode expected = Compiler.compileTree(Compiler.normalize(source), options);
+                Assert.assertEquals(source, expected.getLength(), code.getLength());
+                for (int i = 0; i < code.getLength(); i++) {
+                    Assert.assertEquals(source, expected.get(i), code.get(i));
+                }
+            }
+        }
+
+        CompileOptions options = new CompileOptions();
+        Assert.assertNotNull(StreamingCompiler.compile(Compiler.normalize(sources[4]), options));
+        Assert.assertNotNull(StreamingCompiler.compile(Compiler.normalize(sources[6]), options));
+
+        // Repeated sub-expressions, operations simplified to their right operand and errors need the parse tree
+        Assert.assertNull(StreamingCompiler.compile("[p.x * p.x]", options));
+        Assert.assertNotNull(StreamingCompiler.compile("[p.x * p.x]", unoptimizedOptions));
+        Assert.assertNull(StreamingCompiler.compile("[1 * len(x)]", foldingOptions));
+        Assert.assertNull(StreamingCompiler.compile("[1 + abs()]", options));
+        Assert.assertNull(StreamingCompiler.compile("[1 + ", options));
+    }
+
+    @Test
+    public void testLongExpressions() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        // Long sequences of operations compile without recursion, both in a single pass and through the parse tree
+        int n = 5000;
+        String[] sources = longExpressions(n);
+        EvaluationContext context = new EvaluationContext(null);
+        context.getLocalVars().put("x", 1);
+        for (int i = 0; i < n; i++) {
+            context.getLocalVars().put("x" + i, 1);
+        }
+
+        ByteCode code = Compiler.compile(sources[0]);
+        Assert.assertNotNull(StreamingCompiler.compile(sources[0], new CompileOptions()));
+        Assert.assertEquals(n, code.evaluate(context));
+
+        code = Compiler.compile(sources[1]);
+        Assert.assertNull(StreamingCompiler.compile(sources[1], new CompileOptions()));
+        Assert.assertEquals(n, code.evaluate(context));
+
+        Assert.assertEquals(n - 1, Compiler.compile(sources[2]).evaluate(context));
+    }
+
+    @Test
+    public void testDeepExpressions() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        // Deeply nested expressions are compiled through the parse tree, which does not use the thread stack
+        int n = 100000;
+        String[] sources = {
+            nest(n, "(", ")", "x"), nest(n, "-", "", "x"), nest(n, "iif(x > 1, 0, ", ")", "x"), nest(n, "1 + (", ")", "x"),
+        };
+        Object[] values = { 1, 1, 1, n + 1 };
+
+        CompileOptions closureTreeOptions = new CompileOptions();
+        closureTreeOptions.setBackend(Backend.CLOSURE_TREE);
+        EvaluationContext context = new EvaluationContext(null);
+        context.getLocalVars().put("x", 1);
+        for (int j = 0; j < sources.length; j++) {
+            Assert.assertNull(StreamingCompiler.compile(sources[j], new CompileOptions()));
+            Assert.assertEquals(values[j], Compiler.compile(sources[j]).evaluate(context));
+
+            // The closure tree evaluates its nodes recursively, so the interpreter evaluates deep trees instead
+            ByteCode code = Compiler.compile(sources[j], closureTreeOptions);
+            Assert.assertEquals(j == 0 ? Backend.CLOSURE_TREE : Backend.INTERPRETER, code.getBackend());
+            Assert.assertEquals(values[j], code.evaluate(context));
+        }
+    }
+
+    /**
+     * Creates a sum of the specified number of distinct identifiers, a sum of as many repetitions of an identifier
+     * and a sequence of as many statements.
+     */
+    private static String[] longExpressions(int n) {
+        StringBuilder distinct = new StringBuilder("[x0");
+        StringBuilder repeated = new StringBuilder("[x");
+        StringBuilder statements = new StringBuilder("[0");
+        for (int i = 1; i < n; i++) {
+            distinct.append(" + x").append(i);
+            repeated.append(" + x");
+            statements.append("; ").append(i);
+        }
+
+        return new String[] { distinct.append("]").toString(), repeated.append("]").toString(), statements.append("]").toString() };
+    }
+
+    /**
+     * Gets an expression, which consists of the specified number of nested constructs around the specified operand.
+     */
+    private static String nest(int count, String open, String close, String operand) {
+        StringBuilder source = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            source.append(open);
+        }
+        source.append(operand);
+        for (int i = 0; i < count; i++) {
+            source.append(close);
+        }
+
+        return source.append("]").toString();
+    }
+
+    private static void assertParsingException(String source, CompileOptions options) {
+        try {
+            Compiler.compile(source, options);
+            Assert.fail(source);
+        } catch (ParsingException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Counts the operations of the specified kind in the specified code.
+     */
+    private static int count(ByteCode code, ByteCode.Op op) {
+        int count = 0;
+        int i = 0;
+        while (i < code.getLength()) {
+            ByteCode.Op current = (ByteCode.Op) code.get(i);
+            if (current == op) {
+                count++;
+            }
+            i += current.getSize();
+        }
+
+        return count;
+    }
 }
\ No newline at end of file
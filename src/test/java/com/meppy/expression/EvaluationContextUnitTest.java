@@ -4,7 +4,12 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public final class EvaluationContextUnitTest {
     private static final class CustomEvaluationContext extends EvaluationContext {
@@ -37,4 +42,40 @@ public final class EvaluationContextUnitTest {
         CustomEvaluationContext context = new CustomEvaluationContext();
         context.evaluateNullIdentifier();
     }
+
+    @Test
+    public void testSharedFormats() throws Exception {
+        // The formatters of a locale are shared by the contexts of all threads
+        Assert.assertSame(Formats.get(Locale.GERMANY), Formats.get(Locale.GERMANY));
+        ByteCode code = Compiler.compile("[str(x * 1000.5)] [cdbl(\"2,5\") * x]");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int x = i;
+                results.add(executor.submit(() -> {
+                    EvaluationContext context = new EvaluationContext(null, Locale.GERMANY);
+                    context.getLocalVars().put("x", x);
+                    return code.evaluate(context);
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                EvaluationContext context = new EvaluationContext(null, Locale.GERMANY);
+                context.getLocalVars().put("x", i);
+                Assert.assertEquals(code.evaluate(context), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRandomNumbers() {
+        // The last random number is available before any other is generated
+        EvaluationContext context = new EvaluationContext();
+        double last = (Double) context.invokeFunction("rnd", 0);
+        Assert.assertTrue(last >= 0 && last < 1);
+        Assert.assertEquals(last, context.invokeFunction("rnd", 0));
+        Assert.assertNotEquals(last, context.invokeFunction("rnd", 1));
+    }
 }
\ No newline at end of file
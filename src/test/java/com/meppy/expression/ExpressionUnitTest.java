@@ -20,6 +20,7 @@ public final class ExpressionUnitTest {
     private static EvaluationContext evaluationContextCustom;
     private static EvaluationContext evaluationContextCustomWithCallbacks;
     private static EvaluationContext evaluationContextCustomWithTarget;
+    private static EvaluationContext evaluationContextLazy;
     private static CompileOptions compileOptions;
     private static CompileOptions compileOptions1;
 
@@ -43,6 +44,15 @@ public final class ExpressionUnitTest {
                 return FunctionEvaluationResult.notEvaluated();
             });
         evaluationContextCustomWithTarget = new EvaluationContext(new CustomObject(new Point(5, 10)));
+        evaluationContextLazy = new EvaluationContext(null, Locale.ROOT,
+            (name, params) -> {
+                if (name.equals("coalesce")) {
+                    Object value = ((LazyArgument) params[0]).getValue();
+                    return new FunctionEvaluationResult(value != null ? value : ((LazyArgument) params[1]).getValue());
+                }
+
+                return FunctionEvaluationResult.notEvaluated();
+            });
         compileOptions = new CompileOptions();
         compileOptions1 = new CompileOptions(true);
     }
@@ -601,6 +611,29 @@ public final class ExpressionUnitTest {
         Assert.assertEquals("yes", result);
     }
 
+    @Test
+    public void testFunctionsIifSkippedBranch() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        ByteCode code = Compiler.compile(Expressions.FUNCTIONS_IIF_SKIPPED_BRANCH, compileOptions);
+        Object result = code.evaluate(evaluationContextDefault);
+        Assert.assertEquals("yesno", result);
+    }
+
+    @Test
+    public void testFunctionsIifNested() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        ByteCode code = Compiler.compile(Expressions.FUNCTIONS_IIF_NESTED, compileOptions);
+        Object result = code.evaluate(evaluationContextDefault);
+        Assert.assertEquals(3, result);
+    }
+
+    @Test
+    public void testFunctionsLazy() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        CompileOptions options = new CompileOptions();
+        options.addLazyFunction("coalesce");
+        ByteCode code = Compiler.compile(Expressions.FUNCTIONS_LAZY, options);
+        Object result = code.evaluate(evaluationContextLazy);
+        Assert.assertEquals(3, result);
+    }
+
     @Test
     public void testFunctionsMid1() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         ByteCode code = Compiler.compile(Expressions.FUNCTIONS_MID1, compileOptions);
@@ -629,10 +662,10 @@ public final class ExpressionUnitTest {
         Assert.assertEquals("", result);
     }
 
-    @Test(expected = EvaluationException.class)
-    public void testFunctionsInsufficientParams() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
-        ByteCode code = Compiler.compile(Expressions.FUNCTIONS_INSUFFICIENT_PARAMS, compileOptions);
-        code.evaluate(evaluationContextDefault);
+    @Test(expected = ParsingException.class)
+    public void testFunctionsInsufficientParams() {
+        // The number of the arguments of built-in functions is checked by the compiler
+        Compiler.compile(Expressions.FUNCTIONS_INSUFFICIENT_PARAMS, compileOptions);
     }
 
     @Test
@@ -858,6 +891,33 @@ public final class ExpressionUnitTest {
         code.evaluate(evaluationContextCustom);
     }
 
+    @Test
+    public void testOpBooleanShortCircuitAnd() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        ByteCode code = Compiler.compile(Expressions.OP_BOOLEAN_SHORT_CIRCUIT_AND, compileOptions);
+        Object result = code.evaluate(evaluationContextDefault);
+        Assert.assertEquals(false, result);
+    }
+
+    @Test
+    public void testOpBooleanShortCircuitOr() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        ByteCode code = Compiler.compile(Expressions.OP_BOOLEAN_SHORT_CIRCUIT_OR, compileOptions);
+        Object result = code.evaluate(evaluationContextDefault);
+        Assert.assertEquals(true, result);
+    }
+
+    @Test
+    public void testOpBooleanShortCircuitNested() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        ByteCode code = Compiler.compile(Expressions.OP_BOOLEAN_SHORT_CIRCUIT_NESTED, compileOptions);
+        Object result = code.evaluate(evaluationContextDefault);
+        Assert.assertEquals(true, result);
+    }
+
+    @Test(expected = EvaluationException.class)
+    public void testOpBooleanShortCircuitNull() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        ByteCode code = Compiler.compile(Expressions.OP_BOOLEAN_SHORT_CIRCUIT_NULL, compileOptions);
+        code.evaluate(evaluationContextDefault);
+    }
+
     @Test
     public void testOpDateBasic() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
         ByteCode code = Compiler.compile(Expressions.OP_DATE_BASIC, compileOptions);
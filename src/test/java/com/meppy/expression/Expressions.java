@@ -107,6 +107,9 @@ public final class Expressions {
     public static final String FUNCTIONS_MIN = "[min(-2, 1)]";
     public static final String FUNCTIONS_MAX = "[max(-2, 1)]";
     public static final String FUNCTIONS_IIF = "[iif(true, \"yes\", \"no\")]";
+    public static final String FUNCTIONS_IIF_SKIPPED_BRANCH = "[iif(1 < 2, \"yes\", undefined()) + iif(1 > 2, undefined(), \"no\")]";
+    public static final String FUNCTIONS_IIF_NESTED = "[iif(false, 1, iif(true, 2, 3)) + 1]";
+    public static final String FUNCTIONS_LAZY = "[coalesce(null, 2) + coalesce(1, undefined())]";
     public static final String FUNCTIONS_MID1 = "[mid(\"invisible\", 2, 4) + mid(\"invisible\", 6, 10)]";
     public static final String FUNCTIONS_MID2 = "[mid(\"small\", 10, 2)]";
     public static final String FUNCTIONS_REPLACE = "[replace(\"I was here\", \"was\", \"wasn't\")]";
@@ -150,6 +153,10 @@ public final class Expressions {
 
     public static final String OP_BOOLEAN_COMPARISON = "[true > false && false >= true || true < false || false <= false && true == true || false != true]";
     public static final String OP_BOOLEAN_INVALID = "[true + false]";
+    public static final String OP_BOOLEAN_SHORT_CIRCUIT_AND = "[1 > 2 && undefined()]";
+    public static final String OP_BOOLEAN_SHORT_CIRCUIT_OR = "[1 < 2 || undefined()]";
+    public static final String OP_BOOLEAN_SHORT_CIRCUIT_NESTED = "[(false || 1 < 2) && !(true && false) || undefined()]";
+    public static final String OP_BOOLEAN_SHORT_CIRCUIT_NULL = "[null && undefined()]";
 
     public static final String OP_DATE_BASIC = "[now() + 1 - now()]";
     public static final String OP_DATE_COMPARISON = "[now() < now() + 1 && now() <= now() - 1 || now() > now() - 1 || now() >= now() + 1 && now() == now() || now() != now()]";
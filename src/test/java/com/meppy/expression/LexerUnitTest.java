@@ -4,12 +4,20 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public final class LexerUnitTest {
     private static CompileOptions compileOptions;
     private static CompileOptions compileOptions1;
 
+    /**
+     * A part of the templates tokenized by {@link #testLargeTemplate}. Numbers and operators without letters used to be
+     * scanned to the end of the input by each failed match of an identifier.
+     */
+    private static final String TEMPLATE_PART = "Total [12 + 3.5 * (4 - 5) @ \"0.00\"]; ";
+
     @BeforeClass
     public static void setUp() {
         compileOptions = new CompileOptions();
@@ -125,4 +133,86 @@ public final class LexerUnitTest {
         List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.FORMATTING_CULTURE);
         Assert.assertNotNull(tokens.get(0).toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNumbers() {
+        // A dot is a part of a number only if it is followed by a digit, and so are the exponent and its sign
+        List<Token> tokens = new Lexer(compileOptions).tokenize("[1. + .5 + 1e + 1e+5 + 12 + null1]");
+        List<TokenType> types = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (Token token : tokens) {
+            types.add(token.getType());
+            texts.add(token.getText());
+        }
+        Assert.assertEquals(Arrays.asList(TokenType.OSB, TokenType.INT_NUMBER, TokenType.OP_DOT, TokenType.OP_ADD,
+            TokenType.FLOAT_NUMBER, TokenType.OP_ADD, TokenType.INT_NUMBER, TokenType.IDENTIFIER, TokenType.OP_ADD,
+            TokenType.FLOAT_NUMBER, TokenType.OP_ADD, TokenType.INT_NUMBER, TokenType.OP_ADD, TokenType.NULL,
+            TokenType.INT_NUMBER, TokenType.CSB), types);
+        Assert.assertEquals(Arrays.asList("[", "1", ".", "+", ".5", "+", "1", "e", "+", "1e+5", "+", "12", "+", "null", "1", "]"), texts);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNumberAfterIdentifier() {
+        new Lexer(compileOptions).tokenize("[x 1]");
+    }
+
+    @Test
+    public void testDiscard() {
+        List<Token> tokens = new Lexer(compileOptions).tokenize("[!x @ \"0\" ! : \"en\"]");
+        Assert.assertEquals(TokenType.OP_NOT, tokens.get(1).getType());
+        Assert.assertEquals(TokenType.DISCARD, tokens.get(5).getType());
+        Assert.assertEquals(TokenType.CULTURE, tokens.get(7).getType());
+    }
+
+    @Test
+    public void testTokenBuffer() {
+        // The buffer keeps the positions of the tokens, shares the tokens of operators and interns identifiers
+        String input = "Sum [total + \"a\" + total * f(total)]";
+        TokenBuffer tokens = new Lexer(compileOptions).scan(input);
+        Assert.assertEquals(13, tokens.size());
+        Assert.assertEquals(TokenType.STRING, tokens.getType(4));
+        Assert.assertEquals(14, tokens.getStart(4));
+        Assert.assertEquals(15, tokens.getEnd(4));
+        Assert.assertEquals("a", tokens.getText(4));
+        Assert.assertEquals("Sum ", tokens.getText(0));
+
+        Assert.assertSame(tokens.getToken(3), tokens.getToken(5));
+        Assert.assertEquals("+", tokens.getToken(3).getText());
+        Assert.assertEquals("total", tokens.getText(2));
+        Assert.assertSame(tokens.getText(2), tokens.getText(6));
+        Assert.assertSame(tokens.getText(2), tokens.getToken(10).getText());
+
+        Token call = tokens.getToken(8, TokenType.FUNCTION_CALL);
+        Assert.assertEquals(TokenType.FUNCTION_CALL, call.getType());
+        Assert.assertEquals("f", call.getText());
+        Assert.assertSame(Token.empty(), Token.empty());
+    }
+
+    @Test
+    public void testRepeatedIdentifiers() {
+        // Function names and members count as identifiers, while quantities of different units do not repeat any
+        Assert.assertTrue(new Lexer(compileOptions).scan("[p.x * q.x]").hasRepeatedIdentifiers());
+        Assert.assertTrue(new Lexer(compileOptions).scan("[abs(-2) + abs(-3)]").hasRepeatedIdentifiers());
+        Assert.assertFalse(new Lexer(compileOptions).scan("[2kg + 3mm + x @ \"0\" : \"en\"] text").hasRepeatedIdentifiers());
+        Assert.assertFalse(new Lexer(compileOptions).scan("text").hasRepeatedIdentifiers());
+    }
+
+    @Test
+    public void testLargeTemplate() {
+        // Each part of a template of 1 MB adds its expression and the text following it
+        int count = 1024 * 1024 / TEMPLATE_PART.length();
+        TokenBuffer tokens = new Lexer(compileOptions).scan(createTemplate(count));
+        Assert.assertEquals(14 * count + 1, tokens.size());
+        Assert.assertEquals(TokenType.TEXT, tokens.getType(tokens.size() - 1));
+        Assert.assertEquals("; Total ", tokens.getText(14));
+    }
+
+    private static String createTemplate(int count) {
+        StringBuilder template = new StringBuilder(count * TEMPLATE_PART.length());
+        for (int i = 0; i < count; i++) {
+            template.append(TEMPLATE_PART);
+        }
+
+        return template.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+public final class MemberSiteUnitTest {
+    public static final class Order {
+        private final Customer customer;
+
+        Order(Customer customer) {
+            this.customer = customer;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    public static final class Customer {
+        public String getTier() {
+            return "gold";
+        }
+    }
+
+    @Test
+    public void testInlineCache() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        MemberSite site = new MemberSite(new String[] {"customer", "tier"});
+        EvaluationContext context = new EvaluationContext();
+        Order order = new Order(new Customer());
+
+        Assert.assertFalse(site.isCached(0, Order.class));
+        Assert.assertEquals("gold", site.getValue(order, context));
+        Assert.assertTrue(site.isCached(0, Order.class));
+        Assert.assertTrue(site.isCached(1, Customer.class));
+        Assert.assertEquals("gold", site.getValue(order, context));
+
+        // The name of an object is resolved through the context
+        context.getLocalVars().put("order", order);
+        Assert.assertEquals("gold", site.getValue("order", context));
+    }
+
+    @Test
+    public void testMegamorphicSite() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // The site keeps reading the members of other classes, once its cache is full
+        MemberSite site = new MemberSite(new String[] {"class"});
+        EvaluationContext context = new EvaluationContext();
+        Object[] targets = {1, 2L, 3.0, new Point(), new ArrayList<>(), new StringBuilder(), 'c'};
+        Assert.assertTrue(targets.length > MemberSite.MAX_CLASSES);
+        for (int i = 0; i < 2; i++) {
+            for (Object target : targets) {
+                Assert.assertEquals(target.getClass(), site.getValue(target, context));
+            }
+        }
+        Assert.assertTrue(site.isCached(0, Integer.class));
+        Assert.assertFalse(site.isCached(0, Character.class));
+    }
+
+    @Test
+    public void testPolymorphicExpressions() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Each dot operation sees objects of several classes, some of which do not have the member
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT) {
+            @Override
+            protected Object evaluateMember(Object target, String name, boolean last) {
+                return name + (last ? "!" : "?");
+            }
+        };
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            ByteCode code = Compiler.compile("[value.x] [value.size.length]", options);
+            Object[] values = {new Point(3, 4), new Point.Double(1.5, 2), new ArrayList<>(), "text", new Point(5, 6)};
+            String[] expected = {"3.0 length!", "1.5 length!", "x! length!", "x! length!", "5.0 length!"};
+            for (int i = 0; i < values.length; i++) {
+                context.getLocalVars().put("value", values[i]);
+                Assert.assertEquals(backend.toString(), expected[i], code.evaluate(context));
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -4,8 +4,6 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
-import java.util.List;
-
 public final class ParserUnitTest {
     private static CompileOptions compileOptions;
     private static CompileOptions compileOptions1;
@@ -18,254 +16,302 @@ public final class ParserUnitTest {
 
     @Test
     public void testFormattingAndCulture() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.FORMATTING_CULTURE);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.FORMATTING_CULTURE);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidCulture1() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_CULTURE_1);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_CULTURE_1);
         new Parser(tokens).parse();
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidCulture2() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_CULTURE_2);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_CULTURE_2);
         new Parser(tokens).parse();
     }
 
     @Test
     public void testSeparator() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.SEPARATOR);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.SEPARATOR);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testPower() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.POWER);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.POWER);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testDot() {
-        List<Token> tokens = new Lexer(compileOptions1).tokenize(Expressions.DOT);
+        TokenBuffer tokens = new Lexer(compileOptions1).scan(Expressions.DOT);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testStringAndE() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.STRING_E);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.STRING_E);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testNull() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.NULL);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.NULL);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testColor() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.COLOR);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.COLOR);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testInvalid1() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_1);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_1);
         new Parser(tokens).parse();
     }
 
     @Test
     public void testInvalid2() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_2);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_2);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test(expected = ParsingException.class)
     public void testInvalid3() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_3);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_3);
         new Parser(tokens).parse();
     }
 
     @Test(expected = ParsingException.class)
     public void testInvalid4() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_4);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_4);
         new Parser(tokens).parse();
     }
 
     @Test(expected = ParsingException.class)
     public void testInvalid5() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_5);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_5);
         new Parser(tokens).parse();
     }
 
     @Test
     public void testInvalid6() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_6);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_6);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid7() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_7);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_7);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid8() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_8);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_8);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid9() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_9);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_9);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid10() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_10);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_10);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid11() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_11);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_11);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid12() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_12);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_12);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid13() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_13);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_13);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid14() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_14);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_14);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid15() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_15);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_15);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid16() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_16);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_16);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid17() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_17);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_17);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid18() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_18);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_18);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid19() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_19);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_19);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid20() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_20);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_20);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid21() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_21);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_21);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid22() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_22);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_22);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid23() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_23);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_23);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testInvalid24() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.INVALID_24);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.INVALID_24);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
 
     @Test
     public void testEmbedded() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.EMBEDDED);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.EMBEDDED);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testComparison() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.COMPARISON);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.COMPARISON);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testIdentifiersAndNot() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.IDENTIFIERS_NOT);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.IDENTIFIERS_NOT);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNotNull(node);
     }
 
     @Test
     public void testFunctionsInvalidArguments() {
-        List<Token> tokens = new Lexer(compileOptions).tokenize(Expressions.FUNCTIONS_INVALID_ARGUMENTS);
+        TokenBuffer tokens = new Lexer(compileOptions).scan(Expressions.FUNCTIONS_INVALID_ARGUMENTS);
         ParseTreeNode node = new Parser(tokens).parse();
         Assert.assertNull(node);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPrecedence() {
+        // Operators with the same precedence are grouped from left to right
+        Assert.assertEquals("||(a, &&(b, |(c, ^(d, &(e, ==(f, <(g, +(h, *(i, j)))))))))",
+            print("[a || b && c | d ^ e & f == g < h + i * j]", compileOptions));
+        Assert.assertEquals("+(-(+(a, b), c), %(/(*(d, e), f), g))", print("[a + b - c + d * e / f % g]", compileOptions));
+        Assert.assertEquals("||(&&(a, b), &&(c, d))", print("[a && b || c && d]", compileOptions));
+
+        // Raising to power has the precedence of multiplication, while xor has a lower precedence than '&'
+        Assert.assertEquals("+(a, ^(*(b, c), d))", print("[a + b * c ^ d]", compileOptions1));
+        Assert.assertEquals("^(+(a, *(b, c)), d)", print("[a + b * c ^ d]", compileOptions));
+        Assert.assertEquals("^(&(a, b), &(c, d))", print("[a & b ^ c & d]", compileOptions));
+    }
+
+    @Test
+    public void testUnaryAndPrimary() {
+        Assert.assertEquals("*(-(a), !(-(b)))", print("[-a * !-b]", compileOptions));
+        Assert.assertEquals("*(+(a, b), .(f(1, x), c, d))", print("[(a + b) * f(1, x).c.d]", compileOptions));
+        Assert.assertEquals(";(5(kg), @(g(), \"0.0\", \"en\"))", print("[5kg; g() @ \"0.0\" : \"en\";]", compileOptions));
+    }
+
+    /**
+     * Prints the tree of the only expression in the specified document.
+     */
+    private static String print(String document, CompileOptions options) {
+        ParseTreeNode root = new Parser(new Lexer(options).scan(document)).parse();
+        Assert.assertNotNull(root);
+        Assert.assertEquals(1, root.getChildren().size());
+
+        StringBuilder builder = new StringBuilder();
+        print(root.getChildren().get(0), builder);
+        return builder.toString();
+    }
+
+    private static void print(ParseTreeNode node, StringBuilder builder) {
+        builder.append(node.getToken().getText());
+        if (!node.getChildren().isEmpty() || node.getToken().getType() == TokenType.FUNCTION_CALL) {
+            builder.append('(');
+            for (int c = 0; c < node.getChildren().size(); c++) {
+                if (c > 0) {
+                    builder.append(", ");
+                }
+                print(node.getChildren().get(c), builder);
+            }
+            builder.append(')');
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+
+public final class PeepholeOptimizerUnitTest {
+    @Test
+    public void testSuperinstructions() {
+        int[] code = {
+            ByteCode.Op.IDENTIFIER.ordinal(), 0, ByteCode.Op.FLOAT.ordinal(), 0, ByteCode.Op.GREATER.ordinal(),
+            ByteCode.Op.IDENTIFIER.ordinal(), 1, ByteCode.Op.IDENTIFIER.ordinal(), 2, ByteCode.Op.MUL_DD.ordinal(),
+            ByteCode.Op.INT.ordinal(), 2, ByteCode.Op.ADD.ordinal(),
+            ByteCode.Op.OBJECT_OR_MEMBER.ordinal(), 3, ByteCode.Op.OBJECT_OR_MEMBER.ordinal(), 4, ByteCode.Op.DOT.ordinal(), 2,
+        };
+        int[] fused = PeepholeOptimizer.optimize(code);
+
+        // Only the first operation of each sequence is replaced
+        Assert.assertEquals(code.length, fused.length);
+        Assert.assertEquals(ByteCode.Op.IDENTIFIER_FLOAT_OPERATION.ordinal(), fused[0]);
+        Assert.assertEquals(ByteCode.Op.IDENTIFIER_IDENTIFIER_OPERATION.ordinal(), fused[5]);
+        Assert.assertEquals(ByteCode.Op.INT_OPERATION.ordinal(), fused[10]);
+        Assert.assertEquals(ByteCode.Op.MEMBER.ordinal(), fused[13]);
+        for (int i : new int[] {0, 5, 10, 13}) {
+            fused[i] = code[i];
+        }
+        Assert.assertArrayEquals(code, fused);
+    }
+
+    @Test
+    public void testJumpTargets() {
+        // The sequence is not fused if a jump leads into it
+        int[] code = {
+            ByteCode.Op.INT.ordinal(), 1, ByteCode.Op.JUMP.ordinal(), 6,
+            ByteCode.Op.IDENTIFIER.ordinal(), 0, ByteCode.Op.INT.ordinal(), 2, ByteCode.Op.ADD.ordinal(),
+        };
+        int[] fused = PeepholeOptimizer.optimize(code);
+        Assert.assertEquals(ByteCode.Op.IDENTIFIER.ordinal(), fused[4]);
+        Assert.assertEquals(ByteCode.Op.INT_OPERATION.ordinal(), fused[6]);
+    }
+
+    @Test
+    public void testEvaluation() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        EvaluationContext context = new EvaluationContext(null, Locale.ROOT);
+        context.getLocalVars().put("x", 0.75);
+        context.getLocalVars().put("n", 3);
+        context.getLocalVars().put("p", new Point(3, 4));
+        CompileOptions options = new CompileOptions();
+        options.setVariableType("x", double.class);
+
+        Assert.assertEquals("true 2.25 6 5 0.5 false 7.0", Compiler.compile(
+            "[x > 0.5] [x * n] [n * 2] [n + 2] [x - 0.25] [n == x] [p.x + p.y]", options).evaluate(context));
+        Assert.assertEquals("1x", Compiler.compile("[n - 2 + \"x\"]", options).evaluate(context));
+        Assert.assertNull(Compiler.compile("[null + 1]", options).evaluate(context));
+
+        // The declared type of the identifier does not match its value
+        context.getLocalVars().put("x", 7);
+        Assert.assertEquals("true 21 12", Compiler.compile("[x > 0.5] [x * n] [x + 5]", options).evaluate(context));
+    }
+}
\ No newline at end of file
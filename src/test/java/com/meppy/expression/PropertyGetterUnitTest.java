@@ -0,0 +1,118 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+public final class PropertyGetterUnitTest {
+    public static final class Item {
+        public int getCount() {
+            return 3;
+        }
+
+        public long getSize() {
+            return 1L << 40;
+        }
+
+        public double getPrice() {
+            return 2.5;
+        }
+
+        public boolean isAvailable() {
+            return true;
+        }
+
+        public char getGrade() {
+            return 'A';
+        }
+
+        public String getName() {
+            return "item";
+        }
+
+        public int getBroken() {
+            throw new IllegalStateException("broken");
+        }
+
+        private String getSecret() {
+            return "secret";
+        }
+    }
+
+    @Test
+    public void testGeneratedGetters() throws Exception {
+        // The generated getters return the same values as the reflective ones
+        Item item = new Item();
+        String[] names = {"getCount", "getSize", "getPrice", "isAvailable", "getGrade", "getName"};
+        byte[] types = {ByteCode.Frame.INT, ByteCode.Frame.LONG, ByteCode.Frame.DOUBLE, ByteCode.Frame.OBJECT, ByteCode.Frame.OBJECT, ByteCode.Frame.OBJECT};
+        for (int i = 0; i < names.length; i++) {
+            Method method = Item.class.getMethod(names[i]);
+            PropertyGetter getter = PropertyGetter.create(method);
+            Assert.assertNotEquals(names[i], PropertyGetter.createReflective(method).getClass(), getter.getClass());
+            Assert.assertEquals(names[i], types[i], getter.getType());
+            Assert.assertEquals(names[i], method.invoke(item), getter.get(item));
+            Assert.assertEquals(names[i], PropertyGetter.createReflective(method).get(item), getter.get(item));
+        }
+
+        Assert.assertEquals(3, PropertyGetter.create(Item.class.getMethod("getCount")).getInt(item));
+        Assert.assertEquals(1L << 40, PropertyGetter.create(Item.class.getMethod("getSize")).getLong(item));
+        Assert.assertEquals(2.5, PropertyGetter.create(Item.class.getMethod("getPrice")).getDouble(item), 0);
+        Assert.assertEquals(3, PropertyGetter.createReflective(Item.class.getMethod("getCount")).getInt(item));
+    }
+
+    @Test
+    public void testExceptions() throws Exception {
+        // The generated getters report the exceptions the same way as reflection
+        Method method = Item.class.getMethod("getBroken");
+        for (PropertyGetter getter : new PropertyGetter[] {PropertyGetter.create(method), PropertyGetter.createReflective(method)}) {
+            try {
+                getter.get(new Item());
+                Assert.fail();
+            } catch (InvocationTargetException ex) {
+                Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+            }
+
+            try {
+                getter.get("text");
+                Assert.fail();
+            } catch (IllegalArgumentException ex) {
+                // The target is not an item
+            }
+
+            try {
+                getter.get(null);
+                Assert.fail();
+            } catch (NullPointerException ex) {
+                // There is no target
+            }
+        }
+    }
+
+    @Test
+    public void testPrivateGetters() throws Exception {
+        // Getters, which cannot be linked, are called through reflection
+        Method method = Item.class.getDeclaredMethod("getSecret");
+        method.setAccessible(true);
+        PropertyGetter getter = PropertyGetter.create(method);
+        Assert.assertEquals(PropertyGetter.createReflective(method).getClass(), getter.getClass());
+        Assert.assertEquals("secret", getter.get(new Item()));
+    }
+
+    @Test
+    public void testUnboxedMembers() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // The members are read unboxed by the interpreter and boxed by the other backends
+        EvaluationContext context = new EvaluationContext(new Item(), Locale.ROOT);
+        context.getLocalVars().put("item", new Item());
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            Assert.assertEquals(backend.toString(), 7.5, Compiler.compile("[item.count * item.price]", options).evaluate(context));
+            Assert.assertEquals(backend.toString(), (1L << 40) + 3, Compiler.compile("[item.size + count]", options).evaluate(context));
+            Assert.assertEquals(backend.toString(), 3, Compiler.compile("[item.count]", options).evaluate(context));
+            Assert.assertEquals(backend.toString(), true, Compiler.compile("[item.name == \"item\" && item.count > 2]", options).evaluate(context));
+        }
+    }
+}
\ No newline at end of file
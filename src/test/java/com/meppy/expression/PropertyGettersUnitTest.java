@@ -0,0 +1,113 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+
+public final class PropertyGettersUnitTest {
+    public static class Base {
+        public int getValue() {
+            return 1;
+        }
+    }
+
+    public static final class Derived extends Base {
+        private String getSecret() {
+            return "secret";
+        }
+    }
+
+    @Test
+    public void testGetters() throws InvocationTargetException, IllegalAccessException {
+        PropertyGetter getter = PropertyGetters.getPublic(Derived.class, "value");
+        Assert.assertEquals(1, getter.get(new Derived()));
+        Assert.assertSame(getter, PropertyGetters.getPublic(Derived.class, "value"));
+        Assert.assertSame(getter, PropertyGetters.get(Derived.class, "value"));
+
+        // The getters declared by the class itself are not public
+        Assert.assertNull(PropertyGetters.getPublic(Derived.class, "secret"));
+        Assert.assertEquals("secret", PropertyGetters.get(Derived.class, "secret").get(new Derived()));
+
+        Assert.assertNull(PropertyGetters.get(Derived.class, "missing"));
+        Assert.assertNull(PropertyGetters.get(Derived.class, "missing"));
+    }
+
+    @Test
+    public void testMissingProperties() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Missing members are evaluated by the context on each evaluation
+        int[] calls = new int[1];
+        EvaluationContext context = new EvaluationContext(new Derived(), Locale.ROOT) {
+            @Override
+            protected Object evaluateMember(Object target, String name, boolean last) {
+                calls[0]++;
+                return name.length();
+            }
+        };
+        ByteCode code = Compiler.compile("[this.value + this.missing]");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(8, code.evaluate(context));
+        }
+        Assert.assertEquals(3, calls[0]);
+
+        try {
+            Compiler.compile("[missing]").evaluate(context);
+            Assert.fail();
+        } catch (NoSuchMethodException ex) {
+            Assert.assertEquals(Derived.class.getName() + ".getMissing()", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testClassUnloading() throws Exception {
+        // The cached getters do not keep the classes loaded
+        WeakReference<Class<?>> reference = loadAndAccess();
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(reference.get());
+    }
+
+    private static WeakReference<Class<?>> loadAndAccess() throws Exception {
+        Class<?> type = new IsolatedClassLoader().loadClass(Base.class.getName());
+        Assert.assertNotSame(Base.class, type);
+        Assert.assertNotNull(PropertyGetters.getPublic(type, "value"));
+        Assert.assertNull(PropertyGetters.get(type, "missing"));
+        return new WeakReference<>(type);
+    }
+
+    /**
+     * Loads its own copy of the {@link Base} class.
+     */
+    private static final class IsolatedClassLoader extends ClassLoader {
+        IsolatedClassLoader() {
+            super(PropertyGettersUnitTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(Base.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+
+            String resource = name.replace('.', '/') + ".class";
+            try (InputStream input = getParent().getResourceAsStream(resource)) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, count);
+                }
+                return defineClass(name, output.toByteArray(), 0, output.size());
+            } catch (IOException ex) {
+                throw new ClassNotFoundException(name, ex);
+            }
+        }
+    }
+}
\ No newline at end of file
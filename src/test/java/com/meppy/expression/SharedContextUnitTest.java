@@ -0,0 +1,128 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public final class SharedContextUnitTest {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 100000;
+
+    /**
+     * The number of different values read by each thread.
+     */
+    private static final int VALUES = 500;
+
+    /**
+     * The value read by the expressions, which is different on each thread.
+     */
+    private static final ThreadLocal<Double> VALUE = ThreadLocal.withInitial(() -> 0.0);
+
+    public static final class Input {
+        public double getValue() {
+            return VALUE.get();
+        }
+
+        public Item getItem() {
+            return VALUE.get() % 2 < 1 ? new Item("even") : new Item("odd");
+        }
+    }
+
+    public static final class Item {
+        private final String name;
+
+        Item(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Test
+    public void testConcurrentEvaluation() throws Exception {
+        // All threads evaluate the same code in the same context, while their formatters and random numbers are kept apart
+        VariableSchema schema = new VariableSchema("factor");
+        VariableContext shared = new VariableContext(schema, new Input(), Locale.GERMANY);
+        shared.set(0, 3);
+        shared.getLocalVars().put("input", new Input());
+        shared.share();
+        Assert.assertTrue(shared.isShared());
+
+        List<ByteCode> codes = new ArrayList<>();
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            options.setVariableSchema(schema);
+            codes.add(Compiler.compile("[str(value * 1000.5)] [cdbl(str(value)) * factor] [input.item.name] " +
+                "[value * 12345.678 @ #,##0.00] [cdate(value * 1e12) @ dd.MM.yyyy] [ucase(\"x\" + cstr(value))]", options));
+        }
+
+        // The expected results are evaluated in advance by a single thread, in a context used by this thread only
+        Object[][][] expected = new Object[THREADS][VALUES][codes.size()];
+        VariableContext own = new VariableContext(schema, new Input(), Locale.GERMANY);
+        own.set(0, 3);
+        own.getLocalVars().put("input", new Input());
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < VALUES; i++) {
+                VALUE.set(getValue(t, i));
+                for (int c = 0; c < codes.size(); c++) {
+                    expected[t][i][c] = codes.get(c).evaluate(own);
+                }
+            }
+        }
+
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    barrier.await();
+                    int evaluations = 0;
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        VALUE.set(getValue(thread, i));
+                        for (int c = 0; c < codes.size(); c++) {
+                            Assert.assertEquals(expected[thread][i % VALUES][c], codes.get(c).evaluate(shared));
+                            evaluations++;
+                        }
+
+                        double random = (Double) shared.invokeFunction("rnd", 1);
+                        Assert.assertEquals(random, shared.invokeFunction("rnd", 0));
+                    }
+                    return evaluations;
+                }));
+            }
+
+            for (Future<Integer> result : results) {
+                Assert.assertEquals(ITERATIONS * codes.size(), (int) result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static double getValue(int thread, int i) {
+        i %= VALUES;
+        return thread * 1000 + i + 0.25 * (i % 4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSharedVariables() {
+        // The slots of a shared context cannot be changed, since other threads might be reading them
+        VariableContext context = new VariableContext(new VariableSchema("x"));
+        context.set(0, 1);
+        context.share();
+        context.set(0, 2);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.meppy.expression;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+
+public final class VariableContextUnitTest {
+    private static final VariableSchema schema = new VariableSchema("x", "n", "total", "name");
+
+    @Test
+    public void testSchema() {
+        Assert.assertEquals(4, schema.size());
+        Assert.assertEquals(2, schema.getSlot("total"));
+        Assert.assertEquals(-1, schema.getSlot("missing"));
+        Assert.assertEquals("name", schema.getName(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateVariable() {
+        new VariableSchema("x", "y", "x");
+    }
+
+    @Test
+    public void testCompiledWithSchema() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        VariableContext context = new VariableContext(schema);
+        context.getLocalVars().put("k", 10);
+
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            options.setVariableSchema(schema);
+            options.setVariableType("x", double.class);
+            ByteCode code = Compiler.compile("[x * n + k] [total + 1] [name + \"!\"] [x > 0.5 && n == 3]", options);
+
+            // The same context is reused with new values
+            context.set(0, 0.75);
+            context.set(1, 3);
+            context.set(2, 5000000000L);
+            context.set(3, (Object) "a");
+            Assert.assertEquals(backend.toString(), "12.25 5000000001 a! true", code.evaluate(context));
+
+            context.set(0, 0.25);
+            context.set(1, 4L);
+            context.set("total", 2.5);
+            context.set("name", "b");
+            Assert.assertEquals(backend.toString(), "11.0 3.5 b! false", code.evaluate(context));
+
+            context.set("name", null);
+            Assert.assertEquals(backend.toString(), true, Compiler.compile("[isNull(name)]", options).evaluate(context));
+        }
+    }
+
+    @Test
+    public void testBind() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            ByteCode code = Compiler.compile("[x + n * 2]", options);
+            ByteCode bound = code.bind(schema);
+            Assert.assertNotSame(code, bound);
+            Assert.assertEquals(code.getIdentifiers(), bound.getIdentifiers());
+
+            VariableContext context = new VariableContext(schema);
+            context.set(0, 1.5);
+            context.set(1, 2);
+            Assert.assertEquals(backend.toString(), 5.5, bound.evaluate(context));
+
+            // The unbound code reads the slots by the names of the variables
+            Assert.assertEquals(backend.toString(), 5.5, code.evaluate(context));
+
+            // Other contexts evaluate the variables by name
+            EvaluationContext other = new EvaluationContext();
+            other.getLocalVars().put("x", 1);
+            other.getLocalVars().put("n", 1);
+            Assert.assertEquals(backend.toString(), 3, bound.evaluate(other));
+            Assert.assertEquals(backend.toString(), 3, bound.bind(null).evaluate(other));
+        }
+    }
+
+    @Test
+    public void testUnsetVariables() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        for (Backend backend : Backend.values()) {
+            CompileOptions options = new CompileOptions();
+            options.setBackend(backend);
+            options.setVariableSchema(schema);
+            ByteCode code = Compiler.compile("[x + n]", options);
+
+            // Unset variables are evaluated like other identifiers
+            VariableContext context = new VariableContext(schema);
+            context.getLocalVars().put("x", 1);
+            context.set(1, 2);
+            Assert.assertEquals(backend.toString(), 3, code.evaluate(context));
+            context.set(0, 4);
+            Assert.assertEquals(backend.toString(), 6, code.evaluate(context));
+            context.clear(0);
+            Assert.assertEquals(backend.toString(), 3, code.evaluate(context));
+
+            // The slots of a context with a different schema are read by name
+            VariableContext different = new VariableContext(new VariableSchema("n", "x"));
+            different.set(0, 10);
+            different.set(1, 20);
+            Assert.assertEquals(backend.toString(), 30, code.evaluate(different));
+        }
+    }
+
+    @Test(expected = EvaluationException.class)
+    public void testUndeclaredVariable() {
+        new VariableContext(schema).set("missing", 1);
+    }
+
+    @Test
+    public void testInterpreterAllocations() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
+        // Numbers set to the slots are not boxed by the interpreter
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+
+        CompileOptions options = new CompileOptions();
+        options.setVariableSchema(schema);
+        ByteCode code = Compiler.compile("[x * 2 + n > total || x < total - n]", options);
+        VariableContext context = new VariableContext(schema);
+        context.set(0, 1.5);
+        context.set(1, 3);
+        context.set(2, 7.0);
+        code.evaluate(context);
+
+        int count = 10000;
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < count; i++) {
+            context.set(0, i * 0.5);
+            code.evaluate(context);
+        }
+        Assert.assertEquals(0, (allocations.getThreadAllocatedBytes(thread) - before) / count);
+    }
+}
\ No newline at end of file